@@ -28,11 +28,13 @@ import java.util.jar.Manifest;
 import ccre.channel.BooleanInputPoll;
 import ccre.channel.BooleanOutput;
 import ccre.channel.EventInput;
+import ccre.channel.EventOutput;
 import ccre.channel.EventStatus;
 import ccre.channel.FloatInputPoll;
 import ccre.channel.FloatOutput;
 import ccre.channel.SerialIO;
 import ccre.cluck.Cluck;
+import ccre.concurrency.EventLoop;
 import ccre.ctrl.BooleanMixing;
 import ccre.ctrl.CommunicationFailureExtendedMotor;
 import ccre.ctrl.ExtendedMotor;
@@ -91,6 +93,17 @@ public final class MainIgneousLauncherImpl extends RobotBase implements IgneousL
      */
     private Compressor pcmCompressor;
 
+    /**
+     * Start the active mode, on the active EventLoop if there is one.
+     */
+    private final EventOutput startMode = () -> activeMode.start(this);
+
+    /**
+     * Run one iteration of the active mode, on the active EventLoop if there
+     * is one.
+     */
+    private final EventOutput periodicMode = () -> activeMode.periodic(this);
+
     private Mode activeMode;
 
     private final EventStatus[] startEvents, duringEvents;
@@ -210,7 +223,7 @@ public final class MainIgneousLauncherImpl extends RobotBase implements IgneousL
             Mode newmode = calcMode();
             if (newmode != activeMode) {
                 activeMode = newmode;
-                activeMode.start(this);
+                EventLoop.invokeOnActive(startMode);
             }
             if (m_ds.isNewControlData()) {
                 switch (activeMode) {
@@ -227,7 +240,7 @@ public final class MainIgneousLauncherImpl extends RobotBase implements IgneousL
                     FRCNetworkCommunicationsLibrary.FRCNetworkCommunicationObserveUserProgramTest();
                     break;
                 }
-                activeMode.periodic(this);
+                EventLoop.invokeOnActive(periodicMode);
             }
             m_ds.waitForData();
         }
@@ -33,11 +33,13 @@ import java.util.jar.Manifest;
 import ccre.channel.BooleanInputPoll;
 import ccre.channel.BooleanOutput;
 import ccre.channel.EventInput;
+import ccre.channel.EventOutput;
 import ccre.channel.EventStatus;
 import ccre.channel.FloatInputPoll;
 import ccre.channel.FloatOutput;
 import ccre.channel.SerialIO;
 import ccre.cluck.Cluck;
+import ccre.concurrency.EventLoop;
 import ccre.ctrl.BooleanMixing;
 import ccre.ctrl.CommunicationFailureExtendedMotor;
 import ccre.ctrl.ExtendedMotor;
@@ -129,7 +131,8 @@ public final class DirectIgneousLauncherImpl implements IgneousLauncher {
             Mode newmode = calcMode(controlWord);
             if (newmode != activeMode) {
                 activeMode = newmode;
-                activeMode.start(this, controlWord.getFMSAttached());
+                onFMS = controlWord.getFMSAttached();
+                EventLoop.invokeOnActive(startMode);
             }
             if (DirectDriverStation.isNewControlData()) {
                 switch (activeMode) {
@@ -146,7 +149,7 @@ public final class DirectIgneousLauncherImpl implements IgneousLauncher {
                     FRCNetworkCommunicationsLibrary.FRCNetworkCommunicationObserveUserProgramTest();
                     break;
                 }
-                activeMode.periodic(this);
+                EventLoop.invokeOnActive(periodicMode);
             }
             try {
                 DirectDriverStation.waitForData();
@@ -169,6 +172,22 @@ public final class DirectIgneousLauncherImpl implements IgneousLauncher {
      */
     private ByteBuffer pcmCompressor;
 
+    /**
+     * If the FMS was attached when the current mode started.
+     */
+    private boolean onFMS;
+
+    /**
+     * Start the active mode, on the active EventLoop if there is one.
+     */
+    private final EventOutput startMode = () -> activeMode.start(this, onFMS);
+
+    /**
+     * Run one iteration of the active mode, on the active EventLoop if there
+     * is one.
+     */
+    private final EventOutput periodicMode = () -> activeMode.periodic(this);
+
     private Mode activeMode = Mode.DISABLED;
 
     private final EventStatus[] startEvents, duringEvents;
@@ -65,6 +65,19 @@ public class IgneousStorageProvider extends StorageProvider {
         return fc.exists() ? fc.openInputStream() : null;
     }
 
+    protected boolean deleteFile(String name) throws IOException {
+        FileConnection fc = (FileConnection) Connector.open("file:///" + name, Connector.READ_WRITE);
+        try {
+            if (!fc.exists()) {
+                return false;
+            }
+            fc.delete();
+            return true;
+        } finally {
+            fc.close();
+        }
+    }
+
     protected InputStream openInputFile_Custom(String name) throws IOException {
         // Testing needed before being put into production!
         // Should actually throw IOException if file found but could not be opened.
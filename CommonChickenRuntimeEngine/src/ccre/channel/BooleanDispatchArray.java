@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.channel;
+
+import ccre.time.Clock;
+
+/**
+ * A list of BooleanOutputs that are all set together. Setting it loops over
+ * the current list without locking or allocating anything. Targets can be
+ * added and removed at any time, including while it is being set.
+ *
+ * @author skeggsc
+ */
+public final class BooleanDispatchArray extends DispatchArray implements BooleanOutput {
+
+    private static final long serialVersionUID = 6026532409813866153L;
+
+    /**
+     * Add a BooleanOutput to the list.
+     *
+     * @param output The output to add.
+     */
+    public void add(BooleanOutput output) {
+        addTarget(output);
+    }
+
+    /**
+     * Add a BooleanOutput to the list, unless it is already there.
+     *
+     * @param output The output to add.
+     * @return if the output was added.
+     */
+    public boolean addIfNotFound(BooleanOutput output) {
+        return addTargetIfNotFound(output);
+    }
+
+    /**
+     * Remove a BooleanOutput from the list.
+     *
+     * @param output The output to remove.
+     * @return if the output was in the list.
+     */
+    public boolean remove(BooleanOutput output) {
+        return removeTarget(output);
+    }
+
+    /**
+     * Set all of the BooleanOutputs in the list to the specified value.
+     *
+     * @param value The value to set them to.
+     */
+    public void set(boolean value) {
+        Object[] outputs = targets;
+        DispatchProfiler p = profiler;
+        if (p != null) {
+            setProfiled(outputs, p, value);
+            return;
+        }
+        for (int i = 0; i < outputs.length; i++) {
+            ((BooleanOutput) outputs[i]).set(value);
+        }
+    }
+
+    private void setProfiled(Object[] outputs, DispatchProfiler p, boolean value) {
+        DispatchProfiler.Profile[] profiles = profilesFor(outputs, p);
+        DispatchProfiler.Profile slowest = null;
+        long slowestDuration = 0;
+        long start = Clock.nanos(), last = start;
+        for (int i = 0; i < outputs.length; i++) {
+            ((BooleanOutput) outputs[i]).set(value);
+            long now = Clock.nanos();
+            profiles[i].record(now - last);
+            if (now - last > slowestDuration) {
+                slowestDuration = now - last;
+                slowest = profiles[i];
+            }
+            last = now;
+        }
+        p.recordDispatch(last - start, slowest, slowestDuration);
+    }
+}
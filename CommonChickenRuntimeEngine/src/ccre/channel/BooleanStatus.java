@@ -20,12 +20,10 @@ package ccre.channel;
 
 import java.io.Serializable;
 
-import ccre.concurrency.ConcurrentDispatchArray;
 import ccre.ctrl.BooleanMixing;
 import ccre.rconf.RConf.Entry;
 import ccre.rconf.RConf;
 import ccre.rconf.RConfable;
-import ccre.util.CArrayUtils;
 
 /**
  * A virtual node that is both a BooleanOutput and a BooleanInput. You can
@@ -44,7 +42,7 @@ public class BooleanStatus implements BooleanOutput, BooleanInput, RConfable, Se
      *
      * @see #set(boolean)
      */
-    private boolean value;
+    private volatile boolean value;
     /**
      * The list of all the BooleanOutputs to modify when this BooleanStatus
      * changes value.
@@ -52,7 +50,25 @@ public class BooleanStatus implements BooleanOutput, BooleanInput, RConfable, Se
      * @see #send(ccre.channel.BooleanOutput)
      * @see #unsend(ccre.channel.BooleanOutput)
      */
-    private ConcurrentDispatchArray<BooleanOutput> consumers = null;
+    private volatile BooleanDispatchArray consumers = null;
+    /**
+     * Incremented each time that the value changes, so that set can tell if
+     * another thread changed the value while it was notifying the consumers.
+     */
+    private int changes = 0;
+    /**
+     * The DeferredPropagation that this status is deferred to, or null if
+     * consumers are notified immediately.
+     */
+    private transient volatile DeferredPropagation.Entry deferred;
+    /**
+     * The profiler for the consumers, or null.
+     */
+    private transient DispatchProfiler profiler;
+    /**
+     * The value that the consumers were last notified of, while deferred.
+     */
+    private boolean propagated;
     /**
      * The cached EventOutput that sets the current value to true. Use
      * getSetTrueEvent() instead, because this might be null.
@@ -100,7 +116,7 @@ public class BooleanStatus implements BooleanOutput, BooleanInput, RConfable, Se
      * @param target The BooleanOutput to automatically update.
      */
     public BooleanStatus(BooleanOutput target) {
-        consumers = new ConcurrentDispatchArray<BooleanOutput>();
+        consumers = new BooleanDispatchArray();
         consumers.add(target);
         target.set(false);
     }
@@ -115,8 +131,9 @@ public class BooleanStatus implements BooleanOutput, BooleanInput, RConfable, Se
      * @param targets The BooleanOutputs to automatically update.
      */
     public BooleanStatus(BooleanOutput... targets) {
-        consumers = new ConcurrentDispatchArray<BooleanOutput>(CArrayUtils.asList(targets));
+        consumers = new BooleanDispatchArray();
         for (BooleanOutput t : targets) {
+            consumers.add(t);
             t.set(false);
         }
     }
@@ -211,28 +228,138 @@ public class BooleanStatus implements BooleanOutput, BooleanInput, RConfable, Se
      * @see #set(boolean)
      */
     public boolean hasConsumers() {
-        return consumers != null && !consumers.isEmpty();
+        BooleanDispatchArray c = consumers;
+        return c != null && !c.isEmpty();
     }
 
-    public final synchronized void set(boolean value) {
-        if (this.value == value) {
+    /**
+     * Set the value of this BooleanStatus, and notify the consumers if it
+     * changed.
+     *
+     * The consumers are notified without holding the lock on this
+     * BooleanStatus. If another thread changes the value while they are being
+     * notified, they are notified again, so that the last value that they see
+     * is always the current value.
+     *
+     * @param value The new value.
+     */
+    public final void set(boolean value) {
+        int changed;
+        DeferredPropagation.Entry d;
+        synchronized (this) {
+            if (this.value == value) {
+                return;
+            }
+            this.value = value;
+            changed = ++changes;
+            d = deferred;
+        }
+        if (d != null) {
+            d.owner.mark(d);
             return;
         }
-        this.value = value;
-        if (consumers != null) {
-            for (BooleanOutput output : consumers) {
-                output.set(value);
+        notifyConsumers(value, changed);
+    }
+
+    private void notifyConsumers(boolean value, int changed) {
+        while (true) {
+            BooleanDispatchArray c = consumers;
+            if (c == null) {
+                return;
+            }
+            c.set(value);
+            synchronized (this) {
+                if (changes == changed) {
+                    return;
+                }
+                value = this.value;
+                changed = changes;
+            }
+        }
+    }
+
+    /**
+     * Defer notifying the consumers of this BooleanStatus until the specified
+     * DeferredPropagation is flushed, or go back to notifying them immediately
+     * if it is null. Either way, get always returns the latest value.
+     *
+     * @param propagation The DeferredPropagation, or null.
+     * @see DeferredPropagation
+     */
+    public void setDeferred(DeferredPropagation propagation) {
+        boolean current;
+        boolean stale;
+        DeferredPropagation.Entry entry = propagation == null ? null : new DeferredPropagation.Entry(propagation) {
+            @Override
+            void propagate() {
+                propagateDeferred(this);
+            }
+        };
+        synchronized (this) {
+            stale = deferred != null && value != propagated;
+            current = value;
+            deferred = entry;
+            if (entry == null || !stale) {
+                propagated = current;
+            }
+        }
+        if (stale) {
+            // Changes were still waiting to be flushed.
+            if (entry != null) {
+                propagation.mark(entry);
+            } else {
+                BooleanDispatchArray c = consumers;
+                if (c != null) {
+                    c.set(current);
+                }
             }
         }
     }
 
-    public final synchronized boolean get() {
+    /**
+     * @return whether or not this is deferred to a DeferredPropagation.
+     * @see #setDeferred(ccre.channel.DeferredPropagation)
+     */
+    public boolean isDeferred() {
+        return deferred != null;
+    }
+
+    private void propagateDeferred(DeferredPropagation.Entry entry) {
+        boolean current;
+        synchronized (this) {
+            if (deferred != entry || value == propagated) {
+                return;
+            }
+            current = value;
+            propagated = current;
+        }
+        BooleanDispatchArray c = consumers;
+        if (c != null) {
+            c.set(current);
+        }
+    }
+
+    public final boolean get() {
         return value;
     }
 
+    /**
+     * Time each consumer whenever this notifies its consumers, and report the
+     * times to the specified profiler.
+     *
+     * @param profiler The profiler, or null to stop profiling.
+     */
+    public synchronized void setProfiler(DispatchProfiler profiler) {
+        this.profiler = profiler;
+        if (consumers != null) {
+            consumers.setProfiler(profiler);
+        }
+    }
+
     public synchronized void send(BooleanOutput output) {
         if (consumers == null) {
-            consumers = new ConcurrentDispatchArray<BooleanOutput>();
+            consumers = new BooleanDispatchArray();
+            consumers.setProfiler(profiler);
         }
         consumers.add(output);
         output.set(value);
@@ -287,7 +414,8 @@ public class BooleanStatus implements BooleanOutput, BooleanInput, RConfable, Se
     }
 
     public Entry[] queryRConf() {
-        return new Entry[] { RConf.fieldBoolean(get()), RConf.button("toggle"), RConf.fieldInteger(consumers == null ? 0 : consumers.size()) };
+        BooleanDispatchArray c = consumers;
+        return new Entry[] { RConf.fieldBoolean(get()), RConf.button("toggle"), RConf.fieldInteger(c == null ? 0 : c.size()) };
     }
 
     public boolean signalRConf(int field, byte[] data) {
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.channel;
+
+import ccre.log.Logger;
+
+/**
+ * A way to batch up changes to FloatStatuses and BooleanStatuses, so that
+ * their consumers are only notified once per tick.
+ *
+ * Normally, each set call on a status immediately notifies all of its
+ * consumers, so a value that changes three times in a tick runs everything
+ * downstream three times, and a status that depends on two others is updated
+ * once for each of them. When a status is deferred to a DeferredPropagation
+ * with setDeferred, set only records the new value (which get returns right
+ * away), and the consumers are notified of the final value when this is
+ * fired, usually at the end of each tick.
+ *
+ * Deferred statuses are flushed so that each one is flushed after any
+ * deferred statuses that feed into it, and so notifies its consumers once.
+ * The order is learned as the statuses are flushed: the first time that a
+ * status is found to depend on another, it might be flushed twice.
+ *
+ * @author skeggsc
+ * @see FloatStatus#setDeferred(ccre.channel.DeferredPropagation)
+ * @see BooleanStatus#setDeferred(ccre.channel.DeferredPropagation)
+ */
+public final class DeferredPropagation implements EventOutput {
+
+    /**
+     * The most statuses that can be flushed by one flush, which stops a
+     * feedback loop between deferred statuses from running forever.
+     */
+    public static final int MAXIMUM_FLUSH_LENGTH = 10000;
+
+    /**
+     * A deferred status, as seen by its DeferredPropagation.
+     */
+    abstract static class Entry {
+
+        final DeferredPropagation owner;
+        /**
+         * How far downstream this status is: it is flushed after anything
+         * with a lower rank. Protected by owner.
+         */
+        int rank = 0;
+        /**
+         * If this is waiting to be flushed. Protected by owner.
+         */
+        boolean dirty = false;
+
+        Entry(DeferredPropagation owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * Notify the consumers of the status about its current value.
+         */
+        abstract void propagate();
+    }
+
+    private Entry[] dirty = new Entry[16];
+    private int dirtyCount = 0;
+    /**
+     * The thread running flush, or null.
+     */
+    private Thread flushing = null;
+    /**
+     * The rank of the status being flushed, or -1.
+     */
+    private int flushingRank = -1;
+    private int writes = 0, propagations = 0;
+
+    /**
+     * Create a new DeferredPropagation that flushes whenever it is fired.
+     */
+    public DeferredPropagation() {
+    }
+
+    /**
+     * Create a new DeferredPropagation that flushes whenever the specified
+     * event is produced.
+     *
+     * @param flushWhen when to flush.
+     */
+    public DeferredPropagation(EventInput flushWhen) {
+        flushWhen.send(this);
+    }
+
+    /**
+     * Record that the specified status has changed.
+     *
+     * @param entry The status.
+     */
+    synchronized void mark(Entry entry) {
+        writes++;
+        if (flushing == Thread.currentThread() && entry.rank <= flushingRank) {
+            // It depends on the status being flushed.
+            entry.rank = flushingRank + 1;
+        }
+        if (!entry.dirty) {
+            entry.dirty = true;
+            if (dirtyCount == dirty.length) {
+                Entry[] bigger = new Entry[dirty.length * 2];
+                System.arraycopy(dirty, 0, bigger, 0, dirtyCount);
+                dirty = bigger;
+            }
+            dirty[dirtyCount++] = entry;
+        }
+    }
+
+    /**
+     * Flush the changed statuses, notifying the consumers of each one.
+     */
+    public void event() {
+        flush();
+    }
+
+    /**
+     * Flush the changed statuses, notifying the consumers of each one. Changes
+     * made to deferred statuses by the consumers are flushed too, before this
+     * returns. Calls from consumers during a flush do nothing.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (flushing != null) {
+                return;
+            }
+            flushing = Thread.currentThread();
+        }
+        try {
+            for (int count = 0;; count++) {
+                Entry next;
+                synchronized (this) {
+                    if (dirtyCount == 0) {
+                        return;
+                    }
+                    if (count >= MAXIMUM_FLUSH_LENGTH) {
+                        Logger.warning("Deferred statuses are changing each other in a loop: the rest will be flushed next time.");
+                        return;
+                    }
+                    int best = 0;
+                    for (int i = 1; i < dirtyCount; i++) {
+                        if (dirty[i].rank < dirty[best].rank) {
+                            best = i;
+                        }
+                    }
+                    next = dirty[best];
+                    dirty[best] = dirty[--dirtyCount];
+                    dirty[dirtyCount] = null;
+                    next.dirty = false;
+                    flushingRank = next.rank;
+                    propagations++;
+                }
+                next.propagate();
+            }
+        } finally {
+            synchronized (this) {
+                flushing = null;
+                flushingRank = -1;
+            }
+        }
+    }
+
+    /**
+     * @return the number of changes made to deferred statuses so far.
+     */
+    public synchronized int getWrites() {
+        return writes;
+    }
+
+    /**
+     * @return the number of times that a deferred status has notified its
+     * consumers so far.
+     */
+    public synchronized int getPropagations() {
+        return propagations;
+    }
+}
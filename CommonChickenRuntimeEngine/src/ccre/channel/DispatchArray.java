@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.channel;
+
+import java.io.Serializable;
+
+import ccre.util.CArrayUtils;
+
+/**
+ * The shared part of the dispatch arrays: a list of targets, stored as an
+ * array that is replaced whenever the list changes, so that dispatching can
+ * loop over the current array without locking or allocating anything.
+ *
+ * @author skeggsc
+ */
+abstract class DispatchArray implements Serializable {
+
+    private static final long serialVersionUID = 3279181496093185125L;
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * The current targets. Never modified once set: changes replace the whole
+     * array.
+     */
+    volatile Object[] targets = EMPTY;
+    /**
+     * The profiler that dispatches are reported to, or null.
+     */
+    transient volatile DispatchProfiler profiler;
+    /**
+     * The profiles for the current targets, so that each profiled dispatch
+     * doesn't need to look them up.
+     */
+    private transient volatile ProfileCache profileCache;
+
+    /**
+     * Add a target to the end of the list.
+     *
+     * @param target The target to add.
+     */
+    final synchronized void addTarget(Object target) {
+        if (target == null) {
+            throw new NullPointerException();
+        }
+        Object[] old = targets;
+        Object[] updated = CArrayUtils.copyOf(old, old.length + 1);
+        updated[old.length] = target;
+        targets = updated;
+    }
+
+    /**
+     * Add a target to the end of the list, unless an equal target is already
+     * in it.
+     *
+     * @param target The target to add.
+     * @return if the target was added.
+     */
+    final synchronized boolean addTargetIfNotFound(Object target) {
+        if (target == null) {
+            throw new NullPointerException();
+        }
+        Object[] old = targets;
+        for (int i = 0; i < old.length; i++) {
+            if (target.equals(old[i])) {
+                return false;
+            }
+        }
+        addTarget(target);
+        return true;
+    }
+
+    /**
+     * Remove the first target equal to the specified target.
+     *
+     * @param target The target to remove.
+     * @return if a target was removed.
+     */
+    final synchronized boolean removeTarget(Object target) {
+        Object[] old = targets;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i].equals(target)) {
+                Object[] updated = old.length == 1 ? EMPTY : new Object[old.length - 1];
+                System.arraycopy(old, 0, updated, 0, i);
+                System.arraycopy(old, i + 1, updated, i, old.length - i - 1);
+                targets = updated;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Time each target whenever this dispatches, and report the times to the
+     * specified profiler.
+     *
+     * @param profiler The profiler, or null to stop profiling.
+     */
+    public final void setProfiler(DispatchProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * @return the profiler that this reports to, or null.
+     */
+    public final DispatchProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Get the profiles for the specified targets from the specified profiler.
+     * When the targets have changed since the last profiled dispatch, the
+     * profiler forgets the targets that have been removed.
+     *
+     * @param outputs The current targets.
+     * @param p The current profiler.
+     * @return the profile for each target.
+     */
+    final DispatchProfiler.Profile[] profilesFor(Object[] outputs, DispatchProfiler p) {
+        ProfileCache cache = profileCache;
+        if (cache == null || cache.targets != outputs || cache.profiler != p) {
+            Object[] before = cache == null || cache.profiler != p ? null : cache.targets;
+            cache = new ProfileCache(outputs, p, p.updateTargets(before, outputs));
+            profileCache = cache;
+        }
+        return cache.profiles;
+    }
+
+    private static final class ProfileCache {
+
+        final Object[] targets;
+        final DispatchProfiler profiler;
+        final DispatchProfiler.Profile[] profiles;
+
+        ProfileCache(Object[] targets, DispatchProfiler profiler, DispatchProfiler.Profile[] profiles) {
+            this.targets = targets;
+            this.profiler = profiler;
+            this.profiles = profiles;
+        }
+    }
+
+    /**
+     * @return the number of targets.
+     */
+    public final int size() {
+        return targets.length;
+    }
+
+    /**
+     * @return if there are no targets.
+     */
+    public final boolean isEmpty() {
+        return targets.length == 0;
+    }
+
+    /**
+     * Remove all of the targets.
+     */
+    public final synchronized void clear() {
+        targets = EMPTY;
+    }
+}
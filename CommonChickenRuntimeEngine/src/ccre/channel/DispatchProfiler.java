@@ -0,0 +1,411 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.channel;
+
+import ccre.log.Logger;
+import ccre.rconf.RConf;
+import ccre.rconf.RConf.Entry;
+import ccre.rconf.RConfable;
+import ccre.time.Clock;
+import ccre.util.CArrayList;
+import ccre.util.CHashMap;
+
+/**
+ * A profiler for the consumers of EventStatuses, FloatStatuses, and
+ * BooleanStatuses. When a status is given a profiler with setProfiler, each of
+ * its consumers is timed every time that the status dispatches to it, and the
+ * durations are recorded in a histogram for that consumer. This finds which
+ * consumer is responsible when a periodic event takes too long.
+ *
+ * The profiler can also flag overruns: dispatches that take longer in total
+ * than a threshold. Each overrun is counted, and logged along with the
+ * slowest consumer at most once per second.
+ *
+ * A consumer's profile is dropped once the consumer has been removed from the
+ * status that it was profiled on, so that short-lived consumers don't pile up
+ * in the report.
+ *
+ * This is an RConfable, so the report can be published over Cluck with
+ * Cluck.publishRConf.
+ *
+ * @author skeggsc
+ * @see EventStatus#setProfiler(ccre.channel.DispatchProfiler)
+ */
+public final class DispatchProfiler implements RConfable {
+
+    /**
+     * The number of histogram buckets for each power of two.
+     */
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    /**
+     * The recorded durations of a single consumer.
+     */
+    public static final class Profile {
+
+        private final String name;
+        private int count;
+        private long total, minimum = Long.MAX_VALUE, maximum;
+        private final int[] histogram = new int[BUCKETS];
+        /**
+         * The last generation in which this profile's consumer was seen in a
+         * dispatch array. Protected by the profiler's lock.
+         */
+        private int generation;
+
+        Profile(String name) {
+            this.name = name;
+        }
+
+        synchronized void record(long duration) {
+            count++;
+            total += duration;
+            if (duration < minimum) {
+                minimum = duration;
+            }
+            if (duration > maximum) {
+                maximum = duration;
+            }
+            histogram[bucket(duration)]++;
+        }
+
+        synchronized void reset() {
+            count = 0;
+            total = maximum = 0;
+            minimum = Long.MAX_VALUE;
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = 0;
+            }
+        }
+
+        /**
+         * @return the name of the consumer.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of times that the consumer has been called.
+         */
+        public synchronized int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the shortest call, in nanoseconds.
+         */
+        public synchronized long getMinimum() {
+            return count == 0 ? 0 : minimum;
+        }
+
+        /**
+         * @return the average call, in nanoseconds.
+         */
+        public synchronized long getAverage() {
+            return count == 0 ? 0 : total / count;
+        }
+
+        /**
+         * @return the longest call, in nanoseconds.
+         */
+        public synchronized long getMaximum() {
+            return maximum;
+        }
+
+        /**
+         * Estimate the duration that the specified fraction of calls took no
+         * longer than. This is accurate to within a quarter of a power of two.
+         *
+         * @param fraction The fraction of calls, such as 0.99f.
+         * @return the estimated duration, in nanoseconds.
+         */
+        public synchronized long getPercentile(float fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            int needed = (int) Math.ceil(count * (double) fraction);
+            int seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= needed) {
+                    long upper = bucketUpperBound(i);
+                    return upper > maximum ? maximum : upper;
+                }
+            }
+            return maximum;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return name + ": " + count + " calls, min/avg/p99/max " + getMinimum() / 1000 + "/" + getAverage() / 1000 + "/" + getPercentile(0.99f) / 1000 + "/" + maximum / 1000 + " us";
+        }
+    }
+
+    /**
+     * Find the histogram bucket for a duration: the first SUB_BUCKETS
+     * durations each get their own bucket, and then each power of two is split
+     * into SUB_BUCKETS buckets.
+     */
+    static int bucket(long duration) {
+        if (duration < SUB_BUCKETS) {
+            return duration < 0 ? 0 : (int) duration;
+        }
+        int bits = 0;
+        long v = duration;
+        if (v >= 1L << 32) {
+            v >>>= 32;
+            bits += 32;
+        }
+        if (v >= 1L << 16) {
+            v >>>= 16;
+            bits += 16;
+        }
+        if (v >= 1L << 8) {
+            v >>>= 8;
+            bits += 8;
+        }
+        if (v >= 1L << 4) {
+            v >>>= 4;
+            bits += 4;
+        }
+        if (v >= 1L << 2) {
+            v >>>= 2;
+            bits += 2;
+        }
+        if (v >= 1L << 1) {
+            bits += 1;
+        }
+        // bits >= 2, and the top three bits of the duration pick the bucket.
+        return SUB_BUCKETS * (bits - 1) + (int) ((duration >> (bits - 2)) & (SUB_BUCKETS - 1));
+    }
+
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int bits = bucket / SUB_BUCKETS + 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (bits - 2)) - 1;
+    }
+
+    /**
+     * Wraps a consumer so that consumers are told apart by identity rather than
+     * by equality.
+     */
+    private static final class Identity {
+
+        private final Object consumer;
+
+        Identity(Object consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(consumer);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Identity && ((Identity) o).consumer == consumer;
+        }
+    }
+
+    private final String name;
+    /**
+     * The profiles in the order that they were created, for reports.
+     */
+    private final CArrayList<Profile> profiles = new CArrayList<Profile>();
+    private final CHashMap<Identity, Profile> profilesByConsumer = new CHashMap<Identity, Profile>();
+    private int generation = 0;
+    private long overrunThreshold = 0;
+    private int dispatches = 0, overruns = 0;
+    private long lastOverrunWarning = 0;
+
+    /**
+     * Create a new DispatchProfiler.
+     *
+     * @param name The name used in reports and overrun warnings.
+     */
+    public DispatchProfiler(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Flag any dispatch that takes longer than the specified time in total.
+     *
+     * @param millis The longest acceptable dispatch, in milliseconds, or zero
+     * to not flag overruns.
+     */
+    public synchronized void setOverrunThreshold(float millis) {
+        overrunThreshold = (long) (millis * 1000000);
+    }
+
+    /**
+     * Get the profile for the specified consumer, creating it if necessary.
+     * Consumers are told apart by identity.
+     *
+     * @param consumer The consumer.
+     * @return the profile.
+     */
+    public synchronized Profile getProfile(Object consumer) {
+        Identity key = new Identity(consumer);
+        Profile out = profilesByConsumer.get(key);
+        if (out == null) {
+            out = new Profile(String.valueOf(consumer));
+            profilesByConsumer.put(key, out);
+            profiles.add(out);
+        }
+        return out;
+    }
+
+    /**
+     * Drop the profile for the specified consumer, if there is one. Consumers
+     * removed from a profiled status are forgotten automatically, so this is
+     * only needed to drop a profile early.
+     *
+     * @param consumer The consumer.
+     * @return if there was a profile to drop.
+     */
+    public synchronized boolean forget(Object consumer) {
+        Profile profile = profilesByConsumer.remove(new Identity(consumer));
+        if (profile == null) {
+            return false;
+        }
+        profiles.remove(profile);
+        return true;
+    }
+
+    /**
+     * Get the profiles for the new targets of a dispatch array, and forget the
+     * consumers that were in the old targets but are not in the new ones.
+     * Called by the dispatch arrays when their targets change.
+     *
+     * @param before The old targets, or null if there weren't any profiled.
+     * @param after The new targets.
+     * @return the profile for each of the new targets.
+     */
+    synchronized Profile[] updateTargets(Object[] before, Object[] after) {
+        int current = ++generation;
+        Profile[] out = new Profile[after.length];
+        for (int i = 0; i < after.length; i++) {
+            out[i] = getProfile(after[i]);
+            out[i].generation = current;
+        }
+        if (before != null) {
+            for (int i = 0; i < before.length; i++) {
+                Profile profile = profilesByConsumer.get(new Identity(before[i]));
+                if (profile != null && profile.generation != current) {
+                    forget(before[i]);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return the profiles of every consumer seen so far.
+     */
+    public synchronized Profile[] getProfiles() {
+        Profile[] out = new Profile[profiles.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = profiles.get(i);
+        }
+        return out;
+    }
+
+    /**
+     * @return the number of dispatches recorded.
+     */
+    public synchronized int getDispatchCount() {
+        return dispatches;
+    }
+
+    /**
+     * @return the number of dispatches that took longer than the overrun
+     * threshold.
+     */
+    public synchronized int getOverrunCount() {
+        return overruns;
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset() {
+        Profile[] all;
+        synchronized (this) {
+            dispatches = overruns = 0;
+            all = getProfiles();
+        }
+        for (Profile profile : all) {
+            profile.reset();
+        }
+    }
+
+    /**
+     * Record a whole dispatch. Called by the dispatch arrays.
+     *
+     * @param duration How long the dispatch took, in nanoseconds.
+     * @param slowest The profile of the slowest consumer, or null.
+     * @param slowestDuration How long that consumer took, in nanoseconds.
+     */
+    void recordDispatch(long duration, Profile slowest, long slowestDuration) {
+        String warning = null;
+        synchronized (this) {
+            dispatches++;
+            if (overrunThreshold > 0 && duration > overrunThreshold) {
+                overruns++;
+                long now = Clock.millis();
+                if (now - lastOverrunWarning >= 1000) {
+                    lastOverrunWarning = now;
+                    warning = "[LOCAL] " + name + " overran: " + duration / 1000 + " us (" + overruns + " overruns so far)" + (slowest == null ? "" : ", slowest was " + slowest.getName() + " at " + slowestDuration / 1000 + " us");
+                }
+            }
+        }
+        if (warning != null) {
+            Logger.warning(warning);
+        }
+    }
+
+    public Entry[] queryRConf() {
+        Profile[] all = getProfiles();
+        Entry[] out = new Entry[all.length + 4];
+        out[0] = RConf.title("Profile: " + name);
+        synchronized (this) {
+            out[1] = RConf.string(dispatches + " dispatches, " + overruns + " overruns");
+        }
+        for (int i = 0; i < all.length; i++) {
+            out[i + 2] = RConf.string(all[i].toString());
+        }
+        out[all.length + 2] = RConf.button("reset");
+        out[all.length + 3] = RConf.autoRefresh(1000);
+        return out;
+    }
+
+    public boolean signalRConf(int field, byte[] data) {
+        if (field == getProfiles().length + 2) {
+            reset();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.channel;
+
+import ccre.log.Logger;
+import ccre.time.Clock;
+
+/**
+ * A list of EventOutputs that are all fired together. Firing it loops over the
+ * current list without locking or allocating anything. Targets can be added
+ * and removed at any time, including while it is being fired.
+ *
+ * @author skeggsc
+ */
+public final class EventDispatchArray extends DispatchArray implements EventOutput {
+
+    private static final long serialVersionUID = 8613700590411528447L;
+
+    /**
+     * Add an EventOutput to the list.
+     *
+     * @param output The output to add.
+     */
+    public void add(EventOutput output) {
+        addTarget(output);
+    }
+
+    /**
+     * Add an EventOutput to the list, unless it is already there.
+     *
+     * @param output The output to add.
+     * @return if the output was added.
+     */
+    public boolean addIfNotFound(EventOutput output) {
+        return addTargetIfNotFound(output);
+    }
+
+    /**
+     * Remove an EventOutput from the list.
+     *
+     * @param output The output to remove.
+     * @return if the output was in the list.
+     */
+    public boolean remove(EventOutput output) {
+        return removeTarget(output);
+    }
+
+    /**
+     * Fire all of the EventOutputs in the list.
+     */
+    public void event() {
+        Object[] outputs = targets;
+        DispatchProfiler p = profiler;
+        if (p != null) {
+            eventProfiled(outputs, p, false);
+            return;
+        }
+        for (int i = 0; i < outputs.length; i++) {
+            ((EventOutput) outputs[i]).event();
+        }
+    }
+
+    /**
+     * Fire all of the EventOutputs in the list, removing and reporting any
+     * that throw an exception.
+     *
+     * @return if any were removed.
+     */
+    public boolean eventWithFailureRecovery() {
+        Object[] outputs = targets;
+        DispatchProfiler p = profiler;
+        if (p != null) {
+            return eventProfiled(outputs, p, true);
+        }
+        boolean found = false;
+        for (int i = 0; i < outputs.length; i++) {
+            EventOutput output = (EventOutput) outputs[i];
+            try {
+                output.event();
+            } catch (Throwable thr) {
+                Logger.severe("Event Subscribed Detached: " + output, thr);
+                remove(output);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    private boolean eventProfiled(Object[] outputs, DispatchProfiler p, boolean recover) {
+        DispatchProfiler.Profile[] profiles = profilesFor(outputs, p);
+        DispatchProfiler.Profile slowest = null;
+        long slowestDuration = 0;
+        boolean found = false;
+        long start = Clock.nanos(), last = start;
+        for (int i = 0; i < outputs.length; i++) {
+            EventOutput output = (EventOutput) outputs[i];
+            try {
+                output.event();
+            } catch (RuntimeException thr) {
+                if (!recover) {
+                    throw thr;
+                }
+                Logger.severe("Event Subscribed Detached: " + output, thr);
+                remove(output);
+                found = true;
+            } catch (Error thr) {
+                if (!recover) {
+                    throw thr;
+                }
+                Logger.severe("Event Subscribed Detached: " + output, thr);
+                remove(output);
+                found = true;
+            }
+            long now = Clock.nanos();
+            profiles[i].record(now - last);
+            if (now - last > slowestDuration) {
+                slowestDuration = now - last;
+                slowest = profiles[i];
+            }
+            last = now;
+        }
+        p.recordDispatch(last - start, slowest, slowestDuration);
+        return found;
+    }
+}
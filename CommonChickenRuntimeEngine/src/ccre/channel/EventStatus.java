@@ -19,11 +19,6 @@
 package ccre.channel;
 
 import java.io.Serializable;
-import java.util.Iterator;
-
-import ccre.concurrency.ConcurrentDispatchArray;
-import ccre.log.Logger;
-import ccre.util.CArrayUtils;
 
 /**
  * An implementation of an EventInput. This can be fired using the .produce()
@@ -38,13 +33,13 @@ public class EventStatus implements EventInput, EventOutput, Serializable {
     /**
      * The events to fire when this event is fired.
      */
-    private final ConcurrentDispatchArray<EventOutput> consumers;
+    private final EventDispatchArray consumers;
 
     /**
      * Create a new Event.
      */
     public EventStatus() {
-        consumers = new ConcurrentDispatchArray<EventOutput>();
+        consumers = new EventDispatchArray();
     }
 
     /**
@@ -55,7 +50,7 @@ public class EventStatus implements EventInput, EventOutput, Serializable {
      * @see #send(ccre.channel.EventOutput)
      */
     public EventStatus(EventOutput event) {
-        consumers = new ConcurrentDispatchArray<EventOutput>();
+        consumers = new EventDispatchArray();
         consumers.add(event);
     }
 
@@ -67,8 +62,10 @@ public class EventStatus implements EventInput, EventOutput, Serializable {
      * @see #send(ccre.channel.EventOutput)
      */
     public EventStatus(EventOutput... events) {
-        consumers = new ConcurrentDispatchArray<EventOutput>();
-        consumers.addAll(CArrayUtils.asList(events));
+        consumers = new EventDispatchArray();
+        for (EventOutput event : events) {
+            consumers.add(event);
+        }
     }
 
     /**
@@ -95,15 +92,11 @@ public class EventStatus implements EventInput, EventOutput, Serializable {
      * Produce this event - fire all listenering events.
      */
     public void produce() {
-        for (EventOutput ec : consumers) {
-            ec.event();
-        }
+        consumers.event();
     }
 
     public void send(EventOutput client) {
-        if (!consumers.contains(client)) {
-            consumers.add(client);
-        }
+        consumers.addIfNotFound(client);
     }
 
     public void unsend(EventOutput client) throws IllegalStateException {
@@ -124,18 +117,17 @@ public class EventStatus implements EventInput, EventOutput, Serializable {
      * @see #produce()
      */
     public boolean produceWithFailureRecovery() {
-        boolean found = false;
-        for (Iterator<EventOutput> it = consumers.iterator(); it.hasNext();) {
-            EventOutput ec = it.next();
-            try {
-                ec.event();
-            } catch (Throwable thr) {
-                Logger.severe("Event Subscribed Detached: " + ec, thr);
-                it.remove();
-                found = true;
-            }
-        }
-        return found;
+        return consumers.eventWithFailureRecovery();
+    }
+
+    /**
+     * Time each consumer whenever this event is produced, and report the times
+     * to the specified profiler.
+     *
+     * @param profiler The profiler, or null to stop profiling.
+     */
+    public void setProfiler(DispatchProfiler profiler) {
+        consumers.setProfiler(profiler);
     }
 
     /**
@@ -20,12 +20,10 @@ package ccre.channel;
 
 import java.io.Serializable;
 
-import ccre.concurrency.ConcurrentDispatchArray;
 import ccre.ctrl.FloatMixing;
 import ccre.rconf.RConf;
 import ccre.rconf.RConf.Entry;
 import ccre.rconf.RConfable;
-import ccre.util.CArrayUtils;
 
 /**
  * A virtual node that is both a FloatOutput and a FloatInput. You can modify
@@ -50,7 +48,7 @@ public class FloatStatus implements FloatOutput, FloatInput, RConfable, Serializ
      *
      * @see #set(float)
      */
-    private float value = 0;
+    private volatile float value = 0;
 
     /**
      * The list of all the FloatOutputs to modify when this FloatStatus changes
@@ -59,7 +57,25 @@ public class FloatStatus implements FloatOutput, FloatInput, RConfable, Serializ
      * @see #send(ccre.channel.FloatOutput)
      * @see #unsend(ccre.channel.FloatOutput)
      */
-    private ConcurrentDispatchArray<FloatOutput> consumers = null;
+    private volatile FloatDispatchArray consumers = null;
+    /**
+     * Incremented each time that the value changes, so that set can tell if
+     * another thread changed the value while it was notifying the consumers.
+     */
+    private int changes = 0;
+    /**
+     * The DeferredPropagation that this status is deferred to, or null if
+     * consumers are notified immediately.
+     */
+    private transient volatile DeferredPropagation.Entry deferred;
+    /**
+     * The profiler for the consumers, or null.
+     */
+    private transient DispatchProfiler profiler;
+    /**
+     * The value that the consumers were last notified of, while deferred.
+     */
+    private float propagated;
 
     /**
      * Create a new FloatStatus with a value of zero.
@@ -86,7 +102,7 @@ public class FloatStatus implements FloatOutput, FloatInput, RConfable, Serializ
      * @param target The FloatOutput to automatically update.
      */
     public FloatStatus(FloatOutput target) {
-        consumers = new ConcurrentDispatchArray<FloatOutput>();
+        consumers = new FloatDispatchArray();
         consumers.add(target);
         target.set(0);
     }
@@ -101,13 +117,14 @@ public class FloatStatus implements FloatOutput, FloatInput, RConfable, Serializ
      * @param targets The FloatOutputs to automatically update.
      */
     public FloatStatus(FloatOutput... targets) {
-        consumers = new ConcurrentDispatchArray<FloatOutput>(CArrayUtils.asList(targets));
+        consumers = new FloatDispatchArray();
         for (FloatOutput t : targets) {
+            consumers.add(t);
             t.set(0);
         }
     }
 
-    public final synchronized float get() {
+    public final float get() {
         return value;
     }
 
@@ -120,18 +137,114 @@ public class FloatStatus implements FloatOutput, FloatInput, RConfable, Serializ
      * @see #set(float)
      */
     public boolean hasConsumers() {
-        return consumers != null && !consumers.isEmpty();
+        FloatDispatchArray c = consumers;
+        return c != null && !c.isEmpty();
+    }
+
+    /**
+     * Set the value of this FloatStatus, and notify the consumers if it
+     * changed.
+     *
+     * The consumers are notified without holding the lock on this
+     * FloatStatus. If another thread changes the value while they are being
+     * notified, they are notified again, so that the last value that they see
+     * is always the current value.
+     *
+     * @param newValue The new value.
+     */
+    public final void set(float newValue) {
+        int changed;
+        DeferredPropagation.Entry d;
+        synchronized (this) {
+            if (Float.floatToIntBits(value) == Float.floatToIntBits(newValue)) {
+                return; // Do nothing. We want to ignore the value if it's the same.
+            }
+            value = newValue;
+            changed = ++changes;
+            d = deferred;
+        }
+        if (d != null) {
+            d.owner.mark(d);
+            return;
+        }
+        notifyConsumers(newValue, changed);
     }
 
-    public final synchronized void set(float newValue) {
-        if (Float.floatToIntBits(value) == Float.floatToIntBits(newValue)) {
-            return; // Do nothing. We want to ignore the value if it's the same.
+    private void notifyConsumers(float newValue, int changed) {
+        while (true) {
+            FloatDispatchArray c = consumers;
+            if (c == null) {
+                return;
+            }
+            c.set(newValue);
+            synchronized (this) {
+                if (changes == changed) {
+                    return;
+                }
+                newValue = value;
+                changed = changes;
+            }
         }
-        value = newValue;
-        if (consumers != null) {
-            for (FloatOutput fws : consumers) {
-                fws.set(newValue);
+    }
+
+    /**
+     * Defer notifying the consumers of this FloatStatus until the specified
+     * DeferredPropagation is flushed, or go back to notifying them immediately
+     * if it is null. Either way, get always returns the latest value.
+     *
+     * @param propagation The DeferredPropagation, or null.
+     * @see DeferredPropagation
+     */
+    public void setDeferred(DeferredPropagation propagation) {
+        float current;
+        boolean stale;
+        DeferredPropagation.Entry entry = propagation == null ? null : new DeferredPropagation.Entry(propagation) {
+            @Override
+            void propagate() {
+                propagateDeferred(this);
+            }
+        };
+        synchronized (this) {
+            stale = deferred != null && Float.floatToIntBits(value) != Float.floatToIntBits(propagated);
+            current = value;
+            deferred = entry;
+            if (entry == null || !stale) {
+                propagated = current;
+            }
+        }
+        if (stale) {
+            // Changes were still waiting to be flushed.
+            if (entry != null) {
+                propagation.mark(entry);
+            } else {
+                FloatDispatchArray c = consumers;
+                if (c != null) {
+                    c.set(current);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether or not this is deferred to a DeferredPropagation.
+     * @see #setDeferred(ccre.channel.DeferredPropagation)
+     */
+    public boolean isDeferred() {
+        return deferred != null;
+    }
+
+    private void propagateDeferred(DeferredPropagation.Entry entry) {
+        float current;
+        synchronized (this) {
+            if (deferred != entry || Float.floatToIntBits(value) == Float.floatToIntBits(propagated)) {
+                return;
             }
+            current = value;
+            propagated = current;
+        }
+        FloatDispatchArray c = consumers;
+        if (c != null) {
+            c.set(current);
         }
     }
 
@@ -158,9 +271,23 @@ public class FloatStatus implements FloatOutput, FloatInput, RConfable, Serializ
         FloatMixing.setWhen(when, this, value);
     }
 
+    /**
+     * Time each consumer whenever this notifies its consumers, and report the
+     * times to the specified profiler.
+     *
+     * @param profiler The profiler, or null to stop profiling.
+     */
+    public synchronized void setProfiler(DispatchProfiler profiler) {
+        this.profiler = profiler;
+        if (consumers != null) {
+            consumers.setProfiler(profiler);
+        }
+    }
+
     public synchronized void send(FloatOutput output) {
         if (consumers == null) {
-            consumers = new ConcurrentDispatchArray<FloatOutput>();
+            consumers = new FloatDispatchArray();
+            consumers.setProfiler(profiler);
         }
         consumers.add(output);
         output.set(value);
@@ -175,7 +302,8 @@ public class FloatStatus implements FloatOutput, FloatInput, RConfable, Serializ
     }
 
     public Entry[] queryRConf() {
-        return new Entry[] { RConf.fieldFloat(get()), RConf.fieldInteger(consumers == null ? 0 : consumers.size()) };
+        FloatDispatchArray c = consumers;
+        return new Entry[] { RConf.fieldFloat(get()), RConf.fieldInteger(c == null ? 0 : c.size()) };
     }
 
     public boolean signalRConf(int field, byte[] data) {
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck;
+
+import static ccre.cluck.CluckNode.RMT_BULKSUB;
+import static ccre.cluck.CluckNode.RMT_BULKSUBRESP;
+import static ccre.cluck.CluckNode.RMT_BULKSUB_UNSUB;
+import static ccre.cluck.CluckNode.RMT_NEGATIVE_ACK;
+
+import java.util.Iterator;
+
+import ccre.channel.BooleanInput;
+import ccre.channel.EventOutput;
+import ccre.channel.FloatInput;
+import ccre.concurrency.ConcurrentDispatchMap;
+import ccre.log.Logger;
+import ccre.util.CArrayList;
+
+/**
+ * The per-node service that answers bulk subscriptions: a remote asks for a
+ * whole prefix or list of the FloatInputs and BooleanInputs published on this
+ * node with a single RMT_BULKSUB message, and gets back every change to any of
+ * them, packed into RMT_BULKSUBRESP messages once per publishing tick.
+ *
+ * Each RMT_BULKSUBRESP message is a sequence of entries. Each entry is a kind
+ * byte, a two-byte channel ID, and then either the channel name (for
+ * definitions) or the new value. The first time a channel is sent to a
+ * subscriber, it is defined and then given a value.
+ *
+ * @author skeggsc
+ */
+final class BulkSubscriptionService extends CluckSubscriber implements EventOutput {
+
+    /**
+     * The link name that this service is attached at on every node.
+     */
+    static final String LINK_NAME = "bulk-subscriptions";
+    /**
+     * A request mode: subscribe to every channel starting with a prefix.
+     */
+    static final byte MODE_PREFIX = 0;
+    /**
+     * A request mode: subscribe to every channel in a list of names.
+     */
+    static final byte MODE_LIST = 1;
+    /**
+     * An entry defining a FloatInput channel: followed by a two-byte length
+     * and the name.
+     */
+    static final byte ENTRY_DEFINE_FLOAT = 0;
+    /**
+     * An entry defining a BooleanInput channel: followed by a two-byte length
+     * and the name.
+     */
+    static final byte ENTRY_DEFINE_BOOLEAN = 1;
+    /**
+     * An entry updating a FloatInput channel: followed by the four-byte value.
+     */
+    static final byte ENTRY_FLOAT = 2;
+    /**
+     * An entry updating a BooleanInput channel: followed by a single byte.
+     */
+    static final byte ENTRY_BOOLEAN = 3;
+    /**
+     * Once an outgoing message gets this long, it is sent and another one is
+     * started, so that a large subscription doesn't become one huge message.
+     */
+    static final int MAX_MESSAGE_LENGTH = 1024;
+    /**
+     * The most channels that can be published through this service.
+     */
+    static final int MAX_CHANNELS = 65536;
+
+    /**
+     * Every channel published on this node, indexed by channel ID. Replaced
+     * whenever a new channel is registered.
+     */
+    private volatile Channel[] channels = new Channel[0];
+    /**
+     * The active subscriptions, by the path of the remote subscriber.
+     */
+    private final ConcurrentDispatchMap<String, Session> sessions = new ConcurrentDispatchMap<String, Session>();
+    private boolean polling = false;
+
+    BulkSubscriptionService(CluckNode node) {
+        super(node);
+        attach(LINK_NAME);
+    }
+
+    /**
+     * Make a FloatInput available to bulk subscriptions.
+     *
+     * @param name The name that the input is published under.
+     * @param input The input.
+     */
+    void register(String name, FloatInput input) {
+        addChannel(name, input, null);
+    }
+
+    /**
+     * Make a BooleanInput available to bulk subscriptions.
+     *
+     * @param name The name that the input is published under.
+     * @param input The input.
+     */
+    void register(String name, BooleanInput input) {
+        addChannel(name, null, input);
+    }
+
+    private synchronized void addChannel(String name, FloatInput floatInput, BooleanInput booleanInput) {
+        Channel[] old = channels;
+        if (old.length >= MAX_CHANNELS) {
+            Logger.warning("Too many channels to make " + name + " available to bulk subscriptions.");
+            return;
+        }
+        byte[] encodedName = name.getBytes();
+        if (encodedName.length > 0xFFFF) {
+            Logger.warning("Channel name too long for bulk subscriptions: " + name);
+            return;
+        }
+        Channel[] updated = new Channel[old.length + 1];
+        System.arraycopy(old, 0, updated, 0, old.length);
+        updated[old.length] = new Channel(old.length, name, encodedName, floatInput, booleanInput);
+        channels = updated;
+    }
+
+    @Override
+    protected void receive(String source, byte[] data) {
+        if (data.length != 0 && (data[0] == RMT_NEGATIVE_ACK || data[0] == RMT_BULKSUB_UNSUB)) {
+            if (sessions.remove(source) == null) {
+                Logger.warning("Received bulk cancellation to nonexistent " + source);
+            }
+            updatePolling();
+        } else if (requireRMT(source, data, RMT_BULKSUB, 4)) {
+            Session session = parseRequest(data);
+            if (session == null) {
+                Logger.warning("Malformed bulk subscription request from " + source);
+                return;
+            }
+            // Replacing any existing session resends everything, which is what
+            // a resubscribing remote needs.
+            sessions.put(source, session);
+            updatePolling();
+        }
+    }
+
+    @Override
+    protected void receiveBroadcast(String source, byte[] data) {
+        defaultBroadcastHandle(source, data, RMT_BULKSUB);
+    }
+
+    private synchronized void updatePolling() {
+        boolean needed = !sessions.isEmpty();
+        if (needed != polling) {
+            polling = needed;
+            if (needed) {
+                CluckPublisher.startPolling(this);
+            } else {
+                CluckPublisher.stopPolling(this);
+            }
+        }
+    }
+
+    /**
+     * Sample every subscribed channel and send the changes to each remote.
+     * Called from the publishing ticker.
+     */
+    public void event() {
+        Channel[] all = channels;
+        for (Iterator<String> it = sessions.iterator(); it.hasNext();) {
+            String remote = it.next();
+            Session session = sessions.get(remote);
+            if (session != null) {
+                session.update(all, remote);
+            }
+        }
+    }
+
+    private Session parseRequest(byte[] data) {
+        int count = ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+        String[] names = new String[count];
+        int ptr = 4;
+        for (int i = 0; i < count; i++) {
+            if (ptr + 2 > data.length) {
+                return null;
+            }
+            int len = ((data[ptr] & 0xFF) << 8) | (data[ptr + 1] & 0xFF);
+            ptr += 2;
+            if (ptr + len > data.length) {
+                return null;
+            }
+            names[i] = new String(data, ptr, len);
+            ptr += len;
+        }
+        if (ptr != data.length) {
+            return null;
+        }
+        if (data[1] == MODE_PREFIX && count == 1) {
+            return new Session(names[0], null);
+        } else if (data[1] == MODE_LIST) {
+            return new Session(null, names);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Encode a bulk subscription request.
+     *
+     * @param mode MODE_PREFIX or MODE_LIST.
+     * @param names The prefix (as the only element) or the list of names.
+     * @return The encoded message.
+     */
+    static byte[] encodeRequest(byte mode, String[] names) {
+        byte[][] encoded = new byte[names.length][];
+        int total = 4;
+        for (int i = 0; i < names.length; i++) {
+            encoded[i] = names[i].getBytes();
+            if (encoded[i].length > 0xFFFF) {
+                throw new IllegalArgumentException("Channel name too long: " + names[i]);
+            }
+            total += 2 + encoded[i].length;
+        }
+        if (names.length > 0xFFFF) {
+            throw new IllegalArgumentException("Too many channels in one bulk subscription!");
+        }
+        byte[] out = new byte[total];
+        out[0] = RMT_BULKSUB;
+        out[1] = mode;
+        out[2] = (byte) (names.length >> 8);
+        out[3] = (byte) names.length;
+        int ptr = 4;
+        for (int i = 0; i < encoded.length; i++) {
+            out[ptr++] = (byte) (encoded[i].length >> 8);
+            out[ptr++] = (byte) encoded[i].length;
+            System.arraycopy(encoded[i], 0, out, ptr, encoded[i].length);
+            ptr += encoded[i].length;
+        }
+        return out;
+    }
+
+    private static final class Channel {
+
+        public final int id;
+        public final String name;
+        public final byte[] encodedName;
+        public final FloatInput floatInput;
+        public final BooleanInput booleanInput;
+
+        Channel(int id, String name, byte[] encodedName, FloatInput floatInput, BooleanInput booleanInput) {
+            this.id = id;
+            this.name = name;
+            this.encodedName = encodedName;
+            this.floatInput = floatInput;
+            this.booleanInput = booleanInput;
+        }
+
+        /**
+         * @return The current value, as float bits or as 0 or 1.
+         */
+        int sample() {
+            if (floatInput != null) {
+                return Float.floatToIntBits(floatInput.get());
+            } else {
+                return booleanInput.get() ? 1 : 0;
+            }
+        }
+    }
+
+    /**
+     * The state of a single remote's bulk subscription. Only used from the
+     * publishing ticker once created.
+     */
+    private final class Session {
+
+        private final String prefix;
+        private final String[] names;
+        private final CArrayList<Channel> matched = new CArrayList<Channel>();
+        /**
+         * How many channels have been checked against this subscription.
+         */
+        private int scanned = 0;
+        /**
+         * The last value sent for each channel, indexed by channel ID.
+         */
+        private int[] lastSent = new int[16];
+        private boolean[] defined = new boolean[16];
+        private byte[] buffer = new byte[64];
+        private int length;
+
+        Session(String prefix, String[] names) {
+            this.prefix = prefix;
+            this.names = names;
+        }
+
+        private boolean matches(String name) {
+            if (prefix != null) {
+                return name.startsWith(prefix);
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void update(Channel[] all, String remote) {
+            if (scanned < all.length) {
+                for (int i = scanned; i < all.length; i++) {
+                    if (matches(all[i].name)) {
+                        matched.add(all[i]);
+                    }
+                }
+                scanned = all.length;
+                if (lastSent.length < all.length) {
+                    int[] nls = new int[all.length * 2];
+                    System.arraycopy(lastSent, 0, nls, 0, lastSent.length);
+                    lastSent = nls;
+                    boolean[] nd = new boolean[all.length * 2];
+                    System.arraycopy(defined, 0, nd, 0, defined.length);
+                    defined = nd;
+                }
+            }
+            length = 0;
+            for (int i = 0; i < matched.size(); i++) {
+                Channel channel = matched.get(i);
+                int value = channel.sample();
+                if (!defined[channel.id]) {
+                    defined[channel.id] = true;
+                    byte[] name = channel.encodedName;
+                    reserve(5 + name.length);
+                    buffer[length++] = channel.floatInput != null ? ENTRY_DEFINE_FLOAT : ENTRY_DEFINE_BOOLEAN;
+                    putShort(channel.id);
+                    putShort(name.length);
+                    System.arraycopy(name, 0, buffer, length, name.length);
+                    length += name.length;
+                } else if (lastSent[channel.id] == value) {
+                    continue;
+                }
+                lastSent[channel.id] = value;
+                if (channel.floatInput != null) {
+                    reserve(7);
+                    buffer[length++] = ENTRY_FLOAT;
+                    putShort(channel.id);
+                    buffer[length++] = (byte) (value >> 24);
+                    buffer[length++] = (byte) (value >> 16);
+                    buffer[length++] = (byte) (value >> 8);
+                    buffer[length++] = (byte) value;
+                } else {
+                    reserve(4);
+                    buffer[length++] = ENTRY_BOOLEAN;
+                    putShort(channel.id);
+                    buffer[length++] = (byte) value;
+                }
+                if (length >= MAX_MESSAGE_LENGTH) {
+                    flush(remote);
+                }
+            }
+            flush(remote);
+        }
+
+        private void reserve(int count) {
+            if (length == 0) {
+                buffer[length++] = RMT_BULKSUBRESP;
+            }
+            if (length + count > buffer.length) {
+                byte[] nbuf = new byte[Math.max(buffer.length * 2, length + count)];
+                System.arraycopy(buffer, 0, nbuf, 0, length);
+                buffer = nbuf;
+            }
+        }
+
+        private void putShort(int value) {
+            buffer[length++] = (byte) (value >> 8);
+            buffer[length++] = (byte) value;
+        }
+
+        private void flush(String remote) {
+            if (length > 1) {
+                byte[] message = new byte[length];
+                System.arraycopy(buffer, 0, message, 0, length);
+                node.transmit(remote, LINK_NAME, message, BulkSubscriptionService.this);
+            }
+            length = 0;
+        }
+    }
+}
@@ -241,6 +241,31 @@ public final class Cluck {
         return CluckPublisher.subscribeFI(node, path, subscribeByDefault);
     }
 
+    /**
+     * Subscribe to every FloatInput and BooleanInput published on the
+     * specified remote node whose name starts with the specified prefix, all
+     * at once.
+     *
+     * @param remoteNode The path to the remote node.
+     * @param prefix The prefix of the names to subscribe to.
+     * @return the bulk subscription, to get the inputs from.
+     */
+    public static CluckBulkSubscription subscribeBulk(String remoteNode, String prefix) {
+        return CluckPublisher.subscribeBulk(node, remoteNode, prefix);
+    }
+
+    /**
+     * Subscribe to the specified FloatInputs and BooleanInputs published on
+     * the specified remote node, all at once.
+     *
+     * @param remoteNode The path to the remote node.
+     * @param names The names of the inputs to subscribe to.
+     * @return the bulk subscription, to get the inputs from.
+     */
+    public static CluckBulkSubscription subscribeBulk(String remoteNode, String[] names) {
+        return CluckPublisher.subscribeBulk(node, remoteNode, names);
+    }
+
     /**
      * Publish a FloatOutput on the network.
      *
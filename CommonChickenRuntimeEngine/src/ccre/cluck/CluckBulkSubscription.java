@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck;
+
+import ccre.channel.BooleanInput;
+import ccre.channel.BooleanStatus;
+import ccre.channel.FloatInput;
+import ccre.channel.FloatStatus;
+import ccre.concurrency.ConcurrentDispatchMap;
+import ccre.log.Logger;
+import ccre.util.UniqueIds;
+
+/**
+ * A subscription to many FloatInputs and BooleanInputs published on a remote
+ * node, all handled by a single request and delivered together in packed
+ * updates, instead of one subscription and one message per channel.
+ *
+ * Create these with CluckPublisher.subscribeBulk. Inputs for channels are
+ * available before the remote has sent them, and will be zero or false until
+ * then.
+ *
+ * @author skeggsc
+ * @see CluckPublisher#subscribeBulk(CluckNode, String, String)
+ * @see CluckPublisher#subscribeBulk(CluckNode, String, String[])
+ */
+public final class CluckBulkSubscription {
+
+    private final CluckNode node;
+    private final String path;
+    private final byte[] request;
+    private final String linkName;
+    private final ConcurrentDispatchMap<String, FloatStatus> floats = new ConcurrentDispatchMap<String, FloatStatus>();
+    private final ConcurrentDispatchMap<String, BooleanStatus> booleans = new ConcurrentDispatchMap<String, BooleanStatus>();
+    private volatile boolean cancelled = false;
+
+    CluckBulkSubscription(CluckNode node, String remoteNode, byte[] request) {
+        this.node = node;
+        this.path = remoteNode + "/" + BulkSubscriptionService.LINK_NAME;
+        this.request = request;
+        this.linkName = UniqueIds.global.nextHexId("srcBulk");
+        new Receiver().attach(linkName);
+        resubscribe();
+    }
+
+    /**
+     * Get the FloatInput for the specified channel of this subscription.
+     *
+     * @param name The name that the channel is published under on the remote
+     * node.
+     * @return The FloatInput.
+     */
+    public FloatInput getFloatInput(String name) {
+        return getFloat(name);
+    }
+
+    /**
+     * Get the BooleanInput for the specified channel of this subscription.
+     *
+     * @param name The name that the channel is published under on the remote
+     * node.
+     * @return The BooleanInput.
+     */
+    public BooleanInput getBooleanInput(String name) {
+        return getBoolean(name);
+    }
+
+    /**
+     * Stop receiving updates for this subscription. The inputs keep their last
+     * values.
+     */
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            node.transmit(path, linkName, new byte[] { CluckNode.RMT_BULKSUB_UNSUB });
+            node.removeLink(linkName);
+        }
+    }
+
+    private void resubscribe() {
+        if (!cancelled) {
+            node.transmit(path, linkName, request);
+        }
+    }
+
+    private FloatStatus getFloat(String name) {
+        FloatStatus status = floats.get(name);
+        if (status == null) {
+            floats.putIfAbsent(name, new FloatStatus());
+            status = floats.get(name);
+        }
+        return status;
+    }
+
+    private BooleanStatus getBoolean(String name) {
+        BooleanStatus status = booleans.get(name);
+        if (status == null) {
+            booleans.putIfAbsent(name, new BooleanStatus());
+            status = booleans.get(name);
+        }
+        return status;
+    }
+
+    private class Receiver extends CluckRMTSubscriber {
+
+        /**
+         * The status for each channel ID, as defined by the remote. Only used
+         * from the receiving thread.
+         */
+        private Object[] byId = new Object[16];
+
+        Receiver() {
+            super(CluckBulkSubscription.this.node, CluckNode.RMT_BULKSUBRESP, 1);
+        }
+
+        @Override
+        protected void receiveValid(String source, byte[] data) {
+            int ptr = 1;
+            while (ptr + 3 <= data.length) {
+                byte kind = data[ptr];
+                int id = ((data[ptr + 1] & 0xFF) << 8) | (data[ptr + 2] & 0xFF);
+                ptr += 3;
+                switch (kind) {
+                case BulkSubscriptionService.ENTRY_DEFINE_FLOAT:
+                case BulkSubscriptionService.ENTRY_DEFINE_BOOLEAN:
+                    if (ptr + 2 > data.length) {
+                        break;
+                    }
+                    int len = ((data[ptr] & 0xFF) << 8) | (data[ptr + 1] & 0xFF);
+                    ptr += 2;
+                    if (ptr + len > data.length) {
+                        break;
+                    }
+                    String name = new String(data, ptr, len);
+                    ptr += len;
+                    define(id, kind == BulkSubscriptionService.ENTRY_DEFINE_FLOAT ? (Object) getFloat(name) : getBoolean(name));
+                    continue;
+                case BulkSubscriptionService.ENTRY_FLOAT:
+                    if (ptr + 4 > data.length) {
+                        break;
+                    }
+                    Object fstat = id < byId.length ? byId[id] : null;
+                    if (fstat instanceof FloatStatus) {
+                        ((FloatStatus) fstat).set(Float.intBitsToFloat(((data[ptr] & 0xFF) << 24) | ((data[ptr + 1] & 0xFF) << 16) | ((data[ptr + 2] & 0xFF) << 8) | (data[ptr + 3] & 0xFF)));
+                    }
+                    ptr += 4;
+                    continue;
+                case BulkSubscriptionService.ENTRY_BOOLEAN:
+                    if (ptr + 1 > data.length) {
+                        break;
+                    }
+                    Object bstat = id < byId.length ? byId[id] : null;
+                    if (bstat instanceof BooleanStatus) {
+                        ((BooleanStatus) bstat).set(data[ptr] != 0);
+                    }
+                    ptr += 1;
+                    continue;
+                }
+                Logger.warning("Malformed bulk subscription update from " + source);
+                return;
+            }
+            if (ptr != data.length) {
+                Logger.warning("Malformed bulk subscription update from " + source);
+            }
+        }
+
+        private void define(int id, Object status) {
+            if (id >= byId.length) {
+                Object[] nids = new Object[Math.max(byId.length * 2, id + 1)];
+                System.arraycopy(byId, 0, nids, 0, byId.length);
+                byId = nids;
+            }
+            byId[id] = status;
+        }
+
+        @Override
+        protected void receiveBroadcast(String source, byte[] data) {
+            if (data.length == 1 && data[0] == CluckNode.RMT_NOTIFY) {
+                resubscribe();
+            }
+        }
+    }
+}
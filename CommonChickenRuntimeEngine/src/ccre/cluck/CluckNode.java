@@ -1,5 +1,5 @@
 /*
- * Copyright 2013-2014 Colby Skeggs
+ * Copyright 2013-2015 Colby Skeggs
  *
  * This file is part of the CCRE, the Common Chicken Runtime Engine.
  *
@@ -26,9 +26,9 @@ import java.util.Iterator;
 
 import ccre.channel.EventOutput;
 import ccre.cluck.rpc.RPCManager;
+import ccre.concurrency.ConcurrentDispatchMap;
 import ccre.log.Logger;
 import ccre.util.CArrayList;
-import ccre.util.CHashMap;
 import ccre.util.UniqueIds;
 
 /**
@@ -118,7 +118,20 @@ public class CluckNode implements Serializable {
      * The ID representing an FloatInputProducer unsubscription request.
      */
     public static final byte RMT_FLOATPROD_UNSUB = 18;
-    private static final String[] remoteNames = new String[] { "Ping", "EventOutput", "EventInput", "EventInputResponse", "LogTarget", "BooleanInput", "BooleanInputResponse", "BooleanOutput", "FloatInput", "FloatInputResponse", "FloatOutput", "OutputStream", "Notify", "RemoteProcedure", "RemoteProcedureReply", "NonexistenceNotification", "EventInputUnsubscription", "BooleanInputUnsubscription", "FloatInputUnsubscription" };
+    /**
+     * The ID representing a request to subscribe to many published inputs at
+     * once.
+     */
+    public static final byte RMT_BULKSUB = 19;
+    /**
+     * The ID representing a packed set of updates for a bulk subscription.
+     */
+    public static final byte RMT_BULKSUBRESP = 20;
+    /**
+     * The ID representing a bulk unsubscription request.
+     */
+    public static final byte RMT_BULKSUB_UNSUB = 21;
+    private static final String[] remoteNames = new String[] { "Ping", "EventOutput", "EventInput", "EventInputResponse", "LogTarget", "BooleanInput", "BooleanInputResponse", "BooleanOutput", "FloatInput", "FloatInputResponse", "FloatOutput", "OutputStream", "Notify", "RemoteProcedure", "RemoteProcedureReply", "NonexistenceNotification", "EventInputUnsubscription", "BooleanInputUnsubscription", "FloatInputUnsubscription", "BulkSubscription", "BulkSubscriptionResponse", "BulkUnsubscription" };
 
     /**
      * Convert an RMT ID to a string.
@@ -135,9 +148,33 @@ public class CluckNode implements Serializable {
     }
 
     /**
-     * A map of the current link names to the CluckLinks.
+     * The maximum number of routes kept in the route table. When this is
+     * exceeded, the table is emptied, so that paths that are only used once
+     * (such as search replies) don't accumulate forever.
      */
-    public final CHashMap<String, CluckLink> links = new CHashMap<String, CluckLink>();
+    private static final int MAX_INTERNED_ROUTES = 256;
+
+    /**
+     * A map of the current link names to the CluckLinks. This can be read
+     * from any thread without locking.
+     *
+     * Modify this through addLink, addOrReplaceLink, and removeLink, so that
+     * cached routes get invalidated.
+     */
+    public final ConcurrentDispatchMap<String, CluckLink> links = new ConcurrentDispatchMap<String, CluckLink>();
+    /**
+     * The interned routes, by target path.
+     */
+    private final ConcurrentDispatchMap<String, CluckRoute> routes = new ConcurrentDispatchMap<String, CluckRoute>();
+    /**
+     * Incremented each time that the links change, which invalidates all
+     * existing route resolutions.
+     */
+    private volatile int linkGeneration = 0;
+    /**
+     * The priorities set for particular paths.
+     */
+    private final ConcurrentDispatchMap<String, CluckPriority> priorities = new ConcurrentDispatchMap<String, CluckPriority>();
     /**
      * The time when the last error message was printed about a link not
      * existing.
@@ -151,6 +188,16 @@ public class CluckNode implements Serializable {
      * The official RPCManager for this node.
      */
     private RPCManager rpcManager = null;
+    /**
+     * The bulk subscription service for this node, created when the first
+     * input is published.
+     */
+    private BulkSubscriptionService bulkSubscriptions = null;
+    /**
+     * The traffic measurements for this node, or null if nothing has asked for
+     * them yet.
+     */
+    private volatile CluckTrafficMetrics trafficMetrics = null;
 
     /**
      * Notify everyone on the network that the network structure has been
@@ -195,22 +242,166 @@ public class CluckNode implements Serializable {
         } else if ("*".equals(target)) {
             broadcast(source, data, denyLink);
         } else {
-            int slash = target.indexOf('/');
-            String direct, indirect;
-            if (slash == -1) {
-                direct = target;
-                indirect = null;
-            } else {
-                direct = target.substring(0, slash);
-                indirect = target.substring(slash + 1);
+            // Don't intern one-off paths, such as replies to searches.
+            CluckRoute route = routes.get(target);
+            transmit(route != null ? route : new CluckRoute(this, target), source, data, denyLink);
+        }
+    }
+
+    /**
+     * Transmit a message along the specified pre-resolved route, with the
+     * specified return address (relative to this node). If this is a
+     * broadcast, then don't include the specified link (to prevent infinite
+     * loops).
+     *
+     * This avoids splitting and looking up the target path for each message,
+     * so it should be used by anything that sends to the same path repeatedly.
+     *
+     * @param route The route to the target, from getRoute.
+     * @param source The source path.
+     * @param data The message data to transmit.
+     * @param denyLink The link for broadcasts to not follow.
+     * @throws IllegalArgumentException If the route is from a different node.
+     * @see #getRoute(java.lang.String)
+     */
+    public void transmit(CluckRoute route, String source, byte[] data, CluckLink denyLink) throws IllegalArgumentException {
+        transmit(route, source, data, denyLink, null);
+    }
+
+    /**
+     * Transmit a message along the specified pre-resolved route, like
+     * transmit(route, source, data, denyLink), but with the specified priority
+     * instead of the one from getPriority.
+     *
+     * @param route The route to the target, from getRoute.
+     * @param source The source path.
+     * @param data The message data to transmit.
+     * @param denyLink The link for broadcasts to not follow.
+     * @param priority The priority of the message, or null to use getPriority.
+     * @throws IllegalArgumentException If the route is from a different node.
+     * @see #getPriority(java.lang.String, java.lang.String, byte[])
+     */
+    public void transmit(CluckRoute route, String source, byte[] data, CluckLink denyLink, CluckPriority priority) throws IllegalArgumentException {
+        if (route.node != this) {
+            throw new IllegalArgumentException("Route belongs to a different CluckNode: " + route);
+        }
+        if (route.isBroadcast()) {
+            broadcast(source, data, denyLink);
+            return;
+        }
+        int generation = linkGeneration;
+        CluckRoute.Resolution resolution = route.getResolution(generation);
+        if (resolution == null) {
+            resolution = route.resolved(links.get(route.direct), generation);
+        }
+        CluckLink link = resolution.link;
+        if (link == null) {
+            reportMissingLink(data, source, route.target, route.direct);
+            return;
+        }
+        CluckTrafficMetrics metrics = trafficMetrics;
+        if (metrics != null && metrics.isEnabled()) {
+            metrics.recordRouted(data);
+        }
+        boolean alive;
+        if (link instanceof CluckPrioritizedLink) {
+            alive = ((CluckPrioritizedLink) link).send(route.indirect, source, data, priority != null ? priority : getPriority(route.target, source, data));
+        } else {
+            alive = link.send(route.indirect, source, data);
+        }
+        if (!alive) {
+            // Remove it if the link says that it's done - unless it has already been replaced.
+            if (links.remove(route.direct, link)) {
+                invalidateRoutes();
+            }
+        }
+    }
+
+    /**
+     * Set the priority of all messages sent to the specified path, or sent
+     * from the specified local name, overriding the default priority for
+     * their RMT types. This only matters for links that support priorities,
+     * such as network connections.
+     *
+     * @param path The target path or local source name.
+     * @param priority The priority, or null to go back to the default.
+     * @see CluckPriority
+     */
+    public void setPriority(String path, CluckPriority priority) {
+        if (priority == null) {
+            priorities.remove(path);
+        } else {
+            priorities.put(path, priority);
+        }
+    }
+
+    /**
+     * Get the priority of a message with the specified target, source, and
+     * contents. This is the priority set for the source, if any, otherwise the
+     * priority set for the target, if any, otherwise the default for the RMT
+     * type of the message.
+     *
+     * @param target The target path.
+     * @param source The source path.
+     * @param data The message data.
+     * @return The priority of the message.
+     * @see #setPriority(java.lang.String, ccre.cluck.CluckPriority)
+     */
+    public CluckPriority getPriority(String target, String source, byte[] data) {
+        if (!priorities.isEmpty()) {
+            CluckPriority out = source == null ? null : priorities.get(source);
+            if (out == null && target != null) {
+                out = priorities.get(target);
             }
-            CluckLink link = links.get(direct);
-            if (link == null) {
-                reportMissingLink(data, source, target, direct);
-            } else if (link.send(indirect, source, data) == false) {
-                links.remove(direct); // Remove it if the link says that it's done.
+            if (out != null) {
+                return out;
             }
         }
+        return CluckPriority.forMessage(data);
+    }
+
+    /**
+     * Get the route to the specified target path (relative to this node),
+     * which can be passed to transmit in place of the target path.
+     *
+     * Routes are interned, so the same route is returned for the same path
+     * while it remains in the route table. Routes stay valid when links are
+     * added or removed - they are automatically resolved again.
+     *
+     * Only paths passed to this method are interned. Transmitting to a path
+     * string uses its interned route if there is one, but otherwise resolves
+     * the path just for that message, so call this for paths that are sent to
+     * repeatedly.
+     *
+     * @param target The target path.
+     * @return The route to the target path.
+     * @see #transmit(ccre.cluck.CluckRoute, java.lang.String, byte[],
+     * ccre.cluck.CluckLink)
+     */
+    public CluckRoute getRoute(String target) {
+        if (target == null) {
+            throw new NullPointerException();
+        }
+        CluckRoute route = routes.get(target);
+        if (route == null) {
+            if (routes.size() >= MAX_INTERNED_ROUTES) {
+                routes.clear();
+            }
+            CluckRoute created = new CluckRoute(this, target);
+            route = routes.putIfAbsent(target, created);
+            if (route == null) {
+                route = created;
+            }
+        }
+        return route;
+    }
+
+    /**
+     * Invalidate the resolutions of all routes, so that they will be looked up
+     * again the next time that they are used.
+     */
+    private synchronized void invalidateRoutes() {
+        linkGeneration++;
     }
 
     /**
@@ -225,12 +416,18 @@ public class CluckNode implements Serializable {
      * ccre.cluck.CluckLink)
      */
     public void broadcast(String source, byte[] data, CluckLink denyLink) {
-        for (Iterator<String> linkIter = links.looseIterator(); linkIter.hasNext();) {
-            CluckLink cl = links.get(linkIter.next());
-            if (cl != null && cl != denyLink) {
-                if (cl.send("*", source, data) == false) {
-                    linkIter.remove(); // Remove it if the link says that it's done.
-                }
+        if (data.length != 0 && data[0] == RMT_NOTIFY) {
+            invalidateRoutes();
+        }
+        CluckTrafficMetrics metrics = trafficMetrics;
+        if (metrics != null && metrics.isEnabled()) {
+            metrics.recordRouted(data);
+        }
+        for (Iterator<CluckLink> linkIter = links.valueIterator(); linkIter.hasNext();) {
+            CluckLink cl = linkIter.next();
+            if (cl != denyLink && cl.send("*", source, data) == false) {
+                linkIter.remove(); // Remove it if the link says that it's done.
+                invalidateRoutes();
             }
         }
     }
@@ -347,7 +544,7 @@ public class CluckNode implements Serializable {
             transmit("*", localRecv, new byte[] { RMT_PING });
             Thread.sleep(timeout);
         } finally {
-            links.remove(localRecv);
+            removeLink(localRecv);
         }
         synchronized (discovered) {
             Iterator<String> it = discovered.iterator();
@@ -397,10 +594,11 @@ public class CluckNode implements Serializable {
         if (link == null) {
             throw new NullPointerException();
         }
-        if (links.get(linkName) != null) {
-            throw new IllegalStateException("Link name already used: " + linkName + " for " + links.get(linkName) + " not " + link);
+        CluckLink existing = links.putIfAbsent(linkName, link);
+        if (existing != null) {
+            throw new IllegalStateException("Link name already used: " + linkName + " for " + existing + " not " + link);
         }
-        links.put(linkName, link);
+        invalidateRoutes();
     }
 
     /**
@@ -410,7 +608,9 @@ public class CluckNode implements Serializable {
      * @return whether or not there had been a link to remove.
      */
     public boolean removeLink(String linkName) {
-        return links.remove(linkName) != null;
+        boolean removed = links.remove(linkName) != null;
+        invalidateRoutes();
+        return removed;
     }
 
     /**
@@ -424,10 +624,10 @@ public class CluckNode implements Serializable {
         if (link == null) {
             throw new NullPointerException();
         }
-        if (links.get(linkName) != null) {
+        if (links.put(linkName, link) != null) {
             Logger.fine("Replaced current link on: " + linkName);
         }
-        links.put(linkName, link);
+        invalidateRoutes();
     }
 
     /**
@@ -443,6 +643,33 @@ public class CluckNode implements Serializable {
         return rpcManager;
     }
 
+    /**
+     * Get the bulk subscription service for this node, attaching it if it
+     * hasn't been yet.
+     *
+     * @return The BulkSubscriptionService for this node.
+     */
+    synchronized BulkSubscriptionService getBulkSubscriptions() {
+        if (bulkSubscriptions == null) {
+            bulkSubscriptions = new BulkSubscriptionService(this);
+        }
+        return bulkSubscriptions;
+    }
+
+    /**
+     * Get the traffic measurements for this node. Nothing is measured until
+     * they are enabled or published.
+     *
+     * @return The CluckTrafficMetrics for this node.
+     * @see CluckTrafficMetrics#publish()
+     */
+    public synchronized CluckTrafficMetrics getTrafficMetrics() {
+        if (trafficMetrics == null) {
+            trafficMetrics = new CluckTrafficMetrics(this);
+        }
+        return trafficMetrics;
+    }
+
     private void writeObject(ObjectOutputStream out) throws IOException {
         throw new NotSerializableException("Not serializable!");
     }
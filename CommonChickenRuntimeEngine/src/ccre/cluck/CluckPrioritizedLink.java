@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck;
+
+/**
+ * A CluckLink that queues messages and can send more urgent messages first,
+ * such as a network connection. CluckNode tells these links the priority of
+ * each message that it routes to them.
+ *
+ * @author skeggsc
+ * @see CluckPriority
+ */
+public interface CluckPrioritizedLink extends CluckLink {
+
+    /**
+     * Send a Cluck message over this link, with the specified priority.
+     * Otherwise the same as send(dest, source, data), which should use the
+     * default priority of the message.
+     *
+     * @param dest The destination path.
+     * @param source The source path.
+     * @param data The data packet.
+     * @param priority The priority class of the message.
+     * @return true if more messages should be delivered, false if this should
+     * be detached from the CluckNode.
+     * @see CluckLink#send(java.lang.String, java.lang.String, byte[])
+     */
+    public boolean send(String dest, String source, byte[] data, CluckPriority priority);
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck;
+
+import java.io.Serializable;
+
+/**
+ * Represents a priority class for Cluck messages. Links that implement
+ * CluckPrioritizedLink keep a separate queue for each class, and always send
+ * messages of a more urgent class first, so that something like a flood of
+ * logging messages can't delay a drive command.
+ *
+ * Each RMT type has a default priority, which can be changed with
+ * setDefault. The priority of messages to or from particular paths can be
+ * changed with CluckNode.setPriority.
+ *
+ * @author skeggsc
+ * @see CluckPrioritizedLink
+ * @see CluckNode#setPriority(java.lang.String, ccre.cluck.CluckPriority)
+ */
+public final class CluckPriority implements Serializable {
+
+    private static final long serialVersionUID = -3960262409874462201L;
+
+    /**
+     * Time-critical messages, such as writes to outputs. Sent before anything
+     * else.
+     */
+    public static final CluckPriority CONTROL = new CluckPriority(0, "CONTROL");
+    /**
+     * Ordinary messages.
+     */
+    public static final CluckPriority NORMAL = new CluckPriority(1, "NORMAL");
+    /**
+     * Bulk messages that can be delayed, such as logging. Only sent when
+     * nothing more urgent is waiting, and the oldest messages of this class
+     * are dropped if too many of them are waiting.
+     */
+    public static final CluckPriority TELEMETRY = new CluckPriority(2, "TELEMETRY");
+    /**
+     * The number of priority classes, which are numbered from zero.
+     */
+    public static final int COUNT = 3;
+
+    private static final CluckPriority[] lanes = new CluckPriority[] { CONTROL, NORMAL, TELEMETRY };
+    private static final CluckPriority[] defaults = new CluckPriority[256];
+
+    static {
+        for (int i = 0; i < defaults.length; i++) {
+            defaults[i] = NORMAL;
+        }
+        defaults[CluckNode.RMT_PING] = CONTROL;
+        defaults[CluckNode.RMT_EVENTOUTP] = CONTROL;
+        defaults[CluckNode.RMT_EVENTINPUTRESP] = CONTROL;
+        defaults[CluckNode.RMT_BOOLOUTP] = CONTROL;
+        defaults[CluckNode.RMT_FLOATOUTP] = CONTROL;
+        defaults[CluckNode.RMT_NOTIFY] = CONTROL;
+        defaults[CluckNode.RMT_LOGTARGET] = TELEMETRY;
+    }
+
+    /**
+     * Get the default priority of messages of the specified RMT type.
+     *
+     * @param rmt The RMT_* message ID.
+     * @return The priority.
+     */
+    public static CluckPriority forRMT(byte rmt) {
+        return defaults[rmt & 0xFF];
+    }
+
+    /**
+     * Get the default priority of the specified message, from its RMT type.
+     * Empty messages are NORMAL.
+     *
+     * @param data The contents of the message.
+     * @return The priority.
+     */
+    public static CluckPriority forMessage(byte[] data) {
+        return data.length == 0 ? NORMAL : defaults[data[0] & 0xFF];
+    }
+
+    /**
+     * Change the default priority of messages of the specified RMT type.
+     *
+     * @param rmt The RMT_* message ID.
+     * @param priority The new default priority.
+     */
+    public static void setDefault(byte rmt, CluckPriority priority) {
+        if (priority == null) {
+            throw new NullPointerException();
+        }
+        defaults[rmt & 0xFF] = priority;
+    }
+
+    /**
+     * The lane of this priority class, from zero (most urgent) to COUNT - 1.
+     */
+    public final int lane;
+    private final String name;
+
+    private CluckPriority(int lane, String name) {
+        this.lane = lane;
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private Object readResolve() {
+        return lanes[lane];
+    }
+}
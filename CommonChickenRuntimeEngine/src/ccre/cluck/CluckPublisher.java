@@ -52,6 +52,8 @@ import ccre.channel.FloatStatus;
 import ccre.cluck.rpc.RemoteProcedure;
 import ccre.cluck.rpc.SimpleProcedure;
 import ccre.concurrency.ConcurrentDispatchArray;
+import ccre.concurrency.ConcurrentDispatchMap;
+import ccre.ctrl.Ticker;
 import ccre.log.LogLevel;
 import ccre.log.Logger;
 import ccre.log.LoggingTarget;
@@ -69,6 +71,21 @@ import ccre.workarounds.ThrowablePrinter;
  */
 public class CluckPublisher {
 
+    /**
+     * How often rate-limited FloatInput publications check for held-back or
+     * stale values, in milliseconds.
+     */
+    private static final int PUBLISH_TICK_INTERVAL = 10;
+    /**
+     * The shared ticker for rate-limited FloatInput publications, created when
+     * first needed.
+     */
+    private static Ticker publishTicker;
+    /**
+     * The number of publications currently using publishTicker.
+     */
+    private static int pollerCount;
+
     private static long lastReportedRemoteLoggingError = 0;
 
     /**
@@ -129,7 +146,22 @@ public class CluckPublisher {
      * @return the EventOutput.
      */
     public static EventOutput subscribeEO(final CluckNode node, final String path) {
-        return new SubscribedEventOutput(node, path);
+        return new SubscribedEventOutput(node, path, null);
+    }
+
+    /**
+     * Subscribe to an EventOutput from the network at the specified path, and send
+     * writes to it with the specified priority.
+     *
+     * @param node The node to subscribe from.
+     * @param path The path to subscribe to.
+     * @param priority The priority of messages sent to the EventOutput, or null for
+     * the usual priority. This only applies to writes through the returned
+     * EventOutput, unlike CluckNode.setPriority.
+     * @return the EventOutput.
+     */
+    public static EventOutput subscribeEO(final CluckNode node, final String path, CluckPriority priority) {
+        return new SubscribedEventOutput(node, path, priority);
     }
 
     /**
@@ -144,7 +176,7 @@ public class CluckPublisher {
         input.send(new EventOutput() {
             public void event() {
                 for (String remote : remotes) {
-                    node.transmit(remote, name, new byte[] { RMT_EVENTINPUTRESP });
+                    node.transmit(node.getRoute(remote), name, new byte[] { RMT_EVENTINPUTRESP }, null);
                 }
             }
         });
@@ -250,6 +282,7 @@ public class CluckPublisher {
                 defaultBroadcastHandle(source, data, RMT_BOOLPROD);
             }
         }.attach(name);
+        node.getBulkSubscriptions().register(name, input);
     }
 
     /**
@@ -265,6 +298,9 @@ public class CluckPublisher {
     public static BooleanInput subscribeBI(final CluckNode node, final String path, final boolean subscribeByDefault) {
         final SubscribedBooleanInput result = new SubscribedBooleanInput(node, path, subscribeByDefault);
         new BooleanInputReceiver(node, result, path).attach();
+        if (subscribeByDefault) {
+            result.subscribe();
+        }
         return result;
     }
 
@@ -292,7 +328,22 @@ public class CluckPublisher {
      * @return the BooleanOutput.
      */
     public static BooleanOutput subscribeBO(final CluckNode node, final String path) {
-        return new SubscribedBooleanOutput(node, path);
+        return new SubscribedBooleanOutput(node, path, null);
+    }
+
+    /**
+     * Subscribe to a BooleanOutput from the network at the specified path, and send
+     * writes to it with the specified priority.
+     *
+     * @param node The node to subscribe from.
+     * @param path The path to subscribe to.
+     * @param priority The priority of messages sent to the BooleanOutput, or null for
+     * the usual priority. This only applies to writes through the returned
+     * BooleanOutput, unlike CluckNode.setPriority.
+     * @return the BooleanOutput.
+     */
+    public static BooleanOutput subscribeBO(final CluckNode node, final String path, CluckPriority priority) {
+        return new SubscribedBooleanOutput(node, path, priority);
     }
 
     /**
@@ -327,6 +378,89 @@ public class CluckPublisher {
                 defaultBroadcastHandle(source, data, RMT_FLOATPROD);
             }
         }.attach(name);
+        node.getBulkSubscriptions().register(name, input);
+    }
+
+    /**
+     * Publish a FloatInput on the network, but only send updates to each
+     * client as allowed by the specified policy. This will send values to
+     * clients when they connect, and can be subscribed to like any other
+     * published FloatInput.
+     *
+     * The policy should not be modified after this is called.
+     *
+     * @param node The node to publish on.
+     * @param name The name for the FloatInput.
+     * @param input The FloatInput.
+     * @param policy The policy for when to send updates.
+     */
+    public static void publish(final CluckNode node, final String name, final FloatInput input, FloatPublishPolicy policy) {
+        final PolicyFloatPublisher publisher = new PolicyFloatPublisher(node, name, input, policy);
+        input.send(publisher);
+        new CluckSubscriber(node) {
+            @Override
+            protected void receive(String src, byte[] data) {
+                if (data.length != 0 && (data[0] == RMT_NEGATIVE_ACK || data[0] == RMT_FLOATPROD_UNSUB)) {
+                    if (publisher.unsubscribe(src)) {
+                        Logger.warning("Connection cancelled to " + src + " on " + name);
+                    } else {
+                        Logger.warning("Received cancellation to nonexistent " + src + " on " + name);
+                    }
+                } else if (requireRMT(src, data, RMT_FLOATPROD)) {
+                    publisher.subscribe(src);
+                }
+            }
+
+            @Override
+            protected void receiveBroadcast(String source, byte[] data) {
+                defaultBroadcastHandle(source, data, RMT_FLOATPROD);
+            }
+        }.attach(name);
+        node.getBulkSubscriptions().register(name, input);
+    }
+
+    /**
+     * Subscribe to every FloatInput and BooleanInput published on the
+     * specified remote node whose name starts with the specified prefix, all
+     * at once. Channels published later that match will also be included.
+     *
+     * @param node The node to subscribe from.
+     * @param remoteNode The path to the remote node.
+     * @param prefix The prefix of the names to subscribe to.
+     * @return the bulk subscription, to get the inputs from.
+     */
+    public static CluckBulkSubscription subscribeBulk(CluckNode node, String remoteNode, String prefix) {
+        return new CluckBulkSubscription(node, remoteNode, BulkSubscriptionService.encodeRequest(BulkSubscriptionService.MODE_PREFIX, new String[] { prefix }));
+    }
+
+    /**
+     * Subscribe to the specified FloatInputs and BooleanInputs published on
+     * the specified remote node, all at once.
+     *
+     * @param node The node to subscribe from.
+     * @param remoteNode The path to the remote node.
+     * @param names The names of the inputs to subscribe to.
+     * @return the bulk subscription, to get the inputs from.
+     */
+    public static CluckBulkSubscription subscribeBulk(CluckNode node, String remoteNode, String[] names) {
+        return new CluckBulkSubscription(node, remoteNode, BulkSubscriptionService.encodeRequest(BulkSubscriptionService.MODE_LIST, names));
+    }
+
+    static synchronized void startPolling(EventOutput poller) {
+        if (publishTicker == null) {
+            publishTicker = new Ticker(PUBLISH_TICK_INTERVAL);
+        }
+        publishTicker.send(poller);
+        pollerCount++;
+    }
+
+    static synchronized void stopPolling(EventOutput poller) {
+        publishTicker.unsend(poller);
+        if (--pollerCount == 0) {
+            // Don't keep a thread around when nothing is subscribed.
+            publishTicker.terminate();
+            publishTicker = null;
+        }
     }
 
     /**
@@ -342,6 +476,9 @@ public class CluckPublisher {
     public static FloatInput subscribeFI(final CluckNode node, final String path, final boolean subscribeByDefault) {
         final SubscribedFloatInput result = new SubscribedFloatInput(node, path, subscribeByDefault);
         new FloatInputReceiver(node, result, path).attach();
+        if (subscribeByDefault) {
+            result.subscribe();
+        }
         return result;
     }
 
@@ -369,7 +506,22 @@ public class CluckPublisher {
      * @return the FloatOutput.
      */
     public static FloatOutput subscribeFO(final CluckNode node, final String path) {
-        return new SubscribedFloatOutput(node, path);
+        return new SubscribedFloatOutput(node, path, null);
+    }
+
+    /**
+     * Subscribe to a FloatOutput from the network at the specified path, and send
+     * writes to it with the specified priority.
+     *
+     * @param node The node to subscribe from.
+     * @param path The path to subscribe to.
+     * @param priority The priority of messages sent to the FloatOutput, or null for
+     * the usual priority. This only applies to writes through the returned
+     * FloatOutput, unlike CluckNode.setPriority.
+     * @return the FloatOutput.
+     */
+    public static FloatOutput subscribeFO(final CluckNode node, final String path, CluckPriority priority) {
+        return new SubscribedFloatOutput(node, path, priority);
     }
 
     /**
@@ -623,9 +775,103 @@ public class CluckPublisher {
         public void set(float value) {
             for (String remote : remotes) {
                 int iver = Float.floatToIntBits(value);
-                node.transmit(remote, name, new byte[] { RMT_FLOATPRODRESP, (byte) (iver >> 24), (byte) (iver >> 16), (byte) (iver >> 8), (byte) iver });
+                node.transmit(node.getRoute(remote), name, new byte[] { RMT_FLOATPRODRESP, (byte) (iver >> 24), (byte) (iver >> 16), (byte) (iver >> 8), (byte) iver }, null);
+            }
+        }
+    }
+
+    private static final class PolicyFloatPublisher implements FloatOutput, EventOutput, Serializable {
+        private static final long serialVersionUID = -2201583725610924497L;
+        private final ConcurrentDispatchMap<String, RemoteState> remotes = new ConcurrentDispatchMap<String, RemoteState>();
+        private final CluckNode node;
+        private final String name;
+        private final FloatInput input;
+        private final FloatPublishPolicy policy;
+        /**
+         * Whether or not this is registered with the shared ticker, which is
+         * only needed while anything is subscribed.
+         */
+        private boolean polling = false;
+
+        PolicyFloatPublisher(CluckNode node, String name, FloatInput input, FloatPublishPolicy policy) {
+            this.node = node;
+            this.name = name;
+            this.input = input;
+            this.policy = policy;
+        }
+
+        void subscribe(String remote) {
+            float value = policy.quantize(input.get());
+            synchronized (this) {
+                remotes.put(remote, new RemoteState(value, System.currentTimeMillis()));
+                if (!polling && policy.needsPolling()) {
+                    polling = true;
+                    startPolling(this);
+                }
+            }
+            send(remote, value);
+        }
+
+        synchronized boolean unsubscribe(String remote) {
+            if (remotes.remove(remote) == null) {
+                return false;
+            }
+            if (polling && remotes.isEmpty()) {
+                polling = false;
+                stopPolling(this);
+            }
+            return true;
+        }
+
+        // Called when the input changes.
+        public void set(float value) {
+            update(policy.quantize(value));
+        }
+
+        // Called periodically to send held-back and stale values.
+        public void event() {
+            if (!remotes.isEmpty()) {
+                update(policy.quantize(input.get()));
+            }
+        }
+
+        private void update(float value) {
+            long now = System.currentTimeMillis();
+            for (String remote : remotes) {
+                RemoteState state = remotes.get(remote);
+                if (state != null && state.offer(policy, value, now)) {
+                    send(remote, value);
+                }
             }
         }
+
+        private void send(String remote, float value) {
+            int iver = Float.floatToIntBits(value);
+            node.transmit(node.getRoute(remote), name, new byte[] { RMT_FLOATPRODRESP, (byte) (iver >> 24), (byte) (iver >> 16), (byte) (iver >> 8), (byte) iver }, null);
+        }
+    }
+
+    /**
+     * What has been sent to one subscriber of a PolicyFloatPublisher.
+     */
+    private static final class RemoteState implements Serializable {
+        private static final long serialVersionUID = 6108712350938441357L;
+        private float lastSent;
+        private long lastSentAt;
+
+        RemoteState(float lastSent, long lastSentAt) {
+            this.lastSent = lastSent;
+            this.lastSentAt = lastSentAt;
+        }
+
+        synchronized boolean offer(FloatPublishPolicy policy, float value, long now) {
+            if (!policy.shouldSend(lastSent, lastSentAt, value, now)) {
+                return false;
+            }
+            lastSent = value;
+            lastSentAt = now;
+            return true;
+        }
     }
 
     private static final class BooleanInputPublishListener implements BooleanOutput, Serializable {
@@ -642,7 +888,7 @@ public class CluckPublisher {
 
         public void set(boolean value) {
             for (String remote : remotes) {
-                node.transmit(remote, name, new byte[] { RMT_BOOLPRODRESP, value ? (byte) 1 : 0 });
+                node.transmit(node.getRoute(remote), name, new byte[] { RMT_BOOLPRODRESP, value ? (byte) 1 : 0 }, null);
             }
         }
     }
@@ -706,19 +952,24 @@ public class CluckPublisher {
         private final boolean canUnsubscribe;
 
         SubscribedFloatInput(CluckNode node, String path, boolean subscribeByDefault) {
-            this.sent = subscribeByDefault;
             this.node = node;
             this.path = path;
             generateLinkName();
             this.canUnsubscribe = !subscribeByDefault;
-            if (subscribeByDefault) {
-                node.transmit(path, linkName, new byte[] { RMT_FLOATPROD });
-            }
         }
 
         @Override
         public synchronized void send(FloatOutput out) {
             super.send(out);
+            subscribe();
+        }
+
+        /**
+         * Request the value from the remote, unless it has already been
+         * requested. This must only be called once the receiver is attached,
+         * or the response might arrive before anything can receive it.
+         */
+        synchronized void subscribe() {
             if (!sent) {
                 sent = true;
                 node.transmit(path, linkName, new byte[] { RMT_FLOATPROD });
@@ -803,19 +1054,24 @@ public class CluckPublisher {
         private final boolean canUnsubscribe;
 
         SubscribedBooleanInput(CluckNode node, String path, boolean subscribeByDefault) {
-            this.sent = subscribeByDefault;
             this.node = node;
             this.path = path;
             this.canUnsubscribe = !subscribeByDefault;
             generateLinkName();
-            if (subscribeByDefault) {
-                node.transmit(path, linkName, new byte[] { RMT_BOOLPROD });
-            }
         }
 
         @Override
         public synchronized void send(BooleanOutput out) {
             super.send(out);
+            subscribe();
+        }
+
+        /**
+         * Request the value from the remote, unless it has already been
+         * requested. This must only be called once the receiver is attached,
+         * or the response might arrive before anything can receive it.
+         */
+        synchronized void subscribe() {
             if (!sent) {
                 sent = true;
                 node.transmit(path, linkName, new byte[] { RMT_BOOLPROD });
@@ -985,14 +1241,24 @@ public class CluckPublisher {
         private static final long serialVersionUID = 5103577228341124318L;
         private final CluckNode node;
         private final String path;
+        private final CluckPriority priority;
+        private transient CluckRoute route;
 
-        SubscribedEventOutput(CluckNode node, String path) {
+        SubscribedEventOutput(CluckNode node, String path, CluckPriority priority) {
             this.node = node;
             this.path = path;
+            this.priority = priority;
+        }
+
+        private CluckRoute getRoute() {
+            if (route == null) {
+                route = node.getRoute(path);
+            }
+            return route;
         }
 
         public void event() {
-            node.transmit(path, null, new byte[] { RMT_EVENTOUTP });
+            node.transmit(getRoute(), null, new byte[] { RMT_EVENTOUTP }, null, priority);
         }
     }
 
@@ -1001,14 +1267,24 @@ public class CluckPublisher {
         private static final long serialVersionUID = -4068385997161728204L;
         private final CluckNode node;
         private final String path;
+        private final CluckPriority priority;
+        private transient CluckRoute route;
 
-        SubscribedBooleanOutput(CluckNode node, String path) {
+        SubscribedBooleanOutput(CluckNode node, String path, CluckPriority priority) {
             this.node = node;
             this.path = path;
+            this.priority = priority;
+        }
+
+        private CluckRoute getRoute() {
+            if (route == null) {
+                route = node.getRoute(path);
+            }
+            return route;
         }
 
         public void set(boolean b) {
-            node.transmit(path, null, new byte[] { RMT_BOOLOUTP, b ? (byte) 1 : 0 });
+            node.transmit(getRoute(), null, new byte[] { RMT_BOOLOUTP, b ? (byte) 1 : 0 }, null, priority);
         }
     }
 
@@ -1017,15 +1293,25 @@ public class CluckPublisher {
         private static final long serialVersionUID = -4377296771561862860L;
         private final CluckNode node;
         private final String path;
+        private final CluckPriority priority;
+        private transient CluckRoute route;
 
-        SubscribedFloatOutput(CluckNode node, String path) {
+        SubscribedFloatOutput(CluckNode node, String path, CluckPriority priority) {
             this.node = node;
             this.path = path;
+            this.priority = priority;
+        }
+
+        private CluckRoute getRoute() {
+            if (route == null) {
+                route = node.getRoute(path);
+            }
+            return route;
         }
 
         public void set(float f) {
             int iver = Float.floatToIntBits(f);
-            node.transmit(path, null, new byte[] { RMT_FLOATOUTP, (byte) (iver >> 24), (byte) (iver >> 16), (byte) (iver >> 8), (byte) iver });
+            node.transmit(getRoute(), null, new byte[] { RMT_FLOATOUTP, (byte) (iver >> 24), (byte) (iver >> 16), (byte) (iver >> 8), (byte) iver }, null, priority);
         }
     }
 
@@ -1034,15 +1320,23 @@ public class CluckPublisher {
         private static final long serialVersionUID = -9002013295388072459L;
         private final CluckNode node;
         private final String path;
+        private transient CluckRoute route;
 
         SubscribedObjectStream(CluckNode node, String path) {
             this.node = node;
             this.path = path;
         }
 
+        private CluckRoute getRoute() {
+            if (route == null) {
+                route = node.getRoute(path);
+            }
+            return route;
+        }
+
         @Override
         public void write(int b) throws IOException {
-            node.transmit(path, null, new byte[] { RMT_OUTSTREAM, (byte) b });
+            node.transmit(getRoute(), null, new byte[] { RMT_OUTSTREAM, (byte) b }, null);
         }
 
         @Override
@@ -1050,7 +1344,7 @@ public class CluckPublisher {
             byte[] newbyteout = new byte[len + 1];
             newbyteout[0] = RMT_OUTSTREAM;
             System.arraycopy(b, off, newbyteout, 1, len);
-            node.transmit(path, null, newbyteout);
+            node.transmit(getRoute(), null, newbyteout, null);
         }
     }
 
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck;
+
+/**
+ * A pre-resolved path to a target on a CluckNode. The path is split into the
+ * next link and the rest of the path once, and the link that the path leads
+ * through is remembered until the node's links change.
+ *
+ * Routes are interned by the node, so there is at most one route per target
+ * path at any time. Get one with CluckNode.getRoute and send messages over it
+ * with CluckNode.transmit.
+ *
+ * @see CluckNode#getRoute(java.lang.String)
+ * @see CluckNode#transmit(ccre.cluck.CluckRoute, java.lang.String, byte[],
+ * ccre.cluck.CluckLink)
+ * @author skeggsc
+ */
+public final class CluckRoute {
+
+    /**
+     * The node that this route belongs to.
+     */
+    final CluckNode node;
+    /**
+     * The full target path of this route.
+     */
+    public final String target;
+    /**
+     * The name of the link that this route goes through first, or null if this
+     * route is a broadcast.
+     */
+    final String direct;
+    /**
+     * The rest of the path after the first link, or null if the target is the
+     * link itself.
+     */
+    final String indirect;
+    /**
+     * The last resolution of this route, or null if it hasn't been resolved.
+     */
+    private volatile Resolution resolution;
+
+    CluckRoute(CluckNode node, String target) {
+        this.node = node;
+        this.target = target;
+        if ("*".equals(target)) {
+            direct = null;
+            indirect = null;
+        } else {
+            int slash = target.indexOf('/');
+            if (slash == -1) {
+                direct = target;
+                indirect = null;
+            } else {
+                direct = target.substring(0, slash);
+                indirect = target.substring(slash + 1);
+            }
+        }
+    }
+
+    /**
+     * @return if this route is a broadcast to all links.
+     */
+    boolean isBroadcast() {
+        return direct == null;
+    }
+
+    /**
+     * Get the link that this route goes through, if it was resolved during the
+     * specified generation of the node's links.
+     *
+     * @param generation The current generation of the node's links.
+     * @return The resolution, or null if the route needs to be resolved again.
+     */
+    Resolution getResolution(int generation) {
+        Resolution r = resolution;
+        return r != null && r.generation == generation ? r : null;
+    }
+
+    /**
+     * Remember that the route goes through the specified link during the
+     * specified generation.
+     *
+     * @param link The link, or null if there is no such link.
+     * @param generation The generation when the link was looked up.
+     * @return The new resolution.
+     */
+    Resolution resolved(CluckLink link, int generation) {
+        Resolution r = new Resolution(link, generation);
+        resolution = r;
+        return r;
+    }
+
+    @Override
+    public String toString() {
+        return "[CluckRoute " + target + "]";
+    }
+
+    /**
+     * An immutable pairing of a resolved link with the generation of the link
+     * table that it was resolved in, so that both can be read together without
+     * locking.
+     */
+    static final class Resolution {
+
+        final CluckLink link;
+        final int generation;
+
+        Resolution(CluckLink link, int generation) {
+            this.link = link;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck;
+
+import java.util.Iterator;
+
+import ccre.channel.EventOutput;
+import ccre.channel.FloatInput;
+import ccre.channel.FloatStatus;
+import ccre.concurrency.ConcurrentDispatchMap;
+import ccre.ctrl.Ticker;
+import ccre.rconf.RConf;
+import ccre.rconf.RConf.Entry;
+import ccre.rconf.RConfable;
+import ccre.time.Clock;
+import ccre.util.CArrayList;
+
+/**
+ * Measurements of the Cluck traffic through a CluckNode: messages and bytes
+ * per second over each network link, and for each RMT type routed by the
+ * node, along with queue depths, send latency (from when a message is queued
+ * until it is written), dispatch latency (from when a message is received
+ * until the node has finished delivering it), and checksum failures.
+ *
+ * Byte counts are of message contents, not including paths or framing.
+ *
+ * Nothing is measured until enable or publish is called, so that an unused
+ * CluckTrafficMetrics costs almost nothing. Once published, the measurements
+ * are available as FloatInputs under PREFIX, and as an RConf status panel at
+ * PREFIX + "status". They are only updated every SAMPLE_INTERVAL
+ * milliseconds, so that publishing them can't flood the links that they
+ * describe.
+ *
+ * @author skeggsc
+ * @see CluckNode#getTrafficMetrics()
+ */
+public final class CluckTrafficMetrics implements RConfable {
+
+    /**
+     * The reserved prefix of the names that the measurements are published
+     * under.
+     */
+    public static final String PREFIX = "cluck-metrics.";
+    /**
+     * How often the rates are recalculated, in milliseconds.
+     */
+    public static final int SAMPLE_INTERVAL = 1000;
+    /**
+     * The most links that are measured separately. Any further links are
+     * counted together as "other".
+     */
+    public static final int MAX_TRACKED_LINKS = 32;
+    private static final String OTHER_LINKS = "other";
+
+    /**
+     * The names of the published measurements of each link, in the order used
+     * by LinkMetrics.statuses.
+     */
+    private static final String[] linkMetricNames = new String[] { "messages-out-per-sec", "bytes-out-per-sec", "messages-in-per-sec", "bytes-in-per-sec", "queue-depth", "send-latency-ms", "dispatch-latency-ms", "checksum-failures" };
+
+    private final CluckNode node;
+    private volatile boolean enabled = false;
+    private boolean published = false;
+    private Ticker sampler;
+    private long lastSample = Clock.nanos();
+    private final ConcurrentDispatchMap<String, LinkMetrics> links = new ConcurrentDispatchMap<String, LinkMetrics>();
+
+    private final int[] rmtMessages = new int[256], rmtBytes = new int[256];
+    private final FloatStatus[] rmtMessageRates = new FloatStatus[256], rmtByteRates = new FloatStatus[256];
+
+    CluckTrafficMetrics(CluckNode node) {
+        this.node = node;
+    }
+
+    /**
+     * @return if measurements are being collected.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start collecting measurements, without publishing them or updating them
+     * automatically.
+     *
+     * @see #sample()
+     */
+    public void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Start collecting measurements, publish them under PREFIX, and start a
+     * Ticker to update them every SAMPLE_INTERVAL milliseconds. Measurements of
+     * links and RMT types that haven't been seen yet are published when they
+     * are first seen.
+     */
+    public synchronized void publish() {
+        if (published) {
+            return;
+        }
+        published = true;
+        enabled = true;
+        for (Iterator<String> it = links.iterator(); it.hasNext();) {
+            links.get(it.next()).publish();
+        }
+        for (int i = 0; i < rmtMessageRates.length; i++) {
+            if (rmtMessageRates[i] != null) {
+                publishRMT(i);
+            }
+        }
+        CluckPublisher.publishRConf(node, PREFIX + "status", this);
+        sampler = new Ticker(SAMPLE_INTERVAL);
+        sampler.send(new EventOutput() {
+            public void event() {
+                sample();
+            }
+        });
+    }
+
+    /**
+     * Recalculate the rates from the counts since the last sample, and update
+     * the FloatInputs. This is called automatically once published.
+     *
+     * If no time has passed since the last sample, as measured by the Clock,
+     * the rates are left alone and the counts are kept for the next sample,
+     * but the other measurements are still updated.
+     */
+    public synchronized void sample() {
+        long now = Clock.nanos();
+        float seconds = (now - lastSample) / 1000000000f;
+        boolean hasRates = seconds > 0;
+        if (hasRates) {
+            lastSample = now;
+        }
+        for (Iterator<LinkMetrics> it = links.valueIterator(); it.hasNext();) {
+            it.next().sample(hasRates ? seconds : 0);
+        }
+        int[] messages = new int[rmtMessages.length], bytes = new int[rmtBytes.length];
+        synchronized (rmtMessages) {
+            System.arraycopy(rmtMessages, 0, messages, 0, messages.length);
+            System.arraycopy(rmtBytes, 0, bytes, 0, bytes.length);
+            if (hasRates) {
+                for (int i = 0; i < rmtMessages.length; i++) {
+                    rmtMessages[i] = 0;
+                    rmtBytes[i] = 0;
+                }
+            }
+        }
+        for (int i = 0; i < messages.length; i++) {
+            if (rmtMessageRates[i] == null) {
+                if (messages[i] == 0) {
+                    continue;
+                }
+                rmtMessageRates[i] = new FloatStatus();
+                rmtByteRates[i] = new FloatStatus();
+                if (published) {
+                    publishRMT(i);
+                }
+            }
+            if (hasRates) {
+                rmtMessageRates[i].set(messages[i] / seconds);
+                rmtByteRates[i].set(bytes[i] / seconds);
+            }
+        }
+    }
+
+    private void publishRMT(int rmt) {
+        String name = CluckNode.rmtToString(rmt);
+        if (name.startsWith("Unknown")) {
+            name = Integer.toString(rmt);
+        }
+        CluckPublisher.publish(node, PREFIX + "rmt." + name + ".messages-per-sec", (FloatInput) rmtMessageRates[rmt]);
+        CluckPublisher.publish(node, PREFIX + "rmt." + name + ".bytes-per-sec", (FloatInput) rmtByteRates[rmt]);
+    }
+
+    /**
+     * Get the latest value of one of the measurements of a link, as published
+     * under PREFIX + linkName + "." + metric. The metric is one of
+     * messages-out-per-sec, bytes-out-per-sec, messages-in-per-sec,
+     * bytes-in-per-sec, queue-depth, send-latency-ms, dispatch-latency-ms, or
+     * checksum-failures.
+     *
+     * @param linkName The name of the link.
+     * @param metric The name of the measurement.
+     * @return The measurement, or null if the link hasn't been seen yet.
+     * @throws IllegalArgumentException If the metric name is unknown.
+     */
+    public FloatInput getLinkMetric(String linkName, String metric) throws IllegalArgumentException {
+        for (int i = 0; i < linkMetricNames.length; i++) {
+            if (linkMetricNames[i].equals(metric)) {
+                LinkMetrics link = links.get(linkName);
+                return link == null ? null : link.statuses[i];
+            }
+        }
+        throw new IllegalArgumentException("Unknown link metric: " + metric);
+    }
+
+    /**
+     * Get the latest rate of messages of the specified RMT type routed by the
+     * node.
+     *
+     * @param rmt The RMT_* message ID.
+     * @return The rate in messages per second, or null if no messages of the
+     * type have been seen yet.
+     */
+    public synchronized FloatInput getRMTMessageRate(byte rmt) {
+        return rmtMessageRates[rmt & 0xFF];
+    }
+
+    private LinkMetrics getLink(String linkName) {
+        if (linkName == null) {
+            linkName = OTHER_LINKS;
+        }
+        LinkMetrics out = links.get(linkName);
+        if (out == null) {
+            if (links.size() >= MAX_TRACKED_LINKS) {
+                linkName = OTHER_LINKS;
+                out = links.get(linkName);
+                if (out != null) {
+                    return out;
+                }
+            }
+            LinkMetrics created = new LinkMetrics(linkName);
+            out = links.putIfAbsent(linkName, created);
+            if (out == null) {
+                out = created;
+                synchronized (this) {
+                    if (published) {
+                        created.publish();
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Count a message routed by the node. Called by CluckNode.
+     *
+     * @param data The contents of the message.
+     */
+    void recordRouted(byte[] data) {
+        if (data.length != 0) {
+            int rmt = data[0] & 0xFF;
+            synchronized (rmtMessages) {
+                rmtMessages[rmt]++;
+                rmtBytes[rmt] += data.length;
+            }
+        }
+    }
+
+    /**
+     * Count a message sent over a network link. Called by link
+     * implementations, only when isEnabled() is true.
+     *
+     * @param linkName The name of the link.
+     * @param data The contents of the message.
+     * @param queuedAt When the message was queued to be sent, from
+     * System.currentTimeMillis().
+     */
+    public void recordSent(String linkName, byte[] data, long queuedAt) {
+        LinkMetrics link = getLink(linkName);
+        long latency = System.currentTimeMillis() - queuedAt;
+        synchronized (link) {
+            link.messagesOut++;
+            link.bytesOut += data.length;
+            link.sendLatencyTotal += latency;
+            link.sendLatencyCount++;
+        }
+    }
+
+    /**
+     * Count a message received over a network link. Called by link
+     * implementations, only when isEnabled() is true.
+     *
+     * @param linkName The name of the link.
+     * @param data The contents of the message.
+     * @param dispatchMillis How long the node took to deliver the message.
+     */
+    public void recordReceived(String linkName, byte[] data, long dispatchMillis) {
+        LinkMetrics link = getLink(linkName);
+        synchronized (link) {
+            link.messagesIn++;
+            link.bytesIn += data.length;
+            link.dispatchLatencyTotal += dispatchMillis;
+            link.dispatchLatencyCount++;
+        }
+    }
+
+    /**
+     * Report the number of messages waiting to be sent over a network link.
+     * Called by link implementations, only when isEnabled() is true.
+     *
+     * @param linkName The name of the link.
+     * @param depth The number of waiting messages.
+     */
+    public void recordQueueDepth(String linkName, int depth) {
+        LinkMetrics link = getLink(linkName);
+        synchronized (link) {
+            link.queueDepth = depth;
+        }
+    }
+
+    /**
+     * Count a message received over a network link that failed its checksum.
+     * Called by link implementations, only when isEnabled() is true.
+     *
+     * @param linkName The name of the link.
+     */
+    public void recordChecksumFailure(String linkName) {
+        LinkMetrics link = getLink(linkName);
+        synchronized (link) {
+            link.checksumFailures++;
+        }
+    }
+
+    public Entry[] queryRConf() {
+        CArrayList<Entry> out = new CArrayList<Entry>();
+        out.add(RConf.title("Cluck Traffic"));
+        for (Iterator<String> it = links.iterator(); it.hasNext();) {
+            String name = it.next();
+            FloatStatus[] s = links.get(name).statuses;
+            out.add(RConf.string(name + ": out " + (int) s[0].get() + " msg/s " + (int) s[1].get() + " B/s, in " + (int) s[2].get() + " msg/s " + (int) s[3].get() + " B/s"));
+            out.add(RConf.string(name + ": queue " + (int) s[4].get() + ", send " + s[5].get() + " ms, dispatch " + s[6].get() + " ms, bad checksums " + (int) s[7].get()));
+        }
+        synchronized (this) {
+            for (int i = 0; i < rmtMessageRates.length; i++) {
+                if (rmtMessageRates[i] != null && rmtMessageRates[i].get() != 0) {
+                    out.add(RConf.string(CluckNode.rmtToString(i) + ": " + (int) rmtMessageRates[i].get() + " msg/s " + (int) rmtByteRates[i].get() + " B/s"));
+                }
+            }
+        }
+        out.add(RConf.autoRefresh(SAMPLE_INTERVAL));
+        Entry[] entries = new Entry[out.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = out.get(i);
+        }
+        return entries;
+    }
+
+    public boolean signalRConf(int field, byte[] data) {
+        return false;
+    }
+
+    private class LinkMetrics {
+
+        private final String name;
+        private boolean linkPublished = false;
+        int messagesOut, bytesOut, messagesIn, bytesIn, queueDepth, checksumFailures;
+        long sendLatencyTotal, dispatchLatencyTotal;
+        int sendLatencyCount, dispatchLatencyCount;
+        /**
+         * The published measurements, in the order of linkMetricNames.
+         */
+        final FloatStatus[] statuses = new FloatStatus[linkMetricNames.length];
+
+        LinkMetrics(String name) {
+            this.name = name;
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = new FloatStatus();
+            }
+        }
+
+        /**
+         * Publish the measurements of this link. Callers must hold the lock on
+         * the CluckTrafficMetrics.
+         */
+        void publish() {
+            if (linkPublished) {
+                return;
+            }
+            linkPublished = true;
+            for (int i = 0; i < statuses.length; i++) {
+                CluckPublisher.publish(node, PREFIX + name + "." + linkMetricNames[i], (FloatInput) statuses[i]);
+            }
+        }
+
+        /**
+         * Update the measurements of this link, with the rates over the
+         * specified time, or without changing the rates if it is zero.
+         */
+        void sample(float seconds) {
+            float[] values = new float[statuses.length];
+            synchronized (this) {
+                if (seconds > 0) {
+                    values[0] = messagesOut / seconds;
+                    values[1] = bytesOut / seconds;
+                    values[2] = messagesIn / seconds;
+                    values[3] = bytesIn / seconds;
+                    values[5] = sendLatencyCount == 0 ? 0 : sendLatencyTotal / (float) sendLatencyCount;
+                    values[6] = dispatchLatencyCount == 0 ? 0 : dispatchLatencyTotal / (float) dispatchLatencyCount;
+                    messagesOut = bytesOut = messagesIn = bytesIn = 0;
+                    sendLatencyTotal = dispatchLatencyTotal = 0;
+                    sendLatencyCount = dispatchLatencyCount = 0;
+                } else {
+                    for (int i = 0; i < 4; i++) {
+                        values[i] = statuses[i].get();
+                    }
+                    values[5] = statuses[5].get();
+                    values[6] = statuses[6].get();
+                }
+                values[4] = queueDepth;
+                values[7] = checksumFailures;
+            }
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i].set(values[i]);
+            }
+        }
+    }
+}
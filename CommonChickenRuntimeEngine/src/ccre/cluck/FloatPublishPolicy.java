@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck;
+
+import java.io.Serializable;
+
+/**
+ * A policy for how often a published FloatInput sends updates to its remote
+ * subscribers. By default, this sends every change immediately, just like a
+ * normal publish. Each subscriber is tracked separately, based on the last
+ * value actually sent to it.
+ *
+ * For example, to send a noisy gyro only when it moves by at least a tenth of
+ * a degree, at most every 50 milliseconds, but at least every second:
+ *
+ * <code>CluckPublisher.publish(node, "gyro", gyro, new FloatPublishPolicy().setAbsoluteDeadband(0.1f).setMinimumInterval(50).setMaximumStaleness(1000));</code>
+ *
+ * @see CluckPublisher#publish(CluckNode, String, ccre.channel.FloatInput,
+ * FloatPublishPolicy)
+ * @author skeggsc
+ */
+public final class FloatPublishPolicy implements Serializable {
+
+    private static final long serialVersionUID = 2750216410823785402L;
+
+    private float absoluteDeadband = 0, relativeDeadband = 0, quantization = 0;
+    private int minimumInterval = 0, maximumStaleness = 0;
+
+    /**
+     * Don't send changes smaller than or equal to the specified amount.
+     *
+     * @param deadband the absolute deadband.
+     * @return this policy, for chaining.
+     * @throws IllegalArgumentException if the deadband is negative.
+     */
+    public FloatPublishPolicy setAbsoluteDeadband(float deadband) throws IllegalArgumentException {
+        if (!(deadband >= 0)) {
+            throw new IllegalArgumentException("Deadband must be >= 0.");
+        }
+        this.absoluteDeadband = deadband;
+        return this;
+    }
+
+    /**
+     * Don't send changes smaller than or equal to the specified fraction of the
+     * last sent value. If an absolute deadband is also set, the larger of the
+     * two applies.
+     *
+     * @param fraction the relative deadband, such as 0.01f for one percent.
+     * @return this policy, for chaining.
+     * @throws IllegalArgumentException if the deadband is negative.
+     */
+    public FloatPublishPolicy setRelativeDeadband(float fraction) throws IllegalArgumentException {
+        if (!(fraction >= 0)) {
+            throw new IllegalArgumentException("Deadband must be >= 0.");
+        }
+        this.relativeDeadband = fraction;
+        return this;
+    }
+
+    /**
+     * Don't send updates to the same subscriber more often than the specified
+     * interval. A change held back by this is sent once the interval is over.
+     *
+     * @param millis the minimum interval between updates, in milliseconds.
+     * @return this policy, for chaining.
+     * @throws IllegalArgumentException if the interval is negative.
+     */
+    public FloatPublishPolicy setMinimumInterval(int millis) throws IllegalArgumentException {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Interval must be >= 0.");
+        }
+        this.minimumInterval = millis;
+        return this;
+    }
+
+    /**
+     * Resend the current value to each subscriber that hasn't been sent
+     * anything for the specified amount of time, even if it hasn't changed.
+     *
+     * @param millis the maximum time between updates, in milliseconds, or zero
+     * for no limit.
+     * @return this policy, for chaining.
+     * @throws IllegalArgumentException if the time is negative.
+     */
+    public FloatPublishPolicy setMaximumStaleness(int millis) throws IllegalArgumentException {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Staleness must be >= 0.");
+        }
+        this.maximumStaleness = millis;
+        return this;
+    }
+
+    /**
+     * Round values to the nearest multiple of the specified step before
+     * sending them.
+     *
+     * @param step the quantization step, or zero for no quantization.
+     * @return this policy, for chaining.
+     * @throws IllegalArgumentException if the step is negative.
+     */
+    public FloatPublishPolicy setQuantization(float step) throws IllegalArgumentException {
+        if (!(step >= 0)) {
+            throw new IllegalArgumentException("Quantization must be >= 0.");
+        }
+        this.quantization = step;
+        return this;
+    }
+
+    /**
+     * @return if this policy ever needs to send updates when the value hasn't
+     * just changed.
+     */
+    boolean needsPolling() {
+        return minimumInterval > 0 || maximumStaleness > 0;
+    }
+
+    /**
+     * Apply the quantization of this policy to a value.
+     *
+     * @param value the raw value.
+     * @return the value to send.
+     */
+    float quantize(float value) {
+        if (quantization == 0) {
+            return value;
+        }
+        return (float) (Math.floor(value / quantization + 0.5) * quantization);
+    }
+
+    /**
+     * Decide whether or not a (quantized) value should be sent to a subscriber.
+     *
+     * @param lastSent the last value sent to the subscriber.
+     * @param lastSentAt when that value was sent.
+     * @param value the current value.
+     * @param now the current time.
+     * @return if the value should be sent now.
+     */
+    boolean shouldSend(float lastSent, long lastSentAt, float value, long now) {
+        if (maximumStaleness > 0 && now - lastSentAt >= maximumStaleness) {
+            return true;
+        }
+        if (now - lastSentAt < minimumInterval) {
+            return false;
+        }
+        float threshold = Math.max(absoluteDeadband, relativeDeadband * Math.abs(lastSent));
+        if (threshold == 0 || Float.isNaN(value) || Float.isNaN(lastSent)) {
+            return Float.floatToIntBits(value) != Float.floatToIntBits(lastSent);
+        }
+        return Math.abs(value - lastSent) > threshold;
+    }
+}
@@ -0,0 +1,698 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck.tcp;
+
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+import ccre.cluck.CluckNode;
+import ccre.cluck.CluckPrioritizedLink;
+import ccre.cluck.CluckPriority;
+import ccre.cluck.CluckTrafficMetrics;
+import ccre.cluck.tcp.CluckProtocol.SendableEntry;
+import ccre.log.Logger;
+import ccre.util.CHashMap;
+import ccre.util.UniqueIds;
+
+/**
+ * A single connection multiplexed by a CluckNIOTransport. This speaks the same
+ * wire format as CluckProtocol, but decodes frames directly out of a reusable
+ * receive buffer and encodes them into a reusable send buffer.
+ *
+ * Everything here except for send() must only be called from the transport's
+ * I/O thread.
+ *
+ * @author skeggsc
+ */
+class CluckNIOConnection implements CluckPrioritizedLink {
+
+    private static final int STATE_CONNECTING = 0;
+    private static final int STATE_HEADER = 1;
+    private static final int STATE_BOUNCE = 2;
+    private static final int STATE_HINT = 3;
+    private static final int STATE_OPEN = 4;
+    /**
+     * How long a connection can take to connect and finish the header
+     * exchange, in milliseconds.
+     */
+    private static final int HANDSHAKE_TIMEOUT = 5000;
+    /**
+     * How many bytes of encoded messages can wait in the output buffer before
+     * no more queued messages are encoded.
+     */
+    private static final int OUTPUT_HIGH_WATER = 8192;
+
+    private final CluckNIOTransport transport;
+    private final CluckNode node;
+    private final CluckTrafficMetrics metrics;
+    private final SocketChannel channel;
+    private SelectionKey key;
+    /**
+     * The client endpoint that opened this connection, or null if this was
+     * accepted by a server.
+     */
+    final CluckNIOTransport.ClientEndpoint endpoint;
+    private String linkName;
+    private final String remoteHint;
+    private int state = STATE_CONNECTING;
+    private volatile boolean closed = false;
+    private final int ra, rb;
+    /**
+     * The highest protocol version offered, and then the version agreed on.
+     */
+    private int version;
+    /**
+     * The path dictionaries for each direction, if the compact format is used.
+     */
+    private CluckPathDictionary sentPaths, receivedPaths;
+    private ByteBuffer in = ByteBuffer.allocate(4096);
+    private ByteBuffer out = ByteBuffer.allocateDirect(8192);
+    private char[] chars = new char[64];
+    /**
+     * The number of bytes needed in the receive buffer to decode the next
+     * frame, if known.
+     */
+    private int needed = 0;
+    /**
+     * Messages queued by send() for the I/O thread to encode.
+     */
+    private final CluckSendQueue pending;
+    /**
+     * Whether or not this connection is in the transport's dirty list.
+     * Protected by pending.
+     */
+    private boolean dirty = false;
+    private boolean expectKeepAlives = false;
+    /**
+     * Prepended source paths, reused between frames. Only used from the I/O
+     * thread.
+     */
+    private final CHashMap<String, String> sources = new CHashMap<String, String>();
+    private final long openedAt;
+    private long lastReceive, lastSend;
+
+    CluckNIOConnection(CluckNIOTransport transport, SocketChannel channel, CluckNIOTransport.ClientEndpoint endpoint) {
+        this.transport = transport;
+        this.node = transport.node;
+        this.metrics = node.getTrafficMetrics();
+        this.channel = channel;
+        this.endpoint = endpoint;
+        this.linkName = endpoint == null ? null : endpoint.linkName;
+        this.remoteHint = endpoint == null ? null : endpoint.remoteNameHint;
+        CluckQueuePolicy policy = transport.getQueuePolicy();
+        this.pending = new CluckSendQueue(endpoint == null ? String.valueOf(channel.socket().getRemoteSocketAddress()) : endpoint.remote, policy == null ? CluckProtocol.getDefaultQueuePolicy() : policy, CluckProtocol.getQueueStatus());
+        Random r = new Random();
+        version = CluckProtocol.getMaximumProtocolVersion();
+        ra = r.nextInt();
+        rb = CluckProtocol.offerVersion(ra, r.nextInt(), version);
+        openedAt = System.currentTimeMillis();
+    }
+
+    void register(Selector selector, int ops) throws IOException {
+        key = channel.register(selector, ops, this);
+    }
+
+    /**
+     * Called once the underlying socket is connected: starts the header
+     * exchange.
+     *
+     * @throws IOException If an IO error occurs.
+     */
+    void begin() throws IOException {
+        state = STATE_HEADER;
+        key.interestOps(SelectionKey.OP_READ);
+        out.putInt(CluckProtocol.MAGIC_NUMBER).putInt(ra).putInt(rb);
+        flushOutput();
+    }
+
+    void handleConnect() throws IOException {
+        if (channel.finishConnect()) {
+            begin();
+        }
+    }
+
+    void handleWrite() throws IOException {
+        flushOutput();
+        if (state == STATE_OPEN && out.position() == 0) {
+            flushPending();
+        }
+    }
+
+    void handleRead() throws IOException {
+        int count = channel.read(in);
+        if (count < 0) {
+            close("Link receiving disconnected: " + linkName, false);
+            return;
+        }
+        if (count == 0) {
+            return;
+        }
+        in.flip();
+        try {
+            decode();
+        } finally {
+            in.compact();
+        }
+        if (!in.hasRemaining() || needed > in.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, in.capacity() * 2));
+            in.flip();
+            larger.put(in);
+            in = larger;
+        }
+        flushOutput();
+    }
+
+    private void decode() throws IOException {
+        while (!closed) {
+            switch (state) {
+            case STATE_HEADER:
+                if (in.remaining() < 12) {
+                    return;
+                }
+                if (in.getInt() != CluckProtocol.MAGIC_NUMBER) {
+                    throw new IOException("Magic number did not match!");
+                }
+                int pa = in.getInt(), pb = in.getInt();
+                version = CluckProtocol.agreeVersion(version, pa, pb);
+                ensureOutput(4);
+                out.putInt(pa ^ pb);
+                state = STATE_BOUNCE;
+                break;
+            case STATE_BOUNCE:
+                if (in.remaining() < 4) {
+                    return;
+                }
+                if (in.getInt() != (ra ^ rb)) {
+                    throw new IOException("Did not bounce properly!");
+                }
+                putUTF(remoteHint == null ? "" : remoteHint);
+                state = STATE_HINT;
+                break;
+            case STATE_HINT:
+                if (in.remaining() < 2 || in.remaining() < 2 + (in.getShort(in.position()) & 0xFFFF)) {
+                    return;
+                }
+                opened(getUTF());
+                break;
+            case STATE_OPEN:
+                if (!(receivedPaths == null ? decodeFrame() : decodeCompactFrame())) {
+                    return;
+                }
+                break;
+            default:
+                return;
+            }
+        }
+    }
+
+    private void opened(String hint) {
+        if (linkName == null) {
+            linkName = hint != null ? hint : UniqueIds.global.nextHexId("tcpserv");
+            Logger.fine("Client connected at " + System.currentTimeMillis() + " named " + linkName);
+        } else {
+            Logger.fine("Connected to " + endpoint.remote + " at " + System.currentTimeMillis());
+        }
+        if (version >= CluckProtocol.PROTOCOL_VERSION_COMPACT) {
+            sentPaths = new CluckPathDictionary();
+            receivedPaths = new CluckPathDictionary();
+        }
+        state = STATE_OPEN;
+        lastReceive = lastSend = System.currentTimeMillis();
+        node.addOrReplaceLink(this, linkName);
+        if (endpoint != null) {
+            node.notifyNetworkModified(); // Only send here, not on server.
+        }
+    }
+
+    /**
+     * Decode and dispatch one frame from the receive buffer, if a complete
+     * frame is available.
+     *
+     * @return if a frame was dispatched.
+     * @throws IOException If the frame is malformed.
+     */
+    private boolean decodeFrame() throws IOException {
+        int base = in.position(), available = in.remaining();
+        if (available < 4) {
+            return false;
+        }
+        int destLength = in.getShort(base) & 0xFFFF;
+        if (available < 2 + destLength + 2) {
+            return false;
+        }
+        int sourceLength = in.getShort(base + 2 + destLength) & 0xFFFF;
+        int header = 2 + destLength + 2 + sourceLength + 4;
+        if (available < header) {
+            return false;
+        }
+        int dataLength = in.getInt(base + header - 4);
+        if (dataLength < 0) {
+            throw new IOException("Bad message length: " + dataLength);
+        }
+        int total = header + 8 + dataLength + 8;
+        if (available < total) {
+            needed = total;
+            return false;
+        }
+        needed = 0;
+        String dest = getUTF();
+        String source = getUTF();
+        in.getInt();
+        long checksumBase = in.getLong();
+        byte[] data = new byte[dataLength];
+        in.get(data);
+        if (in.getLong() != CluckProtocol.checksum(data, checksumBase)) {
+            checksumFailed();
+            throw new IOException("Checksums did not match!");
+        }
+        dispatch(dest, source, data);
+        return true;
+    }
+
+    /**
+     * Decode and dispatch one frame in the compact format from the receive
+     * buffer, if a complete frame is available. Nothing is consumed, and no
+     * paths are defined, until the whole frame has arrived.
+     *
+     * @return if a frame was dispatched.
+     * @throws IOException If the frame is malformed.
+     */
+    private boolean decodeCompactFrame() throws IOException {
+        int base = in.position(), limit = in.limit();
+        int lengthAt = skipPath(skipPath(base, limit), limit);
+        int dataAt = skipVarint(lengthAt, limit);
+        if (dataAt == -1) {
+            return false;
+        }
+        int dataLength = peekVarint(lengthAt);
+        if (dataLength < 0) {
+            throw new IOException("Bad message length: " + dataLength);
+        }
+        int total = dataAt - base + dataLength + 4;
+        if (in.remaining() < total) {
+            needed = total;
+            return false;
+        }
+        needed = 0;
+        String dest = getPath();
+        String source = getPath();
+        in.position(dataAt);
+        byte[] data = new byte[dataLength];
+        in.get(data);
+        if (in.getInt() != CluckProtocol.compactChecksum(data, CluckProtocol.compactChecksumBasis(dest, source, dataLength))) {
+            checksumFailed();
+            throw new IOException("Checksums did not match!");
+        }
+        dispatch(dest, source, data);
+        return true;
+    }
+
+    private void checksumFailed() {
+        if (metrics.isEnabled()) {
+            metrics.recordChecksumFailure(linkName);
+        }
+    }
+
+    private void dispatch(String dest, String source, byte[] data) {
+        lastReceive = System.currentTimeMillis();
+        if (!expectKeepAlives && "KEEPALIVE".equals(dest) && source == null && data.length >= 2 && data[0] == CluckNode.RMT_NEGATIVE_ACK && data[1] == 0x6D) {
+            expectKeepAlives = true;
+            Logger.info("Detected KEEPALIVE message. Expecting future keepalives on " + linkName + ".");
+        }
+        source = CluckProtocol.prependLink(linkName, source, sources);
+        CluckProtocol.deliver(node, dest, source, data, this, linkName);
+    }
+
+    /**
+     * Find the end of a variable-length integer in the receive buffer.
+     *
+     * @param pos The position of the integer, or -1.
+     * @param limit The end of the received data.
+     * @return The position after the integer, or -1 if it hasn't all arrived.
+     * @throws IOException If the integer is too long.
+     */
+    private int skipVarint(int pos, int limit) throws IOException {
+        if (pos == -1) {
+            return -1;
+        }
+        for (int i = 0; i < 5; i++) {
+            if (pos >= limit) {
+                return -1;
+            }
+            if ((in.get(pos++) & 0x80) == 0) {
+                return pos;
+            }
+        }
+        throw new IOException("Variable-length integer too long!");
+    }
+
+    /**
+     * Decode a variable-length integer that has entirely arrived, without
+     * consuming it.
+     */
+    private int peekVarint(int pos) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.get(pos++);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Find the end of a path reference in the receive buffer, including the
+     * string if it is a literal.
+     *
+     * @param pos The position of the reference, or -1.
+     * @param limit The end of the received data.
+     * @return The position after the reference, or -1 if it hasn't all
+     * arrived.
+     * @throws IOException If the reference is malformed.
+     */
+    private int skipPath(int pos, int limit) throws IOException {
+        int end = skipVarint(pos, limit);
+        if (end == -1 || peekVarint(pos) != CluckPathDictionary.REF_LITERAL) {
+            return end;
+        }
+        if (end + 2 > limit) {
+            return -1;
+        }
+        end += 2 + (in.getShort(end) & 0xFFFF);
+        return end > limit ? -1 : end;
+    }
+
+    /**
+     * Consume a path reference that has entirely arrived, and look it up.
+     */
+    private String getPath() throws IOException {
+        int ref = peekVarint(in.position());
+        in.position(skipVarint(in.position(), in.limit()));
+        if (ref != CluckPathDictionary.REF_LITERAL) {
+            return receivedPaths.decode(ref);
+        }
+        String path = getUTF();
+        receivedPaths.define(path);
+        return path;
+    }
+
+    public boolean send(String dest, String source, byte[] data) {
+        return send(dest, source, data, CluckPriority.forMessage(data));
+    }
+
+    public boolean send(String dest, String source, byte[] data, CluckPriority priority) {
+        synchronized (pending) {
+            if (closed) {
+                return false;
+            }
+            try {
+                pending.add(new SendableEntry(source, dest, data), priority, Thread.currentThread() != transport);
+            } catch (InterruptedException ex) {
+                Logger.warning("[LOCAL] Interrupted while waiting to send to " + dest);
+            }
+            if (closed) {
+                // Closed while waiting for room.
+                pending.clear();
+                return false;
+            }
+            if (!dirty) {
+                dirty = true;
+                transport.markDirty(this);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode the messages queued by send() and start writing them. Only
+     * enough messages are encoded to keep the socket busy: the rest stay
+     * queued until the socket catches up, so that urgent messages queued in
+     * the meantime can still go first.
+     *
+     * @throws IOException If an IO error occurs.
+     */
+    void flushPending() throws IOException {
+        if (closed) {
+            return;
+        }
+        while (encodePending()) {
+            flushOutput();
+            if (out.position() != 0) {
+                // The socket is backed up. handleWrite will continue once it isn't.
+                return;
+            }
+        }
+        flushOutput();
+    }
+
+    /**
+     * Encode queued messages until the queue is empty or the output buffer is
+     * full enough.
+     *
+     * @return true if messages are still queued.
+     * @throws IOException If a message cannot be encoded.
+     */
+    private boolean encodePending() throws IOException {
+        while (out.position() < OUTPUT_HIGH_WATER) {
+            SendableEntry ent;
+            int depth;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    dirty = false;
+                    if (metrics.isEnabled()) {
+                        metrics.recordQueueDepth(linkName, 0);
+                    }
+                    return false;
+                }
+                ent = pending.removeFirst();
+                depth = pending.size();
+            }
+            putFrame(ent.dst, ent.src, ent.data);
+            if (metrics.isEnabled()) {
+                metrics.recordSent(linkName, ent.data, ent.queuedAt);
+                metrics.recordQueueDepth(linkName, depth);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check for handshake and receive timeouts, and send a keepalive if
+     * nothing else has been sent recently.
+     *
+     * @param now The current time.
+     * @throws IOException If an IO error occurs.
+     */
+    void checkTimers(long now) throws IOException {
+        if (closed) {
+            return;
+        } else if (state != STATE_OPEN) {
+            if (now - openedAt > HANDSHAKE_TIMEOUT) {
+                close("Timed out while connecting" + (endpoint == null ? "." : " to " + endpoint.remote + "."), false);
+            }
+        } else if (expectKeepAlives && now - lastReceive > CluckProtocol.TIMEOUT_PERIOD) {
+            close("Link timed out: " + linkName, false);
+        } else if (now - lastSend >= CluckProtocol.KEEPALIVE_INTERVAL) {
+            // Send a "keep-alive" message. RMT_NEGATIVE_ACK will never be complained about, so it works.
+            putFrame("KEEPALIVE", null, new byte[] { CluckNode.RMT_NEGATIVE_ACK, 0x6D });
+            flushOutput();
+        }
+    }
+
+    private void flushOutput() throws IOException {
+        if (out.position() == 0) {
+            return;
+        }
+        out.flip();
+        if (channel.write(out) > 0) {
+            lastSend = System.currentTimeMillis();
+        }
+        boolean unfinished = out.hasRemaining();
+        out.compact();
+        if (unfinished) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Close this connection, if it isn't already closed.
+     *
+     * @param message The message to log.
+     * @param unexpected If this should be logged as a warning.
+     */
+    void close(String message, boolean unexpected) {
+        synchronized (pending) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.clear();
+        }
+        if (unexpected) {
+            Logger.warning(message);
+        } else {
+            Logger.fine(message);
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            Logger.warning("IO Error while closing connection", ex);
+        }
+        transport.connectionClosed(this);
+    }
+
+    String getLinkName() {
+        return linkName;
+    }
+
+    private void putFrame(String dest, String source, byte[] data) throws IOException {
+        if (sentPaths != null) {
+            putPath(dest);
+            putPath(source);
+            ensureOutput(5 + data.length + 4);
+            putVarint(data.length);
+            out.put(data);
+            out.putInt(CluckProtocol.compactChecksum(data, CluckProtocol.compactChecksumBasis(dest, source, data.length)));
+            return;
+        }
+        ensureOutput(2 + 3 * (dest == null ? 0 : dest.length()) + 2 + 3 * (source == null ? 0 : source.length()) + 4 + 8 + data.length + 8);
+        putUTF(dest == null ? "" : dest);
+        putUTF(source == null ? "" : source);
+        out.putInt(data.length);
+        long begin = CluckProtocol.checksumBasis(dest, source, data.length);
+        out.putLong(begin);
+        out.put(data);
+        out.putLong(CluckProtocol.checksum(data, begin));
+    }
+
+    private void putPath(String path) throws IOException {
+        int ref = sentPaths.encode(path);
+        ensureOutput(5);
+        putVarint(ref);
+        if (ref == CluckPathDictionary.REF_LITERAL) {
+            putUTF(path);
+        }
+    }
+
+    private void putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private void ensureOutput(int count) {
+        if (out.remaining() < count) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(out.position() + count, out.capacity() * 2));
+            out.flip();
+            larger.put(out);
+            out = larger;
+        }
+    }
+
+    /**
+     * Encode a string in the same modified UTF-8 format used by
+     * DataOutputStream.writeUTF.
+     *
+     * @param str The string to encode.
+     * @throws UTFDataFormatException If the string is too long.
+     */
+    private void putUTF(String str) throws UTFDataFormatException {
+        int len = str.length(), utflen = 0;
+        for (int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+            utflen += (c >= 0x0001 && c <= 0x007F) ? 1 : (c > 0x07FF ? 3 : 2);
+        }
+        if (utflen > 65535) {
+            throw new UTFDataFormatException("Encoded string too long: " + utflen + " bytes");
+        }
+        ensureOutput(2 + utflen);
+        out.putShort((short) utflen);
+        for (int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                out.put((byte) c);
+            } else if (c > 0x07FF) {
+                out.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                out.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Decode a string in the same modified UTF-8 format used by
+     * DataInputStream.readUTF, where the empty string means null. The entire
+     * string must already be in the receive buffer.
+     *
+     * @return The decoded string, or null if it was empty.
+     * @throws UTFDataFormatException If the string is malformed.
+     */
+    private String getUTF() throws UTFDataFormatException {
+        int utflen = in.getShort() & 0xFFFF;
+        if (utflen == 0) {
+            return null;
+        }
+        if (chars.length < utflen) {
+            chars = new char[Math.max(utflen, chars.length * 2)];
+        }
+        int end = in.position() + utflen, count = 0;
+        while (in.position() < end) {
+            int a = in.get() & 0xFF;
+            if (a < 0x80) {
+                chars[count++] = (char) a;
+            } else if ((a & 0xE0) == 0xC0 && in.position() < end) {
+                int b = in.get() & 0xFF;
+                if ((b & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("Malformed input around byte " + in.position());
+                }
+                chars[count++] = (char) (((a & 0x1F) << 6) | (b & 0x3F));
+            } else if ((a & 0xF0) == 0xE0 && in.position() + 1 < end) {
+                int b = in.get() & 0xFF, c = in.get() & 0xFF;
+                if ((b & 0xC0) != 0x80 || (c & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("Malformed input around byte " + in.position());
+                }
+                chars[count++] = (char) (((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F));
+            } else {
+                throw new UTFDataFormatException("Malformed input around byte " + in.position());
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    @Override
+    public String toString() {
+        return "[CluckNIOConnection " + linkName + "]";
+    }
+}
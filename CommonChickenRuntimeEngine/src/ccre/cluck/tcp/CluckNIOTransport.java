@@ -0,0 +1,429 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck.tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+import ccre.channel.EventOutput;
+import ccre.cluck.CluckNode;
+import ccre.concurrency.ReporterThread;
+import ccre.log.Logger;
+import ccre.util.CArrayList;
+import ccre.util.CLinkedList;
+
+/**
+ * An alternative to CluckTCPServer and CluckTCPClient that multiplexes any
+ * number of server and client connections onto a single I/O thread, using
+ * non-blocking sockets. This speaks exactly the same protocol as the blocking
+ * implementations, so either end can be either implementation.
+ *
+ * This is not available on the cRIO.
+ *
+ * @author skeggsc
+ */
+public class CluckNIOTransport extends ReporterThread {
+
+    /**
+     * The longest time that the I/O thread waits before checking for timeouts
+     * and sending keepalives, in milliseconds.
+     */
+    private static final int SELECT_INTERVAL = CluckProtocol.KEEPALIVE_INTERVAL / 4;
+
+    /**
+     * The shared CluckNode.
+     */
+    public final CluckNode node;
+    private final Selector selector;
+    /**
+     * Work to run on the I/O thread, such as registering new channels.
+     */
+    private final CLinkedList<EventOutput> tasks = new CLinkedList<EventOutput>();
+    /**
+     * Connections with queued messages that need to be encoded.
+     */
+    private final CLinkedList<CluckNIOConnection> dirty = new CLinkedList<CluckNIOConnection>();
+    /**
+     * All open connections. Only used from the I/O thread.
+     */
+    private final CArrayList<CluckNIOConnection> connections = new CArrayList<CluckNIOConnection>();
+    /**
+     * All client endpoints that should be kept connected. Only used from the
+     * I/O thread.
+     */
+    private final CArrayList<ClientEndpoint> endpoints = new CArrayList<ClientEndpoint>();
+    /**
+     * The delay between each connection attempt to a server.
+     */
+    private volatile int reconnectDelayMillis = 5000;
+    /**
+     * The queue policy for new connections, or null for the default.
+     */
+    private volatile CluckQueuePolicy queuePolicy = null;
+    private volatile boolean terminated = false;
+
+    /**
+     * Create a new CluckNIOTransport sharing the specified node. Nothing will
+     * happen until it is started and either listen or connect is called.
+     *
+     * @param node The node to share.
+     * @throws IOException If a selector cannot be opened.
+     */
+    public CluckNIOTransport(CluckNode node) throws IOException {
+        super("CluckNIOTransport");
+        this.node = node;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Accept connections on the specified port, like a CluckTCPServer.
+     *
+     * @param port The port to share the node on.
+     * @throws IOException If the port cannot be bound.
+     */
+    public void listen(int port) throws IOException {
+        Logger.fine("About to listen on " + port);
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.socket().bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+        } catch (IOException ex) {
+            server.close();
+            throw ex;
+        }
+        runOnIOThread(new EventOutput() {
+            public void event() {
+                try {
+                    server.register(selector, SelectionKey.OP_ACCEPT);
+                } catch (IOException ex) {
+                    Logger.warning("Could not start listening on " + server.socket().getLocalPort(), ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Keep a connection open to the specified remote, like a CluckTCPClient.
+     * The remote address can end in a colon and a port number, or else
+     * CluckTCPClient.DEFAULT_PORT is used.
+     *
+     * @param remote The remote address.
+     * @param linkName The link name.
+     * @param remoteNameHint The hint for what the other end should call this
+     * link.
+     */
+    public void connect(String remote, String linkName, String remoteNameHint) {
+        final ClientEndpoint endpoint = new ClientEndpoint(remote, linkName, remoteNameHint);
+        runOnIOThread(new EventOutput() {
+            public void event() {
+                endpoints.add(endpoint);
+            }
+        });
+    }
+
+    /**
+     * Set the delay between attempts to connect to servers.
+     *
+     * @param millis The positive integer of milliseconds to wait.
+     * @throws IllegalArgumentException If millis &lt;= 0.
+     */
+    public void setReconnectDelay(int millis) throws IllegalArgumentException {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Reconnection delay must be >= 0.");
+        }
+        reconnectDelayMillis = millis;
+    }
+
+    /**
+     * Set the queue policy for connections opened after this is called.
+     *
+     * @param policy The queue policy, or null to use the default from
+     * CluckProtocol.
+     * @see CluckProtocol#setDefaultQueuePolicy(ccre.cluck.tcp.CluckQueuePolicy)
+     */
+    public void setQueuePolicy(CluckQueuePolicy policy) {
+        queuePolicy = policy;
+    }
+
+    /**
+     * Get the queue policy for new connections.
+     *
+     * @return The queue policy, or null if the default is used.
+     */
+    public CluckQueuePolicy getQueuePolicy() {
+        return queuePolicy;
+    }
+
+    /**
+     * Close all connections and stop the I/O thread.
+     */
+    public void terminate() {
+        terminated = true;
+        selector.wakeup();
+    }
+
+    private void runOnIOThread(EventOutput task) {
+        synchronized (tasks) {
+            tasks.addLast(task);
+        }
+        selector.wakeup();
+    }
+
+    void markDirty(CluckNIOConnection conn) {
+        synchronized (dirty) {
+            dirty.addLast(conn);
+        }
+        selector.wakeup();
+    }
+
+    void connectionClosed(CluckNIOConnection conn) {
+        connections.remove(conn);
+        if (conn.endpoint != null) {
+            conn.endpoint.active = null;
+        }
+    }
+
+    @Override
+    protected void threadBody() throws IOException {
+        try {
+            while (!terminated) {
+                runTasks();
+                long now = System.currentTimeMillis();
+                for (ClientEndpoint endpoint : endpoints) {
+                    if (endpoint.active == null && !endpoint.resolving && now >= endpoint.nextAttempt) {
+                        endpoint.attempt(now);
+                    }
+                }
+                flushDirty();
+                for (int i = connections.size() - 1; i >= 0; i--) {
+                    CluckNIOConnection conn = connections.get(i);
+                    try {
+                        conn.checkTimers(now);
+                    } catch (IOException ex) {
+                        conn.close("Bad IO in " + conn + ": " + ex, true);
+                    }
+                }
+                selector.select(SELECT_INTERVAL);
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid()) {
+                        handleKey(key);
+                    }
+                }
+            }
+        } finally {
+            for (int i = connections.size() - 1; i >= 0; i--) {
+                connections.get(i).close("Transport terminated: " + connections.get(i).getLinkName(), false);
+            }
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        }
+    }
+
+    private void runTasks() {
+        while (true) {
+            EventOutput task;
+            synchronized (tasks) {
+                if (tasks.isEmpty()) {
+                    return;
+                }
+                task = tasks.removeFirst();
+            }
+            task.event();
+        }
+    }
+
+    private void flushDirty() {
+        while (true) {
+            CluckNIOConnection conn;
+            synchronized (dirty) {
+                if (dirty.isEmpty()) {
+                    return;
+                }
+                conn = dirty.removeFirst();
+            }
+            try {
+                conn.flushPending();
+            } catch (IOException ex) {
+                conn.close("Bad IO in " + conn + ": " + ex, true);
+            }
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        if (key.isAcceptable()) {
+            accept((ServerSocketChannel) key.channel());
+            return;
+        }
+        CluckNIOConnection conn = (CluckNIOConnection) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                conn.handleConnect();
+            }
+            if (key.isValid() && key.isReadable()) {
+                conn.handleRead();
+            }
+            if (key.isValid() && key.isWritable()) {
+                conn.handleWrite();
+            }
+        } catch (IOException ex) {
+            if (conn.endpoint != null && ex.getClass().getName().equals("java.net.ConnectException")) {
+                conn.close("Could not connect to " + conn.endpoint.remote + ": " + ex.getMessage(), false);
+            } else if ("Connection reset".equals(ex.getMessage()) || "Connection reset by peer".equals(ex.getMessage())) {
+                conn.close("Link receiving disconnected: " + conn.getLinkName(), false);
+            } else {
+                conn.close("Bad IO in " + conn + ": " + ex, true);
+            }
+        } catch (Throwable thr) {
+            Logger.severe("Uncaught exception in network handler!", thr);
+            conn.close("Closed " + conn + " after uncaught exception.", false);
+        }
+    }
+
+    private void accept(ServerSocketChannel server) {
+        SocketChannel channel = null;
+        try {
+            channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            CluckNIOConnection conn = new CluckNIOConnection(this, channel, null);
+            conn.register(selector, SelectionKey.OP_READ);
+            connections.add(conn);
+            conn.begin();
+        } catch (IOException ex) {
+            Logger.warning("Could not accept connection", ex);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex2) {
+                    Logger.warning("IO Error while closing connection", ex2);
+                }
+            }
+        }
+    }
+
+    /**
+     * A remote server that this transport keeps a connection open to.
+     */
+    class ClientEndpoint {
+
+        final String remote;
+        final String linkName;
+        final String remoteNameHint;
+        /**
+         * The current connection, or null if it needs to be reconnected.
+         */
+        CluckNIOConnection active;
+        /**
+         * If the address is being looked up for the next connection attempt.
+         */
+        boolean resolving;
+        long nextAttempt = 0;
+
+        ClientEndpoint(String remote, String linkName, String remoteNameHint) {
+            this.remote = remote;
+            this.linkName = linkName;
+            this.remoteNameHint = remoteNameHint;
+        }
+
+        void attempt(long now) {
+            nextAttempt = now + reconnectDelayMillis;
+            Logger.fine("Connecting to " + remote + " at " + now);
+            int cln = remote.lastIndexOf(':');
+            int port = CluckTCPClient.DEFAULT_PORT;
+            String realAddress = remote;
+            if (cln != -1) {
+                try {
+                    port = Integer.parseInt(remote.substring(cln + 1));
+                    realAddress = remote.substring(0, cln);
+                } catch (NumberFormatException ex) {
+                    Logger.warning("Cannot connect to address - bad port specifier: " + remote.substring(cln + 1));
+                    return;
+                }
+            }
+            resolve(realAddress, port);
+        }
+
+        /**
+         * Look up the address on a separate thread, because a DNS lookup can
+         * block for seconds, and then open the connection on the I/O thread.
+         */
+        private void resolve(final String realAddress, final int port) {
+            resolving = true;
+            new ReporterThread("CluckNIO-Resolve-" + linkName) {
+                @Override
+                protected void threadBody() {
+                    final InetSocketAddress address = new InetSocketAddress(realAddress, port);
+                    runOnIOThread(new EventOutput() {
+                        public void event() {
+                            resolving = false;
+                            if (address.isUnresolved()) {
+                                Logger.warning("IO Error while connecting to " + remote + ": could not resolve " + realAddress);
+                            } else {
+                                open(address);
+                            }
+                        }
+                    });
+                }
+            }.start();
+        }
+
+        private void open(InetSocketAddress address) {
+            SocketChannel channel = null;
+            CluckNIOConnection conn = null;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                boolean connected = channel.connect(address);
+                conn = new CluckNIOConnection(CluckNIOTransport.this, channel, this);
+                conn.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT);
+                active = conn;
+                connections.add(conn);
+                if (connected) {
+                    conn.begin();
+                }
+            } catch (IOException ex) {
+                if (conn != null) {
+                    conn.close("IO Error while connecting to " + remote + ": " + ex, true);
+                } else {
+                    Logger.warning("IO Error while connecting to " + remote, ex);
+                    if (channel != null) {
+                        try {
+                            channel.close();
+                        } catch (IOException ex2) {
+                            Logger.warning("IO Error while closing connection", ex2);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
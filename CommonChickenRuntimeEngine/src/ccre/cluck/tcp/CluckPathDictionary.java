@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck.tcp;
+
+import java.io.IOException;
+
+import ccre.util.CHashMap;
+
+/**
+ * One direction of the path dictionary used by the compact (version 2) Cluck
+ * frame format. Each side of a connection keeps one for the paths that it
+ * sends and one for the paths that it receives, and both stay in sync because
+ * entries are only ever added in the order that the frames are sent.
+ *
+ * A path is sent as a reference: REF_NULL for no path, REF_LITERAL followed by
+ * the path itself the first time that it is sent (which defines the next
+ * entry, unless the dictionary is full), or REF_FIRST_ENTRY plus the entry
+ * number afterwards.
+ *
+ * @author skeggsc
+ */
+final class CluckPathDictionary {
+
+    /**
+     * The reference for a missing path.
+     */
+    static final int REF_NULL = 0;
+    /**
+     * The reference for a path that follows as a string.
+     */
+    static final int REF_LITERAL = 1;
+    /**
+     * The reference for the first entry in the dictionary.
+     */
+    static final int REF_FIRST_ENTRY = 2;
+    /**
+     * The maximum number of entries in a dictionary. Paths sent after this is
+     * reached are always sent as literals.
+     */
+    static final int MAX_ENTRIES = 1024;
+
+    /**
+     * The entry numbers of the paths defined so far. Only used when sending.
+     */
+    private final CHashMap<String, Entry> entries = new CHashMap<String, Entry>();
+    /**
+     * The paths defined so far, by entry number. Only used when receiving.
+     */
+    private String[] paths = new String[16];
+    private int count = 0;
+
+    /**
+     * Get the reference to send for the specified path. If this returns
+     * REF_LITERAL, the path must be sent after it, and it becomes defined.
+     *
+     * @param path The path to send, or null.
+     * @return The reference to send.
+     */
+    int encode(String path) {
+        if (path == null || path.length() == 0) {
+            return REF_NULL;
+        }
+        Entry entry = entries.get(path);
+        if (entry != null) {
+            return REF_FIRST_ENTRY + entry.number;
+        }
+        if (count < MAX_ENTRIES) {
+            entries.put(path, new Entry(count++));
+        }
+        return REF_LITERAL;
+    }
+
+    /**
+     * Look up a received reference that isn't REF_LITERAL.
+     *
+     * @param ref The received reference.
+     * @return The path, or null for REF_NULL.
+     * @throws IOException If the reference is not defined.
+     */
+    String decode(int ref) throws IOException {
+        if (ref == REF_NULL) {
+            return null;
+        }
+        int number = ref - REF_FIRST_ENTRY;
+        if (number < 0 || number >= count) {
+            throw new IOException("Undefined path reference: " + ref);
+        }
+        return paths[number];
+    }
+
+    /**
+     * Record a received literal path, which defines the next entry unless the
+     * dictionary is full.
+     *
+     * @param path The received path.
+     */
+    void define(String path) {
+        if (count < MAX_ENTRIES) {
+            if (count == paths.length) {
+                String[] larger = new String[paths.length * 2];
+                System.arraycopy(paths, 0, larger, 0, count);
+                paths = larger;
+            }
+            paths[count++] = path;
+        }
+    }
+
+    private static final class Entry {
+
+        final int number;
+
+        Entry(int number) {
+            this.number = number;
+        }
+    }
+}
@@ -18,18 +18,26 @@
  */
 package ccre.cluck.tcp;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Random;
 
+import ccre.channel.EventOutput;
 import ccre.cluck.CluckLink;
 import ccre.cluck.CluckNode;
+import ccre.cluck.CluckPrioritizedLink;
+import ccre.cluck.CluckPriority;
+import ccre.cluck.CluckTrafficMetrics;
+import ccre.concurrency.EventLoop;
 import ccre.concurrency.ReporterThread;
 import ccre.log.Logger;
 import ccre.net.ClientSocket;
 import ccre.net.Network;
-import ccre.util.CLinkedList;
+import ccre.util.CArrayList;
+import ccre.util.CHashMap;
 
 /**
  * A static utility class for handling various encodings of Cluck packets.
@@ -40,6 +48,170 @@ public class CluckProtocol {
 
     static final int TIMEOUT_PERIOD = 600; // milliseconds
     static final int KEEPALIVE_INTERVAL = 200; // milliseconds, should always be noticeably less than TIMEOUT_PERIOD
+    static final int MAGIC_NUMBER = 0x154000CA;
+    static final int MAX_CACHED_SOURCES = 64; // distinct sources remembered per link by prependLink
+    /**
+     * Mixed with a protocol version to advertise it during the header exchange.
+     * The low four bits are the version.
+     */
+    static final int VERSION_SIGNATURE = 0x5EC7A110;
+
+    /**
+     * The original Cluck frame format, which every implementation supports.
+     * Each frame carries both paths as strings and a 64-bit checksum.
+     */
+    public static final int PROTOCOL_VERSION_ORIGINAL = 1;
+    /**
+     * The compact Cluck frame format, which uses variable-length integers and
+     * per-connection path dictionaries, so that repeated paths are sent as
+     * small numbers, and a 32-bit checksum.
+     *
+     * @see CluckPathDictionary
+     */
+    public static final int PROTOCOL_VERSION_COMPACT = 2;
+
+    /**
+     * The highest protocol version offered when connections are opened.
+     */
+    private static volatile int maximumProtocolVersion = PROTOCOL_VERSION_COMPACT;
+
+    /**
+     * Set the highest protocol version to offer when new connections are
+     * opened. The version actually used is the highest version that both ends
+     * offer, so setting this to PROTOCOL_VERSION_ORIGINAL (for example, to make
+     * packet captures easier to read) makes all new connections use the
+     * original format.
+     *
+     * @param version the maximum protocol version.
+     * @throws IllegalArgumentException if the version is not supported.
+     */
+    public static void setMaximumProtocolVersion(int version) throws IllegalArgumentException {
+        if (version < PROTOCOL_VERSION_ORIGINAL || version > PROTOCOL_VERSION_COMPACT) {
+            throw new IllegalArgumentException("Unsupported protocol version: " + version);
+        }
+        maximumProtocolVersion = version;
+    }
+
+    /**
+     * Get the highest protocol version to offer when new connections are
+     * opened.
+     *
+     * @return the maximum protocol version.
+     * @see #setMaximumProtocolVersion(int)
+     */
+    public static int getMaximumProtocolVersion() {
+        return maximumProtocolVersion;
+    }
+
+    /**
+     * How long the sender threads wait after the first message of a batch
+     * before sending the batch, in milliseconds.
+     */
+    private static volatile int maximumBatchLatency = 0;
+
+    /**
+     * Set the maximum amount of time that a queued message can wait for more
+     * messages to be queued before it is sent. Messages queued during this
+     * window are sent together with a single flush, and superseded writes to
+     * the same output are collapsed into the latest one.
+     *
+     * A latency of zero, the default, sends whatever is queued as soon as the
+     * sender thread gets to it.
+     *
+     * @param millis the maximum batching latency, in milliseconds.
+     * @throws IllegalArgumentException if millis is negative.
+     */
+    public static void setMaximumBatchLatency(int millis) throws IllegalArgumentException {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Batching latency must be >= 0.");
+        }
+        maximumBatchLatency = millis;
+    }
+
+    /**
+     * Get the maximum amount of time that a queued message can wait for more
+     * messages to be queued before it is sent.
+     *
+     * @return the maximum batching latency, in milliseconds.
+     * @see #setMaximumBatchLatency(int)
+     */
+    public static int getMaximumBatchLatency() {
+        return maximumBatchLatency;
+    }
+
+    /**
+     * The most TELEMETRY messages that can wait to be sent over a single
+     * connection before the oldest are dropped.
+     */
+    private static volatile int telemetryQueueCapacity = 256;
+
+    /**
+     * Set the most TELEMETRY-priority messages that can wait to be sent over a
+     * single connection. When more are queued, the oldest are dropped, so that
+     * a flood of low-priority messages can't use up memory.
+     *
+     * @param capacity the maximum number of waiting TELEMETRY messages.
+     * @throws IllegalArgumentException if capacity is less than one.
+     * @see ccre.cluck.CluckPriority#TELEMETRY
+     */
+    public static void setTelemetryQueueCapacity(int capacity) throws IllegalArgumentException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Telemetry queue capacity must be >= 1.");
+        }
+        telemetryQueueCapacity = capacity;
+    }
+
+    /**
+     * Get the most TELEMETRY-priority messages that can wait to be sent over a
+     * single connection.
+     *
+     * @return the maximum number of waiting TELEMETRY messages.
+     * @see #setTelemetryQueueCapacity(int)
+     */
+    public static int getTelemetryQueueCapacity() {
+        return telemetryQueueCapacity;
+    }
+
+    /**
+     * The queue policy used by connections that don't have their own.
+     */
+    private static volatile CluckQueuePolicy defaultQueuePolicy = CluckQueuePolicy.coalesce(1024);
+    private static final CluckQueueStatus queueStatus = new CluckQueueStatus();
+
+    /**
+     * Set the queue policy for connections that are opened without their own
+     * policy. The default is to coalesce messages past 1024 queued messages.
+     *
+     * @param policy the new default policy.
+     * @see CluckQueuePolicy
+     */
+    public static void setDefaultQueuePolicy(CluckQueuePolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException();
+        }
+        defaultQueuePolicy = policy;
+    }
+
+    /**
+     * Get the queue policy for connections that are opened without their own
+     * policy.
+     *
+     * @return the default policy.
+     * @see #setDefaultQueuePolicy(ccre.cluck.tcp.CluckQueuePolicy)
+     */
+    public static CluckQueuePolicy getDefaultQueuePolicy() {
+        return defaultQueuePolicy;
+    }
+
+    /**
+     * Get the status of the send queues of all connections, which includes the
+     * number of messages waiting and the number dropped.
+     *
+     * @return the queue status.
+     */
+    public static CluckQueueStatus getQueueStatus() {
+        return queueStatus;
+    }
 
     /**
      * Sets the appropriate timeout on sock, for disconnection reporting.
@@ -62,21 +234,76 @@ public class CluckProtocol {
      * @throws IOException If an IO error occurs.
      */
     protected static String handleHeader(DataInputStream din, DataOutputStream dout, String remoteHint) throws IOException {
-        dout.writeInt(0x154000CA);
+        return negotiateHeader(din, dout, remoteHint, PROTOCOL_VERSION_ORIGINAL).remoteHint;
+    }
+
+    /**
+     * Start a Cluck connection, and agree on a protocol version. Must be run
+     * from both ends of the connection.
+     *
+     * Versions are offered by picking the second random number of the header
+     * so that it mixes with the first into VERSION_SIGNATURE plus the version.
+     * Implementations that only know the original format just bounce the
+     * numbers back as usual, and never send a signature themselves, so the
+     * original format is used with them. (A truly random header matches the
+     * signature about once per 2^28 connections, in which case the connection
+     * fails its checksums and gets reopened.)
+     *
+     * @param din The connection's input.
+     * @param dout The connection's output.
+     * @param remoteHint The hint for what the remote node should call this
+     * link, or null for no recommendation.
+     * @param maxVersion The highest protocol version to offer.
+     * @return The remote hint and agreed protocol version.
+     * @throws IOException If an IO error occurs.
+     */
+    static Handshake negotiateHeader(DataInputStream din, DataOutputStream dout, String remoteHint, int maxVersion) throws IOException {
+        dout.writeInt(MAGIC_NUMBER);
         Random r = new Random();
-        int ra = r.nextInt(), rb = r.nextInt();
+        int ra = r.nextInt(), rb = offerVersion(ra, r.nextInt(), maxVersion);
         dout.writeInt(ra);
         dout.writeInt(rb);
-        if (din.readInt() != 0x154000CA) {
+        if (din.readInt() != MAGIC_NUMBER) {
             throw new IOException("Magic number did not match!");
         }
-        dout.writeInt(din.readInt() ^ din.readInt());
+        int pa = din.readInt(), pb = din.readInt();
+        dout.writeInt(pa ^ pb);
         if (din.readInt() != (ra ^ rb)) {
             throw new IOException("Did not bounce properly!");
         }
         dout.writeUTF(remoteHint == null ? "" : remoteHint);
         String rh = din.readUTF();
-        return rh.isEmpty() ? null : rh;
+        return new Handshake(rh.isEmpty() ? null : rh, agreeVersion(maxVersion, pa, pb));
+    }
+
+    /**
+     * Choose the second random number of the header, such that it offers the
+     * specified protocol version.
+     *
+     * @param ra The first random number.
+     * @param rb A second random number, used if no newer version is offered.
+     * @param maxVersion The highest protocol version to offer.
+     * @return The second random number to send.
+     */
+    static int offerVersion(int ra, int rb, int maxVersion) {
+        return maxVersion > PROTOCOL_VERSION_ORIGINAL ? ra ^ VERSION_SIGNATURE ^ maxVersion : rb;
+    }
+
+    /**
+     * Figure out the protocol version to use, from the highest version that
+     * this end offered and the random numbers received from the other end.
+     *
+     * @param maxVersion The highest version offered by this end.
+     * @param pa The first random number from the other end.
+     * @param pb The second random number from the other end.
+     * @return The protocol version to use.
+     */
+    static int agreeVersion(int maxVersion, int pa, int pb) {
+        int offer = pa ^ pb;
+        if ((offer & ~0xF) != VERSION_SIGNATURE || (offer & 0xF) <= PROTOCOL_VERSION_ORIGINAL) {
+            return PROTOCOL_VERSION_ORIGINAL;
+        }
+        return Math.min(maxVersion, offer & 0xF);
     }
 
     /**
@@ -94,6 +321,18 @@ public class CluckProtocol {
         return h;
     }
 
+    /**
+     * Calculate the checksum basis sent along with a message.
+     *
+     * @param dest The destination of the message, or null.
+     * @param source The source of the message, or null.
+     * @param length The length of the message contents.
+     * @return The checksum basis.
+     */
+    static long checksumBasis(String dest, String source, int length) {
+        return (((long) length) << 32) ^ (dest == null ? 0 : ((long) dest.hashCode()) << 16) ^ (source == null ? 0 : source.hashCode() ^ (((long) source.hashCode()) << 48));
+    }
+
     /**
      * Start a receive loop from the specified Connection input, link name,
      * node, and link to deny broadcasts to.
@@ -106,30 +345,67 @@ public class CluckProtocol {
      * @throws IOException If an IO error occurs
      */
     protected static void handleRecv(DataInputStream din, String linkName, CluckNode node, CluckLink denyLink) throws IOException {
+        handleRecv(din, linkName, node, denyLink, PROTOCOL_VERSION_ORIGINAL);
+    }
+
+    /**
+     * Start a receive loop from the specified Connection input, link name,
+     * node, and link to deny broadcasts to, using the specified protocol
+     * version.
+     *
+     * @param din The connection input.
+     * @param linkName The link name.
+     * @param node The node to provide access to.
+     * @param denyLink The link to deny transmits to, usually the link that
+     * sends back to the other end of the connection. (To stop infinite loops)
+     * @param version The protocol version agreed on by negotiateHeader.
+     * @throws IOException If an IO error occurs
+     */
+    static void handleRecv(DataInputStream din, String linkName, CluckNode node, CluckLink denyLink, int version) throws IOException {
+        CluckTrafficMetrics metrics = node.getTrafficMetrics();
         try {
             boolean expectKeepAlives = false;
+            CHashMap<String, String> sources = new CHashMap<String, String>();
+            CluckPathDictionary dictionary = version >= PROTOCOL_VERSION_COMPACT ? new CluckPathDictionary() : null;
             long lastReceive = System.currentTimeMillis();
             while (true) {
                 try {
-                    String dest = readNullableString(din);
-                    String source = readNullableString(din);
-                    byte[] data = new byte[din.readInt()];
-                    long checksumBase = din.readLong();
-                    din.readFully(data);
-                    if (din.readLong() != checksum(data, checksumBase)) {
-                        throw new IOException("Checksums did not match!");
+                    String dest, source;
+                    byte[] data;
+                    if (dictionary == null) {
+                        dest = readNullableString(din);
+                        source = readNullableString(din);
+                        data = new byte[din.readInt()];
+                        long checksumBase = din.readLong();
+                        din.readFully(data);
+                        if (din.readLong() != checksum(data, checksumBase)) {
+                            if (metrics.isEnabled()) {
+                                metrics.recordChecksumFailure(linkName);
+                            }
+                            throw new IOException("Checksums did not match!");
+                        }
+                    } else {
+                        dest = readPath(din, dictionary);
+                        source = readPath(din, dictionary);
+                        int length = readVarint(din);
+                        if (length < 0) {
+                            throw new IOException("Bad message length: " + length);
+                        }
+                        data = new byte[length];
+                        din.readFully(data);
+                        if (din.readInt() != compactChecksum(data, compactChecksumBasis(dest, source, length))) {
+                            if (metrics.isEnabled()) {
+                                metrics.recordChecksumFailure(linkName);
+                            }
+                            throw new IOException("Checksums did not match!");
+                        }
                     }
                     if (!expectKeepAlives && "KEEPALIVE".equals(dest) && source == null && data.length >= 2 && data[0] == CluckNode.RMT_NEGATIVE_ACK && data[1] == 0x6D) {
                         expectKeepAlives = true;
                         Logger.info("Detected KEEPALIVE message. Expecting future keepalives on " + linkName + ".");
                     }
-                    source = prependLink(linkName, source);
-                    long start = System.currentTimeMillis();
-                    node.transmit(dest, source, data, denyLink);
-                    long endAt = System.currentTimeMillis();
-                    if (endAt - start > 1000) {
-                        Logger.warning("[LOCAL] Took a long time to process: " + dest + " <- " + source + " of " + (endAt - start) + " ms");
-                    }
+                    source = prependLink(linkName, source, sources);
+                    deliver(node, dest, source, data, denyLink, linkName);
                     lastReceive = System.currentTimeMillis();
                 } catch (IOException ex) {
                     if ((expectKeepAlives && System.currentTimeMillis() - lastReceive > TIMEOUT_PERIOD) || !Network.isTimeoutException(ex)) {
@@ -148,6 +424,198 @@ public class CluckProtocol {
         }
     }
 
+    /**
+     * Deliver a received message to the node, or post it to the active
+     * EventLoop if there is one, so that it runs on the loop thread.
+     *
+     * @param node The node to deliver to.
+     * @param dest The destination of the message.
+     * @param source The source of the message, including the link name.
+     * @param data The contents of the message.
+     * @param denyLink The link that the message arrived on.
+     * @param linkName The name of that link, for the metrics.
+     */
+    static void deliver(CluckNode node, String dest, String source, byte[] data, CluckLink denyLink, String linkName) {
+        EventLoop loop = EventLoop.getActive();
+        if (loop != null) {
+            loop.post(new Delivery(node, dest, source, data, denyLink, linkName));
+        } else {
+            deliverNow(node, dest, source, data, denyLink, linkName);
+        }
+    }
+
+    private static void deliverNow(CluckNode node, String dest, String source, byte[] data, CluckLink denyLink, String linkName) {
+        long start = System.currentTimeMillis();
+        node.transmit(dest, source, data, denyLink);
+        long endAt = System.currentTimeMillis();
+        CluckTrafficMetrics metrics = node.getTrafficMetrics();
+        if (metrics.isEnabled()) {
+            metrics.recordReceived(linkName, data, endAt - start);
+        }
+        if (endAt - start > 1000) {
+            Logger.warning("[LOCAL] Took a long time to process: " + dest + " <- " + source + " of " + (endAt - start) + " ms");
+        }
+    }
+
+    /**
+     * A received message waiting to be delivered on the active EventLoop.
+     */
+    private static final class Delivery implements EventOutput {
+        private final CluckNode node;
+        private final String dest, source, linkName;
+        private final byte[] data;
+        private final CluckLink denyLink;
+
+        Delivery(CluckNode node, String dest, String source, byte[] data, CluckLink denyLink, String linkName) {
+            this.node = node;
+            this.dest = dest;
+            this.source = source;
+            this.data = data;
+            this.denyLink = denyLink;
+            this.linkName = linkName;
+        }
+
+        public void event() {
+            deliverNow(node, dest, source, data, denyLink, linkName);
+        }
+    }
+
+    /**
+     * Write a single frame in the Cluck wire format to the specified output.
+     *
+     * @param dout The output to write to.
+     * @param dest The destination of the message, or null.
+     * @param source The source of the message, or null.
+     * @param data The contents of the message.
+     * @throws IOException If an IO error occurs.
+     */
+    static void writeFrame(DataOutputStream dout, String dest, String source, byte[] data) throws IOException {
+        dout.writeUTF(dest == null ? "" : dest);
+        dout.writeUTF(source == null ? "" : source);
+        dout.writeInt(data.length);
+        long begin = checksumBasis(dest, source, data.length);
+        dout.writeLong(begin);
+        dout.write(data);
+        dout.writeLong(checksum(data, begin));
+    }
+
+    /**
+     * Write a single frame in the compact Cluck wire format to the specified
+     * output.
+     *
+     * @param dout The output to write to.
+     * @param dictionary The dictionary of paths sent on this connection.
+     * @param dest The destination of the message, or null.
+     * @param source The source of the message, or null.
+     * @param data The contents of the message.
+     * @throws IOException If an IO error occurs.
+     */
+    static void writeCompactFrame(DataOutputStream dout, CluckPathDictionary dictionary, String dest, String source, byte[] data) throws IOException {
+        writePath(dout, dictionary, dest);
+        writePath(dout, dictionary, source);
+        writeVarint(dout, data.length);
+        dout.write(data);
+        dout.writeInt(compactChecksum(data, compactChecksumBasis(dest, source, data.length)));
+    }
+
+    private static void writePath(DataOutputStream dout, CluckPathDictionary dictionary, String path) throws IOException {
+        int ref = dictionary.encode(path);
+        writeVarint(dout, ref);
+        if (ref == CluckPathDictionary.REF_LITERAL) {
+            dout.writeUTF(path);
+        }
+    }
+
+    private static String readPath(DataInputStream din, CluckPathDictionary dictionary) throws IOException {
+        int ref = readVarint(din);
+        if (ref != CluckPathDictionary.REF_LITERAL) {
+            return dictionary.decode(ref);
+        }
+        String path = readNullableString(din);
+        dictionary.define(path);
+        return path;
+    }
+
+    /**
+     * Write an unsigned variable-length integer: seven bits per byte, least
+     * significant first, with the high bit set on all but the last byte.
+     *
+     * @param dout The output to write to.
+     * @param value The value to write.
+     * @throws IOException If an IO error occurs.
+     */
+    static void writeVarint(DataOutputStream dout, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            dout.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dout.writeByte(value);
+    }
+
+    /**
+     * Read an unsigned variable-length integer, as written by writeVarint.
+     *
+     * @param din The input to read from.
+     * @return The value read.
+     * @throws IOException If an IO error occurs or the integer is too long.
+     */
+    static int readVarint(DataInputStream din) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = din.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Variable-length integer too long!");
+    }
+
+    /**
+     * Calculate the checksum of the compact frame format, which is FNV-1a over
+     * the message contents, starting from a basis.
+     *
+     * @param data The data to checksum.
+     * @param basis The basis from compactChecksumBasis.
+     * @return The checksum.
+     */
+    static int compactChecksum(byte[] data, int basis) {
+        int h = 0x811C9DC5 ^ basis;
+        for (int i = 0; i < data.length; i++) {
+            h = (h ^ (data[i] & 0xFF)) * 0x01000193;
+        }
+        return h;
+    }
+
+    /**
+     * Calculate the checksum basis of the compact frame format, which covers
+     * the frame header. Unlike in the original format, it is not sent.
+     *
+     * @param dest The destination of the message, or null.
+     * @param source The source of the message, or null.
+     * @param length The length of the message contents.
+     * @return The checksum basis.
+     */
+    static int compactChecksumBasis(String dest, String source, int length) {
+        return length ^ (dest == null ? 0 : dest.hashCode() * 31) ^ (source == null ? 0 : source.hashCode() * 961);
+    }
+
+    /**
+     * Check if the specified message only carries the latest value of an
+     * output, so that an older queued message to the same destination can be
+     * replaced by it.
+     *
+     * @param data The contents of the message.
+     * @return if the message can supersede earlier messages.
+     */
+    static boolean isCoalescable(byte[] data) {
+        if (data.length == 0) {
+            return false;
+        }
+        byte rmt = data[0];
+        return rmt == CluckNode.RMT_FLOATOUTP || rmt == CluckNode.RMT_BOOLOUTP || rmt == CluckNode.RMT_FLOATPRODRESP || rmt == CluckNode.RMT_BOOLPRODRESP;
+    }
+
     static String readNullableString(DataInputStream din) throws IOException {
         String out = din.readUTF();
         return out.isEmpty() ? null : out;
@@ -157,6 +625,32 @@ public class CluckProtocol {
         return source == null ? linkName : linkName + "/" + source;
     }
 
+    /**
+     * Prepend the link name to the source, reusing the string from the last
+     * time that the same source was received on this link. This means that
+     * replies to the same remote use the same path string, which also lets the
+     * node find its interned route faster.
+     *
+     * @param linkName The name of the link that the message was received on.
+     * @param source The source of the message, or null.
+     * @param cache The cache of prepended sources for this link.
+     * @return The source relative to this node.
+     */
+    static String prependLink(String linkName, String source, CHashMap<String, String> cache) {
+        if (source == null) {
+            return linkName;
+        }
+        String out = cache.get(source);
+        if (out == null) {
+            if (cache.size() >= MAX_CACHED_SOURCES) {
+                cache.clear();
+            }
+            out = linkName + "/" + source;
+            cache.put(source, out);
+        }
+        return out;
+    }
+
     /**
      * Create and register a cluck link using the specified connection output,
      * link name, and node to get messages from.
@@ -170,29 +664,63 @@ public class CluckProtocol {
      * @return The newly created link.
      */
     protected static CluckLink handleSend(final DataOutputStream dout, final String linkName, CluckNode node) {
-        final CLinkedList<SendableEntry> queue = new CLinkedList<SendableEntry>();
-        final ReporterThread main = new CluckSenderThread("Cluck-Send-" + linkName, queue, dout);
+        return handleSend(dout, linkName, node, PROTOCOL_VERSION_ORIGINAL);
+    }
+
+    /**
+     * Create and register a cluck link using the specified connection output,
+     * link name, and node to get messages from, using the specified protocol
+     * version.
+     *
+     * @param dout The connection output.
+     * @param linkName The link name.
+     * @param node The node to provide access to.
+     * @param version The protocol version agreed on by negotiateHeader.
+     * @return The newly created link.
+     */
+    static CluckLink handleSend(final DataOutputStream dout, final String linkName, CluckNode node, int version) {
+        return handleSend(dout, linkName, node, version, null);
+    }
+
+    /**
+     * Create and register a cluck link using the specified connection output,
+     * link name, and node to get messages from, using the specified protocol
+     * version and queue policy.
+     *
+     * @param dout The connection output.
+     * @param linkName The link name.
+     * @param node The node to provide access to.
+     * @param version The protocol version agreed on by negotiateHeader.
+     * @param policy The queue policy, or null for the default.
+     * @return The newly created link.
+     */
+    static CluckLink handleSend(final DataOutputStream dout, final String linkName, CluckNode node, int version, CluckQueuePolicy policy) {
+        final CluckSendQueue queue = new CluckSendQueue(linkName, policy == null ? defaultQueuePolicy : policy, queueStatus);
+        final ReporterThread main = new CluckSenderThread(linkName, queue, dout, version >= PROTOCOL_VERSION_COMPACT ? new CluckPathDictionary() : null, node.getTrafficMetrics());
         main.start();
-        CluckLink clink = new CluckLink() {
+        CluckLink clink = new CluckPrioritizedLink() {
             private boolean isRunning = false;
 
-            public synchronized boolean send(String dest, String source, byte[] data) {
+            public boolean send(String dest, String source, byte[] data) {
+                return send(dest, source, data, CluckPriority.forMessage(data));
+            }
+
+            public synchronized boolean send(String dest, String source, byte[] data, CluckPriority priority) {
                 if (isRunning) {
                     Logger.severe("[LOCAL] Already running transmit!");
                     return true;
                 }
+                if (!main.isAlive()) {
+                    return false;
+                }
                 isRunning = true;
                 try {
-                    int size;
                     synchronized (queue) {
-                        queue.addLast(new SendableEntry(source, dest, data));
+                        queue.add(new SendableEntry(source, dest, data), priority, true);
                         queue.notifyAll();
-                        size = queue.size();
-                    }
-                    Thread.yield();
-                    if (size > 75) {
-                        Logger.warning("[LOCAL] Queue too long: " + size + " for " + dest + " at " + System.currentTimeMillis());
                     }
+                } catch (InterruptedException ex) {
+                    Logger.warning("[LOCAL] Interrupted while waiting to send to " + dest);
                 } finally {
                     isRunning = false;
                 }
@@ -206,12 +734,32 @@ public class CluckProtocol {
     private CluckProtocol() {
     }
 
+    /**
+     * The results of negotiateHeader.
+     */
+    static final class Handshake {
+
+        /**
+         * What the remote node hints that this link should be called, or null.
+         */
+        final String remoteHint;
+        /**
+         * The protocol version that both ends agreed to use.
+         */
+        final int version;
+
+        Handshake(String remoteHint, int version) {
+            this.remoteHint = remoteHint;
+            this.version = version;
+        }
+    }
+
     /**
      * Stored in a queue of the messages that need to be sent over a connection.
      *
      * @author skeggsc
      */
-    private static class SendableEntry {
+    static class SendableEntry {
 
         /**
          * The sender of this message.
@@ -225,6 +773,12 @@ public class CluckProtocol {
          * The contents of this message.
          */
         public final byte[] data;
+        /**
+         * When this message was queued, from System.currentTimeMillis(). Kept
+         * when the message is superseded, so that send latency includes the
+         * whole time that a destination waited.
+         */
+        final long queuedAt;
 
         /**
          * Create a new SendableEntry with the specified attributes.
@@ -234,10 +788,28 @@ public class CluckProtocol {
          * @param data The contents of the message.
          */
         SendableEntry(String src, String dst, byte[] data) {
-            super();
+            this(src, dst, data, System.currentTimeMillis());
+        }
+
+        private SendableEntry(String src, String dst, byte[] data, long queuedAt) {
             this.src = src;
             this.dst = dst;
             this.data = data;
+            this.queuedAt = queuedAt;
+        }
+
+        /**
+         * Get the message that replaces this one when a newer message to the
+         * same destination supersedes it: the sender and contents of the newer
+         * message, with the queue time of this one. The replacement must be
+         * sent at the position of the newer message, so that it doesn't
+         * overtake anything queued between the two.
+         *
+         * @param newer The newer message.
+         * @return the replacement message.
+         */
+        SendableEntry supersededBy(SendableEntry newer) {
+            return new SendableEntry(newer.src, dst, newer.data, queuedAt);
         }
 
         @Override
@@ -246,47 +818,157 @@ public class CluckProtocol {
         }
     }
 
+    /**
+     * A reusable buffer that a batch of frames is encoded into before it is
+     * written to the connection all at once.
+     *
+     * @author skeggsc
+     */
+    private static class BatchBuffer extends ByteArrayOutputStream {
+
+        BatchBuffer() {
+            super(1024);
+        }
+
+        /**
+         * Write the contents of this buffer to the specified output, and then
+         * empty the buffer for reuse.
+         *
+         * @param out The output to write to.
+         * @throws IOException If an IO error occurs.
+         */
+        void drainTo(OutputStream out) throws IOException {
+            out.write(buf, 0, count);
+            out.flush();
+            reset();
+        }
+    }
+
     private static class CluckSenderThread extends ReporterThread {
 
-        private final CLinkedList<SendableEntry> queue;
+        /**
+         * Roughly the most bytes of messages to write at once, so that a large
+         * backlog is written in pieces.
+         */
+        private static final int MAX_BATCH_BYTES = 8192;
+
+        private final CluckSendQueue queue;
         private final DataOutputStream dout;
+        /**
+         * The messages being sent in the current batch.
+         */
+        private final CArrayList<SendableEntry> batch = new CArrayList<SendableEntry>();
+        /**
+         * The coalescable message in the current batch for each destination.
+         */
+        private final CHashMap<String, SendableEntry> coalesced = new CHashMap<String, SendableEntry>();
+        /**
+         * The dictionary of sent paths, or null if the original format is used.
+         */
+        private final CluckPathDictionary dictionary;
+        private final String linkName;
+        private final CluckTrafficMetrics metrics;
 
-        CluckSenderThread(String name, CLinkedList<SendableEntry> queue, DataOutputStream dout) {
-            super(name);
+        CluckSenderThread(String linkName, CluckSendQueue queue, DataOutputStream dout, CluckPathDictionary dictionary, CluckTrafficMetrics metrics) {
+            super("Cluck-Send-" + linkName);
+            this.linkName = linkName;
             this.queue = queue;
             this.dout = dout;
+            this.dictionary = dictionary;
+            this.metrics = metrics;
         }
 
         @Override
         protected void threadBody() throws InterruptedException {
+            BatchBuffer buffer = new BatchBuffer();
+            DataOutputStream bout = new DataOutputStream(buffer);
             try {
                 while (true) {
-                    long nextKeepAlive = System.currentTimeMillis() + KEEPALIVE_INTERVAL;
-                    SendableEntry ent;
-                    synchronized (queue) {
-                        while (queue.isEmpty() && System.currentTimeMillis() < nextKeepAlive) {
-                            queue.wait(200);
-                        }
-                        if (queue.isEmpty()) {
-                            // Send a "keep-alive" message. RMT_NEGATIVE_ACK will never be complained about, so it works.
-                            ent = new SendableEntry(null, "KEEPALIVE", new byte[] { CluckNode.RMT_NEGATIVE_ACK, 0x6D });
+                    collectBatch();
+                    for (SendableEntry ent : batch) {
+                        if (dictionary == null) {
+                            writeFrame(bout, ent.dst, ent.src, ent.data);
                         } else {
-                            ent = queue.removeFirst();
+                            writeCompactFrame(bout, dictionary, ent.dst, ent.src, ent.data);
                         }
                     }
-                    String source = ent.src, dest = ent.dst;
-                    byte[] data = ent.data;
-                    dout.writeUTF(dest == null ? "" : dest);
-                    dout.writeUTF(source == null ? "" : source);
-                    dout.writeInt(data.length);
-                    long begin = (((long) data.length) << 32) ^ (dest == null ? 0 : ((long) dest.hashCode()) << 16) ^ (source == null ? 0 : source.hashCode() ^ (((long) source.hashCode()) << 48));
-                    dout.writeLong(begin);
-                    dout.write(data);
-                    dout.writeLong(checksum(data, begin));
+                    buffer.drainTo(dout);
+                    if (metrics.isEnabled()) {
+                        recordBatch();
+                    }
+                    batch.clear();
+                    coalesced.clear();
                 }
             } catch (IOException ex) {
                 Logger.warning("Bad IO in " + this + ": " + ex);
+            } finally {
+                synchronized (queue) {
+                    // Nothing else will be sent, so don't count these as waiting.
+                    queue.clear();
+                }
+            }
+        }
+
+        private void collectBatch() throws InterruptedException {
+            long nextKeepAlive = System.currentTimeMillis() + KEEPALIVE_INTERVAL;
+            synchronized (queue) {
+                boolean backlogged = !queue.isEmpty();
+                while (queue.isEmpty() && System.currentTimeMillis() < nextKeepAlive) {
+                    queue.wait(200);
+                }
+                if (queue.isEmpty()) {
+                    // Send a "keep-alive" message. RMT_NEGATIVE_ACK will never be complained about, so it works.
+                    batch.add(new SendableEntry(null, "KEEPALIVE", new byte[] { CluckNode.RMT_NEGATIVE_ACK, 0x6D }));
+                    return;
+                }
+                int latency = maximumBatchLatency;
+                if (latency > 0 && !backlogged) {
+                    long sendAt = System.currentTimeMillis() + latency;
+                    long remaining;
+                    while ((remaining = sendAt - System.currentTimeMillis()) > 0) {
+                        queue.wait(remaining);
+                    }
+                }
+                // Leave the rest of a backlog in the queue, so that urgent messages queued while this batch is written go first.
+                int bytes = 0;
+                while (!queue.isEmpty() && bytes < MAX_BATCH_BYTES) {
+                    SendableEntry ent = queue.removeFirst();
+                    bytes += ent.data.length + (ent.src == null ? 0 : ent.src.length()) + (ent.dst == null ? 0 : ent.dst.length());
+                    addToBatch(ent);
+                }
+            }
+        }
+
+        private void recordBatch() {
+            for (SendableEntry ent : batch) {
+                metrics.recordSent(linkName, ent.data, ent.queuedAt);
+            }
+            int depth;
+            synchronized (queue) {
+                depth = queue.size();
+            }
+            metrics.recordQueueDepth(linkName, depth);
+        }
+
+        private void addToBatch(SendableEntry ent) {
+            if (ent.dst == null || !isCoalescable(ent.data)) {
+                batch.add(ent);
+                return;
+            }
+            SendableEntry earlier = coalesced.get(ent.dst);
+            if (earlier != null && earlier.data[0] == ent.data[0]) {
+                // Drop the earlier message and send the newest value in its own
+                // position, so that it can't overtake anything queued between them.
+                for (int i = batch.size() - 1; i >= 0; i--) {
+                    if (batch.get(i) == earlier) {
+                        batch.remove(i);
+                        break;
+                    }
+                }
+                ent = earlier.supersededBy(ent);
             }
+            coalesced.put(ent.dst, ent);
+            batch.add(ent);
         }
     }
 }
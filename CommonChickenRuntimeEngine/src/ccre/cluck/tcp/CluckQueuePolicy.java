@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck.tcp;
+
+/**
+ * A limit on how many messages can wait to be sent over a single connection,
+ * and what to do when a message is sent while that many are waiting. This
+ * keeps a slow remote from using up all of the memory of the sender.
+ *
+ * @author skeggsc
+ * @see CluckProtocol#setDefaultQueuePolicy(ccre.cluck.tcp.CluckQueuePolicy)
+ */
+public final class CluckQueuePolicy {
+
+    static final int MODE_BLOCK = 0;
+    static final int MODE_DROP_NEWEST = 1;
+    static final int MODE_DROP_OLDEST = 2;
+    static final int MODE_COALESCE = 3;
+
+    /**
+     * How long a sender is blocked by a BLOCK policy before its message is
+     * dropped instead, in milliseconds.
+     */
+    static final int MAXIMUM_BLOCK_TIME = 1000;
+
+    /**
+     * Make the sender wait until there is room for the message. If there still
+     * isn't room after a second, or if the sender is the thread that empties
+     * the queue, the message is dropped.
+     *
+     * @param capacity The maximum number of waiting messages.
+     * @return the new policy.
+     * @throws IllegalArgumentException If capacity is less than one.
+     */
+    public static CluckQueuePolicy block(int capacity) throws IllegalArgumentException {
+        return new CluckQueuePolicy(capacity, MODE_BLOCK, "block");
+    }
+
+    /**
+     * Drop the message being sent.
+     *
+     * @param capacity The maximum number of waiting messages.
+     * @return the new policy.
+     * @throws IllegalArgumentException If capacity is less than one.
+     */
+    public static CluckQueuePolicy dropNewest(int capacity) throws IllegalArgumentException {
+        return new CluckQueuePolicy(capacity, MODE_DROP_NEWEST, "drop-newest");
+    }
+
+    /**
+     * Drop the oldest waiting message of the least urgent priority class, so
+     * long as it is no more urgent than the message being sent. Otherwise,
+     * drop the message being sent.
+     *
+     * @param capacity The maximum number of waiting messages.
+     * @return the new policy.
+     * @throws IllegalArgumentException If capacity is less than one.
+     * @see ccre.cluck.CluckPriority
+     */
+    public static CluckQueuePolicy dropOldest(int capacity) throws IllegalArgumentException {
+        return new CluckQueuePolicy(capacity, MODE_DROP_OLDEST, "drop-oldest");
+    }
+
+    /**
+     * If the message being sent only carries the latest value of an output or
+     * input, and a message of the same type is already waiting for the same
+     * destination, drop the waiting message and add the new one. Otherwise,
+     * act like dropOldest.
+     *
+     * @param capacity The maximum number of waiting messages.
+     * @return the new policy.
+     * @throws IllegalArgumentException If capacity is less than one.
+     */
+    public static CluckQueuePolicy coalesce(int capacity) throws IllegalArgumentException {
+        return new CluckQueuePolicy(capacity, MODE_COALESCE, "coalesce");
+    }
+
+    /**
+     * The maximum number of messages that can wait to be sent.
+     */
+    public final int capacity;
+    final int mode;
+    private final String name;
+
+    private CluckQueuePolicy(int capacity, int mode, String name) throws IllegalArgumentException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be >= 1.");
+        }
+        this.capacity = capacity;
+        this.mode = mode;
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + capacity + ")";
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck.tcp;
+
+import ccre.channel.FloatInput;
+import ccre.channel.FloatInputPoll;
+import ccre.cluck.CluckNode;
+import ccre.cluck.CluckPublisher;
+import ccre.ctrl.FloatMixing;
+import ccre.ctrl.Ticker;
+
+/**
+ * The total number of messages waiting to be sent over all connections, and
+ * the total number of messages dropped by queue policies.
+ *
+ * The FloatInputs are only updated every SAMPLE_INTERVAL milliseconds, so
+ * that publishing them can't flood the connections that they describe.
+ *
+ * @author skeggsc
+ * @see CluckProtocol#getQueueStatus()
+ */
+public final class CluckQueueStatus {
+
+    /**
+     * How often the FloatInputs are updated, in milliseconds.
+     */
+    public static final int SAMPLE_INTERVAL = 100;
+
+    private int depth = 0;
+    private int dropped = 0;
+    private Ticker sampler;
+    private FloatInput depthInput, droppedInput;
+
+    CluckQueueStatus() {
+    }
+
+    synchronized void report(int depthDelta, int droppedDelta) {
+        depth += depthDelta;
+        dropped += droppedDelta;
+    }
+
+    /**
+     * @return the number of messages currently waiting to be sent.
+     */
+    public synchronized int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of messages dropped so far.
+     */
+    public synchronized int getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Get a FloatInput for the number of messages currently waiting to be sent.
+     * The first call to this or getDroppedMessages starts a Ticker to update
+     * them.
+     *
+     * @return the queue depth input.
+     */
+    public synchronized FloatInput getQueueDepth() {
+        if (depthInput == null) {
+            depthInput = FloatMixing.createDispatch(new FloatInputPoll() {
+                public float get() {
+                    return getDepth();
+                }
+            }, getSampler());
+        }
+        return depthInput;
+    }
+
+    /**
+     * Get a FloatInput for the number of messages dropped so far. The first
+     * call to this or getQueueDepth starts a Ticker to update them.
+     *
+     * @return the drop counter input.
+     */
+    public synchronized FloatInput getDroppedMessages() {
+        if (droppedInput == null) {
+            droppedInput = FloatMixing.createDispatch(new FloatInputPoll() {
+                public float get() {
+                    return getDropped();
+                }
+            }, getSampler());
+        }
+        return droppedInput;
+    }
+
+    private Ticker getSampler() {
+        if (sampler == null) {
+            sampler = new Ticker(SAMPLE_INTERVAL);
+        }
+        return sampler;
+    }
+
+    /**
+     * Publish the queue depth and drop counter on the specified node, as
+     * name.queue-depth and name.dropped-messages.
+     *
+     * @param node The node to publish on.
+     * @param name The prefix for the published names.
+     */
+    public void publish(CluckNode node, String name) {
+        CluckPublisher.publish(node, name + ".queue-depth", getQueueDepth());
+        CluckPublisher.publish(node, name + ".dropped-messages", getDroppedMessages());
+    }
+}
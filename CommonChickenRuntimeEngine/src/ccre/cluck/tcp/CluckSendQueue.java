@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.cluck.tcp;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import ccre.cluck.CluckPriority;
+import ccre.cluck.tcp.CluckProtocol.SendableEntry;
+import ccre.log.Logger;
+import ccre.util.CLinkedList;
+
+/**
+ * The queue of messages waiting to be sent over a connection, with a separate
+ * lane for each CluckPriority. Messages are always taken from the most urgent
+ * nonempty lane.
+ *
+ * The whole queue is limited by a CluckQueuePolicy, and the TELEMETRY lane is
+ * also limited on its own: when it is full, its oldest message is dropped.
+ *
+ * This is not synchronized: callers must hold the lock on this object.
+ *
+ * @author skeggsc
+ */
+final class CluckSendQueue {
+
+    private final String linkName;
+    private final CluckQueuePolicy policy;
+    private final CluckQueueStatus status;
+    private final CLinkedList<SendableEntry>[] lanes;
+    private int size = 0;
+    /**
+     * The number of senders waiting for room under a BLOCK policy.
+     */
+    private int blocked = 0;
+    private int droppedSinceWarning = 0;
+    private long lastDropWarning = 0;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    CluckSendQueue(String linkName, CluckQueuePolicy policy, CluckQueueStatus status) {
+        this.linkName = linkName;
+        this.policy = policy;
+        this.status = status;
+        lanes = new CLinkedList[CluckPriority.COUNT];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new CLinkedList<SendableEntry>();
+        }
+    }
+
+    /**
+     * Add a message to the end of the lane for its priority, applying the
+     * queue policy if the queue is full.
+     *
+     * @param entry The message.
+     * @param priority The priority of the message.
+     * @param mayBlock If the caller can wait for room in the queue. This must be
+     * false for the thread that empties the queue.
+     * @throws InterruptedException If the caller is interrupted while blocked.
+     */
+    void add(SendableEntry entry, CluckPriority priority, boolean mayBlock) throws InterruptedException {
+        CLinkedList<SendableEntry> lane = lanes[priority.lane];
+        if (priority == CluckPriority.TELEMETRY && lane.size() >= CluckProtocol.getTelemetryQueueCapacity()) {
+            lane.removeFirst();
+            removed(1);
+            dropped();
+        }
+        if (size >= policy.capacity) {
+            entry = makeRoom(entry, priority, mayBlock);
+            if (entry == null) {
+                return;
+            }
+        }
+        lane.addLast(entry);
+        size++;
+        status.report(1, 0);
+    }
+
+    /**
+     * Apply the queue policy to a full queue.
+     *
+     * @return the entry to add, or null if nothing should be added.
+     */
+    private SendableEntry makeRoom(SendableEntry entry, CluckPriority priority, boolean mayBlock) throws InterruptedException {
+        switch (policy.mode) {
+        case CluckQueuePolicy.MODE_BLOCK:
+            if (mayBlock) {
+                long giveUpAt = System.currentTimeMillis() + CluckQueuePolicy.MAXIMUM_BLOCK_TIME;
+                long remaining;
+                blocked++;
+                try {
+                    while (size >= policy.capacity && (remaining = giveUpAt - System.currentTimeMillis()) > 0) {
+                        wait(remaining);
+                    }
+                } finally {
+                    blocked--;
+                }
+                if (size < policy.capacity) {
+                    return entry;
+                }
+            }
+            break;
+        case CluckQueuePolicy.MODE_COALESCE:
+            if (entry.dst != null && CluckProtocol.isCoalescable(entry.data)) {
+                for (int i = 0; i < lanes.length; i++) {
+                    for (Iterator<SendableEntry> it = lanes[i].iterator(); it.hasNext();) {
+                        SendableEntry queued = it.next();
+                        if (entry.dst.equals(queued.dst) && queued.data.length != 0 && queued.data[0] == entry.data[0]) {
+                            // Replace the waiting message at the back of the queue, so
+                            // that the new value doesn't overtake anything in between.
+                            it.remove();
+                            removed(1);
+                            return queued.supersededBy(entry);
+                        }
+                    }
+                }
+            }
+            if (dropOldest(priority)) {
+                return entry;
+            }
+            break;
+        case CluckQueuePolicy.MODE_DROP_OLDEST:
+            if (dropOldest(priority)) {
+                return entry;
+            }
+            break;
+        }
+        dropped();
+        return null;
+    }
+
+    /**
+     * Drop the oldest message from the least important lane that has any
+     * messages, but not from a lane more important than the specified
+     * priority.
+     *
+     * @return if a message was dropped.
+     */
+    private boolean dropOldest(CluckPriority priority) {
+        for (int i = lanes.length - 1; i >= priority.lane; i--) {
+            if (!lanes[i].isEmpty()) {
+                lanes[i].removeFirst();
+                removed(1);
+                dropped();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removed(int count) {
+        size -= count;
+        status.report(-count, 0);
+        if (blocked > 0) {
+            notifyAll();
+        }
+    }
+
+    private void dropped() {
+        status.report(0, 1);
+        droppedSinceWarning++;
+        long now = System.currentTimeMillis();
+        if (now >= lastDropWarning + 1000) {
+            lastDropWarning = now;
+            Logger.warning("[LOCAL] Dropped " + droppedSinceWarning + " messages queued for " + linkName);
+            droppedSinceWarning = 0;
+        }
+    }
+
+    /**
+     * Remove and return the oldest message in the most urgent nonempty lane.
+     *
+     * @return The message.
+     * @throws NoSuchElementException If the queue is empty.
+     */
+    SendableEntry removeFirst() throws NoSuchElementException {
+        for (int i = 0; i < lanes.length; i++) {
+            if (!lanes[i].isEmpty()) {
+                SendableEntry out = lanes[i].removeFirst();
+                removed(1);
+                return out;
+            }
+        }
+        throw new NoSuchElementException();
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i].clear();
+        }
+        removed(size);
+    }
+}
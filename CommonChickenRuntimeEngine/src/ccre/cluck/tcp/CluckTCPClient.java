@@ -85,6 +85,14 @@ public class CluckTCPClient extends ReporterThread {
      * Should this component log anything during normal operation?
      */
     private boolean logDuringNormalOperation = true;
+    /**
+     * The protocol version agreed on for the current connection.
+     */
+    private int protocolVersion = CluckProtocol.PROTOCOL_VERSION_ORIGINAL;
+    /**
+     * The queue policy for new connections, or null for the default.
+     */
+    private volatile CluckQueuePolicy queuePolicy = null;
 
     /**
      * Create a new CluckTCPClient connecting to the specified remote on the
@@ -154,6 +162,17 @@ public class CluckTCPClient extends ReporterThread {
         reconnectDelayMillis = millis;
     }
 
+    /**
+     * Set the queue policy for connections opened after this is called.
+     *
+     * @param policy The queue policy, or null to use the default from
+     * CluckProtocol.
+     * @see CluckProtocol#setDefaultQueuePolicy(ccre.cluck.tcp.CluckQueuePolicy)
+     */
+    public void setQueuePolicy(CluckQueuePolicy policy) {
+        queuePolicy = policy;
+    }
+
     private void closeActiveConnectionIfAny() {
         if (sock != null) {
             try {
@@ -237,16 +256,16 @@ public class CluckTCPClient extends ReporterThread {
     }
 
     protected CluckLink doStart(DataInputStream din, DataOutputStream dout, ClientSocket socket) throws IOException {
-        CluckProtocol.handleHeader(din, dout, remoteNameHint);
+        protocolVersion = CluckProtocol.negotiateHeader(din, dout, remoteNameHint, CluckProtocol.getMaximumProtocolVersion()).version;
         Logger.fine("Connected to " + remote + " at " + System.currentTimeMillis());
         CluckProtocol.setTimeoutOnSocket(socket);
-        CluckLink deny = CluckProtocol.handleSend(dout, linkName, node);
+        CluckLink deny = CluckProtocol.handleSend(dout, linkName, node, protocolVersion, queuePolicy);
         node.notifyNetworkModified(); // Only send here, not on server.
         return deny;
     }
 
     protected void doMain(DataInputStream din, DataOutputStream dout, ClientSocket socket, CluckLink deny) throws IOException {
-        CluckProtocol.handleRecv(din, linkName, node, deny);
+        CluckProtocol.handleRecv(din, linkName, node, deny, protocolVersion);
     }
 
     /**
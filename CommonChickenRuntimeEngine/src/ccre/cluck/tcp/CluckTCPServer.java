@@ -40,6 +40,10 @@ public class CluckTCPServer extends ConnectionReceiverThread {
      * The shared CluckNode.
      */
     public final CluckNode node;
+    /**
+     * The queue policy for new connections, or null for the default.
+     */
+    private volatile CluckQueuePolicy queuePolicy = null;
 
     /**
      * Create a new CluckTCPServer sharing a specified node on a specified port.
@@ -61,6 +65,17 @@ public class CluckTCPServer extends ConnectionReceiverThread {
         this(node, 80);
     }
 
+    /**
+     * Set the queue policy for connections opened after this is called.
+     *
+     * @param policy The queue policy, or null to use the default from
+     * CluckProtocol.
+     * @see CluckProtocol#setDefaultQueuePolicy(ccre.cluck.tcp.CluckQueuePolicy)
+     */
+    public void setQueuePolicy(CluckQueuePolicy policy) {
+        queuePolicy = policy;
+    }
+
     @Override
     protected void handleClient(ClientSocket conn) {
         try {
@@ -68,14 +83,15 @@ public class CluckTCPServer extends ConnectionReceiverThread {
             try {
                 DataOutputStream dout = conn.openDataOutputStream();
                 try {
-                    String linkName = CluckProtocol.handleHeader(din, dout, null);
+                    CluckProtocol.Handshake handshake = CluckProtocol.negotiateHeader(din, dout, null, CluckProtocol.getMaximumProtocolVersion());
+                    String linkName = handshake.remoteHint;
                     if (linkName == null) {
                         linkName = UniqueIds.global.nextHexId("tcpserv");
                     }
                     Logger.fine("Client connected at " + System.currentTimeMillis() + " named " + linkName);
                     CluckProtocol.setTimeoutOnSocket(conn);
-                    CluckLink deny = CluckProtocol.handleSend(dout, linkName, node);
-                    CluckProtocol.handleRecv(din, linkName, node, deny);
+                    CluckLink deny = CluckProtocol.handleSend(dout, linkName, node, handshake.version, queuePolicy);
+                    CluckProtocol.handleRecv(din, linkName, node, deny, handshake.version);
                     // node.notifyNetworkModified(); - sent by client, not needed here.
                 } finally {
                     dout.close();
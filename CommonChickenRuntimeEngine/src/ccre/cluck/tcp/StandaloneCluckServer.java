@@ -18,6 +18,8 @@
  */
 package ccre.cluck.tcp;
 
+import java.io.IOException;
+
 import ccre.channel.EventOutput;
 import ccre.cluck.Cluck;
 import ccre.log.Logger;
@@ -34,9 +36,11 @@ public class StandaloneCluckServer {
     /**
      * Start the simple server.
      *
-     * @param args The program arguments. These are currently ignored.
+     * @param args The program arguments. If the first argument is --nio, the
+     * server uses a CluckNIOTransport instead of a CluckTCPServer.
+     * @throws IOException If the NIO transport cannot be set up.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         final long time = System.currentTimeMillis();
         NetworkAutologger.register();
         Cluck.publish("status-report", new EventOutput() {
@@ -49,7 +53,13 @@ public class StandaloneCluckServer {
                 Logger.info(b.append("] - uptime ").append((System.currentTimeMillis() - time) / 1000).append(" seconds.").toString());
             }
         });
-        Cluck.setupServer();
+        if (args.length > 0 && "--nio".equals(args[0])) {
+            CluckNIOTransport transport = new CluckNIOTransport(Cluck.getNode());
+            transport.start();
+            transport.listen(80);
+        } else {
+            Cluck.setupServer();
+        }
         Logger.info("Server is running.");
     }
 
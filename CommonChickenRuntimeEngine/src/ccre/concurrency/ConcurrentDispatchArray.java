@@ -24,6 +24,7 @@ import java.util.NoSuchElementException;
 
 import ccre.util.CArrayUtils;
 import ccre.util.CCollection;
+import ccre.util.CHashMap;
 
 /**
  * A concurrent collection that allows concurrent iteration and removal without
@@ -31,7 +32,9 @@ import ccre.util.CCollection;
  * were in the iterator when the iterator was started.
  *
  * This is implemented by copying the entire array when a modification operation
- * is completed.
+ * is completed. Batch operations (addAll, removeAll, retainAll) copy the array
+ * only once, no matter how many elements they change, so prefer them when
+ * subscribing or unsubscribing many elements at once.
  *
  * @author skeggsc
  * @param <E> The type of the collection's elements
@@ -39,6 +42,11 @@ import ccre.util.CCollection;
 public final class ConcurrentDispatchArray<E> implements CCollection<E>, Serializable {
 
     private static final long serialVersionUID = -7949492774411494179L;
+    /**
+     * Above this many elements, removeAll and retainAll look up elements in a
+     * temporary hash map instead of calling contains on the collection.
+     */
+    private static final int HASHED_FILTER_THRESHOLD = 8;
     /**
      * The array that contains the current data. Do not modify this field
      * directly - use compareAndSetArray.
@@ -88,35 +96,76 @@ public final class ConcurrentDispatchArray<E> implements CCollection<E>, Seriali
     }
 
     private boolean removeSpecificElement(Object tgt) {
-        Object[] previous, active;
-        do {
-            previous = data;
-            active = new Object[previous.length - 1];
-            int j;
-            for (j = 0; j < previous.length; j++) {
-                Object cur = previous[j];
-                if (cur == tgt) {
-                    break;
-                }
-                active[j] = cur;
-            }
-            if (j == previous.length) {
+        while (true) {
+            Object[] previous = data;
+            int index = indexOfIdentical(previous, tgt);
+            if (index == -1) {
                 // already removed. do nothing!
                 return false;
             }
-            for (j++; j < previous.length; j++) {
-                active[j - 1] = previous[j];
+            if (compareAndSetArray(previous, without(previous, index))) {
+                return true;
             }
-        } while (!compareAndSetArray(previous, active));
-        return true;
+        }
+    }
+
+    private static int indexOfIdentical(Object[] array, Object tgt) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == tgt) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Object[] without(Object[] array, int index) {
+        Object[] out = new Object[array.length - 1];
+        System.arraycopy(array, 0, out, 0, index);
+        System.arraycopy(array, index + 1, out, index, out.length - index);
+        return out;
+    }
+
+    /**
+     * Copy the elements of the array that are (or, if keep is false, are not)
+     * in the collection.
+     *
+     * @return the filtered array, or null if no elements would be removed.
+     */
+    private static Object[] filter(Object[] array, CCollection<?> c, boolean keep) {
+        CHashMap<Object, Object> lookup = null;
+        if (c.size() > HASHED_FILTER_THRESHOLD) {
+            lookup = new CHashMap<Object, Object>(c.size() * 2);
+            for (Object o : c) {
+                if (o != null) {
+                    lookup.put(o, o);
+                }
+            }
+        }
+        Object[] out = null;
+        int count = 0;
+        for (int i = 0; i < array.length; i++) {
+            Object cur = array[i];
+            if ((lookup != null ? lookup.containsKey(cur) : c.contains(cur)) == keep) {
+                if (out != null) {
+                    out[count++] = cur;
+                }
+            } else if (out == null) {
+                out = new Object[array.length - 1];
+                System.arraycopy(array, 0, out, 0, i);
+                count = i;
+            }
+        }
+        return out == null ? null : CArrayUtils.copyOf(out, count);
     }
 
     /**
      * If the current array is the expected array, set the current array to the
      * updated array.
      *
-     * As long as all modifications occur through this method, there will be
-     * race conditions or deadlocks.
+     * As long as all modifications occur through this method, there will be no
+     * race conditions or deadlocks. This is synchronized rather than a real
+     * compare-and-set because the Squawk VM has no atomic field updaters; the
+     * lock is only held for the comparison, never while copying.
      *
      * @param expect the array that is expected to be the current value.
      * @param update the array that should replace the current array.
@@ -175,27 +224,64 @@ public final class ConcurrentDispatchArray<E> implements CCollection<E>, Seriali
         return data.length;
     }
 
+    /**
+     * Remove the first element equal to o. Elements identical to o are found
+     * first, without calling equals, which is the common case when removing
+     * a listener that was added earlier.
+     *
+     * @param o The element to remove.
+     * @return if an element was removed.
+     */
     public boolean remove(Object o) {
-        for (Iterator<E> it = this.iterator(); it.hasNext();) {
-            E e = it.next();
-            if (e.equals(o)) {
-                it.remove();
+        while (true) {
+            Object[] old = data;
+            int index = indexOfIdentical(old, o);
+            if (index == -1 && o != null) {
+                for (int i = 0; i < old.length; i++) {
+                    if (o.equals(old[i])) {
+                        index = i;
+                        break;
+                    }
+                }
+            }
+            if (index == -1) {
+                return false;
+            }
+            if (compareAndSetArray(old, without(old, index))) {
                 return true;
             }
         }
-        return false;
     }
 
     public void clear() {
         data = new Object[0];
     }
 
+    /**
+     * Add all of the elements of c, copying the array only once.
+     *
+     * @param c The elements to add.
+     * @return if any elements were added.
+     * @throws NullPointerException If any of the elements are null.
+     */
     public boolean addAll(CCollection<? extends E> c) {
-        boolean out = false;
-        for (E e : c) {
-            out |= add(e);
+        Object[] added = c.toArray();
+        for (Object o : added) {
+            if (o == null) {
+                throw new NullPointerException();
+            }
+        }
+        if (added.length == 0) {
+            return false;
+        }
+        while (true) {
+            Object[] old = data;
+            Object[] dout = CArrayUtils.copyOf(old, old.length + added.length);
+            System.arraycopy(added, 0, dout, old.length, added.length);
+            if (compareAndSetArray(old, dout)) {
+                return true;
+            }
         }
-        return out;
     }
 
     public boolean isEmpty() {
@@ -220,28 +306,37 @@ public final class ConcurrentDispatchArray<E> implements CCollection<E>, Seriali
         return true;
     }
 
+    /**
+     * Remove all elements that are in c, copying the array only once.
+     *
+     * @param c The elements to remove.
+     * @return if any elements were removed.
+     */
     public boolean removeAll(CCollection<?> c) {
-        boolean mod = false;
-        for (Iterator<E> it = this.iterator(); it.hasNext();) {
-            E e = it.next();
-            if (c.contains(e)) {
-                it.remove();
-                mod = true;
-            }
-        }
-        return mod;
+        return removeFiltered(c, false);
     }
 
+    /**
+     * Remove all elements that are not in c, copying the array only once.
+     *
+     * @param c The elements to keep.
+     * @return if any elements were removed.
+     */
     public boolean retainAll(CCollection<?> c) {
-        boolean mod = false;
-        for (Iterator<E> it = this.iterator(); it.hasNext();) {
-            E e = it.next();
-            if (!c.contains(e)) {
-                it.remove();
-                mod = true;
+        return removeFiltered(c, true);
+    }
+
+    private boolean removeFiltered(CCollection<?> c, boolean keep) {
+        while (true) {
+            Object[] old = data;
+            Object[] dout = filter(old, c, keep);
+            if (dout == null) {
+                return false;
+            }
+            if (compareAndSetArray(old, dout)) {
+                return true;
             }
         }
-        return mod;
     }
 
     public Object[] toArray() {
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.concurrency;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A concurrent map that allows lookups and iteration without any locking.
+ * Iterators return the keys or values that were in the map when the iterator
+ * was started, and support removal.
+ *
+ * This is implemented, like ConcurrentDispatchArray, by replacing an immutable
+ * table whenever a modification is completed, so it is best for maps that are
+ * read much more often than they are modified. Does not support null keys or
+ * null values.
+ *
+ * @author skeggsc
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @see ConcurrentDispatchArray
+ */
+public final class ConcurrentDispatchMap<K, V> implements Iterable<K>, Serializable {
+
+    private static final long serialVersionUID = 3925374802381126094L;
+
+    /**
+     * The current table. Never modified once published - only replaced while
+     * synchronized on this map.
+     */
+    private volatile Table table = new Table(new Object[0], new Object[0]);
+
+    /**
+     * Get the value from the map at the specified key.
+     *
+     * @param key the key to get from.
+     * @return the value at that key, or null if the key doesn't exist.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        Table t = table;
+        int i = t.find(key);
+        return i == -1 ? null : (V) t.values[i];
+    }
+
+    /**
+     * Decide if the map contains the specified key.
+     *
+     * @param key the key to look for.
+     * @return if the key exists.
+     */
+    public boolean containsKey(K key) {
+        return table.find(key) != -1;
+    }
+
+    /**
+     * Set the specified key in the map to the specified value.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @return the previous value at that key, or null if no such key existed.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V put(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        Table t = table;
+        int i = t.find(key);
+        if (i == -1) {
+            table = t.with(key, value);
+            return null;
+        }
+        Object[] values = new Object[t.values.length];
+        System.arraycopy(t.values, 0, values, 0, values.length);
+        values[i] = value;
+        table = new Table(t, values);
+        return (V) t.values[i];
+    }
+
+    /**
+     * Set the specified key in the map to the specified value, unless the key
+     * already exists.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @return the current value at that key, or null if the value was put.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V putIfAbsent(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        Table t = table;
+        int i = t.find(key);
+        if (i != -1) {
+            return (V) t.values[i];
+        }
+        table = t.with(key, value);
+        return null;
+    }
+
+    /**
+     * Removes a key from this map.
+     *
+     * @param key the key to remove from this map.
+     * @return the removed key's value, or null if it didn't exist.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(K key) {
+        Table t = table;
+        int i = t.find(key);
+        if (i == -1) {
+            return null;
+        }
+        table = t.without(i);
+        return (V) t.values[i];
+    }
+
+    /**
+     * Removes a key from this map, but only if it is mapped to exactly the
+     * specified value. This can be used to remove an entry without any risk of
+     * removing a replacement that was put concurrently.
+     *
+     * @param key the key to remove from this map.
+     * @param value the value that the key must be mapped to.
+     * @return if the key was removed.
+     */
+    public synchronized boolean remove(K key, V value) {
+        Table t = table;
+        int i = t.find(key);
+        if (i == -1 || t.values[i] != value) {
+            return false;
+        }
+        table = t.without(i);
+        return true;
+    }
+
+    /**
+     * Clear the map. It will no longer contain any elements.
+     */
+    public synchronized void clear() {
+        table = new Table(new Object[0], new Object[0]);
+    }
+
+    /**
+     * Returns the number of key/value pairs in this map.
+     *
+     * @return the number of key/value pairs.
+     */
+    public int size() {
+        return table.keys.length;
+    }
+
+    /**
+     * Returns whether or not any key/value pairs exist in this map.
+     *
+     * @return true if this map contains no key/value pairs.
+     */
+    public boolean isEmpty() {
+        return size() <= 0;
+    }
+
+    /**
+     * Iterate over a snapshot of the keys of this map. Removing through the
+     * iterator only removes the key if it still has the value that it had in
+     * the snapshot.
+     *
+     * @return the iterator.
+     */
+    public Iterator<K> iterator() {
+        return new SnapshotIterator<K>(table, true);
+    }
+
+    /**
+     * Iterate over a snapshot of the values of this map. Removing through the
+     * iterator only removes the value's key if it still has that value.
+     *
+     * @return the iterator.
+     */
+    public Iterator<V> valueIterator() {
+        return new SnapshotIterator<V>(table, false);
+    }
+
+    private class SnapshotIterator<T> implements Iterator<T> {
+
+        private final Table snapshot;
+        private final boolean keys;
+        private int i = 0;
+
+        SnapshotIterator(Table snapshot, boolean keys) {
+            this.snapshot = snapshot;
+            this.keys = keys;
+        }
+
+        public boolean hasNext() {
+            return i < snapshot.keys.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return (T) (keys ? snapshot.keys[i++] : snapshot.values[i++]);
+        }
+
+        @SuppressWarnings("unchecked")
+        public void remove() {
+            if (i == 0) {
+                throw new IllegalStateException();
+            }
+            ConcurrentDispatchMap.this.remove((K) snapshot.keys[i - 1], (V) snapshot.values[i - 1]);
+        }
+    }
+
+    /**
+     * An immutable hash table. The entries are kept densely packed in keys and
+     * values, and found by linear probing in index, which holds one plus the
+     * position of each entry (so that zero is an empty slot) and is always at
+     * least half empty.
+     */
+    private static final class Table implements Serializable {
+
+        private static final long serialVersionUID = -4480542003513096150L;
+
+        final Object[] keys;
+        final Object[] values;
+        private final int[] index;
+
+        Table(Object[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
+            int capacity = 1;
+            while (capacity < keys.length * 2) {
+                capacity <<= 1;
+            }
+            index = new int[capacity];
+            for (int i = 0; i < keys.length; i++) {
+                int slot = hash(keys[i]) & (capacity - 1);
+                while (index[slot] != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                index[slot] = i + 1;
+            }
+        }
+
+        /**
+         * Create a table with the same keys as the specified table but
+         * different values.
+         */
+        Table(Table base, Object[] values) {
+            this.keys = base.keys;
+            this.values = values;
+            this.index = base.index;
+        }
+
+        private static int hash(Object key) {
+            int h = key.hashCode();
+            return h ^ (h >>> 16);
+        }
+
+        int find(Object key) {
+            int mask = index.length - 1;
+            int slot = hash(key) & mask;
+            while (true) {
+                int entry = index[slot];
+                if (entry == 0) {
+                    return -1;
+                }
+                if (key.equals(keys[entry - 1])) {
+                    return entry - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        Table with(Object key, Object value) {
+            Object[] nkeys = new Object[keys.length + 1];
+            Object[] nvalues = new Object[values.length + 1];
+            System.arraycopy(keys, 0, nkeys, 0, keys.length);
+            System.arraycopy(values, 0, nvalues, 0, values.length);
+            nkeys[keys.length] = key;
+            nvalues[values.length] = value;
+            return new Table(nkeys, nvalues);
+        }
+
+        Table without(int i) {
+            Object[] nkeys = new Object[keys.length - 1];
+            Object[] nvalues = new Object[values.length - 1];
+            System.arraycopy(keys, 0, nkeys, 0, i);
+            System.arraycopy(values, 0, nvalues, 0, i);
+            System.arraycopy(keys, i + 1, nkeys, i, nkeys.length - i);
+            System.arraycopy(values, i + 1, nvalues, i, nvalues.length - i);
+            return new Table(nkeys, nvalues);
+        }
+    }
+}
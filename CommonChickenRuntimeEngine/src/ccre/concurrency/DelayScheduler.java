@@ -0,0 +1,273 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.concurrency;
+
+import ccre.channel.EventOutput;
+import ccre.log.Logger;
+import ccre.time.Clock;
+
+/**
+ * A scheduler that fires EventOutputs once each after a delay, all from a
+ * single thread. ExpirationTimers use the default DelayScheduler.
+ *
+ * Each EventOutput gets a Delay, which can be scheduled, rescheduled and
+ * cancelled any number of times. The scheduled Delays are kept in a binary
+ * heap ordered by deadline, so scheduling, rescheduling and cancelling a
+ * Delay take logarithmic time and don't allocate anything.
+ *
+ * The EventOutputs are fired on the scheduler's thread, so they should finish
+ * quickly: a slow EventOutput delays all of the others. The thread is started
+ * when something is scheduled, and stops after IDLE_TIMEOUT milliseconds with
+ * nothing scheduled. If there is an active EventLoop, the EventOutputs are
+ * posted to it instead.
+ *
+ * @author skeggsc
+ * @see ccre.ctrl.ExpirationTimer
+ */
+public final class DelayScheduler {
+
+    /**
+     * How long the thread waits with nothing scheduled before it stops, in
+     * milliseconds.
+     */
+    public static final int IDLE_TIMEOUT = 2000;
+
+    private static DelayScheduler defaultScheduler;
+
+    /**
+     * @return the DelayScheduler shared by all ExpirationTimers.
+     */
+    public static synchronized DelayScheduler getDefault() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new DelayScheduler("DelayScheduler");
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * An EventOutput that can be scheduled on a DelayScheduler.
+     */
+    public static final class Delay {
+
+        private final DelayScheduler scheduler;
+        private final EventOutput target;
+        /**
+         * When this is due. Protected by scheduler.
+         */
+        private long deadline;
+        /**
+         * The position of this in the heap, or -1 if it isn't scheduled.
+         * Protected by scheduler.
+         */
+        private int index = -1;
+
+        Delay(DelayScheduler scheduler, EventOutput target) {
+            this.scheduler = scheduler;
+            this.target = target;
+        }
+
+        /**
+         * Schedule this to fire at the specified time, replacing any time that
+         * it was already scheduled for.
+         *
+         * @param time When to fire, in milliseconds of the current Clock.
+         */
+        public void scheduleAt(long time) {
+            scheduler.schedule(this, time);
+        }
+
+        /**
+         * Schedule this to fire after the specified delay, replacing any time
+         * that it was already scheduled for.
+         *
+         * @param delay How long to wait, in milliseconds.
+         */
+        public void scheduleAfter(long delay) {
+            scheduler.schedule(this, Clock.millis() + delay);
+        }
+
+        /**
+         * Stop this from firing, if it was scheduled.
+         */
+        public void cancel() {
+            scheduler.cancel(this);
+        }
+
+        /**
+         * @return whether or not this is scheduled to fire.
+         */
+        public boolean isScheduled() {
+            synchronized (scheduler) {
+                return index != -1;
+            }
+        }
+    }
+
+    private final String name;
+    private Delay[] heap = new Delay[16];
+    private int size = 0;
+    private boolean threadAlive = false;
+
+    /**
+     * Create a new DelayScheduler. Its thread is named after it.
+     *
+     * @param name The name of the DelayScheduler.
+     */
+    public DelayScheduler(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Create a new Delay that fires the specified EventOutput. It won't fire
+     * until it is scheduled.
+     *
+     * @param target The EventOutput to fire.
+     * @return the new Delay.
+     */
+    public Delay create(EventOutput target) {
+        if (target == null) {
+            throw new NullPointerException();
+        }
+        return new Delay(this, target);
+    }
+
+    /**
+     * @return the number of Delays currently scheduled.
+     */
+    public synchronized int getScheduledCount() {
+        return size;
+    }
+
+    private synchronized void schedule(Delay delay, long time) {
+        long old = delay.deadline;
+        delay.deadline = time;
+        if (delay.index == -1) {
+            if (size == heap.length) {
+                Delay[] bigger = new Delay[heap.length * 2];
+                System.arraycopy(heap, 0, bigger, 0, size);
+                heap = bigger;
+            }
+            delay.index = size;
+            heap[size++] = delay;
+            siftUp(delay.index);
+        } else if (time < old) {
+            siftUp(delay.index);
+        } else {
+            siftDown(delay.index);
+        }
+        if (!threadAlive) {
+            threadAlive = true;
+            new ReporterThread(name) {
+                @Override
+                protected void threadBody() throws InterruptedException {
+                    runScheduler();
+                }
+            }.start();
+        } else if (heap[0] == delay) {
+            notifyAll();
+        }
+    }
+
+    private synchronized void cancel(Delay delay) {
+        int index = delay.index;
+        if (index == -1) {
+            return;
+        }
+        delay.index = -1;
+        Delay last = heap[--size];
+        heap[size] = null;
+        if (last != delay) {
+            heap[index] = last;
+            last.index = index;
+            siftUp(index);
+            siftDown(last.index);
+        }
+    }
+
+    private void siftUp(int index) {
+        Delay delay = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >> 1;
+            if (heap[parent].deadline <= delay.deadline) {
+                break;
+            }
+            heap[index] = heap[parent];
+            heap[index].index = index;
+            index = parent;
+        }
+        heap[index] = delay;
+        delay.index = index;
+    }
+
+    private void siftDown(int index) {
+        Delay delay = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].deadline < heap[child].deadline) {
+                child++;
+            }
+            if (delay.deadline <= heap[child].deadline) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].index = index;
+            index = child;
+        }
+        heap[index] = delay;
+        delay.index = index;
+    }
+
+    private void runScheduler() throws InterruptedException {
+        while (true) {
+            Delay due;
+            synchronized (this) {
+                while (true) {
+                    if (size == 0) {
+                        wait(IDLE_TIMEOUT);
+                        if (size == 0) {
+                            threadAlive = false;
+                            return;
+                        }
+                        continue;
+                    }
+                    long remaining = heap[0].deadline - Clock.millis();
+                    if (remaining <= 0) {
+                        due = heap[0];
+                        cancel(due);
+                        break;
+                    }
+                    Clock.waitOn(this, remaining);
+                }
+            }
+            EventLoop loop = EventLoop.getActive();
+            if (loop != null) {
+                loop.post(due.target);
+                continue;
+            }
+            try {
+                due.target.event();
+            } catch (Throwable thr) {
+                Logger.severe("Exception in " + name + " dispatch!", thr);
+            }
+        }
+    }
+}
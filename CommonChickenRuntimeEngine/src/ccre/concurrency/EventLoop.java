@@ -0,0 +1,333 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.concurrency;
+
+import ccre.channel.EventOutput;
+import ccre.log.Logger;
+import ccre.util.CArrayList;
+import ccre.util.CLinkedList;
+
+/**
+ * A single thread that runs EventOutputs one at a time, in the order that they
+ * were posted.
+ *
+ * When a loop is made active with setActive, the rest of the CCRE marshals
+ * its work onto it: TimerWheel timers (and so every Ticker), DelayScheduler
+ * delays (and so ExpirationTimers), received Cluck messages and the mode
+ * events of the Igneous launchers all run on the loop thread, in the order
+ * that they were posted.
+ *
+ * InstinctModules still run on threads of their own. When a module is updated
+ * from the loop, the loop waits until the module is waiting for its next
+ * update, so the two take turns. A module that is blocked somewhere else for
+ * too long, or that is waiting for the loop itself, runs alongside the loop
+ * instead until it next waits.
+ *
+ * Other threads, such as InstinctModules while they compute and threads
+ * started by robot code, can still run at the same time as the loop, so
+ * statuses are locked as usual. A loop should be activated before anything
+ * else is set up, and code that starts its own threads can post its work to
+ * the loop to keep it in order with everything else.
+ *
+ * @author skeggsc
+ * @see ccre.igneous.Igneous#useEventLoop()
+ */
+public final class EventLoop {
+
+    /**
+     * How often a thread waiting in invokeAndWait checks that the loop is
+     * still running, in milliseconds.
+     */
+    private static final int INVOKE_CHECK_INTERVAL = 100;
+
+    private static volatile EventLoop active;
+
+    /**
+     * @return the active EventLoop, or null if there isn't one.
+     */
+    public static EventLoop getActive() {
+        return active;
+    }
+
+    /**
+     * Make the specified EventLoop the active loop, or turn off event-loop
+     * mode if it is null.
+     *
+     * This should be done before anything is scheduled: timers that are
+     * already running when the active loop changes may keep running on their
+     * old threads until they are next rescheduled.
+     *
+     * @param loop The new active loop, or null.
+     * @return the previous active loop, or null.
+     */
+    public static synchronized EventLoop setActive(EventLoop loop) {
+        EventLoop old = active;
+        active = loop;
+        return old;
+    }
+
+    /**
+     * @return if the current thread is the thread of the active EventLoop.
+     */
+    public static boolean isActiveThread() {
+        EventLoop loop = active;
+        return loop != null && loop.thread == Thread.currentThread();
+    }
+
+    /**
+     * Run the specified task on the active loop and wait for it to finish, or
+     * just run it if there is no active loop or if this is already the loop
+     * thread. If the current thread is interrupted while waiting, this stops
+     * waiting and sets the interrupted flag again.
+     *
+     * @param task The task to run.
+     */
+    public static void invokeOnActive(EventOutput task) {
+        EventLoop loop = active;
+        if (loop == null) {
+            task.event();
+        } else {
+            try {
+                loop.invokeAndWait(task);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final String name;
+    private final CLinkedList<EventOutput> queue = new CLinkedList<EventOutput>();
+    /**
+     * The threads waiting in invokeAndWait.
+     */
+    private final CArrayList<Thread> invokers = new CArrayList<Thread>();
+    /**
+     * The thread running this loop, once it has started.
+     */
+    private volatile Thread thread;
+    /**
+     * If this loop has been started or is being hosted.
+     */
+    private volatile boolean claimed;
+    private boolean terminated;
+    private long executed;
+
+    /**
+     * Create a new EventLoop. It doesn't run anything until it is started or
+     * hosted.
+     *
+     * @param name The name of the loop, used for its thread and its error
+     * messages.
+     */
+    public EventLoop(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Add a task to the end of the queue of this loop.
+     *
+     * @param task The task to run.
+     */
+    public void post(EventOutput task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        synchronized (this) {
+            queue.addLast(task);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Run a task on this loop and wait for it to finish. If this is already the
+     * loop thread, or the loop isn't running, the task is just run. If the
+     * task throws a RuntimeException or an Error, it is rethrown here.
+     *
+     * @param task The task to run.
+     * @throws InterruptedException If the current thread is interrupted while
+     * waiting.
+     */
+    public void invokeAndWait(EventOutput task) throws InterruptedException {
+        if (!claimed || thread == Thread.currentThread()) {
+            task.event();
+            return;
+        }
+        Invocation inv = new Invocation(task);
+        Thread current = Thread.currentThread();
+        synchronized (this) {
+            invokers.add(current);
+        }
+        try {
+            post(inv);
+            synchronized (inv) {
+                while (!inv.done && claimed) {
+                    inv.wait(INVOKE_CHECK_INTERVAL);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                invokers.remove(current);
+            }
+        }
+        if (inv.thrown instanceof RuntimeException) {
+            throw (RuntimeException) inv.thrown;
+        } else if (inv.thrown instanceof Error) {
+            throw (Error) inv.thrown;
+        }
+    }
+
+    /**
+     * Check if the specified thread is waiting in invokeAndWait for this loop
+     * to run a task, so that the loop must not wait for that thread.
+     *
+     * @param thread The thread to check.
+     * @return if the thread is waiting for this loop.
+     */
+    public synchronized boolean isInvokedBy(Thread thread) {
+        return invokers.contains(thread);
+    }
+
+    /**
+     * @return if the current thread is the thread running this loop.
+     */
+    public boolean isLoopThread() {
+        return thread == Thread.currentThread();
+    }
+
+    /**
+     * @return if a thread is currently running this loop.
+     */
+    public boolean isRunning() {
+        return claimed;
+    }
+
+    /**
+     * @return the number of tasks waiting to be run.
+     */
+    public synchronized int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of tasks run so far.
+     */
+    public synchronized long getExecutedCount() {
+        return executed;
+    }
+
+    /**
+     * Start a new thread to run this loop.
+     *
+     * @throws IllegalStateException If the loop is already running.
+     */
+    public void start() throws IllegalStateException {
+        claim();
+        new ReporterThread(name) {
+            @Override
+            protected void threadBody() throws InterruptedException {
+                runClaimed();
+            }
+        }.start();
+    }
+
+    /**
+     * Run this loop on the current thread until it is terminated. This is how
+     * an existing thread, such as the main thread of a launcher, hosts the
+     * loop.
+     *
+     * @throws InterruptedException If the current thread is interrupted.
+     * @throws IllegalStateException If the loop is already running.
+     */
+    public void host() throws InterruptedException, IllegalStateException {
+        claim();
+        runClaimed();
+    }
+
+    private synchronized void claim() throws IllegalStateException {
+        if (claimed) {
+            throw new IllegalStateException("EventLoop " + name + " is already running!");
+        }
+        claimed = true;
+        terminated = false;
+    }
+
+    private void runClaimed() throws InterruptedException {
+        synchronized (this) {
+            thread = Thread.currentThread();
+        }
+        try {
+            while (true) {
+                EventOutput task;
+                synchronized (this) {
+                    while (queue.isEmpty() && !terminated) {
+                        wait();
+                    }
+                    if (terminated) {
+                        return;
+                    }
+                    task = queue.removeFirst();
+                    executed++;
+                }
+                try {
+                    task.event();
+                } catch (Throwable thr) {
+                    Logger.severe("Exception in " + name + " task!", thr);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                thread = null;
+                claimed = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Stop this loop after the current task. Tasks still in the queue stay
+     * there until the loop is started or hosted again.
+     */
+    public synchronized void terminate() {
+        terminated = true;
+        notifyAll();
+    }
+
+    private static final class Invocation implements EventOutput {
+        private final EventOutput target;
+        private boolean done;
+        private Throwable thrown;
+
+        Invocation(EventOutput target) {
+            this.target = target;
+        }
+
+        public void event() {
+            try {
+                target.event();
+            } catch (Throwable thr) {
+                thrown = thr;
+            } finally {
+                synchronized (this) {
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
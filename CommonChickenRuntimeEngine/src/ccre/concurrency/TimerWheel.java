@@ -0,0 +1,523 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.concurrency;
+
+import ccre.channel.EventOutput;
+import ccre.log.Logger;
+import ccre.time.Clock;
+import ccre.time.JitterStatistics;
+
+/**
+ * A scheduler that fires any number of periodic EventOutputs from a single
+ * scheduling thread and a small pool of worker threads, instead of one thread
+ * for each of them. Tickers use the default TimerWheel.
+ *
+ * Scheduled timers are kept in a hierarchical timing wheel: LEVELS wheels of
+ * SLOTS slots each, where each slot of the first wheel covers one millisecond
+ * and each slot of the next wheel covers a whole turn of the previous one.
+ * Scheduling and cancelling a timer take constant time, and the scheduling
+ * thread only wakes up when a timer is due or when a timer needs to be moved
+ * down to a finer wheel.
+ *
+ * Due timers are run by the worker threads, so a timer that takes a long time
+ * only delays itself: if every worker is busy when another timer is due, a new
+ * worker is started. A timer is never run by two workers at once. Workers stop
+ * after WORKER_IDLE_TIMEOUT milliseconds without anything to run, and the
+ * scheduling thread stops when nothing is scheduled, so an unused TimerWheel
+ * has no threads.
+ *
+ * If there is an active EventLoop, due timers are posted to it instead of
+ * being run by the workers.
+ *
+ * @author skeggsc
+ * @see ccre.ctrl.Ticker
+ */
+public final class TimerWheel {
+
+    /**
+     * The number of bits of the time used to index each wheel.
+     */
+    private static final int SLOT_BITS = 6;
+    /**
+     * The number of slots in each wheel.
+     */
+    public static final int SLOTS = 1 << SLOT_BITS;
+    /**
+     * The number of wheels. Timers further in the future than the last wheel
+     * covers are moved back into the last wheel until they are close enough.
+     */
+    public static final int LEVELS = 4;
+    /**
+     * How long an idle worker thread waits for a timer to run before it stops,
+     * in milliseconds.
+     */
+    public static final int WORKER_IDLE_TIMEOUT = 2000;
+
+    private static TimerWheel defaultWheel;
+
+    /**
+     * @return the TimerWheel shared by all Tickers.
+     */
+    public static synchronized TimerWheel getDefault() {
+        if (defaultWheel == null) {
+            defaultWheel = new TimerWheel("TimerWheel");
+        }
+        return defaultWheel;
+    }
+
+    /**
+     * A timer scheduled on a TimerWheel.
+     */
+    public static final class Timer {
+
+        private final TimerWheel wheel;
+        private final EventOutput target;
+        private final int interval;
+        private final boolean fixedRate;
+        private final JitterStatistics jitter;
+        /**
+         * When this is next due. Protected by wheel.wheelLock.
+         */
+        private long deadline;
+        /**
+         * The next timer in the same slot, or the next timer waiting for a
+         * worker.
+         */
+        private Timer next;
+        /**
+         * Protected by wheel.wheelLock.
+         */
+        private boolean cancelled;
+        /**
+         * Runs this timer on the active EventLoop. Created the first time that
+         * it is needed.
+         */
+        private EventOutput loopTask;
+
+        Timer(TimerWheel wheel, EventOutput target, int interval, boolean fixedRate, JitterStatistics jitter, long deadline) {
+            this.wheel = wheel;
+            this.jitter = jitter;
+            this.target = target;
+            this.interval = interval;
+            this.fixedRate = fixedRate;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Stop this timer. If it is currently running, it will finish, but it
+         * won't run again.
+         */
+        public void cancel() {
+            wheel.cancel(this);
+        }
+
+        /**
+         * @return whether or not this timer has been cancelled.
+         */
+        public boolean isCancelled() {
+            synchronized (wheel.wheelLock) {
+                return cancelled;
+            }
+        }
+    }
+
+    private final String name;
+    private final Object wheelLock = new Object();
+    private final Timer[][] slots = new Timer[LEVELS][SLOTS];
+    /**
+     * The number of timers in each wheel, including cancelled timers that
+     * haven't been removed yet.
+     */
+    private final int[] counts = new int[LEVELS];
+    /**
+     * The next millisecond to be processed.
+     */
+    private long current;
+    /**
+     * The number of timers that haven't been cancelled.
+     */
+    private int live = 0;
+    private boolean schedulerAlive = false;
+
+    private final Object queueLock = new Object();
+    /**
+     * The due timers waiting for a worker, linked through Timer.next.
+     */
+    private Timer queueHead, queueTail;
+    private int queued = 0, workers = 0, idleWorkers = 0;
+
+    /**
+     * Create a new TimerWheel. Its threads are named after it.
+     *
+     * @param name The name of the TimerWheel.
+     */
+    public TimerWheel(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Schedule the specified EventOutput to be fired repeatedly, for the first
+     * time after the specified interval.
+     *
+     * If fixedRate is false, each run starts interval milliseconds after the
+     * previous run finishes. If fixedRate is true, each run starts interval
+     * milliseconds after the previous run was due, so runs that fall behind
+     * will happen back-to-back until they catch up.
+     *
+     * @param target The EventOutput to fire.
+     * @param interval The interval between runs, in milliseconds.
+     * @param fixedRate Should the rate be corrected?
+     * @return the scheduled timer, which can be cancelled.
+     * @throws IllegalArgumentException If the interval is not positive.
+     */
+    public Timer schedule(EventOutput target, int interval, boolean fixedRate) throws IllegalArgumentException {
+        return schedule(target, interval, fixedRate, null);
+    }
+
+    /**
+     * Schedule the specified EventOutput to be fired repeatedly, like
+     * schedule(target, interval, fixedRate), and record how late each run
+     * starts compared to when it was due.
+     *
+     * @param target The EventOutput to fire.
+     * @param interval The interval between runs, in milliseconds.
+     * @param fixedRate Should the rate be corrected?
+     * @param jitter Where to record the lateness of each run, or null.
+     * @return the scheduled timer, which can be cancelled.
+     * @throws IllegalArgumentException If the interval is not positive.
+     */
+    public Timer schedule(EventOutput target, int interval, boolean fixedRate, JitterStatistics jitter) throws IllegalArgumentException {
+        if (target == null) {
+            throw new NullPointerException();
+        }
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Timer intervals must be positive!");
+        }
+        synchronized (wheelLock) {
+            long now = Clock.millis();
+            if (live == 0 && counts[0] + counts[1] + counts[2] + counts[3] == 0) {
+                current = now;
+            }
+            Timer timer = new Timer(this, target, interval, fixedRate, jitter, now + interval);
+            insert(timer);
+            live++;
+            if (schedulerAlive) {
+                wheelLock.notifyAll();
+            } else {
+                schedulerAlive = true;
+                new ReporterThread(name + "-scheduler") {
+                    @Override
+                    protected void threadBody() throws InterruptedException {
+                        runScheduler();
+                    }
+                }.start();
+            }
+            return timer;
+        }
+    }
+
+    /**
+     * @return the number of timers that are scheduled and not cancelled.
+     */
+    public int getScheduledCount() {
+        synchronized (wheelLock) {
+            return live;
+        }
+    }
+
+    /**
+     * @return the number of worker threads currently running.
+     */
+    public int getWorkerCount() {
+        synchronized (queueLock) {
+            return workers;
+        }
+    }
+
+    private void cancel(Timer timer) {
+        synchronized (wheelLock) {
+            if (!timer.cancelled) {
+                timer.cancelled = true;
+                live--;
+                // It will be removed from its slot when it is reached.
+                wheelLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Add a timer to the wheel that covers its deadline. Must hold wheelLock.
+     */
+    private void insert(Timer timer) {
+        long delta = timer.deadline - current;
+        int level, slot;
+        if (delta < SLOTS) {
+            level = 0;
+            slot = (int) (delta <= 0 ? current : timer.deadline) & (SLOTS - 1);
+        } else {
+            level = 1;
+            while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+                level++;
+            }
+            if (delta < 1L << (SLOT_BITS * (level + 1))) {
+                slot = (int) (timer.deadline >> (SLOT_BITS * level)) & (SLOTS - 1);
+            } else {
+                // Too far in the future: park it in the last slot of the last
+                // wheel to be reached, and place it again from there.
+                slot = (int) ((current >> (SLOT_BITS * level)) + SLOTS - 1) & (SLOTS - 1);
+            }
+        }
+        timer.next = slots[level][slot];
+        slots[level][slot] = timer;
+        counts[level]++;
+    }
+
+    private void runScheduler() throws InterruptedException {
+        while (true) {
+            Timer due = null;
+            synchronized (wheelLock) {
+                while (due == null) {
+                    if (live == 0) {
+                        for (int level = 0; level < LEVELS; level++) {
+                            for (int slot = 0; slot < SLOTS; slot++) {
+                                slots[level][slot] = null;
+                            }
+                            counts[level] = 0;
+                        }
+                        schedulerAlive = false;
+                        return;
+                    }
+                    long now = Clock.millis();
+                    due = advance(now);
+                    if (due == null) {
+                        long wakeAt = nextWakeup();
+                        if (wakeAt == Long.MAX_VALUE) {
+                            wheelLock.wait();
+                        } else if (wakeAt > now) {
+                            Clock.waitOn(wheelLock, wakeAt - now);
+                        }
+                    }
+                }
+            }
+            enqueue(due);
+        }
+    }
+
+    /**
+     * Process every millisecond up to and including now. Must hold wheelLock.
+     *
+     * @return the timers that are now due, linked through Timer.next.
+     */
+    private Timer advance(long now) {
+        Timer due = null;
+        while (current <= now) {
+            if ((current & (SLOTS - 1)) == 0) {
+                cascade();
+            }
+            int slot = (int) current & (SLOTS - 1);
+            Timer timer = slots[0][slot];
+            slots[0][slot] = null;
+            while (timer != null) {
+                Timer next = timer.next;
+                counts[0]--;
+                if (!timer.cancelled) {
+                    if (timer.deadline <= current) {
+                        timer.next = due;
+                        due = timer;
+                    } else {
+                        insert(timer);
+                    }
+                }
+                timer = next;
+            }
+            current++;
+            // Skip ahead past empty wheels.
+            if (counts[0] == 0) {
+                long skipTo = now + 1;
+                for (int level = 1; level < LEVELS; level++) {
+                    if (counts[level] != 0) {
+                        long span = 1L << (SLOT_BITS * level);
+                        skipTo = Math.min(skipTo, (current + span - 1) & ~(span - 1));
+                        break;
+                    }
+                }
+                if (skipTo > current) {
+                    current = skipTo;
+                }
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Move the timers in the slots that have just been reached in the coarser
+     * wheels down into finer wheels. Must hold wheelLock.
+     */
+    private void cascade() {
+        for (int level = LEVELS - 1; level >= 1; level--) {
+            if ((current & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                continue;
+            }
+            int slot = (int) (current >> (SLOT_BITS * level)) & (SLOTS - 1);
+            Timer timer = slots[level][slot];
+            slots[level][slot] = null;
+            while (timer != null) {
+                Timer next = timer.next;
+                counts[level]--;
+                if (!timer.cancelled) {
+                    insert(timer);
+                }
+                timer = next;
+            }
+        }
+    }
+
+    /**
+     * Must hold wheelLock.
+     *
+     * @return when the scheduler next needs to run, or Long.MAX_VALUE if only a
+     * new timer can give it anything to do.
+     */
+    private long nextWakeup() {
+        if (counts[0] != 0) {
+            long end = current | (SLOTS - 1);
+            for (long time = current; time <= end; time++) {
+                if (slots[0][(int) time & (SLOTS - 1)] != null) {
+                    return time;
+                }
+            }
+            return end + 1;
+        }
+        for (int level = 1; level < LEVELS; level++) {
+            if (counts[level] != 0) {
+                long span = 1L << (SLOT_BITS * level);
+                return (current + span - 1) & ~(span - 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private void enqueue(Timer due) {
+        EventLoop loop = EventLoop.getActive();
+        if (loop != null) {
+            while (due != null) {
+                Timer next = due.next;
+                due.next = null;
+                loop.post(loopTask(due));
+                due = next;
+            }
+            return;
+        }
+        synchronized (queueLock) {
+            while (due != null) {
+                Timer next = due.next;
+                due.next = null;
+                if (queueTail == null) {
+                    queueHead = due;
+                } else {
+                    queueTail.next = due;
+                }
+                queueTail = due;
+                queued++;
+                if (queued <= idleWorkers) {
+                    queueLock.notify();
+                } else {
+                    workers++;
+                    new ReporterThread(name + "-worker") {
+                        @Override
+                        protected void threadBody() throws InterruptedException {
+                            runWorker();
+                        }
+                    }.start();
+                }
+                due = next;
+            }
+        }
+    }
+
+    private EventOutput loopTask(final Timer timer) {
+        // Only called from the scheduling thread.
+        if (timer.loopTask == null) {
+            timer.loopTask = new EventOutput() {
+                public void event() {
+                    run(timer);
+                }
+            };
+        }
+        return timer.loopTask;
+    }
+
+    private void runWorker() throws InterruptedException {
+        while (true) {
+            Timer timer;
+            synchronized (queueLock) {
+                if (queueHead == null) {
+                    idleWorkers++;
+                    try {
+                        queueLock.wait(WORKER_IDLE_TIMEOUT);
+                    } finally {
+                        idleWorkers--;
+                    }
+                    if (queueHead == null) {
+                        workers--;
+                        return;
+                    }
+                }
+                timer = queueHead;
+                queueHead = timer.next;
+                if (queueHead == null) {
+                    queueTail = null;
+                }
+                timer.next = null;
+                queued--;
+            }
+            run(timer);
+        }
+    }
+
+    private void run(Timer timer) {
+        boolean cancelled;
+        long deadline;
+        synchronized (wheelLock) {
+            cancelled = timer.cancelled;
+            deadline = timer.deadline;
+        }
+        if (timer.jitter != null) {
+            timer.jitter.record(Clock.nanos() - deadline * 1000000);
+        }
+        if (!cancelled) {
+            try {
+                timer.target.event();
+            } catch (Throwable thr) {
+                Logger.severe("Exception in " + name + " timer!", thr);
+            }
+        }
+        synchronized (wheelLock) {
+            if (!timer.cancelled) {
+                if (timer.fixedRate) {
+                    timer.deadline += timer.interval;
+                } else {
+                    timer.deadline = Clock.millis() + timer.interval;
+                }
+                insert(timer);
+                wheelLock.notifyAll();
+            }
+        }
+    }
+}
@@ -22,6 +22,7 @@ import ccre.channel.BooleanInputPoll;
 import ccre.channel.EventInput;
 import ccre.channel.EventOutput;
 import ccre.channel.EventStatus;
+import ccre.time.Clock;
 
 /**
  * EventMixing is a class that provides a wide variety of useful static methods
@@ -136,7 +137,7 @@ public class EventMixing {
             private long nextFire = 0;
 
             public synchronized void event() {
-                long now = System.currentTimeMillis();
+                long now = Clock.millis();
                 if (now < nextFire) {
                     return; // Ignore event.
                 }
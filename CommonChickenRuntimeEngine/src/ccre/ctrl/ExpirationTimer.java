@@ -24,8 +24,9 @@ import ccre.channel.EventInput;
 import ccre.channel.EventOutput;
 import ccre.channel.EventStatus;
 import ccre.channel.FloatInputPoll;
-import ccre.concurrency.ReporterThread;
+import ccre.concurrency.DelayScheduler;
 import ccre.log.Logger;
+import ccre.time.Clock;
 import ccre.util.CArrayList;
 import ccre.util.CArrayUtils;
 
@@ -37,15 +38,33 @@ import ccre.util.CArrayUtils;
  * WatchDogs, hence the name). The timer can also be stopped, which resets the
  * timer and prevents it from running until it is started again.
  *
+ * ExpirationTimers don't have their own threads: their events are fired by the
+ * default DelayScheduler, which waits for the next task of every running
+ * timer.
+ *
  * @author skeggsc
+ * @see DelayScheduler#getDefault()
  */
 public final class ExpirationTimer {
 
     /**
      * The list of tasks, sorted in order with the first task (shortest delay)
-     * first.
+     * first, unless needsSort is set.
      */
     private final CArrayList<Task> tasks = new CArrayList<Task>();
+    /**
+     * Does the task list need to be sorted before the next start?
+     */
+    private boolean needsSort = false;
+    /**
+     * Are there any tasks with tunable delays, which need to be recalculated
+     * and sorted on each start?
+     */
+    private boolean hasTunableTasks = false;
+    /**
+     * The index of the next task to fire.
+     */
+    private int nextTask;
     /**
      * Is this timer running?
      */
@@ -55,14 +74,13 @@ public final class ExpirationTimer {
      */
     private long startedAt;
     /**
-     * The main thread of the Expiration Timer.
+     * The alarm for the next task.
      */
-    private final ReporterThread main = new ReporterThread("ExpirationTimer") {
-        @Override
-        protected void threadBody() throws Throwable {
-            body();
+    private final DelayScheduler.Delay alarm = DelayScheduler.getDefault().create(new EventOutput() {
+        public void event() {
+            fireTasks();
         }
-    };
+    });
     /**
      * The cached value for getStartEvent()
      */
@@ -80,7 +98,7 @@ public final class ExpirationTimer {
      */
     private EventOutput stopEvt;
     /**
-     * Whether or not this thread has been told to terminate.
+     * Whether or not this timer has been told to terminate.
      */
     private boolean terminated = false;
 
@@ -168,6 +186,7 @@ public final class ExpirationTimer {
             throw new IllegalStateException("Timer is running!");
         }
         tasks.add(new Task(delay, cnsm));
+        needsSort = true;
     }
 
     /**
@@ -182,6 +201,7 @@ public final class ExpirationTimer {
             throw new IllegalStateException("Timer is running!");
         }
         tasks.add(new Task(delay, cnsm));
+        hasTunableTasks = true;
     }
 
     /**
@@ -220,9 +240,6 @@ public final class ExpirationTimer {
             throw new IllegalStateException("Timer is running!");
         }
         isStarted = true;
-        if (!main.isAlive()) {
-            main.start();
-        }
         feed();
     }
 
@@ -238,22 +255,36 @@ public final class ExpirationTimer {
     }
 
     private synchronized void recalculateTasks() {
-        for (Task t : tasks) {
-            t.recalculate();
+        if (hasTunableTasks) {
+            for (Task t : tasks) {
+                t.recalculate();
+            }
+            needsSort = true;
+        }
+        if (needsSort) {
+            CArrayUtils.sort(tasks);
+            needsSort = false;
         }
-        CArrayUtils.sort(tasks);
     }
 
-    private synchronized void runTasks() throws InterruptedException {
-        long startAt = startedAt;
-        for (Task t : tasks) {
-            long rel = startAt + t.delay - System.currentTimeMillis();
-            while (rel > 0) {
-                wait(rel);
-                rel = startAt + t.delay - System.currentTimeMillis();
+    private void fireTasks() {
+        while (true) {
+            EventOutput cnsm;
+            synchronized (this) {
+                if (!isStarted || terminated || nextTask >= tasks.size()) {
+                    return;
+                }
+                Task t = tasks.get(nextTask);
+                long at = startedAt + t.delay;
+                if (at > Clock.millis()) {
+                    alarm.scheduleAt(at);
+                    return;
+                }
+                nextTask++;
+                cnsm = t.cnsm;
             }
             try {
-                t.cnsm.event();
+                cnsm.event();
             } catch (Throwable thr) {
                 Logger.severe("Exception in ExpirationTimer dispatch!", thr);
                 // Github #18: Detachment error handling.
@@ -261,22 +292,6 @@ public final class ExpirationTimer {
         }
     }
 
-    private synchronized void body() {
-        while (!terminated) {
-            try {
-                while (!isStarted) {
-                    wait();
-                }
-                recalculateTasks();
-                runTasks();
-                while (isStarted) { // Once finished, wait to stop before restarting.
-                    wait();
-                }
-            } catch (InterruptedException ex) {
-            }
-        }
-    }
-
     /**
      * Reset the timer. This will act as if the timer had just been started, in
      * terms of which events are fired when.
@@ -287,9 +302,12 @@ public final class ExpirationTimer {
         if (!isStarted) {
             throw new IllegalStateException("Timer is not running!");
         }
-        startedAt = System.currentTimeMillis();
-        notifyAll();
-        main.interrupt();
+        startedAt = Clock.millis();
+        recalculateTasks();
+        nextTask = 0;
+        if (!terminated && !tasks.isEmpty()) {
+            alarm.scheduleAt(startedAt + tasks.get(0).delay);
+        }
     }
 
     /**
@@ -303,8 +321,7 @@ public final class ExpirationTimer {
             throw new IllegalStateException("Timer is not running!");
         }
         isStarted = false;
-        notifyAll();
-        main.interrupt();
+        alarm.cancel();
     }
 
     /**
@@ -526,13 +543,14 @@ public final class ExpirationTimer {
     }
 
     /**
-     * End the ExpirationTimer's thread as soon as possible.
+     * Stop the ExpirationTimer for good. It won't fire any more events, even if
+     * it is started again.
      */
     public synchronized void terminate() {
         terminated = true;
         if (isRunning()) {
             stop();
         }
-        main.interrupt();
+        alarm.cancel();
     }
 }
@@ -0,0 +1,639 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.ctrl;
+
+import ccre.channel.BooleanInputPoll;
+import ccre.channel.BooleanOutput;
+import ccre.channel.FloatFilter;
+import ccre.channel.FloatInputPoll;
+import ccre.channel.FloatOutput;
+import ccre.util.CArrayList;
+
+/**
+ * A builder for a graph of the same kinds of calculations as FloatMixing,
+ * BooleanMixing, and Mixing provide, which can be compiled into a MixingPlan
+ * that calculates the whole graph at once.
+ *
+ * A long pipeline built out of the Mixing methods is a chain of small objects
+ * that call each other, and each step might be a separate FloatStatus. A
+ * MixingPlan instead runs a flat list of instructions in one loop, which is
+ * faster and easier to profile, and can be printed to see what it does.
+ *
+ * For example:
+ *
+ * <pre>
+ * MixingGraph g = new MixingGraph();
+ * FloatNode forward = g.deadzone(g.negate(g.floatInput(joystick.getAxisSource(2))), 0.1f);
+ * g.send(g.limit(forward, -0.8f, 0.8f), leftMotor);
+ * Igneous.globalPeriodic.send(g.compile());
+ * </pre>
+ *
+ * @author skeggsc
+ * @see MixingPlan
+ */
+public final class MixingGraph {
+
+    /**
+     * A float-valued node in a MixingGraph.
+     *
+     * @author skeggsc
+     */
+    public static final class FloatNode {
+
+        final MixingGraph graph;
+        final int index;
+
+        FloatNode(MixingGraph graph, int index) {
+            this.graph = graph;
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return "[FloatNode r" + index + "]";
+        }
+    }
+
+    /**
+     * A boolean-valued node in a MixingGraph.
+     *
+     * @author skeggsc
+     */
+    public static final class BooleanNode {
+
+        final MixingGraph graph;
+        final int index;
+
+        BooleanNode(MixingGraph graph, int index) {
+            this.graph = graph;
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return "[BooleanNode r" + index + "]";
+        }
+    }
+
+    private static final class NodeDef {
+
+        final int op, a, b, c;
+        final float p0, p1;
+        final Object ref;
+
+        NodeDef(int op, int a, int b, int c, float p0, float p1, Object ref) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.p0 = p0;
+            this.p1 = p1;
+            this.ref = ref;
+        }
+    }
+
+    private static final class Sink {
+
+        final int node;
+        final Object output;
+        final boolean isFloat;
+
+        Sink(int node, Object output, boolean isFloat) {
+            this.node = node;
+            this.output = output;
+            this.isFloat = isFloat;
+        }
+    }
+
+    private final CArrayList<NodeDef> nodes = new CArrayList<NodeDef>();
+    private final CArrayList<Sink> sinks = new CArrayList<Sink>();
+
+    private synchronized int add(int op, int a, int b, int c, float p0, float p1, Object ref) {
+        nodes.add(new NodeDef(op, a, b, c, p0, p1, ref));
+        return nodes.size() - 1;
+    }
+
+    private FloatNode addFloat(int op, int a, int b, int c, float p0, float p1, Object ref) {
+        return new FloatNode(this, add(op, a, b, c, p0, p1, ref));
+    }
+
+    private BooleanNode addBoolean(int op, int a, int b, int c, float p0, float p1) {
+        return new BooleanNode(this, add(op, a, b, c, p0, p1, null));
+    }
+
+    private int check(FloatNode node) throws IllegalArgumentException {
+        if (node.graph != this) {
+            throw new IllegalArgumentException("Node belongs to a different MixingGraph: " + node);
+        }
+        return node.index;
+    }
+
+    private int check(BooleanNode node) throws IllegalArgumentException {
+        if (node.graph != this) {
+            throw new IllegalArgumentException("Node belongs to a different MixingGraph: " + node);
+        }
+        return node.index;
+    }
+
+    private synchronized int findLoad(int op, Object input) {
+        for (int i = 0; i < nodes.size(); i++) {
+            NodeDef def = nodes.get(i);
+            if (def.op == op && def.ref == input) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A node for the value of the specified input, which is read once each
+     * time that the plan is fired. Using the same input twice gives the same
+     * node.
+     *
+     * @param input The input.
+     * @return The node.
+     */
+    public FloatNode floatInput(FloatInputPoll input) {
+        Mixing.checkNull(input);
+        int existing = findLoad(MixingPlan.OP_LOAD_FLOAT, input);
+        return existing != -1 ? new FloatNode(this, existing) : addFloat(MixingPlan.OP_LOAD_FLOAT, -1, -1, -1, 0, 0, input);
+    }
+
+    /**
+     * A node for the value of the specified input, which is read once each
+     * time that the plan is fired. Using the same input twice gives the same
+     * node.
+     *
+     * @param input The input.
+     * @return The node.
+     */
+    public BooleanNode booleanInput(BooleanInputPoll input) {
+        Mixing.checkNull(input);
+        int existing = findLoad(MixingPlan.OP_LOAD_BOOLEAN, input);
+        return existing != -1 ? new BooleanNode(this, existing) : new BooleanNode(this, add(MixingPlan.OP_LOAD_BOOLEAN, -1, -1, -1, 0, 0, input));
+    }
+
+    /**
+     * A node with a constant value.
+     *
+     * @param value The value.
+     * @return The node.
+     */
+    public FloatNode constant(float value) {
+        return addFloat(MixingPlan.OP_CONSTANT, -1, -1, -1, value, 0, null);
+    }
+
+    /**
+     * A node with a constant value.
+     *
+     * @param value The value.
+     * @return The node.
+     */
+    public BooleanNode constant(boolean value) {
+        return addBoolean(MixingPlan.OP_CONSTANT, -1, -1, -1, value ? 1 : 0, 0);
+    }
+
+    /**
+     * @param value The value to negate.
+     * @return A node for the negation of the value.
+     * @see FloatMixing#negate(ccre.channel.FloatInputPoll)
+     */
+    public FloatNode negate(FloatNode value) {
+        return addFloat(MixingPlan.OP_NEGATE, check(value), -1, -1, 0, 0, null);
+    }
+
+    /**
+     * @param a The first value.
+     * @param b The second value.
+     * @return A node for a + b.
+     */
+    public FloatNode add(FloatNode a, FloatNode b) {
+        return addFloat(MixingPlan.OP_ADD, check(a), check(b), -1, 0, 0, null);
+    }
+
+    /**
+     * @param a The first value.
+     * @param b The second value.
+     * @return A node for a - b.
+     */
+    public FloatNode subtract(FloatNode a, FloatNode b) {
+        return addFloat(MixingPlan.OP_SUBTRACT, check(a), check(b), -1, 0, 0, null);
+    }
+
+    /**
+     * @param a The first value.
+     * @param b The second value.
+     * @return A node for a * b.
+     */
+    public FloatNode multiply(FloatNode a, FloatNode b) {
+        return addFloat(MixingPlan.OP_MULTIPLY, check(a), check(b), -1, 0, 0, null);
+    }
+
+    /**
+     * @param a The first value.
+     * @param b The second value.
+     * @return A node for a / b.
+     */
+    public FloatNode divide(FloatNode a, FloatNode b) {
+        return addFloat(MixingPlan.OP_DIVIDE, check(a), check(b), -1, 0, 0, null);
+    }
+
+    /**
+     * @param value The value.
+     * @param range The deadzone to apply.
+     * @return A node for the value with a deadzone applied.
+     * @see FloatMixing#deadzone(ccre.channel.FloatInputPoll, float)
+     */
+    public FloatNode deadzone(FloatNode value, float range) {
+        return addFloat(MixingPlan.OP_DEADZONE, check(value), -1, -1, range, 0, null);
+    }
+
+    /**
+     * @param value The value.
+     * @param minimum The minimum value to limit to.
+     * @param maximum The maximum value to limit to.
+     * @return A node for the value, limited to the range.
+     * @throws IllegalArgumentException If maximum is smaller than minimum.
+     * @see FloatMixing#limit(float, float)
+     */
+    public FloatNode limit(FloatNode value, float minimum, float maximum) throws IllegalArgumentException {
+        if (maximum < minimum) {
+            throw new IllegalArgumentException("Maximum is smaller than minimum!");
+        }
+        return addFloat(MixingPlan.OP_LIMIT, check(value), -1, -1, minimum, maximum, null);
+    }
+
+    /**
+     * @param value The value.
+     * @param zero The value that turns into 0.0.
+     * @param one The value that turns into 1.0.
+     * @return A node for the value, linearly scaled.
+     * @see FloatMixing#normalizeFloat(ccre.channel.FloatInputPoll, float,
+     * float)
+     */
+    public FloatNode normalize(FloatNode value, float zero, float one) {
+        return addFloat(MixingPlan.OP_NORMALIZE, check(value), -1, -1, zero, one - zero, null);
+    }
+
+    /**
+     * A node that applies any FloatFilter. FloatMixing.negate is recognized
+     * and compiled like negate; other filters are called each time.
+     *
+     * @param value The value.
+     * @param filter The filter to apply.
+     * @return A node for the filtered value.
+     */
+    public FloatNode filter(FloatNode value, FloatFilter filter) {
+        Mixing.checkNull(filter);
+        if (filter == FloatMixing.negate) {
+            return negate(value);
+        }
+        return addFloat(MixingPlan.OP_FILTER, check(value), -1, -1, 0, 0, filter);
+    }
+
+    /**
+     * A node that applies any FloatOperation. The operations in FloatMixing
+     * are recognized and compiled like add, subtract, multiply, and divide;
+     * other operations are called each time.
+     *
+     * @param a The first operand.
+     * @param b The second operand.
+     * @param operation The operation.
+     * @return A node for the result of the operation.
+     */
+    public FloatNode operation(FloatNode a, FloatNode b, FloatOperation operation) {
+        Mixing.checkNull(operation);
+        if (operation == FloatMixing.addition) {
+            return add(a, b);
+        } else if (operation == FloatMixing.subtraction) {
+            return subtract(a, b);
+        } else if (operation == FloatMixing.multiplication) {
+            return multiply(a, b);
+        } else if (operation == FloatMixing.division) {
+            return divide(a, b);
+        }
+        return addFloat(MixingPlan.OP_OPERATION, check(a), check(b), -1, 0, 0, operation);
+    }
+
+    /**
+     * @param value The value.
+     * @param minimum The minimum.
+     * @return A node that is true when the value is at least the minimum.
+     * @see FloatMixing#floatIsAtLeast(ccre.channel.FloatInputPoll, float)
+     */
+    public BooleanNode atLeast(FloatNode value, float minimum) {
+        return addBoolean(MixingPlan.OP_AT_LEAST, check(value), -1, -1, minimum, 0);
+    }
+
+    /**
+     * @param value The value.
+     * @param minimum The minimum.
+     * @return A node that is true when the value is at least the minimum.
+     * @see FloatMixing#floatIsAtLeast(ccre.channel.FloatInputPoll,
+     * ccre.channel.FloatInputPoll)
+     */
+    public BooleanNode atLeast(FloatNode value, FloatNode minimum) {
+        return addBoolean(MixingPlan.OP_GREATER_OR_EQUAL, check(value), check(minimum), -1, 0, 0);
+    }
+
+    /**
+     * @param value The value.
+     * @param maximum The maximum.
+     * @return A node that is true when the value is at most the maximum.
+     * @see FloatMixing#floatIsAtMost(ccre.channel.FloatInputPoll, float)
+     */
+    public BooleanNode atMost(FloatNode value, float maximum) {
+        return addBoolean(MixingPlan.OP_AT_MOST, check(value), -1, -1, maximum, 0);
+    }
+
+    /**
+     * @param value The value.
+     * @param maximum The maximum.
+     * @return A node that is true when the value is at most the maximum.
+     * @see FloatMixing#floatIsAtMost(ccre.channel.FloatInputPoll,
+     * ccre.channel.FloatInputPoll)
+     */
+    public BooleanNode atMost(FloatNode value, FloatNode maximum) {
+        return addBoolean(MixingPlan.OP_GREATER_OR_EQUAL, check(maximum), check(value), -1, 0, 0);
+    }
+
+    /**
+     * @param value The value.
+     * @param minimum The minimum.
+     * @param maximum The maximum.
+     * @return A node that is true when the value is in the range, inclusive.
+     * @see FloatMixing#floatIsInRange(ccre.channel.FloatInputPoll, float,
+     * float)
+     */
+    public BooleanNode inRange(FloatNode value, float minimum, float maximum) {
+        return addBoolean(MixingPlan.OP_IN_RANGE, check(value), -1, -1, minimum, maximum);
+    }
+
+    /**
+     * @param value The value.
+     * @param minimum The minimum.
+     * @param maximum The maximum.
+     * @return A node that is true when the value is outside of the range.
+     * @see FloatMixing#floatIsOutsideRange(ccre.channel.FloatInputPoll, float,
+     * float)
+     */
+    public BooleanNode outsideRange(FloatNode value, float minimum, float maximum) {
+        return addBoolean(MixingPlan.OP_OUTSIDE_RANGE, check(value), -1, -1, minimum, maximum);
+    }
+
+    /**
+     * @param value The value.
+     * @return A node for the inverse of the value.
+     * @see BooleanMixing#invert(ccre.channel.BooleanInputPoll)
+     */
+    public BooleanNode not(BooleanNode value) {
+        return addBoolean(MixingPlan.OP_NOT, check(value), -1, -1, 0, 0);
+    }
+
+    /**
+     * @param a The first value.
+     * @param b The second value.
+     * @return A node that is true when both values are true.
+     * @see BooleanMixing#andBooleans(ccre.channel.BooleanInputPoll,
+     * ccre.channel.BooleanInputPoll)
+     */
+    public BooleanNode and(BooleanNode a, BooleanNode b) {
+        return addBoolean(MixingPlan.OP_AND, check(a), check(b), -1, 0, 0);
+    }
+
+    /**
+     * @param a The first value.
+     * @param b The second value.
+     * @return A node that is true when either value is true.
+     * @see BooleanMixing#orBooleans(ccre.channel.BooleanInputPoll,
+     * ccre.channel.BooleanInputPoll)
+     */
+    public BooleanNode or(BooleanNode a, BooleanNode b) {
+        return addBoolean(MixingPlan.OP_OR, check(a), check(b), -1, 0, 0);
+    }
+
+    /**
+     * @param a The first value.
+     * @param b The second value.
+     * @return A node that is true when exactly one value is true.
+     * @see BooleanMixing#xorBooleans(ccre.channel.BooleanInputPoll,
+     * ccre.channel.BooleanInputPoll)
+     */
+    public BooleanNode xor(BooleanNode a, BooleanNode b) {
+        return addBoolean(MixingPlan.OP_XOR, check(a), check(b), -1, 0, 0);
+    }
+
+    /**
+     * @param selector The value that chooses between the others.
+     * @param off The value when the selector is false.
+     * @param on The value when the selector is true.
+     * @return A node for the selected value.
+     * @see Mixing#select(ccre.channel.BooleanInputPoll,
+     * ccre.channel.FloatInputPoll, ccre.channel.FloatInputPoll)
+     */
+    public FloatNode select(BooleanNode selector, FloatNode off, FloatNode on) {
+        return addFloat(MixingPlan.OP_SELECT, check(selector), check(off), check(on), 0, 0, null);
+    }
+
+    /**
+     * @param selector The value that chooses between the others.
+     * @param off The value when the selector is false.
+     * @param on The value when the selector is true.
+     * @return A node for the selected value.
+     * @see Mixing#select(ccre.channel.BooleanInputPoll, float, float)
+     */
+    public FloatNode select(BooleanNode selector, float off, float on) {
+        return select(selector, constant(off), constant(on));
+    }
+
+    /**
+     * @param alpha The first value that chooses between the others.
+     * @param beta The second value that chooses between the others.
+     * @param ff The value when both are false.
+     * @param ft The value when alpha is false and beta is true.
+     * @param tf The value when alpha is true and beta is false.
+     * @param tt The value when both are true.
+     * @return A node for the selected value.
+     * @see Mixing#quadSelect(ccre.channel.BooleanInputPoll,
+     * ccre.channel.BooleanInputPoll, ccre.channel.FloatInputPoll,
+     * ccre.channel.FloatInputPoll, ccre.channel.FloatInputPoll,
+     * ccre.channel.FloatInputPoll)
+     */
+    public FloatNode quadSelect(BooleanNode alpha, BooleanNode beta, FloatNode ff, FloatNode ft, FloatNode tf, FloatNode tt) {
+        return select(alpha, select(beta, ff, ft), select(beta, tf, tt));
+    }
+
+    /**
+     * @param alpha The first value that chooses between the others.
+     * @param beta The second value that chooses between the others.
+     * @param ff The value when both are false.
+     * @param ft The value when alpha is false and beta is true.
+     * @param tf The value when alpha is true and beta is false.
+     * @param tt The value when both are true.
+     * @return A node for the selected value.
+     * @see Mixing#quadSelect(ccre.channel.BooleanInputPoll,
+     * ccre.channel.BooleanInputPoll, float, float, float, float)
+     */
+    public FloatNode quadSelect(BooleanNode alpha, BooleanNode beta, float ff, float ft, float tf, float tt) {
+        return select(alpha, select(beta, ff, ft), select(beta, tf, tt));
+    }
+
+    /**
+     * Write the value of the specified node to the specified output each time
+     * that the plan is fired.
+     *
+     * @param value The node.
+     * @param output The output.
+     */
+    public synchronized void send(FloatNode value, FloatOutput output) {
+        Mixing.checkNull(output);
+        sinks.add(new Sink(check(value), output, true));
+    }
+
+    /**
+     * Write the value of the specified node to the specified output each time
+     * that the plan is fired.
+     *
+     * @param value The node.
+     * @param output The output.
+     */
+    public synchronized void send(BooleanNode value, BooleanOutput output) {
+        Mixing.checkNull(output);
+        sinks.add(new Sink(check(value), output, false));
+    }
+
+    /**
+     * Compile the graph into a MixingPlan. Nodes that don't lead to any output
+     * are left out, and nodes that only depend on constants are calculated
+     * now. The graph can still be changed and compiled again afterward, which
+     * doesn't affect plans that were already compiled.
+     *
+     * @return The compiled plan.
+     */
+    public synchronized MixingPlan compile() {
+        int count = nodes.size();
+        boolean[] live = new boolean[count];
+        for (Sink sink : sinks) {
+            live[sink.node] = true;
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            if (live[i]) {
+                NodeDef def = nodes.get(i);
+                markLive(live, def.a);
+                markLive(live, def.b);
+                markLive(live, def.c);
+            }
+        }
+
+        float[] registers = new float[count];
+        boolean[] constant = new boolean[count];
+        int[] code = new int[count * MixingPlan.CODE_WIDTH];
+        float[] params = new float[count * MixingPlan.PARAM_WIDTH];
+        Object[] refs = new Object[count];
+        int instructions = 0, floatLoadCount = 0, booleanLoadCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (!live[i]) {
+                continue;
+            }
+            NodeDef def = nodes.get(i);
+            if (def.op == MixingPlan.OP_CONSTANT) {
+                registers[i] = def.p0;
+                constant[i] = true;
+                continue;
+            } else if (def.op == MixingPlan.OP_LOAD_FLOAT) {
+                floatLoadCount++;
+                continue;
+            } else if (def.op == MixingPlan.OP_LOAD_BOOLEAN) {
+                booleanLoadCount++;
+                continue;
+            }
+            int pc = instructions * MixingPlan.CODE_WIDTH, pp = instructions * MixingPlan.PARAM_WIDTH;
+            code[pc] = def.op;
+            code[pc + 1] = i;
+            code[pc + 2] = def.a;
+            code[pc + 3] = def.b == -1 ? def.a : def.b;
+            code[pc + 4] = def.c == -1 ? def.a : def.c;
+            params[pp] = def.p0;
+            params[pp + 1] = def.p1;
+            refs[instructions] = def.ref;
+            if (def.ref == null && isConstant(constant, def.a) && isConstant(constant, def.b) && isConstant(constant, def.c)) {
+                // Calculate it now, and leave it out of the plan.
+                MixingPlan.run(code, params, refs, registers, instructions, instructions + 1);
+                constant[i] = true;
+            } else {
+                instructions++;
+            }
+        }
+
+        int[] floatLoads = new int[floatLoadCount], booleanLoads = new int[booleanLoadCount];
+        FloatInputPoll[] floatInputs = new FloatInputPoll[floatLoadCount];
+        BooleanInputPoll[] booleanInputs = new BooleanInputPoll[booleanLoadCount];
+        floatLoadCount = booleanLoadCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (live[i]) {
+                NodeDef def = nodes.get(i);
+                if (def.op == MixingPlan.OP_LOAD_FLOAT) {
+                    floatLoads[floatLoadCount] = i;
+                    floatInputs[floatLoadCount++] = (FloatInputPoll) def.ref;
+                } else if (def.op == MixingPlan.OP_LOAD_BOOLEAN) {
+                    booleanLoads[booleanLoadCount] = i;
+                    booleanInputs[booleanLoadCount++] = (BooleanInputPoll) def.ref;
+                }
+            }
+        }
+
+        int floatStoreCount = 0;
+        for (Sink sink : sinks) {
+            if (sink.isFloat) {
+                floatStoreCount++;
+            }
+        }
+        int[] floatStores = new int[floatStoreCount], booleanStores = new int[sinks.size() - floatStoreCount];
+        FloatOutput[] floatOutputs = new FloatOutput[floatStores.length];
+        BooleanOutput[] booleanOutputs = new BooleanOutput[booleanStores.length];
+        int f = 0, b = 0;
+        for (Sink sink : sinks) {
+            if (sink.isFloat) {
+                floatStores[f] = sink.node;
+                floatOutputs[f++] = (FloatOutput) sink.output;
+            } else {
+                booleanStores[b] = sink.node;
+                booleanOutputs[b++] = (BooleanOutput) sink.output;
+            }
+        }
+
+        int[] trimmedCode = new int[instructions * MixingPlan.CODE_WIDTH];
+        System.arraycopy(code, 0, trimmedCode, 0, trimmedCode.length);
+        float[] trimmedParams = new float[instructions * MixingPlan.PARAM_WIDTH];
+        System.arraycopy(params, 0, trimmedParams, 0, trimmedParams.length);
+        Object[] trimmedRefs = new Object[instructions];
+        System.arraycopy(refs, 0, trimmedRefs, 0, instructions);
+        return new MixingPlan(registers, trimmedCode, trimmedParams, trimmedRefs, floatLoads, floatInputs, booleanLoads, booleanInputs, floatStores, floatOutputs, booleanStores, booleanOutputs);
+    }
+
+    private static void markLive(boolean[] live, int node) {
+        if (node != -1) {
+            live[node] = true;
+        }
+    }
+
+    private static boolean isConstant(boolean[] constant, int node) {
+        return node == -1 || constant[node];
+    }
+}
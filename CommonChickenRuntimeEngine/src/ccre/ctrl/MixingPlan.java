@@ -0,0 +1,284 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.ctrl;
+
+import ccre.channel.BooleanInputPoll;
+import ccre.channel.BooleanOutput;
+import ccre.channel.EventOutput;
+import ccre.channel.FloatFilter;
+import ccre.channel.FloatInputPoll;
+import ccre.channel.FloatOutput;
+
+/**
+ * A MixingGraph compiled into a flat list of instructions. Each time that it is
+ * fired, it reads all of its inputs, runs each instruction once in order, and
+ * then writes all of its outputs.
+ *
+ * Values are kept in an array of registers, one for each node of the graph.
+ * Booleans are stored as 0.0 or 1.0. Constant parts of the graph are
+ * calculated once when it is compiled, and parts that don't lead to any output
+ * are left out.
+ *
+ * Fire this from something like a Ticker or the robot's periodic events, but
+ * only from one thread at a time: it isn't synchronized, so that firing it is
+ * as cheap as possible. The toString method lists the instructions, for
+ * inspection.
+ *
+ * @author skeggsc
+ * @see MixingGraph#compile()
+ */
+public final class MixingPlan implements EventOutput {
+
+    static final int OP_CONSTANT = 0;
+    static final int OP_LOAD_FLOAT = 1;
+    static final int OP_LOAD_BOOLEAN = 2;
+    static final int OP_NEGATE = 3;
+    static final int OP_ADD = 4;
+    static final int OP_SUBTRACT = 5;
+    static final int OP_MULTIPLY = 6;
+    static final int OP_DIVIDE = 7;
+    static final int OP_DEADZONE = 8;
+    static final int OP_LIMIT = 9;
+    static final int OP_NORMALIZE = 10;
+    static final int OP_AT_LEAST = 11;
+    static final int OP_AT_MOST = 12;
+    static final int OP_IN_RANGE = 13;
+    static final int OP_OUTSIDE_RANGE = 14;
+    static final int OP_GREATER_OR_EQUAL = 15;
+    static final int OP_NOT = 16;
+    static final int OP_AND = 17;
+    static final int OP_OR = 18;
+    static final int OP_XOR = 19;
+    static final int OP_SELECT = 20;
+    static final int OP_FILTER = 21;
+    static final int OP_OPERATION = 22;
+
+    private static final String[] opNames = new String[] { "constant", "load-float", "load-boolean", "negate", "add", "subtract", "multiply", "divide", "deadzone", "limit", "normalize", "at-least", "at-most", "in-range", "outside-range", "greater-or-equal", "not", "and", "or", "xor", "select", "filter", "operation" };
+
+    /**
+     * The number of ints in code for each instruction: the opcode, the
+     * destination register, and up to three operand registers.
+     */
+    static final int CODE_WIDTH = 5;
+    /**
+     * The number of floats in params for each instruction.
+     */
+    static final int PARAM_WIDTH = 2;
+
+    private final float[] registers;
+    private final int[] code;
+    private final float[] params;
+    /**
+     * The FloatFilter or FloatOperation used by each instruction, if any.
+     */
+    private final Object[] refs;
+    private final int[] floatLoads, booleanLoads, floatStores, booleanStores;
+    private final FloatInputPoll[] floatInputs;
+    private final BooleanInputPoll[] booleanInputs;
+    private final FloatOutput[] floatOutputs;
+    private final BooleanOutput[] booleanOutputs;
+
+    MixingPlan(float[] registers, int[] code, float[] params, Object[] refs, int[] floatLoads, FloatInputPoll[] floatInputs, int[] booleanLoads, BooleanInputPoll[] booleanInputs, int[] floatStores, FloatOutput[] floatOutputs, int[] booleanStores, BooleanOutput[] booleanOutputs) {
+        this.registers = registers;
+        this.code = code;
+        this.params = params;
+        this.refs = refs;
+        this.floatLoads = floatLoads;
+        this.floatInputs = floatInputs;
+        this.booleanLoads = booleanLoads;
+        this.booleanInputs = booleanInputs;
+        this.floatStores = floatStores;
+        this.floatOutputs = floatOutputs;
+        this.booleanStores = booleanStores;
+        this.booleanOutputs = booleanOutputs;
+    }
+
+    /**
+     * Read the inputs, calculate the graph, and write the outputs.
+     */
+    public void event() {
+        float[] r = registers;
+        for (int i = 0; i < floatLoads.length; i++) {
+            r[floatLoads[i]] = floatInputs[i].get();
+        }
+        for (int i = 0; i < booleanLoads.length; i++) {
+            r[booleanLoads[i]] = booleanInputs[i].get() ? 1 : 0;
+        }
+        run(code, params, refs, r, 0, code.length / CODE_WIDTH);
+        for (int i = 0; i < floatStores.length; i++) {
+            floatOutputs[i].set(r[floatStores[i]]);
+        }
+        for (int i = 0; i < booleanStores.length; i++) {
+            booleanOutputs[i].set(r[booleanStores[i]] != 0);
+        }
+    }
+
+    /**
+     * Run the specified range of instructions.
+     *
+     * @param code The instructions.
+     * @param params The parameters of the instructions.
+     * @param refs The filters and operations used by the instructions.
+     * @param r The registers.
+     * @param from The index of the first instruction to run.
+     * @param to The index after the last instruction to run.
+     */
+    static void run(int[] code, float[] params, Object[] refs, float[] r, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int pc = i * CODE_WIDTH, pp = i * PARAM_WIDTH;
+            int dst = code[pc + 1];
+            float a = r[code[pc + 2]];
+            switch (code[pc]) {
+            case OP_NEGATE:
+                r[dst] = -a;
+                break;
+            case OP_ADD:
+                r[dst] = a + r[code[pc + 3]];
+                break;
+            case OP_SUBTRACT:
+                r[dst] = a - r[code[pc + 3]];
+                break;
+            case OP_MULTIPLY:
+                r[dst] = a * r[code[pc + 3]];
+                break;
+            case OP_DIVIDE:
+                r[dst] = a / r[code[pc + 3]];
+                break;
+            case OP_DEADZONE:
+                r[dst] = (a > params[pp] || a < -params[pp]) ? a : 0.0f;
+                break;
+            case OP_LIMIT:
+                r[dst] = a < params[pp] ? params[pp] : a > params[pp + 1] ? params[pp + 1] : a;
+                break;
+            case OP_NORMALIZE:
+                r[dst] = (a - params[pp]) / params[pp + 1];
+                break;
+            case OP_AT_LEAST:
+                r[dst] = a >= params[pp] ? 1 : 0;
+                break;
+            case OP_AT_MOST:
+                r[dst] = a <= params[pp] ? 1 : 0;
+                break;
+            case OP_IN_RANGE:
+                r[dst] = a >= params[pp] && a <= params[pp + 1] ? 1 : 0;
+                break;
+            case OP_OUTSIDE_RANGE:
+                r[dst] = a < params[pp] || a > params[pp + 1] ? 1 : 0;
+                break;
+            case OP_GREATER_OR_EQUAL:
+                r[dst] = a >= r[code[pc + 3]] ? 1 : 0;
+                break;
+            case OP_NOT:
+                r[dst] = a != 0 ? 0 : 1;
+                break;
+            case OP_AND:
+                r[dst] = a != 0 && r[code[pc + 3]] != 0 ? 1 : 0;
+                break;
+            case OP_OR:
+                r[dst] = a != 0 || r[code[pc + 3]] != 0 ? 1 : 0;
+                break;
+            case OP_XOR:
+                r[dst] = (a != 0) != (r[code[pc + 3]] != 0) ? 1 : 0;
+                break;
+            case OP_SELECT:
+                r[dst] = a != 0 ? r[code[pc + 4]] : r[code[pc + 3]];
+                break;
+            case OP_FILTER:
+                r[dst] = ((FloatFilter) refs[i]).filter(a);
+                break;
+            case OP_OPERATION:
+                r[dst] = ((FloatOperation) refs[i]).of(a, r[code[pc + 3]]);
+                break;
+            default:
+                throw new IllegalStateException("Invalid opcode: " + code[pc]);
+            }
+        }
+    }
+
+    /**
+     * @return the number of instructions run each time, not including reading
+     * inputs and writing outputs.
+     */
+    public int getInstructionCount() {
+        return code.length / CODE_WIDTH;
+    }
+
+    /**
+     * Get the value calculated for the specified node the last time that this
+     * plan was fired. Nodes that don't lead to any output are not calculated.
+     *
+     * @param node The node, from the graph that this was compiled from.
+     * @return The value.
+     */
+    public float get(MixingGraph.FloatNode node) {
+        return registers[node.index];
+    }
+
+    /**
+     * Get the value calculated for the specified node the last time that this
+     * plan was fired. Nodes that don't lead to any output are not calculated.
+     *
+     * @param node The node, from the graph that this was compiled from.
+     * @return The value.
+     */
+    public boolean get(MixingGraph.BooleanNode node) {
+        return registers[node.index] != 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuffer out = new StringBuffer("[MixingPlan: ");
+        out.append(floatLoads.length + booleanLoads.length).append(" loads, ");
+        out.append(getInstructionCount()).append(" instructions, ");
+        out.append(floatStores.length + booleanStores.length).append(" stores]\n");
+        for (int i = 0; i < floatLoads.length; i++) {
+            out.append("r").append(floatLoads[i]).append(" = load-float ").append(floatInputs[i]).append('\n');
+        }
+        for (int i = 0; i < booleanLoads.length; i++) {
+            out.append("r").append(booleanLoads[i]).append(" = load-boolean ").append(booleanInputs[i]).append('\n');
+        }
+        for (int i = 0; i < getInstructionCount(); i++) {
+            int pc = i * CODE_WIDTH, pp = i * PARAM_WIDTH, op = code[pc];
+            out.append("r").append(code[pc + 1]).append(" = ").append(opNames[op]).append(" r").append(code[pc + 2]);
+            if (op == OP_ADD || op == OP_SUBTRACT || op == OP_MULTIPLY || op == OP_DIVIDE || op == OP_GREATER_OR_EQUAL || op == OP_AND || op == OP_OR || op == OP_XOR || op == OP_SELECT || op == OP_OPERATION) {
+                out.append(" r").append(code[pc + 3]);
+            }
+            if (op == OP_SELECT) {
+                out.append(" r").append(code[pc + 4]);
+            }
+            if (op == OP_DEADZONE || op == OP_LIMIT || op == OP_NORMALIZE || op == OP_AT_LEAST || op == OP_AT_MOST || op == OP_IN_RANGE || op == OP_OUTSIDE_RANGE) {
+                out.append(' ').append(params[pp]);
+            }
+            if (op == OP_LIMIT || op == OP_NORMALIZE || op == OP_IN_RANGE || op == OP_OUTSIDE_RANGE) {
+                out.append(' ').append(params[pp + 1]);
+            }
+            if (refs[i] != null) {
+                out.append(' ').append(refs[i]);
+            }
+            out.append('\n');
+        }
+        for (int i = 0; i < floatStores.length; i++) {
+            out.append("store-float r").append(floatStores[i]).append(" -> ").append(floatOutputs[i]).append('\n');
+        }
+        for (int i = 0; i < booleanStores.length; i++) {
+            out.append("store-boolean r").append(booleanStores[i]).append(" -> ").append(booleanOutputs[i]).append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -24,6 +24,7 @@ import ccre.channel.FloatInput;
 import ccre.channel.FloatInputPoll;
 import ccre.channel.FloatOutput;
 import ccre.channel.FloatStatus;
+import ccre.time.Clock;
 
 /**
  * A generic PID Controller for use in CCRE applications. Supports online tuning
@@ -235,16 +236,18 @@ public class PIDControl implements FloatInput, EventOutput {
         if (Float.isNaN(error) || Float.isInfinite(error)) {
             output.set(Float.NaN);
         } else {
-            long time = System.currentTimeMillis();
+            long time = Clock.nanos();
             long timeDelta = time - previousTime;
             if (timeDelta < 0) {
                 throw new RuntimeException("Time just ran backwards!");
             } else if (timeDelta == 0) { // Updating too fast. Ignore it.
                 return;
-            } else if (timeDelta / 1000f > maximumTimeDelta.get()) {
-                timeDelta = (long) (maximumTimeDelta.get() * 1000);
             }
-            float newTotal = integralTotal.get() + error * timeDelta / 1000f;
+            float seconds = timeDelta / 1000000000f;
+            if (seconds > maximumTimeDelta.get()) {
+                seconds = maximumTimeDelta.get();
+            }
+            float newTotal = integralTotal.get() + error * seconds;
             if (minIntegral != null && newTotal < minIntegral.get()) {
                 newTotal = minIntegral.get();
             }
@@ -252,7 +255,7 @@ public class PIDControl implements FloatInput, EventOutput {
                 newTotal = maxIntegral.get();
             }
             integralTotal.set(newTotal);
-            float slope = 1000 /* milliseconds per second */* (error - previousInput) / timeDelta;
+            float slope = (error - previousInput) / seconds;
             float valueOut = error * P.get() + integralTotal.get() * I.get() + slope * D.get();
             previousInput = error;
             previousTime = time;
@@ -24,6 +24,7 @@ import ccre.channel.EventOutput;
 import ccre.concurrency.ConcurrentDispatchArray;
 import ccre.concurrency.ReporterThread;
 import ccre.log.Logger;
+import ccre.time.Clock;
 
 /**
  * A PauseTimer has a boolean state for running or not, which is readable but
@@ -55,9 +56,9 @@ public class PauseTimer implements BooleanInput, EventOutput {
                     }
                 }
                 long now;
-                while ((now = System.currentTimeMillis()) < endAt) {
+                while ((now = Clock.millis()) < endAt) {
                     synchronized (lock) {
-                        lock.wait(endAt - now);
+                        Clock.waitOn(lock, endAt - now);
                     }
                 }
                 try {
@@ -93,7 +94,7 @@ public class PauseTimer implements BooleanInput, EventOutput {
      * Start the timer running.
      */
     public void event() {
-        setEndAt(System.currentTimeMillis() + timeout);
+        setEndAt(Clock.millis() + timeout);
     }
 
     public boolean get() {
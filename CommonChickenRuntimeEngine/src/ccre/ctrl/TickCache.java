@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.ctrl;
+
+import ccre.channel.BooleanInputPoll;
+import ccre.channel.EventInput;
+import ccre.channel.EventOutput;
+import ccre.channel.FloatInputPoll;
+
+/**
+ * A cache for poll-style inputs that keeps each value for the rest of a tick.
+ * Each input wrapped by cache is only read the first time that it is needed
+ * during a tick: later reads during the same tick return the same value,
+ * instead of reading the sensor and recalculating the whole chain again.
+ *
+ * A tick ends when this is fired, which is usually done by the EventInput
+ * passed to the constructor. Igneous.tickCache is already set up to start a
+ * new tick at the start of each iteration of the robot's main loop.
+ *
+ * The hit and miss counters show how much work the cache is saving. They are
+ * not synchronized, so they may undercount slightly if several threads use
+ * the cache at once.
+ *
+ * @author skeggsc
+ * @see ccre.igneous.Igneous#tickCache
+ */
+public final class TickCache implements EventOutput {
+
+    /**
+     * The current tick. Cached values from any other tick are stale.
+     */
+    private volatile int tick = 0;
+    private int hits = 0, misses = 0;
+
+    /**
+     * Create a new TickCache that starts a new tick whenever it is fired.
+     */
+    public TickCache() {
+    }
+
+    /**
+     * Create a new TickCache that starts a new tick whenever the specified
+     * event is produced.
+     *
+     * @param tickWhen when to start a new tick.
+     */
+    public TickCache(EventInput tickWhen) {
+        tickWhen.send(this);
+    }
+
+    /**
+     * Start a new tick, so that every cached input will be read again the next
+     * time that it is needed.
+     */
+    public void event() {
+        tick++;
+    }
+
+    /**
+     * Wrap the specified input so that it is read at most once per tick.
+     *
+     * @param input The input to cache.
+     * @return The cached input.
+     */
+    public FloatInputPoll cache(final FloatInputPoll input) {
+        Mixing.checkNull(input);
+        return new FloatInputPoll() {
+            private volatile int validFor = tick - 1;
+            private float value;
+
+            public float get() {
+                int now = tick;
+                if (validFor == now) {
+                    hits++;
+                    return value;
+                }
+                misses++;
+                float out = input.get();
+                value = out;
+                validFor = now;
+                return out;
+            }
+        };
+    }
+
+    /**
+     * Wrap the specified input so that it is read at most once per tick.
+     *
+     * @param input The input to cache.
+     * @return The cached input.
+     */
+    public BooleanInputPoll cache(final BooleanInputPoll input) {
+        Mixing.checkNull(input);
+        return new BooleanInputPoll() {
+            private volatile int validFor = tick - 1;
+            private boolean value;
+
+            public boolean get() {
+                int now = tick;
+                if (validFor == now) {
+                    hits++;
+                    return value;
+                }
+                misses++;
+                boolean out = input.get();
+                value = out;
+                validFor = now;
+                return out;
+            }
+        };
+    }
+
+    /**
+     * @return the number of reads that were answered from the cache.
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of reads that had to read the underlying input.
+     */
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the fraction of reads that were answered from the cache, from 0.0 to
+     * 1.0, or 0.0 if there haven't been any reads.
+     *
+     * @return the hit rate.
+     */
+    public float getHitRate() {
+        int h = hits, total = h + misses;
+        return total == 0 ? 0 : h / (float) total;
+    }
+
+    /**
+     * @return a FloatInputPoll for the hit rate.
+     * @see #getHitRate()
+     */
+    public FloatInputPoll getHitRateInput() {
+        return new FloatInputPoll() {
+            public float get() {
+                return getHitRate();
+            }
+        };
+    }
+
+    /**
+     * Reset the hit and miss counters to zero.
+     */
+    public void resetCounters() {
+        hits = 0;
+        misses = 0;
+    }
+}
@@ -20,9 +20,11 @@ package ccre.ctrl;
 
 import ccre.channel.EventInput;
 import ccre.channel.EventOutput;
+import ccre.channel.DispatchProfiler;
 import ccre.channel.EventStatus;
-import ccre.concurrency.ReporterThread;
+import ccre.concurrency.TimerWheel;
 import ccre.log.Logger;
+import ccre.time.JitterStatistics;
 
 /**
  * An EventInput that will fire the event in all its consumers at a specified
@@ -33,9 +35,12 @@ import ccre.log.Logger;
 public final class Ticker implements EventInput {
 
     private final EventStatus producer = new EventStatus();
-    private final ReporterThread main;
+    private final int interval;
+    private final boolean fixedRate;
+    private final JitterStatistics jitter = new JitterStatistics();
+    private TimerWheel.Timer timer;
     private boolean isKilled = false;
-    private final Object lock = new Object();
+    private int countFails = 0;
 
     /**
      * Create a new Ticker with the specified interval. The timer will start
@@ -64,11 +69,16 @@ public final class Ticker implements EventInput {
      * This does mean that if a cycle takes too long, that produces of the event
      * can bunch up and execute a number of times back-to-back.
      *
+     * Tickers don't have their own threads: they are all run by the default
+     * TimerWheel.
+     *
      * @param interval The desired interval, in milliseconds.
      * @param fixedRate Should the rate be corrected?
+     * @see TimerWheel#getDefault()
      */
     public Ticker(final int interval, final boolean fixedRate) {
-        this.main = new MainTickerThread((fixedRate ? "FixedTicker-" : "Ticker-") + interval, fixedRate, interval);
+        this.interval = interval;
+        this.fixedRate = fixedRate;
     }
 
     /**
@@ -78,11 +88,17 @@ public final class Ticker implements EventInput {
      * @param ec The EventOutput to add.
      */
     public void send(EventOutput ec) {
-        if (isKilled) {
-            throw new IllegalStateException("The Ticker is dead!");
-        }
-        if (!main.isAlive()) {
-            main.start();
+        synchronized (this) {
+            if (isKilled) {
+                throw new IllegalStateException("The Ticker is dead!");
+            }
+            if (timer == null) {
+                timer = TimerWheel.getDefault().schedule(new EventOutput() {
+                    public void event() {
+                        cycle();
+                    }
+                }, interval, fixedRate, jitter);
+            }
         }
         producer.send(ec);
     }
@@ -101,73 +117,53 @@ public final class Ticker implements EventInput {
      * Destroys this Ticker. It won't function after this.
      */
     public void terminate() {
-        isKilled = true;
-        producer.clearListeners();
-        synchronized (lock) {
-            lock.notifyAll();
+        synchronized (this) {
+            isKilled = true;
+            if (timer != null) {
+                timer.cancel();
+            }
         }
+        producer.clearListeners();
     }
 
-    private class MainTickerThread extends ReporterThread {
-
-        private final boolean fixedRate;
-        private final int interval;
-        private int countFails = 0;
+    /**
+     * Get the statistics about how late each cycle of this Ticker starts. For
+     * a fixed-rate Ticker, this is measured against the ideal schedule of one
+     * cycle every interval; otherwise, it is measured against one interval
+     * after the end of the previous cycle.
+     *
+     * @return the jitter statistics.
+     */
+    public JitterStatistics getJitterStatistics() {
+        return jitter;
+    }
 
-        MainTickerThread(String name, boolean fixedRate, int interval) {
-            super(name);
-            this.fixedRate = fixedRate;
-            this.interval = interval;
-        }
+    /**
+     * Time each consumer of this Ticker on every cycle, and report the times to
+     * the specified profiler.
+     *
+     * @param profiler The profiler, or null to stop profiling.
+     */
+    public void setProfiler(DispatchProfiler profiler) {
+        producer.setProfiler(profiler);
+    }
 
-        @Override
-        protected void threadBody() throws InterruptedException {
-            if (fixedRate) {
-                long next = System.currentTimeMillis() + interval;
-                while (true) {
-                    synchronized (lock) {
-                        if (isKilled) {
-                            break;
-                        }
-                        long rem = next - System.currentTimeMillis();
-                        if (rem > 0) {
-                            lock.wait(rem);
-                            continue;
-                        }
-                    }
-                    cycle();
-                    next += interval;
+    private void cycle() {
+        try {
+            if (countFails >= 50) {
+                countFails--;
+                if (producer.produceWithFailureRecovery()) {
+                    countFails = 0;
                 }
             } else {
-                while (!isKilled) {
-                    long doneAt = System.currentTimeMillis() + interval;
-                    synchronized (lock) {
-                        while (!isKilled && System.currentTimeMillis() < doneAt) {
-                            lock.wait(interval);
-                        }
-                    }
-                    cycle();
-                }
-            }
-        }
-
-        private void cycle() {
-            try {
-                if (countFails >= 50) {
+                producer.produce();
+                if (countFails > 0) {
                     countFails--;
-                    if (producer.produceWithFailureRecovery()) {
-                        countFails = 0;
-                    }
-                } else {
-                    producer.produce();
-                    if (countFails > 0) {
-                        countFails--;
-                    }
                 }
-            } catch (Throwable thr) {
-                Logger.severe("Exception in Ticker main loop!", thr);
-                countFails += 10;
             }
+        } catch (Throwable thr) {
+            Logger.severe("Exception in Ticker main loop!", thr);
+            countFails += 10;
         }
     }
 }
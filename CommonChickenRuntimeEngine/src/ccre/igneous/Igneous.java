@@ -20,17 +20,25 @@ package ccre.igneous;
 
 import ccre.channel.BooleanInputPoll;
 import ccre.channel.BooleanOutput;
+import ccre.channel.DispatchProfiler;
 import ccre.channel.EventInput;
+import ccre.channel.EventStatus;
 import ccre.channel.FloatInputPoll;
 import ccre.channel.FloatOutput;
 import ccre.channel.SerialIO;
+import ccre.cluck.Cluck;
+import ccre.cluck.tcp.CluckProtocol;
+import ccre.concurrency.EventLoop;
 import ccre.ctrl.BooleanMixing;
+import ccre.ctrl.EventMixing;
 import ccre.ctrl.ExtendedMotor;
 import ccre.ctrl.FloatMixing;
 import ccre.ctrl.IJoystick;
 import ccre.ctrl.IJoystickWithPOV;
+import ccre.ctrl.TickCache;
 import ccre.ctrl.Ticker;
 import ccre.instinct.InstinctModule;
+import ccre.log.BinaryFileLogger;
 import ccre.log.Logger;
 
 /**
@@ -132,6 +140,14 @@ public class Igneous {
      * Produced while the robot is disabled.
      */
     public static final EventInput duringDisabled = launcher.getDuringDisabled();
+    /**
+     * A cache that keeps the value of each input wrapped with it for the rest
+     * of the current iteration of the main loop. A new iteration starts just
+     * before the during-mode event of each mode is produced.
+     *
+     * @see TickCache#cache(ccre.channel.FloatInputPoll)
+     */
+    public static final TickCache tickCache = new TickCache(EventMixing.combine(duringAuto, duringTele, duringTest, duringDisabled));
 
     /**
      * Get an IJoystick for the specified Kinect virtual joystick. Joysticks on
@@ -683,6 +699,92 @@ public class Igneous {
         return launcher.makeAccelerometerAxis(port, sensitivity, zeropoint);
     }
 
+    /**
+     * Profile the consumers of globalPeriodic and constantPeriodic, and publish
+     * the reports over Cluck as igneous-profile-globalPeriodic and
+     * igneous-profile-constantPeriodic. Iterations that take longer than 20
+     * milliseconds and 10 milliseconds, respectively, are flagged as overruns.
+     *
+     * @see DispatchProfiler
+     */
+    public static void profilePeriodic() {
+        profile(globalPeriodic, "globalPeriodic", 20);
+        profile(constantPeriodic, "constantPeriodic", 10);
+    }
+
+    /**
+     * Publish the depth of the Cluck send queues and the number of messages
+     * that they have dropped over Cluck, as cluck.queue-depth and
+     * cluck.dropped-messages.
+     *
+     * @see CluckProtocol#getQueueStatus()
+     */
+    public static void publishCluckQueueStatus() {
+        CluckProtocol.getQueueStatus().publish(Cluck.getNode(), "cluck");
+    }
+
+    /**
+     * Start measuring the Cluck traffic of this robot, and publish the
+     * measurements over Cluck. This adds some accounting to every message
+     * that is sent or received, so it is off unless this is called.
+     *
+     * @see ccre.cluck.CluckTrafficMetrics#publish()
+     */
+    public static void publishCluckTrafficMetrics() {
+        Cluck.getNode().getTrafficMetrics().publish();
+    }
+
+    /**
+     * Also write the log to rotating binary log files (blog-N), which cost
+     * less to write than the text log-N files and are bounded in total size.
+     * The text log is still written, so this is off unless this is called.
+     *
+     * @return the binary logger, or null if it couldn't be set up.
+     * @see BinaryFileLogger
+     */
+    public static BinaryFileLogger useBinaryFileLogger() {
+        return BinaryFileLogger.register();
+    }
+
+    private static void profile(EventInput input, String name, float overrunThreshold) {
+        DispatchProfiler profiler = new DispatchProfiler(name);
+        profiler.setOverrunThreshold(overrunThreshold);
+        if (input instanceof EventStatus) {
+            ((EventStatus) input).setProfiler(profiler);
+        } else if (input instanceof Ticker) {
+            ((Ticker) input).setProfiler(profiler);
+        } else {
+            Logger.warning("Cannot profile " + name + " on this platform.");
+            return;
+        }
+        Cluck.publishRConf("igneous-profile-" + name, profiler);
+    }
+
+    /**
+     * Switch to event-loop mode: run Tickers, ExpirationTimers, received Cluck
+     * messages and the mode events of the launcher on a single EventLoop
+     * thread instead of on threads of their own, so that the order that they
+     * happen in doesn't depend on how the threads are scheduled.
+     * InstinctModules keep their own threads, but take turns with the loop.
+     *
+     * This must be called at the start of setupRobot, before anything is
+     * created, and any threads that the robot code starts can post their work
+     * to the loop to keep it in order. The cRIO launcher still produces its
+     * mode events on its own thread.
+     *
+     * @return the active EventLoop.
+     * @see EventLoop
+     */
+    public static synchronized EventLoop useEventLoop() {
+        EventLoop loop = EventLoop.getActive();
+        if (loop == null) {
+            loop = new EventLoop("Igneous-loop");
+            EventLoop.setActive(loop);
+            loop.start();
+        }
+        return loop;
+    }
+
     /**
      * Register the specified InstinctModule as an autonomous mode. Note that
      * registering multiple autonomous modes probably won't work properly.
@@ -22,8 +22,10 @@ import ccre.channel.BooleanInputPoll;
 import ccre.channel.EventInput;
 import ccre.channel.EventOutput;
 import ccre.channel.FloatInputPoll;
+import ccre.concurrency.EventLoop;
 import ccre.ctrl.FloatMixing;
 import ccre.log.Logger;
+import ccre.time.Clock;
 
 /**
  * The base class for the different kinds of user-extendable Instinct modules.
@@ -141,6 +143,11 @@ public abstract class InstinctBaseModule {
     /**
      * Wait for the specified amount of time.
      *
+     * While an EventLoop is active, this waits for cycles until the time has
+     * passed, instead of sleeping, so that the loop doesn't wait on this
+     * module in the meantime. The wait then ends on the first cycle after the
+     * time has passed.
+     *
      * @param milliseconds The amount of time to wait for, in milliseconds.
      * @throws AutonomousModeOverException If the autonomous mode has ended.
      * @throws InterruptedException Possibly also if autonomous mode has ended.
@@ -153,7 +160,15 @@ public abstract class InstinctBaseModule {
             return; // Do nothing.
         }
         try {
-            Thread.sleep(milliseconds);
+            if (EventLoop.getActive() == null) {
+                Thread.sleep(milliseconds);
+                return;
+            }
+            long until = Clock.nanos() + milliseconds * 1000000;
+            while (Clock.nanos() < until) {
+                ensureShouldBeRunning();
+                waitCycle();
+            }
         } catch (InterruptedException ex) {
             ensureShouldBeRunning();
             throw ex;
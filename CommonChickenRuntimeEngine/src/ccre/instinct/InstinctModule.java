@@ -21,6 +21,7 @@ package ccre.instinct;
 import ccre.channel.BooleanInputPoll;
 import ccre.channel.EventInput;
 import ccre.channel.EventOutput;
+import ccre.concurrency.EventLoop;
 import ccre.concurrency.ReporterThread;
 import ccre.log.Logger;
 
@@ -31,6 +32,17 @@ import ccre.log.Logger;
  */
 public abstract class InstinctModule extends InstinctBaseModule implements EventOutput {
 
+    /**
+     * How long an update from the active EventLoop waits for the module to
+     * reach its next wait, in milliseconds.
+     */
+    private static final int HANDOFF_TIMEOUT = 20;
+    /**
+     * How often an update from the active EventLoop checks if the module is
+     * waiting on the loop, in milliseconds.
+     */
+    private static final int HANDOFF_CHECK_INTERVAL = 2;
+
     /**
      * If the instinct module should currently be running.
      */
@@ -49,6 +61,20 @@ public abstract class InstinctModule extends InstinctBaseModule implements Event
      * execution.
      */
     final Object autosynch = new Object();
+    /**
+     * The number of cycles so far. Protected by autosynch.
+     */
+    private int cycle = 0;
+    /**
+     * The cycle that the main thread last started waiting in. Protected by
+     * autosynch.
+     */
+    private int waitingCycle = -1;
+    /**
+     * If the module missed a handoff, and hasn't waited since, so that it
+     * runs alongside the loop. Protected by autosynch.
+     */
+    private boolean handoffMissed;
 
     /**
      * The main thread for code running in this Instinct Module.
@@ -160,16 +186,62 @@ public abstract class InstinctModule extends InstinctBaseModule implements Event
 
     void waitCycle() throws InterruptedException {
         synchronized (autosynch) {
-            autosynch.wait();
+            int seen = cycle;
+            waitingCycle = seen;
+            handoffMissed = false;
+            autosynch.notifyAll();
+            while (cycle == seen) {
+                autosynch.wait();
+            }
         }
     }
 
     void notifyCycle() {
         synchronized (autosynch) {
+            cycle++;
             autosynch.notifyAll();
         }
     }
 
+    /**
+     * When updated from the active EventLoop, wait for the main thread to
+     * finish the cycle and wait for the next one, so that the module runs in
+     * turn with the loop instead of alongside it. Every waiting method,
+     * including waitForTime while a loop is active, waits for the next cycle.
+     *
+     * If the module is blocked somewhere else for longer than
+     * HANDOFF_TIMEOUT, such as in a sleep or in network IO, it runs alongside
+     * the loop until it next waits. If the module is waiting for the loop
+     * itself to run something, the loop doesn't wait for the module.
+     */
+    private void awaitHandoff() {
+        EventLoop loop = EventLoop.getActive();
+        if (loop == null || !loop.isLoopThread()) {
+            return;
+        }
+        long giveUpAt = System.currentTimeMillis() + HANDOFF_TIMEOUT;
+        synchronized (autosynch) {
+            while (waitingCycle != cycle && main.isAlive() && !handoffMissed && !loop.isInvokedBy(main)) {
+                long remaining = giveUpAt - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    handoffMissed = true;
+                    break;
+                }
+                try {
+                    autosynch.wait(Math.min(remaining, HANDOFF_CHECK_INTERVAL));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (!handoffMissed || System.currentTimeMillis() < giveUpAt) {
+                // Either the handoff worked, or it was already missed.
+                return;
+            }
+        }
+        Logger.warning(getTypeName() + " did not wait within " + HANDOFF_TIMEOUT + " ms of an update - running it alongside the event loop until it does.");
+    }
+
     void ensureShouldBeRunning() throws AutonomousModeOverException {
         if (!shouldBeRunning.get()) {
             throw new AutonomousModeOverException();
@@ -185,9 +257,11 @@ public abstract class InstinctModule extends InstinctBaseModule implements Event
                 main.start();
             }
             notifyCycle();
+            awaitHandoff();
         } else if (isRunning) {
             notifyCycle();
             main.interrupt();
+            awaitHandoff();
         }
     }
 }
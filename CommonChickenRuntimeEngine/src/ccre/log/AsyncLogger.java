@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.log;
+
+import ccre.concurrency.ReporterThread;
+
+/**
+ * A ring buffer of log records that are passed to the logging targets by a
+ * background thread instead of by the thread that logs them, so that a slow
+ * target, such as a file or a network connection, can't stall the caller.
+ *
+ * The buffer is allocated once, up front. Adding a record only holds the lock
+ * on the buffer long enough to store three references, and targets are never
+ * called while it is held. When the buffer is full, the overflow policy
+ * decides what to drop, and the dropped records are counted and reported by
+ * the background thread once there is room again.
+ *
+ * @author skeggsc
+ * @see Logger#startAsynchronous(int, int)
+ */
+public final class AsyncLogger {
+
+    /**
+     * When the buffer is full, drop the record being logged.
+     */
+    public static final int DROP_NEWEST = 0;
+    /**
+     * When the buffer is full, drop the oldest record in the buffer.
+     */
+    public static final int DROP_OLDEST = 1;
+    /**
+     * When the buffer is full, drop the oldest of the least severe records in
+     * the buffer, if it is less severe than the record being logged, or else
+     * the record being logged.
+     */
+    public static final int DROP_LEAST_SEVERE = 2;
+
+    private final LogLevel[] levels;
+    private final String[] messages;
+    /**
+     * Either a Throwable or an extended message String, for each record.
+     */
+    private final Object[] details;
+    private final int mask;
+    private final int policy;
+    /**
+     * The index of the oldest record, and the number of records.
+     */
+    private int head, size;
+    private long dropped, reported;
+    private boolean consumerIdle, terminated;
+    private final ReporterThread consumer;
+
+    AsyncLogger(int capacity, int policy) throws IllegalArgumentException {
+        if (capacity < 2 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("AsyncLogger capacity must be a power of two and at least two: " + capacity);
+        }
+        if (policy < DROP_NEWEST || policy > DROP_LEAST_SEVERE) {
+            throw new IllegalArgumentException("Invalid overflow policy: " + policy);
+        }
+        levels = new LogLevel[capacity];
+        messages = new String[capacity];
+        details = new Object[capacity];
+        mask = capacity - 1;
+        this.policy = policy;
+        consumer = new ReporterThread("AsyncLogger") {
+            @Override
+            protected void threadBody() throws InterruptedException {
+                consume();
+            }
+        };
+        consumer.start();
+    }
+
+    /**
+     * Add a record to the buffer.
+     *
+     * @param level The level of the record.
+     * @param message The message, including any caller information.
+     * @param detail The Throwable or extended message, or null.
+     */
+    void add(LogLevel level, String message, Object detail) {
+        synchronized (this) {
+            if (size == levels.length && !makeRoom(level)) {
+                dropped++;
+                return;
+            }
+            int index = (head + size) & mask;
+            levels[index] = level;
+            messages[index] = message;
+            details[index] = detail;
+            size++;
+            if (consumerIdle) {
+                notifyAll();
+            }
+        }
+    }
+
+    private boolean makeRoom(LogLevel level) {
+        switch (policy) {
+        case DROP_OLDEST:
+            remove(0);
+            dropped++;
+            return true;
+        case DROP_LEAST_SEVERE:
+            int least = -1;
+            for (int i = 0; i < size; i++) {
+                if (least == -1 || levels[(head + i) & mask].id < levels[(head + least) & mask].id) {
+                    least = i;
+                }
+            }
+            if (levels[(head + least) & mask].id >= level.id) {
+                return false;
+            }
+            remove(least);
+            dropped++;
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Remove the record at the specified position from the oldest, shifting
+     * the older records along to fill its place.
+     */
+    private void remove(int position) {
+        for (int i = position; i > 0; i--) {
+            int to = (head + i) & mask, from = (head + i - 1) & mask;
+            levels[to] = levels[from];
+            messages[to] = messages[from];
+            details[to] = details[from];
+        }
+        levels[head] = null;
+        messages[head] = null;
+        details[head] = null;
+        head = (head + 1) & mask;
+        size--;
+    }
+
+    private void consume() throws InterruptedException {
+        while (true) {
+            LogLevel level;
+            String message;
+            Object detail;
+            long newlyDropped;
+            synchronized (this) {
+                while (size == 0 && dropped == reported) {
+                    if (terminated) {
+                        return;
+                    }
+                    consumerIdle = true;
+                    notifyAll(); // for flush
+                    try {
+                        wait();
+                    } finally {
+                        consumerIdle = false;
+                    }
+                }
+                newlyDropped = dropped - reported;
+                reported = dropped;
+                if (size != 0) {
+                    level = levels[head];
+                    message = messages[head];
+                    detail = details[head];
+                    levels[head] = null;
+                    messages[head] = null;
+                    details[head] = null;
+                    head = (head + 1) & mask;
+                    size--;
+                } else {
+                    level = null;
+                    message = null;
+                    detail = null;
+                }
+            }
+            if (newlyDropped != 0) {
+                Logger.dispatch(LogLevel.WARNING, "[LOCAL] Dropped " + newlyDropped + " log messages because the log buffer was full.", null);
+            }
+            if (level != null) {
+                try {
+                    Logger.dispatch(level, message, detail);
+                } catch (Throwable thr) {
+                    System.err.println("Logging target failed: " + thr);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return if the current thread is the thread that passes records to the
+     * targets.
+     */
+    boolean isConsumerThread() {
+        return Thread.currentThread() == consumer;
+    }
+
+    /**
+     * Wait until every record added so far has been passed to the targets, or
+     * until the timeout elapses.
+     *
+     * @param timeout The maximum time to wait, in milliseconds.
+     * @return true if the buffer was emptied, or false if the timeout elapsed.
+     * @throws InterruptedException If the current thread is interrupted.
+     */
+    public synchronized boolean flush(long timeout) throws InterruptedException {
+        long giveUpAt = System.currentTimeMillis() + timeout;
+        long remaining;
+        while (!(size == 0 && dropped == reported && consumerIdle) && consumer.isAlive()) {
+            if ((remaining = giveUpAt - System.currentTimeMillis()) <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Stop the background thread once the buffer is empty.
+     */
+    synchronized void terminate() {
+        terminated = true;
+        notifyAll();
+    }
+
+    /**
+     * @return the number of records waiting to be passed to the targets.
+     */
+    public synchronized int getPending() {
+        return size;
+    }
+
+    /**
+     * @return the number of records dropped so far because the buffer was
+     * full.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the maximum number of records waiting at once.
+     */
+    public int getCapacity() {
+        return levels.length;
+    }
+}
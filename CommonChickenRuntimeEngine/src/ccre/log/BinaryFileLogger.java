@@ -0,0 +1,463 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import ccre.channel.EventOutput;
+import ccre.concurrency.DelayScheduler;
+import ccre.saver.StorageProvider;
+import ccre.util.CLinkedList;
+import ccre.workarounds.ThrowablePrinter;
+
+/**
+ * A logging target that writes compact binary records to a series of files,
+ * named prefix-0, prefix-1, and so on. BinaryLogConverter turns these files
+ * back into text.
+ *
+ * Records are collected in memory and written out when the buffer fills up,
+ * when a SEVERE message is logged, or a short time after the first record in
+ * an empty buffer, whichever comes first. When the current file grows past
+ * the maximum file size, the next file is started, and the oldest files are
+ * deleted to keep the total size of the files under the maximum total size.
+ *
+ * The list of files and their sizes is kept in a small index file named
+ * prefix-index, so that startup doesn't need to probe for existing files.
+ *
+ * Each file starts with a header: the int MAGIC, the byte VERSION, and the
+ * long time at which the file was started. Each record is the byte level, a
+ * byte detail kind, the int number of milliseconds since the file was
+ * started, the message in writeUTF format, and, unless the detail kind is
+ * DETAIL_NONE, the detail in writeUTF format.
+ *
+ * @author skeggsc
+ */
+public class BinaryFileLogger implements LoggingTarget {
+
+    /**
+     * The default maximum size of a single file: one megabyte.
+     */
+    public static final int DEFAULT_FILE_SIZE = 1024 * 1024;
+    /**
+     * The default maximum total size of all of the files: sixteen megabytes.
+     */
+    public static final int DEFAULT_TOTAL_SIZE = 16 * 1024 * 1024;
+    /**
+     * The default size of the in-memory buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    /**
+     * The default longest time that a record waits in the buffer, in
+     * milliseconds.
+     */
+    public static final int DEFAULT_FLUSH_INTERVAL = 2000;
+
+    /**
+     * The first four bytes of each file: "CCRL".
+     */
+    public static final int MAGIC = 0x4343524C;
+    /**
+     * The version of the record format.
+     */
+    public static final byte VERSION = 1;
+    /**
+     * The detail kind of a record without any detail.
+     */
+    public static final byte DETAIL_NONE = 0;
+    /**
+     * The detail kind of a record whose detail is a printed Throwable.
+     */
+    public static final byte DETAIL_THROWABLE = 1;
+    /**
+     * The detail kind of a record whose detail is an extended message.
+     */
+    public static final byte DETAIL_EXTENDED = 2;
+
+    /**
+     * Strings are cut off at this length, so that they always fit into the
+     * writeUTF format.
+     */
+    private static final int MAXIMUM_STRING_LENGTH = 16383;
+    private static final int HEADER_SIZE = 4 + 1 + 8;
+
+    /**
+     * Register a new BinaryFileLogger writing to log files named blog-N, with
+     * the default limits.
+     *
+     * @return the new logger, or null if it couldn't be set up.
+     */
+    public static BinaryFileLogger register() {
+        return register("blog", DEFAULT_FILE_SIZE, DEFAULT_TOTAL_SIZE);
+    }
+
+    /**
+     * Register a new BinaryFileLogger writing to log files with the specified
+     * prefix and limits.
+     *
+     * @param prefix The prefix of the file names.
+     * @param maxFileSize The size at which to start a new file.
+     * @param maxTotalSize The most space to use for all of the files.
+     * @return the new logger, or null if it couldn't be set up.
+     */
+    public static BinaryFileLogger register(String prefix, int maxFileSize, int maxTotalSize) {
+        try {
+            BinaryFileLogger logger = new BinaryFileLogger(prefix, maxFileSize, maxTotalSize, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL);
+            logger.open();
+            Logger.addTarget(logger);
+            return logger;
+        } catch (IOException ex) {
+            Logger.warning("Could not set up binary file logging!", ex);
+            return null;
+        }
+    }
+
+    /**
+     * A file that is part of the log. The size is -1 for the file currently
+     * being written, since it isn't known until the file is finished.
+     */
+    private static final class LogFile {
+        final int index;
+        int size;
+
+        LogFile(int index, int size) {
+            this.index = index;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A ByteArrayOutputStream that can be written out without a copy.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer(int size) {
+            super(size);
+        }
+
+        void writeAll(OutputStream out) throws IOException {
+            out.write(buf, 0, count);
+        }
+    }
+
+    private final String prefix;
+    private final int maxFileSize, maxTotalSize, bufferSize, flushInterval;
+    private final RecordBuffer buffer;
+    private final DataOutputStream records;
+    private final CLinkedList<LogFile> files = new CLinkedList<LogFile>();
+    private final DelayScheduler.Delay flusher = DelayScheduler.getDefault().create(new EventOutput() {
+        public void event() {
+            flush();
+        }
+    });
+    private int nextIndex;
+    private OutputStream file;
+    private LogFile current;
+    private long fileStart;
+    private int fileWritten;
+    private boolean closed;
+
+    /**
+     * Create a new BinaryFileLogger. It doesn't write anything until open is
+     * called.
+     *
+     * @param prefix The prefix of the file names.
+     * @param maxFileSize The size at which to start a new file.
+     * @param maxTotalSize The most space to use for all of the files.
+     * @param bufferSize The amount of data to collect before writing it.
+     * @param flushInterval The longest time to wait before writing collected
+     * data, in milliseconds.
+     * @throws IllegalArgumentException If any of the sizes or the interval are
+     * not positive, or if maxTotalSize is less than maxFileSize.
+     */
+    public BinaryFileLogger(String prefix, int maxFileSize, int maxTotalSize, int bufferSize, int flushInterval) throws IllegalArgumentException {
+        if (prefix == null) {
+            throw new NullPointerException();
+        }
+        if (maxFileSize <= HEADER_SIZE || bufferSize <= 0 || flushInterval <= 0) {
+            throw new IllegalArgumentException("Sizes and flush interval must be positive!");
+        }
+        if (maxTotalSize < maxFileSize) {
+            throw new IllegalArgumentException("Maximum total size must be at least the maximum file size!");
+        }
+        this.prefix = prefix;
+        this.maxFileSize = maxFileSize;
+        this.maxTotalSize = maxTotalSize;
+        this.bufferSize = bufferSize;
+        this.flushInterval = flushInterval;
+        this.buffer = new RecordBuffer(bufferSize + 256);
+        this.records = new DataOutputStream(buffer);
+    }
+
+    /**
+     * Read the index, or find the existing files if there is no index, and
+     * start the next file.
+     *
+     * @throws IOException If the first file cannot be started.
+     * @throws IllegalStateException If this logger was already opened.
+     */
+    public synchronized void open() throws IOException, IllegalStateException {
+        if (file != null || closed) {
+            throw new IllegalStateException("BinaryFileLogger already opened!");
+        }
+        InputStream index = openInputFile(prefix + "-index");
+        if (index != null) {
+            readIndex(index);
+        } else {
+            // No index yet: fall back to probing, once.
+            while (true) {
+                InputStream existing = openInputFile(prefix + "-" + nextIndex);
+                if (existing == null) {
+                    break;
+                }
+                existing.close();
+                files.addLast(new LogFile(nextIndex++, -1));
+            }
+        }
+        startFile();
+    }
+
+    private void readIndex(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space == -1) {
+                    continue;
+                }
+                try {
+                    int value = Integer.parseInt(line.substring(space + 1));
+                    if (line.startsWith("next ")) {
+                        nextIndex = Math.max(nextIndex, value);
+                    } else {
+                        int fileIndex = Integer.parseInt(line.substring(0, space));
+                        files.addLast(new LogFile(fileIndex, value));
+                        nextIndex = Math.max(nextIndex, fileIndex + 1);
+                    }
+                } catch (NumberFormatException ex) {
+                    // Skip damaged lines.
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        PrintStream out = new PrintStream(openOutputFile(prefix + "-index"));
+        try {
+            out.println("next " + nextIndex);
+            for (LogFile f : files) {
+                out.println(f.index + " " + f.size);
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Could not write log index!");
+        }
+    }
+
+    private void startFile() throws IOException {
+        current = new LogFile(nextIndex++, -1);
+        files.addLast(current);
+        trimFiles();
+        writeIndex();
+        file = openOutputFile(prefix + "-" + current.index);
+        fileStart = System.currentTimeMillis();
+        fileWritten = HEADER_SIZE;
+        DataOutputStream header = new DataOutputStream(file);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeLong(fileStart);
+        header.flush();
+    }
+
+    /**
+     * Delete the oldest files until the total size is under the limit. Files
+     * of unknown size count as full.
+     */
+    private void trimFiles() {
+        long total = 0;
+        for (LogFile f : files) {
+            total += f.size < 0 ? maxFileSize : f.size;
+        }
+        while (total > maxTotalSize && files.size() > 1) {
+            LogFile oldest = files.removeFirst();
+            total -= oldest.size < 0 ? maxFileSize : oldest.size;
+            // A file that can't be deleted is forgotten anyway, so that it
+            // doesn't block every later rotation.
+            deleteFile(prefix + "-" + oldest.index);
+        }
+    }
+
+    private void finishFile() throws IOException {
+        drain();
+        file.close();
+        file = null;
+        current.size = fileWritten;
+    }
+
+    private void drain() throws IOException {
+        if (buffer.size() != 0) {
+            buffer.writeAll(file);
+            file.flush();
+            fileWritten += buffer.size();
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Write out all of the collected records now.
+     */
+    public synchronized void flush() {
+        if (file != null) {
+            try {
+                drain();
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        }
+    }
+
+    /**
+     * Write out all of the collected records, finish the current file, and
+     * stop logging. This doesn't remove the logger from the logging targets.
+     */
+    public synchronized void close() {
+        if (file != null) {
+            try {
+                finishFile();
+                writeIndex();
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        }
+        closed = true;
+        flusher.cancel();
+    }
+
+    /**
+     * @return the index of the file currently being written, or -1 if none is.
+     */
+    public synchronized int getCurrentIndex() {
+        return file == null ? -1 : current.index;
+    }
+
+    public void log(LogLevel level, String message, Throwable throwable) {
+        if (throwable == null) {
+            write(level, message, DETAIL_NONE, null);
+        } else {
+            write(level, message, DETAIL_THROWABLE, ThrowablePrinter.toStringThrowable(throwable));
+        }
+    }
+
+    public void log(LogLevel level, String message, String extended) {
+        if (extended == null || extended.trim().length() == 0) {
+            write(level, message, DETAIL_NONE, null);
+        } else {
+            write(level, message, DETAIL_EXTENDED, extended);
+        }
+    }
+
+    private synchronized void write(LogLevel level, String message, byte kind, String detail) {
+        if (file == null) {
+            return;
+        }
+        try {
+            if (fileWritten + buffer.size() >= maxFileSize) {
+                finishFile();
+                startFile();
+            }
+            boolean wasEmpty = buffer.size() == 0;
+            records.writeByte(LogLevel.toByte(level));
+            records.writeByte(kind);
+            records.writeInt((int) (System.currentTimeMillis() - fileStart));
+            records.writeUTF(truncate(message));
+            if (detail != null) {
+                records.writeUTF(truncate(detail));
+            }
+            if (buffer.size() >= bufferSize || level == LogLevel.SEVERE) {
+                drain();
+            } else if (wasEmpty) {
+                flusher.scheduleAfter(flushInterval);
+            }
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    private static String truncate(String str) {
+        return str.length() > MAXIMUM_STRING_LENGTH ? str.substring(0, MAXIMUM_STRING_LENGTH) : str;
+    }
+
+    private void fail(IOException ex) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Already failing.
+            }
+            file = null;
+        }
+        buffer.reset();
+        flusher.cancel();
+        // Any records logged by this warning are ignored, since file is null.
+        Logger.warning("[LOCAL] Binary file logging to " + prefix + " failed and has stopped.", ex);
+    }
+
+    /**
+     * Open an output to the specified file, replacing it if it exists.
+     *
+     * @param name The file name.
+     * @return the output.
+     * @throws IOException If the file cannot be opened.
+     */
+    protected OutputStream openOutputFile(String name) throws IOException {
+        return StorageProvider.openOutput(name);
+    }
+
+    /**
+     * Open an input from the specified file, or return null if the file does
+     * not exist.
+     *
+     * @param name The file name.
+     * @return the input, or null.
+     * @throws IOException If the file exists but cannot be opened.
+     */
+    protected InputStream openInputFile(String name) throws IOException {
+        return StorageProvider.openInput(name);
+    }
+
+    /**
+     * Delete the specified file.
+     *
+     * @param name The file name.
+     * @return whether or not the file was deleted.
+     */
+    protected boolean deleteFile(String name) {
+        return StorageProvider.delete(name);
+    }
+}
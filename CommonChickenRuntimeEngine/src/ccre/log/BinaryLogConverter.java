@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Date;
+
+/**
+ * Converts the binary log files written by BinaryFileLogger into the same text
+ * format that FileLogger writes.
+ *
+ * This is not suitable for running on Squawk.
+ *
+ * @author skeggsc
+ */
+public class BinaryLogConverter {
+
+    /**
+     * Convert each of the binary log files named in the arguments to text, and
+     * print them to standard output.
+     *
+     * @param args the files to convert.
+     * @throws IOException If a file cannot be read or is not a binary log.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: BinaryLogConverter <log file>...");
+            System.exit(1);
+        }
+        for (String name : args) {
+            InputStream in = new BufferedInputStream(new FileInputStream(name));
+            try {
+                convert(in, System.out);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Convert a binary log file to text. A file that ends partway through a
+     * record, such as one from a robot that lost power, is converted up to the
+     * last complete record.
+     *
+     * @param input The binary log file.
+     * @param out The output for the text.
+     * @throws IOException If the input cannot be read or is not a binary log.
+     */
+    public static void convert(InputStream input, PrintStream out) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != BinaryFileLogger.MAGIC) {
+            throw new IOException("Not a binary log file!");
+        }
+        byte version = in.readByte();
+        if (version != BinaryFileLogger.VERSION) {
+            throw new IOException("Unsupported binary log version: " + version);
+        }
+        long start = in.readLong();
+        out.println("Logging began at " + new Date(start) + " [" + start + "]");
+        while (true) {
+            int level = in.read();
+            if (level == -1) {
+                break;
+            }
+            try {
+                byte kind = in.readByte();
+                int time = in.readInt();
+                String message = in.readUTF();
+                String detail = kind == BinaryFileLogger.DETAIL_NONE ? null : in.readUTF();
+                out.println("[" + time + " " + LogLevel.fromByte((byte) level) + "] " + message);
+                if (detail == null) {
+                    continue;
+                } else if (detail.endsWith("\n")) {
+                    out.print(detail);
+                } else {
+                    out.println(detail);
+                }
+            } catch (EOFException ex) {
+                out.println("(Log ends partway through a record.)");
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.log;
+
+/**
+ * A call site that logs a message template, which caches its caller
+ * information so that the stack is only walked the first time that it logs.
+ * Declare each one as a static final field, and log through it from one
+ * place:
+ *
+ * <pre>
+ * private static final LogSite SENT = new LogSite(LogLevel.FINE, "Sent {} to {}");
+ * ...
+ * SENT.log(message, target);
+ * </pre>
+ *
+ * A LogSite that is logged from more than one place reports the location of
+ * whichever logged first.
+ *
+ * @author skeggsc
+ * @see Logger#logf(LogLevel, String, Object...)
+ */
+public final class LogSite {
+
+    final LogLevel level;
+    final String template;
+    /**
+     * The caller information prefix, once it has been found.
+     */
+    volatile String prefix;
+
+    /**
+     * Create a new LogSite for the specified level and template.
+     *
+     * @param level the level to log at.
+     * @param template the message template.
+     */
+    public LogSite(LogLevel level, String template) {
+        if (level == null || template == null) {
+            throw new NullPointerException();
+        }
+        this.level = level;
+        this.template = template;
+    }
+
+    /**
+     * Log the template of this site, with each {} replaced by the next
+     * argument, in the same way as Logger.logf.
+     *
+     * @param args the values for the template.
+     */
+    public void log(Object... args) {
+        Logger.logTemplate(this, level, template, args);
+    }
+}
@@ -19,6 +19,7 @@
 package ccre.log;
 
 import ccre.concurrency.ConcurrentDispatchArray;
+import ccre.concurrency.ConcurrentDispatchMap;
 import ccre.workarounds.CallerInfo;
 import ccre.workarounds.ThrowablePrinter;
 
@@ -31,10 +32,22 @@ import ccre.workarounds.ThrowablePrinter;
 public class Logger {
 
     /**
-     * The logging targets to write logs to.
+     * The logging targets to write logs to. Use addTarget and removeTarget
+     * instead of modifying this directly, so that the minimum levels of the
+     * targets stay up to date.
      */
     public static final ConcurrentDispatchArray<LoggingTarget> targets = new ConcurrentDispatchArray<LoggingTarget>();
+    /**
+     * The minimum levels of targets that don't accept every level.
+     */
+    private static final ConcurrentDispatchMap<LoggingTarget, LogLevel> minimums = new ConcurrentDispatchMap<LoggingTarget, LogLevel>();
+    /**
+     * The id of the least important level that any target accepts. Anything
+     * less important is thrown away before any other work is done.
+     */
+    private static volatile int threshold = LogLevel.FINEST.id;
     private static boolean includeLineNumbers = true;
+    private static volatile AsyncLogger async;
 
     /**
      * Set whether or not filenames and line numbers should be prefixed to
@@ -57,7 +70,7 @@ public class Logger {
     }
 
     static {
-        targets.add(new StandardStreamLogger());
+        addTarget(new StandardStreamLogger());
     }
 
     /**
@@ -67,6 +80,20 @@ public class Logger {
      */
     public static synchronized void addTarget(LoggingTarget lt) {
         targets.add(lt);
+        updateThreshold();
+    }
+
+    /**
+     * Add the specified target to the list of targets, and only pass it
+     * messages that are at least as important as the specified level.
+     *
+     * @param lt The target to add.
+     * @param minimum The least important level to pass to the target.
+     */
+    public static synchronized void addTarget(LoggingTarget lt, LogLevel minimum) {
+        setMinimumLevel(lt, minimum);
+        targets.add(lt);
+        updateThreshold();
     }
 
     /**
@@ -76,6 +103,151 @@ public class Logger {
      */
     public static synchronized void removeTarget(LoggingTarget lt) {
         targets.remove(lt);
+        if (!targets.contains(lt)) {
+            minimums.remove(lt);
+        }
+        updateThreshold();
+    }
+
+    /**
+     * Only pass the specified target messages that are at least as important
+     * as the specified level, or pass it everything if the level is null or
+     * FINEST.
+     *
+     * @param lt The target.
+     * @param minimum The least important level to pass to the target.
+     */
+    public static synchronized void setMinimumLevel(LoggingTarget lt, LogLevel minimum) {
+        if (lt == null) {
+            throw new NullPointerException();
+        }
+        if (minimum == null || minimum == LogLevel.FINEST) {
+            minimums.remove(lt);
+        } else {
+            minimums.put(lt, minimum);
+        }
+        updateThreshold();
+    }
+
+    /**
+     * Get the least important level that is passed to the specified target.
+     *
+     * @param lt The target.
+     * @return the minimum level, which is FINEST if none was set.
+     */
+    public static LogLevel getMinimumLevel(LoggingTarget lt) {
+        LogLevel minimum = minimums.get(lt);
+        return minimum == null ? LogLevel.FINEST : minimum;
+    }
+
+    private static void updateThreshold() {
+        int least = LogLevel.SEVERE.id + 1;
+        for (LoggingTarget lt : targets) {
+            LogLevel minimum = minimums.get(lt);
+            int id = minimum == null ? LogLevel.FINEST.id : minimum.id;
+            if (id < least) {
+                least = id;
+            }
+        }
+        threshold = least;
+    }
+
+    /**
+     * Check if any target would receive a message at the specified level.
+     * Callers can use this to skip expensive work that would only be logged.
+     *
+     * @param level The level to check.
+     * @return if a message at that level would be logged.
+     */
+    public static boolean isLoggable(LogLevel level) {
+        return level.id >= threshold;
+    }
+
+    private static boolean accepts(LoggingTarget lt, LogLevel level) {
+        if (minimums.isEmpty()) {
+            return true;
+        }
+        LogLevel minimum = minimums.get(lt);
+        return minimum == null || level.atLeastAsImportant(minimum);
+    }
+
+    /**
+     * Start passing logged messages to the targets from a background thread,
+     * through a ring buffer of the specified capacity, so that logging never
+     * waits for a slow target. Caller information is still found on the
+     * logging thread.
+     *
+     * @param capacity The number of messages that can wait at once. Must be a
+     * power of two.
+     * @param overflowPolicy What to drop when the buffer is full: one of
+     * AsyncLogger.DROP_NEWEST, DROP_OLDEST or DROP_LEAST_SEVERE.
+     * @return the AsyncLogger, for its statistics.
+     * @throws IllegalArgumentException If the capacity or policy is invalid.
+     * @throws IllegalStateException If logging is already asynchronous.
+     */
+    public static synchronized AsyncLogger startAsynchronous(int capacity, int overflowPolicy) throws IllegalArgumentException, IllegalStateException {
+        if (async != null) {
+            throw new IllegalStateException("Logging is already asynchronous!");
+        }
+        async = new AsyncLogger(capacity, overflowPolicy);
+        return async;
+    }
+
+    /**
+     * Go back to passing logged messages to the targets on the logging
+     * thread, after passing on any messages that are still waiting.
+     *
+     * @param timeout How long to wait for the waiting messages, in
+     * milliseconds.
+     * @return true if all of the waiting messages were passed on.
+     * @throws InterruptedException If the current thread is interrupted.
+     */
+    public static synchronized boolean stopAsynchronous(long timeout) throws InterruptedException {
+        AsyncLogger old = async;
+        if (old == null) {
+            return true;
+        }
+        async = null;
+        boolean flushed = old.flush(timeout);
+        old.terminate();
+        return flushed;
+    }
+
+    /**
+     * @return the active AsyncLogger, or null if logging is synchronous.
+     */
+    public static AsyncLogger getAsynchronous() {
+        return async;
+    }
+
+    /**
+     * Pass a message to each target.
+     *
+     * @param detail a Throwable, an extended message String, or null, which
+     * is passed on as a null Throwable.
+     */
+    static void dispatch(LogLevel level, String message, Object detail) {
+        if (detail instanceof String) {
+            dispatchExt(level, message, (String) detail);
+        } else {
+            dispatch(level, message, (Throwable) detail);
+        }
+    }
+
+    private static void dispatch(LogLevel level, String message, Throwable thr) {
+        for (LoggingTarget lt : targets) {
+            if (accepts(lt, level)) {
+                lt.log(level, message, thr);
+            }
+        }
+    }
+
+    private static void dispatchExt(LogLevel level, String message, String extended) {
+        for (LoggingTarget lt : targets) {
+            if (accepts(lt, level)) {
+                lt.log(level, message, extended);
+            }
+        }
     }
 
     /**
@@ -93,9 +265,15 @@ public class Logger {
         if (level == null || message == null) {
             throw new NullPointerException();
         }
+        if (level.id < threshold) {
+            return;
+        }
         message = prependCallerInfo(3, message);
-        for (LoggingTarget lt : targets) {
-            lt.log(level, message, thr);
+        AsyncLogger a = async;
+        if (a != null && !a.isConsumerThread()) {
+            a.add(level, message, thr);
+        } else {
+            dispatch(level, message, thr);
         }
     }
 
@@ -110,9 +288,15 @@ public class Logger {
         if (level == null || message == null) {
             throw new NullPointerException();
         }
+        if (level.id < threshold) {
+            return;
+        }
         message = prependCallerInfo(1, message);
-        for (LoggingTarget lt : targets) {
-            lt.log(level, message, extended);
+        AsyncLogger a = async;
+        if (a != null && !a.isConsumerThread()) {
+            a.add(level, message, extended);
+        } else {
+            dispatchExt(level, message, extended);
         }
     }
 
@@ -130,6 +314,94 @@ public class Logger {
         return message;
     }
 
+    /**
+     * Log a message built from a template at the given log level. Each {} in
+     * the template is replaced by the next argument. If there is an argument
+     * left over and it is a Throwable, it is logged as the Throwable of the
+     * message.
+     *
+     * Nothing is formatted unless a target would receive the message. The
+     * caller information is found by walking the stack each time that a
+     * message is logged; log through a LogSite instead to only do that once
+     * for each call site.
+     *
+     * @param level the level to log at.
+     * @param template the message template.
+     * @param args the values for the template.
+     */
+    public static void logf(LogLevel level, String template, Object... args) {
+        logTemplate(null, level, template, args);
+    }
+
+    static void logTemplate(LogSite site, LogLevel level, String template, Object[] args) {
+        if (level == null || template == null) {
+            throw new NullPointerException();
+        }
+        if (level.id < threshold) {
+            return;
+        }
+        Throwable thr = null;
+        int used = countPlaceholders(template, args.length);
+        if (used < args.length && args[args.length - 1] instanceof Throwable) {
+            thr = (Throwable) args[args.length - 1];
+        }
+        String message = getSitePrefix(site, template) + format(template, args, used);
+        AsyncLogger a = async;
+        if (a != null && !a.isConsumerThread()) {
+            a.add(level, message, thr);
+        } else {
+            dispatch(level, message, thr);
+        }
+    }
+
+    private static int countPlaceholders(String template, int limit) {
+        int count = 0;
+        for (int i = template.indexOf("{}"); i != -1 && count < limit; i = template.indexOf("{}", i + 2)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String format(String template, Object[] args, int used) {
+        if (used == 0) {
+            return template;
+        }
+        StringBuffer out = new StringBuffer(template.length() + 16 * used);
+        int last = 0;
+        for (int i = 0; i < used; i++) {
+            int next = template.indexOf("{}", last);
+            out.append(template.substring(last, next)).append(args[i]);
+            last = next + 2;
+        }
+        return out.append(template.substring(last)).toString();
+    }
+
+    /**
+     * Get the caller information prefix for a template, from the cache of the
+     * LogSite if there is one.
+     */
+    private static String getSitePrefix(LogSite site, String template) {
+        if (!includeLineNumbers || template.startsWith("(") || template.startsWith("[")) {
+            return "";
+        }
+        String prefix = site == null ? null : site.prefix;
+        if (prefix == null) {
+            // The caller of logTemplate's caller.
+            CallerInfo caller = ThrowablePrinter.getMethodCaller(3);
+            if (caller == null || caller.getFileName() == null) {
+                prefix = "";
+            } else if (caller.getLineNum() > 0) {
+                prefix = "(" + caller.getFileName() + ":" + caller.getLineNum() + ") ";
+            } else {
+                prefix = "(" + caller.getFileName() + ") ";
+            }
+            if (site != null) {
+                site.prefix = prefix;
+            }
+        }
+        return prefix;
+    }
+
     /**
      * Log a given message at the given log level.
      *
@@ -273,6 +545,83 @@ public class Logger {
         logInternal(LogLevel.FINEST, message, thr);
     }
 
+    /**
+     * Log a message built from a template at SEVERE level.
+     *
+     * @param template the message template.
+     * @param args the values for the template.
+     * @see #logf(LogLevel, String, Object...)
+     */
+    public static void severef(String template, Object... args) {
+        logTemplate(null, LogLevel.SEVERE, template, args);
+    }
+
+    /**
+     * Log a message built from a template at WARNING level.
+     *
+     * @param template the message template.
+     * @param args the values for the template.
+     * @see #logf(LogLevel, String, Object...)
+     */
+    public static void warningf(String template, Object... args) {
+        logTemplate(null, LogLevel.WARNING, template, args);
+    }
+
+    /**
+     * Log a message built from a template at INFO level.
+     *
+     * @param template the message template.
+     * @param args the values for the template.
+     * @see #logf(LogLevel, String, Object...)
+     */
+    public static void infof(String template, Object... args) {
+        logTemplate(null, LogLevel.INFO, template, args);
+    }
+
+    /**
+     * Log a message built from a template at CONFIG level.
+     *
+     * @param template the message template.
+     * @param args the values for the template.
+     * @see #logf(LogLevel, String, Object...)
+     */
+    public static void configf(String template, Object... args) {
+        logTemplate(null, LogLevel.CONFIG, template, args);
+    }
+
+    /**
+     * Log a message built from a template at FINE level.
+     *
+     * @param template the message template.
+     * @param args the values for the template.
+     * @see #logf(LogLevel, String, Object...)
+     */
+    public static void finef(String template, Object... args) {
+        logTemplate(null, LogLevel.FINE, template, args);
+    }
+
+    /**
+     * Log a message built from a template at FINER level.
+     *
+     * @param template the message template.
+     * @param args the values for the template.
+     * @see #logf(LogLevel, String, Object...)
+     */
+    public static void finerf(String template, Object... args) {
+        logTemplate(null, LogLevel.FINER, template, args);
+    }
+
+    /**
+     * Log a message built from a template at FINEST level.
+     *
+     * @param template the message template.
+     * @param args the values for the template.
+     * @see #logf(LogLevel, String, Object...)
+     */
+    public static void finestf(String template, Object... args) {
+        logTemplate(null, LogLevel.FINEST, template, args);
+    }
+
     private Logger() {
     }
 }
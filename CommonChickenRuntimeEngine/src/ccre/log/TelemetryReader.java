@@ -0,0 +1,297 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ccre.util.CArrayList;
+import ccre.util.CHashMap;
+
+/**
+ * Reads a recording made by a TelemetryRecorder. The recording can still be
+ * in progress: segments that haven't been finished are read as far as they
+ * have been written at the time of each query.
+ *
+ * This uses java.nio, so it is not suitable for running on Squawk.
+ *
+ * @author skeggsc
+ * @see TelemetryRecorder
+ */
+public final class TelemetryReader {
+
+    /**
+     * The samples of one channel over a range of time.
+     */
+    public static final class Trace {
+        /**
+         * The number of samples.
+         */
+        public final int size;
+        /**
+         * The timestamp of each sample, in microseconds. Only the first size
+         * elements are used.
+         */
+        public final long[] times;
+        /**
+         * The value of each sample. Only the first size elements are used.
+         */
+        public final float[] values;
+
+        Trace(int size, long[] times, float[] values) {
+            this.size = size;
+            this.times = times;
+            this.values = values;
+        }
+    }
+
+    /**
+     * A segment of the recording. Finished segments have their time range from
+     * the index, and are only mapped when a query needs them. Unfinished
+     * segments are always mapped, and their time range is read from their
+     * header.
+     */
+    private static final class Segment {
+        final int index;
+        final boolean finished;
+        final long first, last;
+        MappedByteBuffer buffer;
+
+        Segment(int index, boolean finished, long first, long last) {
+            this.index = index;
+            this.finished = finished;
+            this.first = first;
+            this.last = last;
+        }
+
+        long getFirst() {
+            return finished ? first : buffer.getLong(TelemetryRecorder.FIRST_TIME_OFFSET);
+        }
+
+        long getLast() {
+            return finished ? last : buffer.getLong(TelemetryRecorder.LAST_TIME_OFFSET);
+        }
+    }
+
+    private final File directory;
+    private final CArrayList<String> names = new CArrayList<String>();
+    private final CArrayList<Character> types = new CArrayList<Character>();
+    private final CHashMap<String, Integer> ids = new CHashMap<String, Integer>();
+    private final CArrayList<Segment> segments = new CArrayList<Segment>();
+
+    /**
+     * Open the recording in the specified directory.
+     *
+     * @param directory The directory of the recording.
+     * @throws IOException If the recording cannot be read.
+     */
+    public TelemetryReader(File directory) throws IOException {
+        this.directory = directory;
+        try {
+            for (String line : readLines("channels")) {
+                int space = line.indexOf(' ');
+                short id = Short.parseShort(line.substring(0, space));
+                if (id != names.size()) {
+                    throw new IOException("Damaged telemetry channel list in " + directory);
+                }
+                String name = line.substring(space + 3);
+                names.add(name);
+                types.add(line.charAt(space + 1));
+                ids.put(name, (int) id);
+            }
+            int next = 0;
+            for (String line : readLines("index")) {
+                String[] parts = line.split(" ");
+                Segment segment = new Segment(Integer.parseInt(parts[0]), true, Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                if (Integer.parseInt(parts[3]) != 0) {
+                    segments.add(segment);
+                }
+                next = segment.index + 1;
+            }
+            while (new File(directory, TelemetryRecorder.segmentName(next)).exists()) {
+                Segment segment = new Segment(next++, false, 0, 0);
+                segment.buffer = map(segment.index);
+                if (segment.buffer.getInt(0) == TelemetryRecorder.MAGIC) {
+                    segments.add(segment);
+                }
+            }
+        } catch (RuntimeException ex) {
+            throw new IOException("Damaged telemetry recording in " + directory);
+        }
+    }
+
+    private CArrayList<String> readLines(String name) throws IOException {
+        CArrayList<String> lines = new CArrayList<String>();
+        File file = new File(directory, name);
+        if (file.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        lines.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return lines;
+    }
+
+    private MappedByteBuffer map(int index) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(directory, TelemetryRecorder.segmentName(index)), "r");
+        try {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.getInt(0) == TelemetryRecorder.MAGIC && buffer.getInt(4) != TelemetryRecorder.VERSION) {
+                throw new IOException("Unsupported telemetry version: " + buffer.getInt(4));
+            }
+            return buffer;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return the names of all of the recorded channels.
+     */
+    public String[] getChannelNames() {
+        String[] out = new String[names.size()];
+        names.fillArray(out);
+        return out;
+    }
+
+    /**
+     * Get the type of the named channel: 'F' for a FloatInput, 'B' for a
+     * BooleanInput, or 'E' for an EventInput.
+     *
+     * @param channel The channel name.
+     * @return the type of the channel.
+     * @throws IllegalArgumentException If the channel was never recorded.
+     */
+    public char getChannelType(String channel) throws IllegalArgumentException {
+        return types.get(getId(channel));
+    }
+
+    private int getId(String channel) throws IllegalArgumentException {
+        Integer id = ids.get(channel);
+        if (id == null) {
+            throw new IllegalArgumentException("No such telemetry channel: " + channel);
+        }
+        return id;
+    }
+
+    /**
+     * @return the timestamp of the first sample, or Long.MAX_VALUE if there are
+     * no samples.
+     */
+    public long getStartTime() {
+        for (Segment segment : segments) {
+            if (segment.finished || segment.buffer.getInt(TelemetryRecorder.COUNT_OFFSET) != 0) {
+                return segment.getFirst();
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the timestamp of the last sample, or Long.MIN_VALUE if there are
+     * no samples.
+     */
+    public long getEndTime() {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            if (segment.finished || segment.buffer.getInt(TelemetryRecorder.COUNT_OFFSET) != 0) {
+                return segment.getLast();
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Get the samples of the named channel with timestamps from from to to,
+     * inclusive. Segments outside of the range are skipped without being read.
+     *
+     * @param channel The channel name.
+     * @param from The first timestamp, in microseconds.
+     * @param to The last timestamp, in microseconds.
+     * @return the samples.
+     * @throws IOException If a segment cannot be read.
+     * @throws IllegalArgumentException If the channel was never recorded.
+     */
+    public synchronized Trace query(String channel, long from, long to) throws IOException, IllegalArgumentException {
+        int id = getId(channel);
+        long[] times = new long[16];
+        float[] values = new float[16];
+        int size = 0;
+        for (Segment segment : segments) {
+            if (segment.buffer == null) {
+                if (segment.last < from || segment.first > to) {
+                    continue;
+                }
+                segment.buffer = map(segment.index);
+            }
+            MappedByteBuffer buffer = segment.buffer;
+            int capacity = buffer.getInt(TelemetryRecorder.CAPACITY_OFFSET);
+            int count = buffer.getInt(TelemetryRecorder.COUNT_OFFSET);
+            int channels = TelemetryRecorder.channelsOffset(capacity), valuesAt = TelemetryRecorder.valuesOffset(capacity);
+            for (int i = firstAtOrAfter(buffer, count, from); i < count; i++) {
+                long time = buffer.getLong(TelemetryRecorder.HEADER_SIZE + 8 * i);
+                if (time > to) {
+                    break;
+                }
+                if (buffer.getShort(channels + 2 * i) == id) {
+                    if (size == times.length) {
+                        long[] newTimes = new long[size * 2];
+                        float[] newValues = new float[size * 2];
+                        System.arraycopy(times, 0, newTimes, 0, size);
+                        System.arraycopy(values, 0, newValues, 0, size);
+                        times = newTimes;
+                        values = newValues;
+                    }
+                    times[size] = time;
+                    values[size++] = buffer.getFloat(valuesAt + 4 * i);
+                }
+            }
+        }
+        return new Trace(size, times, values);
+    }
+
+    /**
+     * Binary search the timestamps of a segment, which never decrease.
+     */
+    private static int firstAtOrAfter(MappedByteBuffer buffer, int count, long time) {
+        int low = 0, high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(TelemetryRecorder.HEADER_SIZE + 8 * mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
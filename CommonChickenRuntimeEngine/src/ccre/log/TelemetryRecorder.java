@@ -0,0 +1,480 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ccre.channel.BooleanInput;
+import ccre.channel.BooleanOutput;
+import ccre.channel.EventInput;
+import ccre.channel.EventOutput;
+import ccre.channel.FloatInput;
+import ccre.channel.FloatOutput;
+import ccre.time.Clock;
+import ccre.util.CArrayList;
+import ccre.util.CHashMap;
+
+/**
+ * Records every change of a set of channels, with timestamps, into
+ * preallocated memory-mapped segment files in a directory. TelemetryReader
+ * reads the recordings back.
+ *
+ * Each segment holds a fixed number of samples, stored in columns: all of the
+ * timestamps, then all of the channel ids, then all of the values. The header
+ * of a segment is updated after every sample, so a segment can be read while
+ * it is being written, or after the recorder died without closing it. A sample
+ * is written straight into the mapped file, so recording doesn't allocate
+ * anything.
+ *
+ * The directory also holds the files "channels", which lists the id, type and
+ * name of each channel, and "index", which lists the time range and sample
+ * count of each finished segment so that readers can skip segments outside of
+ * the time range that they want.
+ *
+ * FloatInputs are recorded as their values, BooleanInputs as 0 or 1, and
+ * EventInputs as 1 each time they fire. Timestamps are in microseconds of the
+ * current Clock. When a recording is continued by a process whose Clock is
+ * behind the last recorded timestamp, such as after a restart, the new
+ * timestamps are shifted to continue from the old ones, so that timestamps
+ * never decrease across the whole recording.
+ *
+ * This uses java.nio, so it is not suitable for running on Squawk.
+ *
+ * @author skeggsc
+ * @see TelemetryReader
+ */
+public final class TelemetryRecorder {
+
+    /**
+     * The default number of samples in each segment, which makes each segment
+     * file fourteen megabytes.
+     */
+    public static final int DEFAULT_SEGMENT_SAMPLES = 1024 * 1024;
+
+    static final int MAGIC = 0x43435254; // "CCRT"
+    static final int VERSION = 1;
+    static final int CAPACITY_OFFSET = 8;
+    static final int COUNT_OFFSET = 12;
+    static final int FIRST_TIME_OFFSET = 16;
+    static final int LAST_TIME_OFFSET = 24;
+    static final int HEADER_SIZE = 32;
+    static final char TYPE_FLOAT = 'F', TYPE_BOOLEAN = 'B', TYPE_EVENT = 'E';
+
+    static String segmentName(int index) {
+        return "segment-" + index;
+    }
+
+    static long segmentSize(int capacity) {
+        return HEADER_SIZE + 14L * capacity;
+    }
+
+    static int channelsOffset(int capacity) {
+        return HEADER_SIZE + 8 * capacity;
+    }
+
+    static int valuesOffset(int capacity) {
+        return HEADER_SIZE + 10 * capacity;
+    }
+
+    /**
+     * A recorded channel. The same object listens to whichever kind of input
+     * it records.
+     */
+    private final class Channel implements FloatOutput, BooleanOutput, EventOutput {
+        final short id;
+        final char type;
+        final String name;
+        Object source;
+
+        Channel(short id, char type, String name) {
+            this.id = id;
+            this.type = type;
+            this.name = name;
+        }
+
+        public void set(float value) {
+            append(id, value);
+        }
+
+        public void set(boolean value) {
+            append(id, value ? 1 : 0);
+        }
+
+        public void event() {
+            append(id, 1);
+        }
+    }
+
+    private final File directory;
+    private final int capacity;
+    private final CArrayList<Channel> channels = new CArrayList<Channel>();
+    private final CHashMap<String, Channel> channelsByName = new CHashMap<String, Channel>();
+    /**
+     * The lines of the index, one for each finished segment.
+     */
+    private final CArrayList<String> index = new CArrayList<String>();
+    private int segmentIndex = -1;
+    private MappedByteBuffer segment;
+    private int count;
+    private boolean closed;
+    /**
+     * The number of microseconds added to the Clock, so that samples continue
+     * after an existing recording.
+     */
+    private long timeOffset;
+    private long lastTime = Long.MIN_VALUE;
+
+    /**
+     * Create a new TelemetryRecorder that writes segments into the specified
+     * directory, creating it if needed. If the directory already has a
+     * recording, the new samples are added after it, and channels with the
+     * same names keep their ids.
+     *
+     * @param directory The directory for the recording.
+     * @param segmentSamples The number of samples in each segment.
+     * @throws IOException If the directory or the first segment cannot be
+     * created.
+     * @throws IllegalArgumentException If segmentSamples is not positive or
+     * is too large for a single mapped file.
+     */
+    public TelemetryRecorder(File directory, int segmentSamples) throws IOException, IllegalArgumentException {
+        if (segmentSamples <= 0 || segmentSize(segmentSamples) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bad number of samples per segment: " + segmentSamples);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create telemetry directory: " + directory);
+        }
+        this.directory = directory;
+        this.capacity = segmentSamples;
+        loadChannels();
+        loadIndex();
+        long now = Clock.nanos() / 1000;
+        if (lastTime > now) {
+            timeOffset = lastTime - now;
+        }
+        startSegment();
+    }
+
+    private void loadChannels() throws IOException {
+        File file = new File(directory, "channels");
+        if (!file.exists()) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space == -1 || line.length() < space + 4) {
+                    continue;
+                }
+                Channel channel = new Channel(Short.parseShort(line.substring(0, space)), line.charAt(space + 1), line.substring(space + 3));
+                if (channel.id != channels.size()) {
+                    throw new IOException("Damaged telemetry channel list: " + file);
+                }
+                channels.add(channel);
+                channelsByName.put(channel.name, channel);
+            }
+        } catch (NumberFormatException ex) {
+            throw new IOException("Damaged telemetry channel list: " + file);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Load the index, and add any segments after it, which were never
+     * finished, to it.
+     */
+    private void loadIndex() throws IOException {
+        File file = new File(directory, "index");
+        if (file.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        index.add(line);
+                        String[] parts = line.split(" ");
+                        segmentIndex = Integer.parseInt(parts[0]);
+                        lastTime = Math.max(lastTime, Long.parseLong(parts[2]));
+                    }
+                }
+            } catch (RuntimeException ex) {
+                throw new IOException("Damaged telemetry index: " + file);
+            } finally {
+                reader.close();
+            }
+        }
+        boolean recovered = false;
+        while (new File(directory, segmentName(segmentIndex + 1)).exists()) {
+            segmentIndex++;
+            MappedByteBuffer unfinished = map(segmentIndex, false);
+            if (unfinished.getInt(0) == MAGIC) {
+                index.add(indexLine(segmentIndex, unfinished));
+                if (unfinished.getInt(COUNT_OFFSET) != 0) {
+                    lastTime = Math.max(lastTime, unfinished.getLong(LAST_TIME_OFFSET));
+                }
+                recovered = true;
+            }
+        }
+        if (recovered) {
+            saveIndex();
+        }
+    }
+
+    private static String indexLine(int segmentIndex, MappedByteBuffer segment) {
+        return segmentIndex + " " + segment.getLong(FIRST_TIME_OFFSET) + " " + segment.getLong(LAST_TIME_OFFSET) + " " + segment.getInt(COUNT_OFFSET);
+    }
+
+    private MappedByteBuffer map(int segmentIndex, boolean create) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(directory, segmentName(segmentIndex)), create ? "rw" : "r");
+        try {
+            if (create) {
+                file.setLength(segmentSize(capacity));
+                return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize(capacity));
+            } else {
+                return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            }
+        } finally {
+            // The mapping stays valid after the file is closed.
+            file.close();
+        }
+    }
+
+    private void startSegment() throws IOException {
+        segment = map(++segmentIndex, true);
+        count = 0;
+        segment.putInt(CAPACITY_OFFSET, capacity);
+        segment.putInt(COUNT_OFFSET, 0);
+        segment.putLong(FIRST_TIME_OFFSET, 0);
+        segment.putLong(LAST_TIME_OFFSET, 0);
+        segment.putInt(4, VERSION);
+        segment.putInt(0, MAGIC);
+    }
+
+    private void finishSegment() throws IOException {
+        segment.force();
+        if (count != 0) {
+            index.add(indexLine(segmentIndex, segment));
+            saveIndex();
+            segment = null;
+        } else {
+            // Don't leave a preallocated but empty segment behind.
+            segment = null;
+            if (!new File(directory, segmentName(segmentIndex--)).delete()) {
+                throw new IOException("Could not delete empty telemetry segment!");
+            }
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        save("index", index);
+    }
+
+    private void saveChannels() throws IOException {
+        CArrayList<String> lines = new CArrayList<String>();
+        for (Channel channel : channels) {
+            lines.add(channel.id + " " + channel.type + " " + channel.name);
+        }
+        save("channels", lines);
+    }
+
+    /**
+     * Replace a small text file, by writing a new file and then renaming it
+     * over the old one, so that a reader never sees a partial file.
+     */
+    private void save(String name, CArrayList<String> lines) throws IOException {
+        File temp = new File(directory, name + ".new");
+        PrintStream out = new PrintStream(new FileOutputStream(temp), false, "UTF-8");
+        try {
+            for (String line : lines) {
+                out.println(line);
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Could not write telemetry file: " + name);
+        }
+        File target = new File(directory, name);
+        if (!temp.renameTo(target) && !(target.delete() && temp.renameTo(target))) {
+            throw new IOException("Could not replace telemetry file: " + name);
+        }
+    }
+
+    /**
+     * Record every value of the specified FloatInput, starting with its
+     * current value, as the named channel.
+     *
+     * @param name The name of the channel.
+     * @param input The input to record.
+     * @throws IllegalStateException If the channel is already being recorded.
+     */
+    public void record(String name, FloatInput input) throws IllegalStateException {
+        Channel channel = attach(name, TYPE_FLOAT, input);
+        input.send((FloatOutput) channel);
+    }
+
+    /**
+     * Record every value of the specified BooleanInput, starting with its
+     * current value, as the named channel.
+     *
+     * @param name The name of the channel.
+     * @param input The input to record.
+     * @throws IllegalStateException If the channel is already being recorded.
+     */
+    public void record(String name, BooleanInput input) throws IllegalStateException {
+        Channel channel = attach(name, TYPE_BOOLEAN, input);
+        input.send((BooleanOutput) channel);
+    }
+
+    /**
+     * Record each time that the specified EventInput fires as the named
+     * channel.
+     *
+     * @param name The name of the channel.
+     * @param input The input to record.
+     * @throws IllegalStateException If the channel is already being recorded.
+     */
+    public void record(String name, EventInput input) throws IllegalStateException {
+        Channel channel = attach(name, TYPE_EVENT, input);
+        input.send((EventOutput) channel);
+    }
+
+    private synchronized Channel attach(String name, char type, Object source) throws IllegalStateException {
+        if (name == null || source == null) {
+            throw new NullPointerException();
+        }
+        if (name.indexOf('\n') != -1 || name.indexOf('\r') != -1) {
+            throw new IllegalArgumentException("Channel names cannot contain line breaks!");
+        }
+        if (closed) {
+            throw new IllegalStateException("TelemetryRecorder already closed!");
+        }
+        Channel channel = channelsByName.get(name);
+        if (channel != null && channel.source != null) {
+            throw new IllegalStateException("Channel already being recorded: " + name);
+        }
+        if (channel == null || channel.type != type) {
+            if (channels.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many telemetry channels!");
+            }
+            channel = new Channel((short) channels.size(), type, name);
+            channels.add(channel);
+            channelsByName.put(name, channel);
+            try {
+                saveChannels();
+            } catch (IOException ex) {
+                Logger.warning("Could not save telemetry channel list!", ex);
+            }
+        }
+        channel.source = source;
+        return channel;
+    }
+
+    private synchronized void append(short channel, float value) {
+        if (segment == null) {
+            return;
+        }
+        if (count == capacity) {
+            try {
+                finishSegment();
+                startSegment();
+            } catch (IOException ex) {
+                segment = null;
+                Logger.warning("Telemetry recording failed and has stopped.", ex);
+                return;
+            }
+        }
+        long time = Clock.nanos() / 1000 + timeOffset;
+        if (time < lastTime) {
+            // The Clock was replaced with one that is behind.
+            time = lastTime;
+        }
+        lastTime = time;
+        segment.putLong(HEADER_SIZE + 8 * count, time);
+        segment.putShort(channelsOffset(capacity) + 2 * count, channel);
+        segment.putFloat(valuesOffset(capacity) + 4 * count, value);
+        if (count == 0) {
+            segment.putLong(FIRST_TIME_OFFSET, time);
+        }
+        segment.putLong(LAST_TIME_OFFSET, time);
+        // The count goes last, so that readers never see a partial sample.
+        segment.putInt(COUNT_OFFSET, ++count);
+    }
+
+    /**
+     * @return the number of samples in the current segment.
+     */
+    public synchronized int getSegmentCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of the current segment, or -1 if closed.
+     */
+    public synchronized int getSegmentIndex() {
+        return segment == null ? -1 : segmentIndex;
+    }
+
+    /**
+     * Stop recording all channels, and finish the current segment.
+     *
+     * @throws IOException If the segment or the index cannot be written.
+     */
+    public void close() throws IOException {
+        Channel[] attached;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            attached = new Channel[channels.size()];
+            channels.fillArray(attached);
+        }
+        for (Channel channel : attached) {
+            Object source = channel.source;
+            if (source == null) {
+                continue;
+            } else if (channel.type == TYPE_FLOAT) {
+                ((FloatInput) source).unsend((FloatOutput) channel);
+            } else if (channel.type == TYPE_BOOLEAN) {
+                ((BooleanInput) source).unsend((BooleanOutput) channel);
+            } else {
+                ((EventInput) source).unsend((EventOutput) channel);
+            }
+            channel.source = null;
+        }
+        synchronized (this) {
+            if (segment != null) {
+                finishSegment();
+            }
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.log;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+import ccre.channel.BooleanInputPoll;
+import ccre.channel.BooleanOutput;
+import ccre.channel.BooleanStatus;
+import ccre.channel.EventInput;
+import ccre.channel.EventStatus;
+import ccre.channel.FloatInput;
+import ccre.channel.FloatInputPoll;
+import ccre.channel.FloatOutput;
+import ccre.channel.FloatStatus;
+import ccre.ctrl.AbstractJoystickWithPOV;
+import ccre.ctrl.FloatMixing;
+import ccre.ctrl.IJoystickWithPOV;
+import ccre.time.Clock;
+import ccre.time.VirtualClock;
+
+/**
+ * Replays a recording made by a TelemetryRecorder into a launcher, such as the
+ * emulator's DeviceBasedLauncher, in place of its input devices, and
+ * optionally records the outputs of the emulated robot for comparison with the
+ * original run.
+ *
+ * The replay runs on a VirtualClock set to the time of the recording, in steps
+ * of PERIOD milliseconds. The VirtualClock replaces the Clock from when the
+ * replay is created, so that the robot code is set up at the start time of
+ * the recording, until the replay is closed, which run does when it finishes.
+ * A replay that is never run must be closed. Each step moves the clock
+ * forward, updates every replayed input to its recorded value at that time,
+ * and fires the global periodic event. The steps can either be paced to real
+ * time, or run as fast as possible.
+ *
+ * Anything driven by the periodic event sees the same inputs at the same steps
+ * on every replay. Other timers, such as Tickers and ExpirationTimers, still
+ * run on their own threads: moving the VirtualClock forward wakes them, but
+ * they can run before or after the periodic event of a step, or not until a
+ * later step when the replay runs as fast as possible. Robot code that depends
+ * on those timers may not give the same outputs on every replay.
+ *
+ * Inputs are matched to recorded channels by name:
+ * <ul>
+ * <li>"Mode": one of the MODE_ codes, as given by modeChannel.</li>
+ * <li>"Joystick N Axis A", "Joystick N Button B", "Joystick N POV P" and
+ * "Joystick N POV P Pressed".</li>
+ * <li>"Analog Input N", "Digital Input N", "Encoder A:B", "Gyro N", "Battery
+ * Voltage" and "PCM Pressure Switch".</li>
+ * </ul>
+ * An input without a recorded channel falls back to its normal device.
+ *
+ * Outputs are recorded as "Motor N", "Servo N", "Solenoid M:N", "Digital
+ * Output N", "Forward Relay N" and "Reverse Relay N".
+ *
+ * @author skeggsc
+ * @see TelemetryRecorder
+ */
+public class TelemetryReplay {
+
+    /**
+     * The length of each step of the replay, in milliseconds. This matches the
+     * global periodic Ticker of the emulator.
+     */
+    public static final int PERIOD = 20;
+
+    /**
+     * The code recorded in the "Mode" channel while the robot is disabled.
+     */
+    public static final int MODE_DISABLED = 0;
+    /**
+     * The code recorded in the "Mode" channel during autonomous mode.
+     */
+    public static final int MODE_AUTONOMOUS = 1;
+    /**
+     * The code recorded in the "Mode" channel during teleoperated mode.
+     */
+    public static final int MODE_TELEOP = 2;
+    /**
+     * The code recorded in the "Mode" channel during test mode.
+     */
+    public static final int MODE_TEST = 3;
+
+    /**
+     * Get the value to record as the "Mode" channel on the robot, such as from
+     * Igneous.getIsDisabled, Igneous.getIsAutonomous and Igneous.getIsTest.
+     *
+     * @param isDisabled If the robot is disabled.
+     * @param isAutonomous If the robot is in autonomous mode.
+     * @param isTest If the robot is in test mode.
+     * @param updateWhen When to check the mode.
+     * @return the mode code, which is teleop if the robot is in none of the
+     * other modes.
+     */
+    public static FloatInput modeChannel(final BooleanInputPoll isDisabled, final BooleanInputPoll isAutonomous, final BooleanInputPoll isTest, EventInput updateWhen) {
+        return FloatMixing.createDispatch(new FloatInputPoll() {
+            public float get() {
+                if (isDisabled.get()) {
+                    return MODE_DISABLED;
+                } else if (isAutonomous.get()) {
+                    return MODE_AUTONOMOUS;
+                } else if (isTest.get()) {
+                    return MODE_TEST;
+                } else {
+                    return MODE_TELEOP;
+                }
+            }
+        }, updateWhen);
+    }
+
+    /**
+     * A recorded float channel. The cursor only moves forward, so reading a
+     * channel at each step takes constant time.
+     */
+    private final class Track implements FloatInputPoll {
+        private final TelemetryReader.Trace trace;
+        private int cursor = 0;
+
+        Track(TelemetryReader.Trace trace) {
+            this.trace = trace;
+        }
+
+        public synchronized float get() {
+            long at = now;
+            while (cursor + 1 < trace.size && trace.times[cursor + 1] <= at) {
+                cursor++;
+            }
+            return trace.values[cursor];
+        }
+    }
+
+    private final TelemetryReader input;
+    private final TelemetryRecorder output;
+    private final boolean realTime;
+    private final long start, end;
+    private final EventStatus periodic = new EventStatus();
+    private final VirtualClock clock;
+    private final Clock oldClock;
+    private boolean closed;
+    private volatile long now;
+
+    /**
+     * Create a new TelemetryReplay of the specified recording, and replace the
+     * Clock with the VirtualClock of the replay until it is closed.
+     *
+     * @param input The recording of the inputs.
+     * @param output Where to record the outputs, or null to not record them.
+     * @param realTime If the replay should be paced to real time, instead of
+     * running as fast as possible.
+     * @throws IllegalArgumentException If the recording has no samples.
+     */
+    public TelemetryReplay(TelemetryReader input, TelemetryRecorder output, boolean realTime) throws IllegalArgumentException {
+        this.input = input;
+        this.output = output;
+        this.realTime = realTime;
+        this.start = input.getStartTime();
+        this.end = input.getEndTime();
+        if (start > end) {
+            throw new IllegalArgumentException("Cannot replay an empty recording!");
+        }
+        this.now = start;
+        this.clock = new VirtualClock(start * 1000);
+        this.oldClock = Clock.setClock(clock);
+    }
+
+    /**
+     * @return the event fired once for each step of the replay.
+     */
+    public EventInput getPeriodic() {
+        return periodic;
+    }
+
+    /**
+     * Check if the recording has the named channel.
+     *
+     * @param name The channel name.
+     * @return if the channel was recorded.
+     */
+    public boolean hasChannel(String name) {
+        return contains(input.getChannelNames(), name);
+    }
+
+    private static boolean contains(String[] names, String name) {
+        for (String channel : names) {
+            if (channel.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the replayed value of the named channel, or the fallback if the
+     * channel wasn't recorded.
+     *
+     * @param name The channel name.
+     * @param fallback The input to use if the channel wasn't recorded.
+     * @return the replayed input.
+     */
+    public FloatInputPoll getFloat(String name, FloatInputPoll fallback) {
+        if (!hasChannel(name)) {
+            return fallback;
+        }
+        TelemetryReader.Trace trace;
+        try {
+            trace = input.query(name, Long.MIN_VALUE, Long.MAX_VALUE);
+        } catch (IOException ex) {
+            Logger.warning("Could not read replay channel " + name + " - using its device instead.", ex);
+            return fallback;
+        }
+        return trace.size == 0 ? fallback : new Track(trace);
+    }
+
+    /**
+     * Get the replayed value of the named channel, which is true when the
+     * recorded value is nonzero, or the fallback if the channel wasn't
+     * recorded.
+     *
+     * @param name The channel name.
+     * @param fallback The input to use if the channel wasn't recorded.
+     * @return the replayed input.
+     */
+    public BooleanInputPoll getBoolean(String name, BooleanInputPoll fallback) {
+        final FloatInputPoll track = getFloat(name, null);
+        return track == null ? fallback : new BooleanInputPoll() {
+            public boolean get() {
+                return track.get() != 0;
+            }
+        };
+    }
+
+    /**
+     * Get whether the recorded "Mode" channel has the specified code, or the
+     * fallback if the mode wasn't recorded.
+     *
+     * @param code One of the MODE_ codes.
+     * @param fallback The input to use if the mode wasn't recorded.
+     * @return the replayed input.
+     */
+    public BooleanInputPoll getIsMode(final int code, BooleanInputPoll fallback) {
+        final FloatInputPoll track = getFloat("Mode", null);
+        return track == null ? fallback : new BooleanInputPoll() {
+            public boolean get() {
+                return Math.round(track.get()) == code;
+            }
+        };
+    }
+
+    /**
+     * Get a replayed joystick. Any axis, button or POV that wasn't recorded
+     * falls back to the same part of the specified joystick.
+     *
+     * @param id The joystick number.
+     * @param check When to update the joystick's sources.
+     * @param fallback The joystick to fall back to.
+     * @return the replayed joystick.
+     */
+    public IJoystickWithPOV getJoystick(int id, EventInput check, final IJoystickWithPOV fallback) {
+        final String prefix = "Joystick " + id + " ";
+        return new AbstractJoystickWithPOV(check) {
+            public FloatInputPoll getAxisChannel(int axis) {
+                return getFloat(prefix + "Axis " + axis, fallback.getAxisChannel(axis));
+            }
+
+            public BooleanInputPoll getButtonChannel(int button) {
+                return getBoolean(prefix + "Button " + button, fallback.getButtonChannel(button));
+            }
+
+            public BooleanInputPoll isPOVPressed(int pov) {
+                return getBoolean(prefix + "POV " + pov + " Pressed", fallback.isPOVPressed(pov));
+            }
+
+            public FloatInputPoll getPOVAngle(int pov) {
+                return getFloat(prefix + "POV " + pov, fallback.getPOVAngle(pov));
+            }
+        };
+    }
+
+    /**
+     * Record everything sent to the specified output as the named channel, if
+     * outputs are being recorded.
+     *
+     * @param name The channel name.
+     * @param device The output to pass values on to.
+     * @return the output to use in place of the device.
+     */
+    public FloatOutput captureFloat(String name, FloatOutput device) {
+        if (output == null) {
+            return device;
+        }
+        FloatStatus status = new FloatStatus();
+        status.send(device);
+        output.record(name, status);
+        return status;
+    }
+
+    /**
+     * Record everything sent to the specified output as the named channel, if
+     * outputs are being recorded.
+     *
+     * @param name The channel name.
+     * @param device The output to pass values on to.
+     * @return the output to use in place of the device.
+     */
+    public BooleanOutput captureBoolean(String name, BooleanOutput device) {
+        if (output == null) {
+            return device;
+        }
+        BooleanStatus status = new BooleanStatus();
+        status.send(device);
+        output.record(name, status);
+        return status;
+    }
+
+    /**
+     * @return the current time of the replay, in microseconds of the
+     * recording.
+     */
+    public long getTime() {
+        return now;
+    }
+
+    /**
+     * Run the replay to the end of the recording on the current thread, and
+     * then close it.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting
+     * for real time to catch up.
+     * @throws IOException If the recording of the outputs cannot be finished.
+     */
+    public void run() throws InterruptedException, IOException {
+        try {
+            long wallStart = System.currentTimeMillis();
+            for (long step = 0; start + step * PERIOD * 1000 <= end; step++) {
+                if (realTime) {
+                    long wait = wallStart + step * PERIOD - System.currentTimeMillis();
+                    if (wait > 0) {
+                        Thread.sleep(wait);
+                    }
+                }
+                if (step != 0) {
+                    clock.advanceMillis(PERIOD);
+                }
+                now = start + step * PERIOD * 1000;
+                periodic.event();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Put back the Clock from before the replay was created, unless another
+     * Clock has been installed since, and finish recording the outputs. This
+     * does nothing if the replay is already closed.
+     *
+     * @throws IOException If the recording of the outputs cannot be finished.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (Clock.getClock() == clock) {
+            Clock.setClock(oldClock);
+        }
+        if (output != null) {
+            output.close();
+        }
+    }
+
+    /**
+     * Compare two recordings of outputs, such as the original run and a
+     * replay. For each channel in both recordings, the values are compared at
+     * every time that either recording has a sample, and the first difference
+     * of more than the tolerance, which lasts for longer than the time
+     * tolerance, is printed. A channel that is only in the expected recording
+     * also counts as a difference. Channels that are only in the actual
+     * recording are ignored, so that a replay can record more outputs than the
+     * original run did.
+     *
+     * The time tolerance allows for the jitter in the timestamps of a real
+     * run, since a replay records its outputs exactly PERIOD milliseconds
+     * apart.
+     *
+     * @param expected The original recording.
+     * @param actual The new recording.
+     * @param tolerance The largest difference to ignore.
+     * @param timeTolerance The longest difference to ignore, in microseconds.
+     * @param out Where to print the differences.
+     * @return the number of channels that differ.
+     * @throws IOException If either recording cannot be read.
+     */
+    public static int diff(TelemetryReader expected, TelemetryReader actual, float tolerance, long timeTolerance, PrintStream out) throws IOException {
+        int differing = 0;
+        String[] actualNames = actual.getChannelNames();
+        for (String name : expected.getChannelNames()) {
+            if (!contains(actualNames, name)) {
+                out.println(name + " is missing");
+                differing++;
+                continue;
+            }
+            TelemetryReader.Trace a = expected.query(name, Long.MIN_VALUE, Long.MAX_VALUE);
+            TelemetryReader.Trace b = actual.query(name, Long.MIN_VALUE, Long.MAX_VALUE);
+            // i and j count the samples of each trace up to the current time.
+            int i = 0, j = 0;
+            // The start of the current difference, and the values there.
+            boolean different = false;
+            long since = 0;
+            float expectedValue = 0, actualValue = 0;
+            while (i < a.size || j < b.size) {
+                long time = j >= b.size || (i < a.size && a.times[i] <= b.times[j]) ? a.times[i] : b.times[j];
+                if (different && time - since > timeTolerance) {
+                    break;
+                }
+                while (i < a.size && a.times[i] <= time) {
+                    i++;
+                }
+                while (j < b.size && b.times[j] <= time) {
+                    j++;
+                }
+                float va = i == 0 ? Float.NaN : a.values[i - 1];
+                float vb = j == 0 ? Float.NaN : b.values[j - 1];
+                if (Float.isNaN(va) == Float.isNaN(vb) && !(Math.abs(va - vb) > tolerance)) {
+                    different = false;
+                } else if (!different) {
+                    different = true;
+                    since = time;
+                    expectedValue = va;
+                    actualValue = vb;
+                }
+            }
+            // A difference at the end of the recordings lasts forever.
+            if (different) {
+                out.println(name + " differs at " + since + ": expected " + expectedValue + " but got " + actualValue);
+                differing++;
+            }
+        }
+        return differing;
+    }
+}
@@ -77,4 +77,9 @@ public class DefaultStorageProvider extends StorageProvider {
         }
     }
 
+    @Override
+    protected boolean deleteFile(String name) {
+        return new File(basedir, name).delete();
+    }
+
 }
@@ -101,6 +101,24 @@ public abstract class StorageProvider {
         return provider.openInputFile(name);
     }
 
+    /**
+     * Delete the specified file, if the storage provider supports deleting
+     * files.
+     *
+     * @param name The filename.
+     * @return true if the file was deleted, or false if it didn't exist or
+     * couldn't be deleted.
+     */
+    public static boolean delete(String name) {
+        initProvider();
+        try {
+            return provider.deleteFile(name);
+        } catch (IOException ex) {
+            Logger.warning("Could not delete file: " + name, ex);
+            return false;
+        }
+    }
+
     /**
      * Open a StorageSegment for the specified name. The name of a
      * StorageSegment must contain only letters, numbers, currency symbols, and
@@ -140,4 +158,17 @@ public abstract class StorageProvider {
      * @throws java.io.IOException If the file cannot be read from.
      */
     protected abstract InputStream openInputFile(String name) throws IOException;
+
+    /**
+     * Delete the specified file. By default, deleting is not supported, and
+     * this returns false.
+     *
+     * @param name The file name.
+     * @return true if the file was deleted, or false if it didn't exist or
+     * couldn't be deleted.
+     * @throws java.io.IOException If an error occurs while deleting the file.
+     */
+    protected boolean deleteFile(String name) throws IOException {
+        return false;
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.concurrency.ConcurrentDispatchArray;
+import ccre.log.Logger;
+import ccre.time.Clock;
+import ccre.util.CArrayList;
+
+/**
+ * A benchmark for ConcurrentDispatchArray: how long it takes to subscribe and
+ * unsubscribe a large batch of elements, one at a time and all at once, and
+ * how many modifications per millisecond go through while several threads
+ * modify and iterate over the same array.
+ *
+ * This is not part of the SuiteOfTests, because its results depend on the
+ * machine that it runs on.
+ *
+ * @author skeggsc
+ */
+public class BenchmarkConcurrentDispatchArray {
+
+    private static final int BATCH_SIZE = 2000;
+    private static final int THREADS = 4;
+    private static final int CONTENTION_TIME = 1000;
+    private static volatile boolean done;
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the application arguments. these are ignored.
+     * @throws java.lang.InterruptedException If the main thread is interrupted.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        for (int round = 0; round < 10; round++) {
+            benchmarkBatch();
+        }
+        benchmarkContention();
+    }
+
+    private static void benchmarkBatch() {
+        CArrayList<Object> elements = new CArrayList<Object>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            elements.add(new Object());
+        }
+        ConcurrentDispatchArray<Object> arr = new ConcurrentDispatchArray<Object>();
+        long start = Clock.nanos();
+        for (Object o : elements) {
+            arr.add(o);
+        }
+        for (Object o : elements) {
+            arr.remove(o);
+        }
+        long single = Clock.nanos() - start;
+        start = Clock.nanos();
+        arr.addAll(elements);
+        arr.removeAll(elements);
+        long batch = Clock.nanos() - start;
+        Logger.info("Subscribe and unsubscribe " + BATCH_SIZE + " elements: " + (single / 1000) + " us one at a time, " + (batch / 1000) + " us as a batch");
+    }
+
+    private static void benchmarkContention() throws InterruptedException {
+        final ConcurrentDispatchArray<Object> arr = new ConcurrentDispatchArray<Object>();
+        for (int i = 0; i < 20; i++) {
+            arr.add(new Object());
+        }
+        final long[] modifications = new long[THREADS];
+        final long[] iterations = new long[1];
+        Thread[] threads = new Thread[THREADS + 1];
+        for (int i = 0; i < THREADS; i++) {
+            final int id = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    Object mine = new Object();
+                    while (!done) {
+                        arr.add(mine);
+                        arr.remove(mine);
+                        modifications[id] += 2;
+                    }
+                }
+            };
+        }
+        threads[THREADS] = new Thread() {
+            @Override
+            public void run() {
+                long count = 0;
+                while (!done) {
+                    for (Object o : arr) {
+                        if (o == null) {
+                            throw new NullPointerException();
+                        }
+                    }
+                    count++;
+                }
+                iterations[0] = count;
+            }
+        };
+        for (Thread t : threads) {
+            t.start();
+        }
+        Thread.sleep(CONTENTION_TIME);
+        done = true;
+        long total = 0;
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            if (i < THREADS) {
+                total += modifications[i];
+            }
+        }
+        Logger.info(THREADS + " modifying threads: " + (total / CONTENTION_TIME) + " modifications/ms, with " + (iterations[0] / CONTENTION_TIME) + " full iterations/ms alongside");
+    }
+}
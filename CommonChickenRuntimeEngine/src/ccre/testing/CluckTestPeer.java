@@ -0,0 +1,388 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import ccre.cluck.CluckLink;
+import ccre.cluck.CluckNode;
+import ccre.cluck.tcp.CluckProtocol;
+import ccre.cluck.tcp.CluckTCPServer;
+import ccre.net.ClientSocket;
+import ccre.net.Network;
+import ccre.util.CArrayList;
+import ccre.util.CHashMap;
+
+/**
+ * One end of a Cluck connection that speaks the wire format by hand, so that
+ * tests can check exactly what a CluckTCPServer sends and receives. The frame
+ * formats are written out here separately from CluckProtocol, so that a
+ * mistake in one shows up as a mismatch against the other.
+ *
+ * @author skeggsc
+ */
+final class CluckTestPeer {
+
+    static final int MAGIC_NUMBER = 0x154000CA;
+    static final int VERSION_SIGNATURE = 0x5EC7A110;
+
+    /**
+     * A frame received from the server.
+     */
+    static final class Frame {
+        final String dest, source;
+        final byte[] data;
+        /**
+         * If the destination was sent as a literal path, rather than as a
+         * reference to an earlier one. Always true in the original format.
+         */
+        final boolean literalDest;
+
+        Frame(String dest, String source, byte[] data, boolean literalDest) {
+            this.dest = dest;
+            this.source = source;
+            this.data = data;
+            this.literalDest = literalDest;
+        }
+    }
+
+    /**
+     * A link that remembers everything sent to it.
+     */
+    static final class Probe implements CluckLink {
+        final CArrayList<Frame> received = new CArrayList<Frame>();
+
+        public synchronized boolean send(String dest, String source, byte[] data) {
+            received.add(new Frame(dest, source, data, true));
+            notifyAll();
+            return true;
+        }
+
+        synchronized Frame await(int index) throws InterruptedException {
+            long giveUpAt = System.currentTimeMillis() + 2000;
+            long remaining;
+            while (received.size() <= index && (remaining = giveUpAt - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+            return received.size() > index ? received.get(index) : null;
+        }
+
+        synchronized int count() {
+            return received.size();
+        }
+    }
+
+    /**
+     * Make a message of the specified length, with recognizable contents, all
+     * of the same priority.
+     *
+     * @param length The length of the message.
+     * @return the message.
+     */
+    static byte[] pattern(int length) {
+        byte[] out = new byte[length];
+        for (int i = 0; i < length; i++) {
+            out[i] = (byte) (i * 31 + length);
+        }
+        if (length != 0) {
+            // Keep everything at the same priority, so that it stays in order.
+            out[0] = CluckNode.RMT_NEGATIVE_ACK;
+        }
+        return out;
+    }
+
+    /**
+     * Start a server for the specified node on the specified port, in a
+     * daemon thread so that it doesn't outlive the tests.
+     *
+     * @param node The node to share.
+     * @param port The port to listen on.
+     * @return the server.
+     */
+    static CluckTCPServer startServer(CluckNode node, int port) {
+        CluckTCPServer server = new CluckTCPServer(node, port);
+        server.setDaemon(true);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Connect to a local server and exchange the connection header.
+     *
+     * @param port The port that the server listens on.
+     * @param hint What the server should call this connection.
+     * @param maxVersion The highest protocol version to offer.
+     * @return the connected peer.
+     * @throws IOException If the connection fails.
+     * @throws InterruptedException If interrupted while waiting for the server
+     * to start.
+     */
+    static CluckTestPeer connect(int port, String hint, int maxVersion) throws IOException, InterruptedException {
+        ClientSocket socket = null;
+        for (int i = 0; socket == null; i++) {
+            try {
+                socket = Network.connect("127.0.0.1", port);
+            } catch (IOException ex) {
+                if (i >= 20) {
+                    throw ex;
+                }
+                // The server may not be listening yet.
+                Thread.sleep(50);
+            }
+        }
+        socket.setSocketTimeout(2000);
+        return new CluckTestPeer(socket, hint, maxVersion);
+    }
+
+    private final ClientSocket socket;
+    private final DataInputStream din;
+    private final DataOutputStream dout;
+    /**
+     * The highest version that the server offered, or the original version if
+     * it didn't offer anything.
+     */
+    final int offeredVersion;
+    /**
+     * The protocol version in use.
+     */
+    final int version;
+    private final CArrayList<String> receivedPaths = new CArrayList<String>();
+    private final CHashMap<String, Integer> sentPaths = new CHashMap<String, Integer>();
+    private boolean lastPathLiteral;
+
+    private CluckTestPeer(ClientSocket socket, String hint, int maxVersion) throws IOException {
+        this.socket = socket;
+        din = socket.openDataInputStream();
+        dout = socket.openDataOutputStream();
+        Random r = new Random();
+        int ra = r.nextInt(), rb;
+        if (maxVersion > CluckProtocol.PROTOCOL_VERSION_ORIGINAL) {
+            rb = ra ^ VERSION_SIGNATURE ^ maxVersion;
+        } else {
+            do {
+                rb = r.nextInt();
+            } while (((ra ^ rb) & ~0xF) == VERSION_SIGNATURE);
+        }
+        dout.writeInt(MAGIC_NUMBER);
+        dout.writeInt(ra);
+        dout.writeInt(rb);
+        if (din.readInt() != MAGIC_NUMBER) {
+            throw new IOException("Bad magic number from server!");
+        }
+        int offer = din.readInt() ^ din.readInt();
+        dout.writeInt(offer);
+        if (din.readInt() != (ra ^ rb)) {
+            throw new IOException("Server did not bounce properly!");
+        }
+        dout.writeUTF(hint);
+        din.readUTF();
+        if ((offer & ~0xF) == VERSION_SIGNATURE && (offer & 0xF) > CluckProtocol.PROTOCOL_VERSION_ORIGINAL) {
+            offeredVersion = offer & 0xF;
+        } else {
+            offeredVersion = CluckProtocol.PROTOCOL_VERSION_ORIGINAL;
+        }
+        version = Math.min(maxVersion, offeredVersion);
+    }
+
+    /**
+     * Send a frame to the server.
+     *
+     * @param dest The destination, or null.
+     * @param source The source, or null.
+     * @param data The contents.
+     * @throws IOException If the frame can't be sent.
+     */
+    void send(String dest, String source, byte[] data) throws IOException {
+        send(dest, source, data, 0);
+    }
+
+    /**
+     * Send a frame to the server with a checksum that is off by the specified
+     * amount, which is zero for a correct frame.
+     *
+     * @param dest The destination, or null.
+     * @param source The source, or null.
+     * @param data The contents.
+     * @param corruption The amount to add to the checksum.
+     * @throws IOException If the frame can't be sent.
+     */
+    void send(String dest, String source, byte[] data, int corruption) throws IOException {
+        if (version == CluckProtocol.PROTOCOL_VERSION_ORIGINAL) {
+            dout.writeUTF(dest == null ? "" : dest);
+            dout.writeUTF(source == null ? "" : source);
+            dout.writeInt(data.length);
+            long basis = ((long) data.length << 32) ^ (dest == null ? 0 : dest.hashCode());
+            dout.writeLong(basis);
+            dout.write(data);
+            dout.writeLong(originalChecksum(data, basis) + corruption);
+        } else {
+            writePath(dest);
+            writePath(source);
+            writeVarint(data.length);
+            dout.write(data);
+            dout.writeInt(compactChecksum(data, dest, source) + corruption);
+        }
+        dout.flush();
+    }
+
+    /**
+     * Receive the next frame from the server, skipping keep-alives.
+     *
+     * @return the frame.
+     * @throws IOException If the frame can't be read, or is corrupt.
+     */
+    Frame receive() throws IOException {
+        while (true) {
+            Frame frame = receiveAny();
+            if (!"KEEPALIVE".equals(frame.dest)) {
+                return frame;
+            }
+        }
+    }
+
+    /**
+     * Receive the next frame from the server, including keep-alives.
+     *
+     * @return the frame.
+     * @throws IOException If the frame can't be read, or is corrupt.
+     */
+    Frame receiveAny() throws IOException {
+        if (version == CluckProtocol.PROTOCOL_VERSION_ORIGINAL) {
+            String dest = nullable(din.readUTF());
+            String source = nullable(din.readUTF());
+            byte[] data = new byte[din.readInt()];
+            long basis = din.readLong();
+            din.readFully(data);
+            if (din.readLong() != originalChecksum(data, basis)) {
+                throw new IOException("Bad checksum from server!");
+            }
+            return new Frame(dest, source, data, true);
+        } else {
+            String dest = readPath();
+            boolean literalDest = lastPathLiteral;
+            String source = readPath();
+            byte[] data = new byte[readVarint()];
+            din.readFully(data);
+            if (din.readInt() != compactChecksum(data, dest, source)) {
+                throw new IOException("Bad checksum from server!");
+            }
+            return new Frame(dest, source, data, literalDest);
+        }
+    }
+
+    /**
+     * Check whether the server closes the connection within a second, skipping
+     * anything that it sends first.
+     *
+     * @return if the connection was closed.
+     */
+    boolean isClosedByServer() {
+        long giveUpAt = System.currentTimeMillis() + 1000;
+        try {
+            while (System.currentTimeMillis() < giveUpAt) {
+                receiveAny();
+            }
+            return false;
+        } catch (IOException ex) {
+            return !Network.isTimeoutException(ex);
+        }
+    }
+
+    void close() throws IOException {
+        socket.close();
+    }
+
+    private static String nullable(String path) {
+        return path.length() == 0 ? null : path;
+    }
+
+    private static long originalChecksum(byte[] data, long basis) {
+        long h = basis;
+        for (int i = 0; i < data.length; i++) {
+            h = 43 * h + data[i];
+        }
+        return h;
+    }
+
+    private static int compactChecksum(byte[] data, String dest, String source) {
+        int basis = data.length ^ (dest == null ? 0 : dest.hashCode() * 31) ^ (source == null ? 0 : source.hashCode() * 961);
+        int h = 0x811C9DC5 ^ basis;
+        for (int i = 0; i < data.length; i++) {
+            h = (h ^ (data[i] & 0xFF)) * 0x01000193;
+        }
+        return h;
+    }
+
+    // Path references: 0 is null, 1 is a literal that defines the next entry,
+    // and 2 and up refer to the entries in the order that they were defined.
+
+    private void writePath(String path) throws IOException {
+        if (path == null) {
+            writeVarint(0);
+            return;
+        }
+        Integer entry = sentPaths.get(path);
+        if (entry != null) {
+            writeVarint(2 + entry);
+        } else {
+            sentPaths.put(path, sentPaths.size());
+            writeVarint(1);
+            dout.writeUTF(path);
+        }
+    }
+
+    private String readPath() throws IOException {
+        int ref = readVarint();
+        lastPathLiteral = ref == 1;
+        if (ref == 0) {
+            return null;
+        } else if (ref == 1) {
+            String path = nullable(din.readUTF());
+            receivedPaths.add(path);
+            return path;
+        } else if (ref - 2 < receivedPaths.size()) {
+            return receivedPaths.get(ref - 2);
+        } else {
+            throw new IOException("Undefined path reference from server: " + ref);
+        }
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while (value >= 0x80 || value < 0) {
+            dout.writeByte(0x80 | (value & 0x7F));
+            value >>>= 7;
+        }
+        dout.writeByte(value);
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = din.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw new IOException("Overlong varint from server!");
+    }
+}
@@ -40,17 +40,18 @@ public class SuiteOfTests {
     public static void main(String[] args) throws InterruptedException {
         BaseTest[] tests = new BaseTest[] {
                 // ccre.chan
-                new TestBooleanStatus(), new TestFloatStatus(),
+                new TestBooleanStatus(), new TestFloatStatus(), new TestDispatchArrays(), new TestDeferredPropagation(), new TestDispatchProfiler(),
 
-                // ccre.cluck - Tests needed!
+                // ccre.cluck
+                new TestCluckNode(), new TestFloatPublishPolicy(), new TestBulkSubscription(), new TestCluckTrafficMetrics(), new TestCluckProtocol(), new TestCluckQueuePolicy(), new TestCluckNIOTransport(),
 
                 // ccre.concurrency
-                new TestConcurrentDispatchArray(), new TestReporterThread(),
+                new TestConcurrentDispatchArray(), new TestConcurrentDispatchMap(), new TestReporterThread(), new TestTimerWheel(), new TestDelayScheduler(), new TestEventLoop(),
 
                 // ccre.ctrl
                 new TestExpirationTimer(),
                 new TestStateMachine(),
-                new TestMixing(),
+                new TestMixing(), new TestMixingGraph(), new TestTickCache(),
                 new TestEventMixing(),
                 new TestBooleanMixing(),
                 new TestTicker(),
@@ -59,13 +60,17 @@ public class SuiteOfTests {
                 // ccre.event
                 new TestEventStatus(),
 
+                // ccre.time
+                new TestClock(),
+
                 // ccre.holders - Needed!
 
                 // ccre.instinct - Needed!
 
                 // ccre.launcher - Not needed.
 
-                // ccre.log - Needed!
+                // ccre.log
+                new TestAsyncLogger(), new TestLoggerLevels(), new TestBinaryFileLogger(), new TestTelemetryRecorder(), new TestTelemetryReplay(),
 
                 // ccre.net - Needed!
 
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.log.AsyncLogger;
+import ccre.log.LogLevel;
+import ccre.log.Logger;
+import ccre.log.LoggingTarget;
+import ccre.util.CArrayList;
+
+/**
+ * Tests the AsyncLogger class and asynchronous logging in Logger.
+ *
+ * @author skeggsc
+ */
+public class TestAsyncLogger extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "AsyncLogger tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        testBadArguments();
+        testOverflow(AsyncLogger.DROP_NEWEST, "[T] 1 [T] 2 [T] 3 [T] 4", 5);
+        testOverflow(AsyncLogger.DROP_OLDEST, "[T] 6 [T] 7 [T] 8 [T] 9", 5);
+        testLeastSevere();
+    }
+
+    /**
+     * Records the messages that start with [T] or [LOCAL] Dropped, and blocks
+     * on the message [T] block until released.
+     */
+    private static class Recorder implements LoggingTarget {
+        private final CArrayList<String> seen = new CArrayList<String>();
+        private boolean blocking, released;
+        private Thread thread;
+
+        public void log(LogLevel level, String message, Throwable throwable) {
+            record(message);
+        }
+
+        public void log(LogLevel level, String message, String extended) {
+            record(message);
+        }
+
+        private synchronized void record(String message) {
+            if (message.equals("[T] block")) {
+                thread = Thread.currentThread();
+                blocking = true;
+                notifyAll();
+                while (!released) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            } else if (message.startsWith("[T]") || message.startsWith("[LOCAL] Dropped")) {
+                seen.add(message);
+            }
+        }
+
+        synchronized void awaitBlocking() throws InterruptedException {
+            while (!blocking) {
+                wait();
+            }
+        }
+
+        synchronized void release() {
+            released = true;
+            notifyAll();
+        }
+
+        synchronized String summary() {
+            StringBuilder sb = new StringBuilder();
+            for (String s : seen) {
+                if (s.startsWith("[T]")) {
+                    sb.append(sb.length() == 0 ? "" : " ").append(s);
+                }
+            }
+            return sb.toString();
+        }
+
+        synchronized boolean sawDropWarning(long count) {
+            return seen.contains("[LOCAL] Dropped " + count + " log messages because the log buffer was full.");
+        }
+    }
+
+    private void testBadArguments() throws TestingException, InterruptedException {
+        try {
+            Logger.startAsynchronous(3, AsyncLogger.DROP_NEWEST);
+            assertFail("Expected an IllegalArgumentException!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+        try {
+            Logger.startAsynchronous(4, 7);
+            assertFail("Expected an IllegalArgumentException!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+        assertIdentityEqual(Logger.getAsynchronous(), null, "Failed start left logging asynchronous!");
+        Logger.startAsynchronous(4, AsyncLogger.DROP_NEWEST);
+        try {
+            Logger.startAsynchronous(4, AsyncLogger.DROP_NEWEST);
+            assertFail("Expected an IllegalStateException!");
+        } catch (IllegalStateException ex) {
+            // Correct!
+        } finally {
+            assertTrue(Logger.stopAsynchronous(1000), "Could not flush the log!");
+        }
+        assertTrue(Logger.stopAsynchronous(1000), "Stopping twice should do nothing!");
+    }
+
+    private void testOverflow(int policy, String expected, int drops) throws TestingException, InterruptedException {
+        Recorder recorder = new Recorder();
+        Logger.addTarget(recorder);
+        AsyncLogger async = Logger.startAsynchronous(4, policy);
+        try {
+            Logger.info("[T] block");
+            recorder.awaitBlocking();
+            assertFalse(recorder.thread == Thread.currentThread(), "Target was called on the logging thread!");
+            for (int i = 1; i < 10; i++) {
+                Logger.info("[T] " + i);
+            }
+            assertIntsEqual(async.getPending(), 4, "Bad pending count!");
+            assertTrue(async.getDropped() == drops, "Bad drop count: " + async.getDropped());
+            recorder.release();
+            assertTrue(async.flush(1000), "Could not flush the log!");
+            assertObjectEqual(recorder.summary(), expected, "Wrong messages were dropped!");
+            assertTrue(recorder.sawDropWarning(drops), "Drops were not reported!");
+        } finally {
+            recorder.release();
+            Logger.stopAsynchronous(1000);
+            Logger.removeTarget(recorder);
+        }
+    }
+
+    private void testLeastSevere() throws TestingException, InterruptedException {
+        Recorder recorder = new Recorder();
+        Logger.addTarget(recorder);
+        AsyncLogger async = Logger.startAsynchronous(4, AsyncLogger.DROP_LEAST_SEVERE);
+        try {
+            Logger.info("[T] block");
+            recorder.awaitBlocking();
+            Logger.warning("[T] w1");
+            Logger.fine("[T] f1");
+            Logger.info("[T] i1");
+            Logger.fine("[T] f2");
+            Logger.severe("[T] s1"); // replaces f1
+            Logger.severe("[T] s2"); // replaces f2
+            Logger.fine("[T] f3"); // dropped
+            Logger.info("[T] i2"); // replaces nothing: i1 is just as severe
+            recorder.release();
+            assertTrue(async.flush(1000), "Could not flush the log!");
+            assertObjectEqual(recorder.summary(), "[T] w1 [T] i1 [T] s1 [T] s2", "Wrong messages were dropped!");
+            assertTrue(async.getDropped() == 4, "Bad drop count: " + async.getDropped());
+        } finally {
+            recorder.release();
+            Logger.stopAsynchronous(1000);
+            Logger.removeTarget(recorder);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import ccre.log.BinaryFileLogger;
+import ccre.log.BinaryLogConverter;
+import ccre.log.LogLevel;
+import ccre.util.CHashMap;
+
+/**
+ * Tests the BinaryFileLogger and BinaryLogConverter classes.
+ *
+ * @author skeggsc
+ */
+public class TestBinaryFileLogger extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "BinaryFileLogger tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException {
+        testBadArguments();
+        try {
+            testRecords();
+            testBuffering();
+            testRotation();
+            testIndex();
+        } catch (IOException ex) {
+            // The files are in memory, so this shouldn't happen.
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * A BinaryFileLogger that keeps its files in memory.
+     */
+    private static class MemoryLogger extends BinaryFileLogger {
+        private final CHashMap<String, ByteArrayOutputStream> files;
+        int inputsOpened;
+
+        MemoryLogger(CHashMap<String, ByteArrayOutputStream> files, int maxFileSize, int maxTotalSize, int bufferSize) {
+            super("test", maxFileSize, maxTotalSize, bufferSize, 60000);
+            this.files = files;
+        }
+
+        @Override
+        protected OutputStream openOutputFile(String name) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            files.put(name, out);
+            return out;
+        }
+
+        @Override
+        protected InputStream openInputFile(String name) {
+            inputsOpened++;
+            ByteArrayOutputStream out = files.get(name);
+            return out == null ? null : new ByteArrayInputStream(out.toByteArray());
+        }
+
+        @Override
+        protected boolean deleteFile(String name) {
+            return files.remove(name) != null;
+        }
+    }
+
+    private static String convert(CHashMap<String, ByteArrayOutputStream> files, String name) throws IOException {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(text);
+        BinaryLogConverter.convert(new ByteArrayInputStream(files.get(name).toByteArray()), out);
+        out.flush();
+        return text.toString();
+    }
+
+    private void testBadArguments() throws TestingException {
+        try {
+            new BinaryFileLogger("test", 0, 100, 10, 10);
+            assertFail("Expected an IllegalArgumentException!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+        try {
+            new BinaryFileLogger("test", 1000, 100, 10, 10);
+            assertFail("Expected an IllegalArgumentException!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+        try {
+            new BinaryFileLogger(null, 1000, 1000, 10, 10);
+            assertFail("Expected a NullPointerException!");
+        } catch (NullPointerException ex) {
+            // Correct!
+        }
+    }
+
+    private void testRecords() throws TestingException, IOException {
+        CHashMap<String, ByteArrayOutputStream> files = new CHashMap<String, ByteArrayOutputStream>();
+        MemoryLogger logger = new MemoryLogger(files, 100000, 100000, 1024);
+        logger.open();
+        logger.log(LogLevel.INFO, "hello", (Throwable) null);
+        logger.log(LogLevel.FINE, "with details", "the details");
+        logger.log(LogLevel.WARNING, "failure", new IOException("purposeful"));
+        logger.log(LogLevel.CONFIG, "blank details", "  \n");
+        logger.close();
+        String text = convert(files, "test-0");
+        assertTrue(text.startsWith("Logging began at "), "Missing header: " + text);
+        assertTrue(text.contains(" INFO] hello\n"), "Missing plain record: " + text);
+        assertTrue(text.contains(" FINE] with details\nthe details\n"), "Missing extended record: " + text);
+        assertTrue(text.contains(" WARNING] failure\n") && text.contains("purposeful"), "Missing throwable record: " + text);
+        assertTrue(text.endsWith(" CONFIG] blank details\n"), "Blank details should be dropped: " + text);
+
+        byte[] data = files.get("test-0").toByteArray();
+        ByteArrayOutputStream cut = new ByteArrayOutputStream();
+        cut.write(data, 0, data.length - 3);
+        files.put("cut", cut);
+        assertTrue(convert(files, "cut").endsWith("(Log ends partway through a record.)\n"), "Truncated log was not handled!");
+
+        files.put("junk", new ByteArrayOutputStream());
+        files.get("junk").write(new byte[] { 1, 2, 3, 4, 5 });
+        try {
+            convert(files, "junk");
+            assertFail("Expected an IOException!");
+        } catch (IOException ex) {
+            // Correct!
+        }
+    }
+
+    private void testBuffering() throws TestingException, IOException {
+        CHashMap<String, ByteArrayOutputStream> files = new CHashMap<String, ByteArrayOutputStream>();
+        MemoryLogger logger = new MemoryLogger(files, 100000, 100000, 256);
+        logger.open();
+        int header = files.get("test-0").size();
+        logger.log(LogLevel.INFO, "buffered", (Throwable) null);
+        assertIntsEqual(files.get("test-0").size(), header, "Record was written before the buffer filled!");
+        logger.log(LogLevel.SEVERE, "urgent", (Throwable) null);
+        int afterSevere = files.get("test-0").size();
+        assertTrue(afterSevere > header, "SEVERE record was not written immediately!");
+        for (int i = 0; i < 30; i++) {
+            logger.log(LogLevel.INFO, "filling " + i, (Throwable) null);
+        }
+        assertTrue(files.get("test-0").size() > afterSevere, "Full buffer was not written!");
+        logger.log(LogLevel.INFO, "last", (Throwable) null);
+        logger.flush();
+        assertTrue(convert(files, "test-0").endsWith(" INFO] last\n"), "flush did not write the buffer!");
+        logger.close();
+        logger.log(LogLevel.SEVERE, "after close", (Throwable) null);
+        assertFalse(convert(files, "test-0").contains("after close"), "Record was written after close!");
+    }
+
+    private void testRotation() throws TestingException, IOException {
+        CHashMap<String, ByteArrayOutputStream> files = new CHashMap<String, ByteArrayOutputStream>();
+        MemoryLogger logger = new MemoryLogger(files, 200, 600, 64);
+        logger.open();
+        for (int i = 0; i < 200; i++) {
+            logger.log(LogLevel.INFO, "message number " + i, (Throwable) null);
+        }
+        int current = logger.getCurrentIndex();
+        assertTrue(current > 10, "Files were not rotated: " + current);
+        logger.close();
+        int total = 0, count = 0;
+        for (String name : files) {
+            if (!name.equals("test-index")) {
+                assertTrue(files.get(name).size() < 200 + 64, "File too large: " + name);
+                total += files.get(name).size();
+                count++;
+            }
+        }
+        assertTrue(total <= 600, "Files use too much space: " + total);
+        // Finished files can run over by part of a record, so only two of
+        // them might fit alongside the current file.
+        assertTrue(count == 2 || count == 3, "Wrong number of files kept: " + count);
+        for (int i = current; i > current - count; i--) {
+            assertTrue(files.get("test-" + i) != null, "Recent file was deleted: " + i);
+        }
+        assertTrue(convert(files, "test-" + current).endsWith(" INFO] message number 199\n"), "Last message was lost!");
+    }
+
+    private void testIndex() throws TestingException, IOException {
+        CHashMap<String, ByteArrayOutputStream> files = new CHashMap<String, ByteArrayOutputStream>();
+        MemoryLogger first = new MemoryLogger(files, 1000, 10000, 64);
+        first.open();
+        assertIntsEqual(first.getCurrentIndex(), 0, "Bad first index!");
+        first.close();
+        assertIntsEqual(first.getCurrentIndex(), -1, "Closed logger has a current file!");
+
+        for (int i = 1; i < 5; i++) {
+            MemoryLogger next = new MemoryLogger(files, 1000, 10000, 64);
+            next.open();
+            assertIntsEqual(next.getCurrentIndex(), i, "Bad index from the log index!");
+            assertIntsEqual(next.inputsOpened, 1, "Startup probed for files!");
+            next.close();
+        }
+
+        files.remove("test-index");
+        MemoryLogger probing = new MemoryLogger(files, 1000, 10000, 64);
+        probing.open();
+        assertIntsEqual(probing.getCurrentIndex(), 5, "Bad index from probing!");
+        probing.close();
+        try {
+            probing.open();
+            assertFail("Expected an IllegalStateException!");
+        } catch (IllegalStateException ex) {
+            // Correct!
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.BooleanStatus;
+import ccre.channel.FloatStatus;
+import ccre.cluck.CluckBulkSubscription;
+import ccre.cluck.CluckNode;
+import ccre.cluck.CluckPublisher;
+import ccre.cluck.any.CluckNullLink;
+
+/**
+ * A test that tests subscribing to many published inputs at once.
+ *
+ * @author skeggsc
+ */
+public class TestBulkSubscription extends BaseTest {
+
+    /**
+     * Long enough for several publishing ticks to go by.
+     */
+    private static final int SETTLE_TIME = 100;
+
+    @Override
+    public String getName() {
+        return "Cluck bulk subscriptions";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        CluckNode robot = new CluckNode();
+        CluckNode driver = new CluckNode();
+        CluckNullLink.connect(robot, "to-driver", driver, "to-robot");
+
+        FloatStatus left = new FloatStatus(0.5f), right = new FloatStatus(-0.5f), other = new FloatStatus(3);
+        BooleanStatus shifted = new BooleanStatus(true);
+        CluckPublisher.publish(robot, "drive-left", left);
+        CluckPublisher.publish(robot, "drive-right", right);
+        CluckPublisher.publish(robot, "drive-shifted", shifted);
+        CluckPublisher.publish(robot, "other", other);
+
+        CluckBulkSubscription drive = CluckPublisher.subscribeBulk(driver, "to-robot", "drive-");
+        Thread.sleep(SETTLE_TIME);
+        assertObjectEqual(drive.getFloatInput("drive-left.input").get(), 0.5f, "Initial value was not received!");
+        assertObjectEqual(drive.getFloatInput("drive-right.input").get(), -0.5f, "Initial value was not received!");
+        assertTrue(drive.getBooleanInput("drive-shifted.input").get(), "Initial value was not received!");
+        assertObjectEqual(drive.getFloatInput("other.input").get(), 0.0f, "Value outside of the prefix was received!");
+
+        left.set(1);
+        shifted.set(false);
+        Thread.sleep(SETTLE_TIME);
+        assertObjectEqual(drive.getFloatInput("drive-left.input").get(), 1.0f, "Update was not received!");
+        assertFalse(drive.getBooleanInput("drive-shifted.input").get(), "Update was not received!");
+
+        FloatStatus added = new FloatStatus(7);
+        CluckPublisher.publish(robot, "drive-added", added);
+        Thread.sleep(SETTLE_TIME);
+        assertObjectEqual(drive.getFloatInput("drive-added.input").get(), 7.0f, "Newly published input was not received!");
+
+        CluckBulkSubscription listed = CluckPublisher.subscribeBulk(driver, "to-robot", new String[] { "other.input", "drive-shifted.input" });
+        other.set(4);
+        shifted.set(true);
+        Thread.sleep(SETTLE_TIME);
+        assertObjectEqual(listed.getFloatInput("other.input").get(), 4.0f, "Listed input was not received!");
+        assertTrue(listed.getBooleanInput("drive-shifted.input").get(), "Listed input was not received!");
+        assertObjectEqual(listed.getFloatInput("drive-left.input").get(), 0.0f, "Unlisted input was received!");
+
+        drive.cancel();
+        listed.cancel();
+        right.set(2);
+        other.set(5);
+        Thread.sleep(SETTLE_TIME);
+        assertObjectEqual(drive.getFloatInput("drive-right.input").get(), -0.5f, "Update was received after cancellation!");
+        assertObjectEqual(listed.getFloatInput("other.input").get(), 4.0f, "Update was received after cancellation!");
+    }
+}
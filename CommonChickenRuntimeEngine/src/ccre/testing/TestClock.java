@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.EventOutput;
+import ccre.channel.FloatStatus;
+import ccre.concurrency.TimerWheel;
+import ccre.ctrl.EventMixing;
+import ccre.ctrl.FloatMixing;
+import ccre.ctrl.PIDControl;
+import ccre.ctrl.Ticker;
+import ccre.time.Clock;
+import ccre.time.JitterStatistics;
+import ccre.time.VirtualClock;
+
+/**
+ * Tests the Clock, VirtualClock, and JitterStatistics classes.
+ *
+ * @author skeggsc
+ */
+public class TestClock extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "Clock tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        testDefaultClock();
+        VirtualClock clock = new VirtualClock();
+        Clock old = Clock.setClock(clock);
+        try {
+            testPIDControl(clock);
+            testDebounce(clock);
+            testTimerWheel(clock);
+        } finally {
+            Clock.setClock(old);
+        }
+        assertIdentityEqual(Clock.getClock(), old, "Clock was not restored!");
+        testJitterStatistics();
+    }
+
+    private void testDefaultClock() throws TestingException, InterruptedException {
+        long start = Clock.nanos();
+        assertTrue(start >= 0, "Clock should start at zero or later!");
+        Thread.sleep(20);
+        long elapsed = Clock.nanos() - start;
+        assertTrue(elapsed >= 19000000 && elapsed < 200000000, "Bad elapsed time: " + elapsed);
+        assertTrue(Clock.millis() >= start / 1000000 + 19, "Milliseconds did not match nanoseconds!");
+    }
+
+    private void testPIDControl(VirtualClock clock) throws TestingException {
+        FloatStatus error = new FloatStatus();
+        PIDControl integral = new PIDControl(error, FloatMixing.always(0), FloatMixing.always(1), FloatMixing.always(0));
+        PIDControl derivative = new PIDControl(error, FloatMixing.always(0), FloatMixing.always(0), FloatMixing.always(1));
+        integral.event();
+        derivative.event();
+        assertObjectEqual(integral.integralTotal.get(), 0f, "Update with no elapsed time should be ignored!");
+
+        clock.advanceMillis(10);
+        error.set(1);
+        integral.event();
+        assertTrue(Math.abs(integral.integralTotal.get() - 0.01f) < 0.00001f, "Bad integral: " + integral.integralTotal.get());
+
+        clock.advance(2500000); // Less than a millisecond apart would have been lost before.
+        integral.event();
+        derivative.event();
+        assertTrue(Math.abs(integral.integralTotal.get() - 0.0125f) < 0.00001f, "Bad integral: " + integral.integralTotal.get());
+        assertTrue(Math.abs(derivative.get() - 1 / 0.0125f) < 0.01f, "Bad derivative: " + derivative.get());
+
+        clock.advance(500000);
+        error.set(2);
+        derivative.event();
+        assertTrue(Math.abs(derivative.get() - 2000) < 0.1f, "Bad derivative: " + derivative.get());
+    }
+
+    private void testDebounce(VirtualClock clock) throws TestingException {
+        final int[] count = new int[1];
+        EventOutput debounced = EventMixing.debounce(new EventOutput() {
+            public void event() {
+                count[0]++;
+            }
+        }, 100);
+        debounced.event();
+        debounced.event();
+        clock.advanceMillis(99);
+        debounced.event();
+        assertIntsEqual(count[0], 1, "Debounce let an event through early!");
+        clock.advanceMillis(1);
+        debounced.event();
+        assertIntsEqual(count[0], 2, "Debounce blocked an event!");
+    }
+
+    private void testTimerWheel(VirtualClock clock) throws TestingException, InterruptedException {
+        TimerWheel wheel = new TimerWheel("VirtualWheel");
+        final int[] count = new int[1];
+        TimerWheel.Timer timer = wheel.schedule(new EventOutput() {
+            public void event() {
+                synchronized (count) {
+                    count[0]++;
+                }
+            }
+        }, 50, true);
+        try {
+            Thread.sleep(100);
+            synchronized (count) {
+                assertIntsEqual(count[0], 0, "Timer ran without virtual time passing!");
+            }
+            for (int i = 0; i < 10; i++) {
+                clock.advanceMillis(25);
+                Thread.sleep(15);
+            }
+            synchronized (count) {
+                assertIntsEqual(count[0], 5, "Timer did not follow virtual time!");
+            }
+        } finally {
+            timer.cancel();
+        }
+    }
+
+    private void testJitterStatistics() throws TestingException, InterruptedException {
+        JitterStatistics stats = new JitterStatistics();
+        stats.record(1000000);
+        stats.record(3000000);
+        assertIntsEqual(stats.getSamples(), 2, "Bad sample count!");
+        assertObjectEqual(stats.getAverageMillis(), 2f, "Bad average!");
+        assertObjectEqual(stats.getMaximumMillis(), 3f, "Bad maximum!");
+        assertObjectEqual(stats.getStandardDeviationMillis(), 1f, "Bad standard deviation!");
+        stats.reset();
+        assertIntsEqual(stats.getSamples(), 0, "Statistics were not reset!");
+
+        Ticker ticker = new Ticker(10, true);
+        try {
+            ticker.send(EventMixing.ignored);
+            Thread.sleep(200);
+            JitterStatistics jitter = ticker.getJitterStatistics();
+            assertTrue(jitter.getSamples() >= 15, "Ticker did not record its jitter: " + jitter.getSamples());
+            assertTrue(jitter.getAverageMillis() >= 0 && jitter.getAverageMillis() < 10, "Bad average jitter: " + jitter.getAverageMillis());
+        } finally {
+            ticker.terminate();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import java.io.IOException;
+
+import ccre.channel.FloatOutput;
+import ccre.channel.FloatStatus;
+import ccre.cluck.CluckNode;
+import ccre.cluck.CluckPublisher;
+import ccre.cluck.tcp.CluckNIOTransport;
+import ccre.cluck.tcp.CluckProtocol;
+
+/**
+ * A test that tests CluckNIOTransport over loopback connections.
+ *
+ * @author skeggsc
+ */
+public class TestCluckNIOTransport extends BaseTest {
+
+    private static final int PORT = 44623;
+
+    @Override
+    public String getName() {
+        return "Cluck NIO transport";
+    }
+
+    private final CluckNode node = new CluckNode();
+    private final CluckTestPeer.Probe probe = new CluckTestPeer.Probe();
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        node.addOrReplaceLink(probe, "probe");
+        CluckNIOTransport server = null, client = null;
+        try {
+            server = startServer();
+            testFraming(CluckProtocol.PROTOCOL_VERSION_ORIGINAL);
+            testFraming(CluckProtocol.PROTOCOL_VERSION_COMPACT);
+
+            CluckNode remote = new CluckNode();
+            client = new CluckNIOTransport(remote);
+            client.setDaemon(true);
+            client.setReconnectDelay(100);
+            client.start();
+            // Looking up this address must not hold up the other connection.
+            client.connect("nowhere.invalid:" + PORT, "nowhere", "nowhere");
+            client.connect("127.0.0.1:" + PORT, "server", "nio-client");
+            FloatStatus value = new FloatStatus();
+            CluckPublisher.publish(node, "value", (FloatOutput) value);
+            FloatOutput out = CluckPublisher.subscribeFO(remote, "server/value");
+            assertTrue(sendUntilReceived(out, value, 1), "Value was not sent between transports!");
+
+            server.terminate();
+            server.join(1000);
+            assertFalse(server.isAlive(), "Transport did not terminate!");
+            server = startServer();
+            assertTrue(sendUntilReceived(out, value, 2), "Client did not reconnect!");
+        } catch (IOException ex) {
+            throw new TestingException("Unexpected IO error: " + ex);
+        } finally {
+            if (client != null) {
+                client.terminate();
+            }
+            if (server != null) {
+                server.terminate();
+            }
+        }
+    }
+
+    private CluckNIOTransport startServer() throws IOException {
+        CluckNIOTransport server = new CluckNIOTransport(node);
+        server.setDaemon(true);
+        server.start();
+        server.listen(PORT);
+        return server;
+    }
+
+    /**
+     * Check that messages of many lengths are framed correctly in both
+     * directions, including ones too long to be read in one piece.
+     */
+    private void testFraming(int version) throws TestingException, IOException, InterruptedException {
+        CluckTestPeer peer = CluckTestPeer.connect(PORT, "peer", version);
+        assertIntsEqual(peer.version, version, "Bad protocol version!");
+        int[] lengths = new int[] { 0, 1, 127, 128, 16384, 300000 };
+        int base = probe.count();
+        for (int i = 0; i < lengths.length; i++) {
+            peer.send("probe/framed", "origin", CluckTestPeer.pattern(lengths[i]));
+        }
+        for (int i = 0; i < lengths.length; i++) {
+            CluckTestPeer.Frame frame = probe.await(base + i);
+            assertTrue(frame != null, "Message of length " + lengths[i] + " never arrived!");
+            assertObjectEqual(frame.source, "peer/origin", "Bad source!");
+            assertBytesEqual(frame.data, CluckTestPeer.pattern(lengths[i]), "Bad contents received!");
+        }
+        for (int i = 0; i < lengths.length; i++) {
+            node.transmit("peer/framed", "reply", CluckTestPeer.pattern(lengths[i]));
+        }
+        for (int i = 0; i < lengths.length; i++) {
+            CluckTestPeer.Frame frame = peer.receive();
+            assertObjectEqual(frame.dest, "framed", "Bad destination!");
+            assertBytesEqual(frame.data, CluckTestPeer.pattern(lengths[i]), "Bad contents sent!");
+        }
+        peer.close();
+    }
+
+    private boolean sendUntilReceived(FloatOutput out, FloatStatus value, float expected) throws InterruptedException {
+        long giveUpAt = System.currentTimeMillis() + 3000;
+        while (value.get() != expected && System.currentTimeMillis() < giveUpAt) {
+            // The link may not be up yet, so keep sending.
+            out.set(expected);
+            Thread.sleep(20);
+        }
+        return value.get() == expected;
+    }
+
+    private void assertBytesEqual(byte[] a, byte[] b, String message) throws TestingException {
+        assertIntsEqual(a.length, b.length, message);
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                assertFail(message + " (at " + i + ")");
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.FloatOutput;
+import ccre.cluck.CluckLink;
+import ccre.cluck.CluckNode;
+import ccre.cluck.CluckPrioritizedLink;
+import ccre.cluck.CluckPriority;
+import ccre.cluck.CluckPublisher;
+import ccre.cluck.CluckRoute;
+import ccre.log.LogLevel;
+import ccre.log.Logger;
+import ccre.log.LoggingTarget;
+import ccre.util.CArrayList;
+
+/**
+ * A test that tests the routing parts of the CluckNode class.
+ *
+ * @author skeggsc
+ */
+public class TestCluckNode extends BaseTest {
+
+    private volatile boolean churning;
+
+    @Override
+    public String getName() {
+        return "CluckNode routing and concurrency";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        testRoutes();
+        testPriorities();
+        testConcurrentLinks();
+    }
+
+    private void testRoutes() throws TestingException {
+        CluckNode node = new CluckNode();
+        CluckRoute route = node.getRoute("alpha/beta/gamma");
+        assertIdentityEqual(route, node.getRoute("alpha/beta/gamma"), "Routes should be interned!");
+        assertObjectEqual(route.target, "alpha/beta/gamma", "Bad route target!");
+
+        RecordingLink first = new RecordingLink();
+        node.addLink(first, "alpha");
+        node.transmit(route, "src", new byte[] { 1 }, null);
+        assertObjectEqual(first.lastDest, "beta/gamma", "Route did not strip the link name!");
+        assertObjectEqual(first.lastSource, "src", "Route did not pass the source!");
+        assertIntsEqual(first.count, 1, "Route did not reach the link!");
+
+        node.transmit("alpha", "src", new byte[] { 1 });
+        assertObjectEqual(first.lastDest, null, "Route did not handle a direct target!");
+        assertIntsEqual(first.count, 2, "Route did not reach the link!");
+
+        RecordingLink second = new RecordingLink();
+        node.addOrReplaceLink(second, "alpha");
+        node.transmit(route, "src", new byte[] { 1 }, null);
+        assertIntsEqual(first.count, 2, "Route was not invalidated by replacing the link!");
+        assertIntsEqual(second.count, 1, "Route was not resolved again!");
+
+        node.removeLink("alpha");
+        node.transmit(route, "src", new byte[] { CluckNode.RMT_NEGATIVE_ACK }, null);
+        assertIntsEqual(second.count, 1, "Route was not invalidated by removing the link!");
+
+        second.alive = false;
+        node.addLink(second, "alpha");
+        node.transmit(route, "src", new byte[] { 1 }, null);
+        assertIntsEqual(second.count, 2, "Route did not reach the link!");
+        assertTrue(node.links.get("alpha") == null, "Finished link was not detached!");
+
+        node.addLink(first, "alpha");
+        node.transmit(node.getRoute("*"), "src", new byte[] { 1 }, first);
+        assertIntsEqual(first.count, 2, "Broadcast route did not honor the denied link!");
+        node.transmit(node.getRoute("*"), "src", new byte[] { 1 }, null);
+        assertIntsEqual(first.count, 3, "Broadcast route did not reach the link!");
+        assertObjectEqual(first.lastDest, "*", "Broadcast route did not broadcast!");
+
+        // Paths that are only transmitted to don't push interned routes out.
+        for (int i = 0; i < 1000; i++) {
+            node.transmit("alpha/reply-" + i, "src", new byte[] { 1 });
+        }
+        assertIdentityEqual(node.getRoute("alpha/beta/gamma"), route, "One-off paths evicted an interned route!");
+
+        try {
+            new CluckNode().transmit(route, "src", new byte[] { 1 }, null);
+            assertFail("Expected the route to be rejected by a different node!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+    }
+
+    private void testPriorities() throws TestingException {
+        CluckNode node = new CluckNode();
+        PriorityLink link = new PriorityLink();
+        node.addLink(link, "remote");
+
+        node.transmit("remote/out", null, new byte[] { CluckNode.RMT_BOOLOUTP, 1 });
+        assertIdentityEqual(link.lastPriority, CluckPriority.CONTROL, "Output writes should be CONTROL by default!");
+        node.transmit("remote/log", null, new byte[] { CluckNode.RMT_LOGTARGET });
+        assertIdentityEqual(link.lastPriority, CluckPriority.TELEMETRY, "Logging should be TELEMETRY by default!");
+        node.transmit("remote/in", null, new byte[] { CluckNode.RMT_FLOATPROD });
+        assertIdentityEqual(link.lastPriority, CluckPriority.NORMAL, "Subscriptions should be NORMAL by default!");
+
+        node.setPriority("remote/log", CluckPriority.CONTROL);
+        node.transmit("remote/log", null, new byte[] { CluckNode.RMT_LOGTARGET });
+        assertIdentityEqual(link.lastPriority, CluckPriority.CONTROL, "Target priority was not used!");
+        node.setPriority("local-input", CluckPriority.TELEMETRY);
+        node.transmit("remote/in", "local-input", new byte[] { CluckNode.RMT_FLOATPRODRESP, 0, 0, 0, 0 });
+        assertIdentityEqual(link.lastPriority, CluckPriority.TELEMETRY, "Source priority was not used!");
+        node.setPriority("remote/log", null);
+        node.transmit("remote/log", null, new byte[] { CluckNode.RMT_LOGTARGET });
+        assertIdentityEqual(link.lastPriority, CluckPriority.TELEMETRY, "Target priority was not cleared!");
+        assertObjectEqual(link.lastDest, "log", "Prioritized link got the wrong destination!");
+
+        FloatOutput slow = CluckPublisher.subscribeFO(node, "remote/motor", CluckPriority.TELEMETRY);
+        slow.set(1);
+        assertIdentityEqual(link.lastPriority, CluckPriority.TELEMETRY, "Subscription priority was not used!");
+        CluckPublisher.subscribeFO(node, "remote/motor").set(1);
+        assertIdentityEqual(link.lastPriority, CluckPriority.CONTROL, "Subscription priority leaked into the node!");
+        node.transmit("remote/motor", null, new byte[] { CluckNode.RMT_FLOATOUTP, 0, 0, 0, 0 });
+        assertIdentityEqual(link.lastPriority, CluckPriority.CONTROL, "Subscription priority leaked into the node!");
+    }
+
+    private void testConcurrentLinks() throws TestingException, InterruptedException {
+        final CluckNode node = new CluckNode();
+        final CountingLink steady = new CountingLink();
+        final CountingLink swapA = new CountingLink(), swapB = new CountingLink();
+        node.addLink(steady, "steady");
+        node.addLink(swapA, "swap");
+        final Throwable[] failure = new Throwable[1];
+        churning = true;
+
+        Thread churner = new Thread("churner") {
+            @Override
+            public void run() {
+                try {
+                    CountingLink churned = new CountingLink();
+                    for (int i = 0; churning; i++) {
+                        String name = "churn-" + (i % 8);
+                        if (!node.removeLink(name)) {
+                            node.addLink(churned, name);
+                        }
+                        node.addOrReplaceLink(i % 2 == 0 ? swapB : swapA, "swap");
+                    }
+                } catch (Throwable thr) {
+                    failure[0] = thr;
+                }
+            }
+        };
+
+        final int threadCount = 4, messages = 20000, broadcastEvery = 100;
+        Thread[] senders = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            senders[t] = new Thread("sender-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        CluckRoute steadyRoute = node.getRoute("steady/target");
+                        CluckRoute swapRoute = node.getRoute("swap");
+                        // Messages to links that might be missing are sent as RMT_NEGATIVE_ACK so that they are dropped quietly.
+                        byte[] data = new byte[] { CluckNode.RMT_NEGATIVE_ACK };
+                        for (int i = 0; i < messages; i++) {
+                            if (i % 2 == 0) {
+                                node.transmit(steadyRoute, "src", data, null);
+                            } else {
+                                node.transmit("steady/target", "src", data);
+                            }
+                            node.transmit(swapRoute, "src", data, null);
+                            node.transmit("churn-" + (i % 8) + "/target", "src", data);
+                            if (i % broadcastEvery == 0) {
+                                node.transmit("*", "src", data);
+                            }
+                        }
+                    } catch (Throwable thr) {
+                        failure[0] = thr;
+                    }
+                }
+            };
+        }
+        // Each swap logs that the link was replaced, which would flood the log.
+        CArrayList<LoggingTarget> targets = new CArrayList<LoggingTarget>();
+        CArrayList<LogLevel> previous = new CArrayList<LogLevel>();
+        for (LoggingTarget lt : Logger.targets) {
+            targets.add(lt);
+            previous.add(Logger.getMinimumLevel(lt));
+            Logger.setMinimumLevel(lt, LogLevel.INFO);
+        }
+        try {
+            churner.start();
+            for (Thread sender : senders) {
+                sender.start();
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            churning = false;
+            churner.join();
+        } finally {
+            churning = false;
+            for (int i = 0; i < targets.size(); i++) {
+                Logger.setMinimumLevel(targets.get(i), previous.get(i));
+            }
+        }
+        if (failure[0] != null) {
+            assertFail("Exception during concurrent transmits: " + failure[0]);
+        }
+
+        int broadcasts = threadCount * (messages / broadcastEvery);
+        assertIntsEqual(steady.get(), threadCount * messages + broadcasts, "Messages to the steady link were lost!");
+        assertIntsEqual(swapA.get() + swapB.get(), threadCount * messages + broadcasts, "Messages to the swapped link were lost!");
+        assertIdentityEqual(node.links.get("steady"), steady, "Steady link was disturbed!");
+    }
+
+    private static class CountingLink implements CluckLink {
+
+        private int count;
+
+        public synchronized boolean send(String dest, String source, byte[] data) {
+            count++;
+            return true;
+        }
+
+        public synchronized int get() {
+            return count;
+        }
+    }
+
+    private static class PriorityLink implements CluckPrioritizedLink {
+
+        public String lastDest;
+        public CluckPriority lastPriority;
+
+        public boolean send(String dest, String source, byte[] data) {
+            return send(dest, source, data, CluckPriority.forMessage(data));
+        }
+
+        public boolean send(String dest, String source, byte[] data, CluckPriority priority) {
+            lastDest = dest;
+            lastPriority = priority;
+            return true;
+        }
+    }
+
+    private static class RecordingLink implements CluckLink {
+
+        public int count;
+        public String lastDest, lastSource;
+        public boolean alive = true;
+
+        public boolean send(String dest, String source, byte[] data) {
+            count++;
+            lastDest = dest;
+            lastSource = source;
+            return alive;
+        }
+    }
+}
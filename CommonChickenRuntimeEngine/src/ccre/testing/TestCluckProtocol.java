@@ -0,0 +1,271 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import java.io.IOException;
+
+import ccre.channel.FloatOutput;
+import ccre.channel.FloatStatus;
+import ccre.cluck.CluckNode;
+import ccre.cluck.CluckPublisher;
+import ccre.cluck.tcp.CluckProtocol;
+import ccre.cluck.tcp.CluckTCPClient;
+
+/**
+ * A test that tests the Cluck wire formats and the negotiation between them,
+ * against a connection that speaks the formats by hand.
+ *
+ * @author skeggsc
+ */
+public class TestCluckProtocol extends BaseTest {
+
+    private static final int PORT = 44621;
+
+    @Override
+    public String getName() {
+        return "Cluck protocol";
+    }
+
+    private final CluckNode node = new CluckNode();
+    private final CluckTestPeer.Probe probe = new CluckTestPeer.Probe();
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        node.addOrReplaceLink(probe, "probe");
+        CluckTestPeer.startServer(node, PORT);
+        try {
+            testNegotiation();
+            testOriginalFrames();
+            testCompactFrames();
+            testPathDictionary();
+            testChecksums();
+            testBatching();
+        } catch (IOException ex) {
+            throw new TestingException("Unexpected IO error: " + ex);
+        } finally {
+            CluckProtocol.setMaximumProtocolVersion(CluckProtocol.PROTOCOL_VERSION_COMPACT);
+        }
+        testBetweenNodes(CluckProtocol.PROTOCOL_VERSION_COMPACT);
+        testBetweenNodes(CluckProtocol.PROTOCOL_VERSION_ORIGINAL);
+    }
+
+    private void testNegotiation() throws TestingException, IOException, InterruptedException {
+        CluckTestPeer peer = CluckTestPeer.connect(PORT, "peer", CluckProtocol.PROTOCOL_VERSION_COMPACT);
+        assertIntsEqual(peer.offeredVersion, CluckProtocol.PROTOCOL_VERSION_COMPACT, "Server did not offer the compact format!");
+        assertIntsEqual(peer.version, CluckProtocol.PROTOCOL_VERSION_COMPACT, "Compact format was not agreed on!");
+        roundTrip(peer, "negotiated");
+        peer.close();
+
+        // An implementation from before the compact format never offers it.
+        peer = CluckTestPeer.connect(PORT, "peer", CluckProtocol.PROTOCOL_VERSION_ORIGINAL);
+        assertIntsEqual(peer.offeredVersion, CluckProtocol.PROTOCOL_VERSION_COMPACT, "Server did not offer the compact format!");
+        assertIntsEqual(peer.version, CluckProtocol.PROTOCOL_VERSION_ORIGINAL, "Did not fall back to the original format!");
+        roundTrip(peer, "fallback");
+        peer.close();
+
+        CluckProtocol.setMaximumProtocolVersion(CluckProtocol.PROTOCOL_VERSION_ORIGINAL);
+        peer = CluckTestPeer.connect(PORT, "peer", CluckProtocol.PROTOCOL_VERSION_COMPACT);
+        assertIntsEqual(peer.offeredVersion, CluckProtocol.PROTOCOL_VERSION_ORIGINAL, "Server offered a disabled format!");
+        assertIntsEqual(peer.version, CluckProtocol.PROTOCOL_VERSION_ORIGINAL, "Did not fall back to the original format!");
+        roundTrip(peer, "limited");
+        peer.close();
+        CluckProtocol.setMaximumProtocolVersion(CluckProtocol.PROTOCOL_VERSION_COMPACT);
+
+        try {
+            CluckProtocol.setMaximumProtocolVersion(0);
+            assertFail("Version zero should have been rejected!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+    }
+
+    private void roundTrip(CluckTestPeer peer, String path) throws TestingException, IOException, InterruptedException {
+        int base = probe.count();
+        byte[] data = new byte[] { CluckNode.RMT_EVENTOUTP, 1, 2, 3 };
+        peer.send("probe/" + path, "origin", data);
+        CluckTestPeer.Frame frame = probe.await(base);
+        assertTrue(frame != null, "Message from peer never arrived!");
+        assertObjectEqual(frame.dest, path, "Bad destination on server!");
+        assertObjectEqual(frame.source, "peer/origin", "Bad source on server!");
+        assertBytesEqual(frame.data, data, "Bad contents on server!");
+
+        node.transmit("peer/" + path, "reply", data);
+        frame = peer.receive();
+        assertObjectEqual(frame.dest, path, "Bad destination on peer!");
+        assertObjectEqual(frame.source, "reply", "Bad source on peer!");
+        assertBytesEqual(frame.data, data, "Bad contents on peer!");
+    }
+
+    private void testOriginalFrames() throws TestingException, IOException, InterruptedException {
+        CluckTestPeer peer = CluckTestPeer.connect(PORT, "peer", CluckProtocol.PROTOCOL_VERSION_ORIGINAL);
+        sendLengths(peer, "original");
+        peer.close();
+    }
+
+    private void testCompactFrames() throws TestingException, IOException, InterruptedException {
+        CluckTestPeer peer = CluckTestPeer.connect(PORT, "peer", CluckProtocol.PROTOCOL_VERSION_COMPACT);
+        sendLengths(peer, "compact");
+        // Null paths have their own reference.
+        int base = probe.count();
+        peer.send("probe/anonymous", null, new byte[] { CluckNode.RMT_EVENTOUTP });
+        CluckTestPeer.Frame frame = probe.await(base);
+        assertTrue(frame != null, "Anonymous message never arrived!");
+        assertObjectEqual(frame.source, "peer", "Null source was not decoded!");
+        node.transmit("peer/anonymous", null, new byte[] { CluckNode.RMT_EVENTOUTP });
+        assertIdentityEqual(peer.receive().source, null, "Null source was not encoded!");
+        peer.close();
+    }
+
+    /**
+     * Send messages in both directions with lengths at the boundaries of the
+     * variable-length integers that carry them in the compact format.
+     */
+    private void sendLengths(CluckTestPeer peer, String path) throws TestingException, IOException, InterruptedException {
+        int[] lengths = new int[] { 0, 1, 127, 128, 16383, 16384, 2097151, 2097152 };
+        int base = probe.count();
+        for (int i = 0; i < lengths.length; i++) {
+            peer.send("probe/" + path, "origin", CluckTestPeer.pattern(lengths[i]));
+        }
+        for (int i = 0; i < lengths.length; i++) {
+            CluckTestPeer.Frame frame = probe.await(base + i);
+            assertTrue(frame != null, "Message of length " + lengths[i] + " never arrived!");
+            assertObjectEqual(frame.dest, path, "Bad destination on server!");
+            assertBytesEqual(frame.data, CluckTestPeer.pattern(lengths[i]), "Bad contents of length " + lengths[i] + " on server!");
+        }
+        for (int i = 0; i < lengths.length; i++) {
+            node.transmit("peer/" + path, "reply", CluckTestPeer.pattern(lengths[i]));
+        }
+        for (int i = 0; i < lengths.length; i++) {
+            CluckTestPeer.Frame frame = peer.receive();
+            assertObjectEqual(frame.dest, path, "Bad destination on peer!");
+            assertBytesEqual(frame.data, CluckTestPeer.pattern(lengths[i]), "Bad contents of length " + lengths[i] + " on peer!");
+        }
+    }
+
+    private void testPathDictionary() throws TestingException, IOException, InterruptedException {
+        CluckTestPeer peer = CluckTestPeer.connect(PORT, "peer", CluckProtocol.PROTOCOL_VERSION_COMPACT);
+        // Enough paths that later references take more than one byte.
+        int paths = 300;
+        byte[] data = new byte[] { CluckNode.RMT_EVENTOUTP };
+        int base = probe.count();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < paths; i++) {
+                peer.send("probe/path-" + i, "source-" + i, data);
+            }
+        }
+        for (int i = 0; i < 2 * paths; i++) {
+            CluckTestPeer.Frame frame = probe.await(base + i);
+            assertTrue(frame != null, "Message " + i + " never arrived!");
+            assertObjectEqual(frame.dest, "path-" + (i % paths), "Bad path reference decoded on server!");
+            assertObjectEqual(frame.source, "peer/source-" + (i % paths), "Bad path reference decoded on server!");
+        }
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < paths; i++) {
+                node.transmit("peer/path-" + i, "source-" + i, data);
+            }
+        }
+        for (int i = 0; i < 2 * paths; i++) {
+            CluckTestPeer.Frame frame = peer.receive();
+            assertObjectEqual(frame.dest, "path-" + (i % paths), "Bad path reference encoded by server!");
+            assertObjectEqual(frame.source, "source-" + (i % paths), "Bad path reference encoded by server!");
+            assertTrue(frame.literalDest == (i < paths), i < paths ? "Path was not defined the first time!" : "Path was not referenced the second time!");
+        }
+        peer.close();
+    }
+
+    private void testChecksums() throws TestingException, IOException, InterruptedException {
+        int[] versions = new int[] { CluckProtocol.PROTOCOL_VERSION_ORIGINAL, CluckProtocol.PROTOCOL_VERSION_COMPACT };
+        for (int i = 0; i < versions.length; i++) {
+            CluckTestPeer peer = CluckTestPeer.connect(PORT, "peer", versions[i]);
+            int base = probe.count();
+            peer.send("probe/corrupt", "origin", new byte[] { CluckNode.RMT_EVENTOUTP, 4 }, 1);
+            assertTrue(peer.isClosedByServer(), "Server accepted a bad checksum in version " + versions[i] + "!");
+            assertIntsEqual(probe.count(), base, "Corrupt message was delivered!");
+            peer.close();
+        }
+    }
+
+    private void testBatching() throws TestingException, IOException, InterruptedException {
+        CluckTestPeer peer = CluckTestPeer.connect(PORT, "peer", CluckProtocol.PROTOCOL_VERSION_COMPACT);
+        // Start right after a keep-alive, so that the sender is idle and waits
+        // for the rest of the batch after the first message.
+        while (!"KEEPALIVE".equals(peer.receiveAny().dest)) {
+        }
+        Thread.sleep(20);
+        CluckProtocol.setMaximumBatchLatency(100);
+        try {
+            node.transmit("peer/f", null, floatMessage(1));
+            node.transmit("peer/h", null, floatMessage(9));
+            node.transmit("peer/f", null, floatMessage(2));
+            node.transmit("peer/e", null, new byte[] { CluckNode.RMT_EVENTOUTP });
+            node.transmit("peer/f", null, floatMessage(3));
+            node.transmit("peer/e", null, new byte[] { CluckNode.RMT_EVENTOUTP });
+
+            // Only the latest value for f is sent, and not ahead of anything
+            // that was queued after the value it replaced.
+            CluckTestPeer.Frame frame = peer.receive();
+            assertObjectEqual(frame.dest, "h", "Batch was reordered!");
+            assertIntsEqual(frame.data[4], 9, "Bad value in batch!");
+            assertObjectEqual(peer.receive().dest, "e", "Batch was reordered!");
+            frame = peer.receive();
+            assertObjectEqual(frame.dest, "f", "Superseded value overtook other messages!");
+            assertIntsEqual(frame.data[4], 3, "Coalescing did not keep the latest value!");
+            assertObjectEqual(peer.receive().dest, "e", "Events should not be coalesced!");
+        } finally {
+            CluckProtocol.setMaximumBatchLatency(0);
+        }
+        peer.close();
+    }
+
+    private static byte[] floatMessage(int value) {
+        return new byte[] { CluckNode.RMT_FLOATOUTP, 0, 0, 0, (byte) value };
+    }
+
+    private void testBetweenNodes(int version) throws TestingException, InterruptedException {
+        CluckProtocol.setMaximumProtocolVersion(version);
+        CluckNode remote = new CluckNode();
+        FloatStatus value = new FloatStatus();
+        CluckPublisher.publish(node, "value-" + version, (FloatOutput) value);
+        CluckTCPClient client = new CluckTCPClient("127.0.0.1:" + PORT, remote, "server", "client-" + version);
+        client.start();
+        try {
+            FloatOutput out = CluckPublisher.subscribeFO(remote, "server/value-" + version);
+            long giveUpAt = System.currentTimeMillis() + 2000;
+            while (value.get() != 7 && System.currentTimeMillis() < giveUpAt) {
+                // The link may not be up yet, so keep sending.
+                out.set(7);
+                Thread.sleep(20);
+            }
+            assertObjectEqual(value.get(), 7.0f, "Value was not sent between nodes in version " + version + "!");
+        } finally {
+            client.terminate();
+            CluckProtocol.setMaximumProtocolVersion(CluckProtocol.PROTOCOL_VERSION_COMPACT);
+        }
+    }
+
+    private void assertBytesEqual(byte[] a, byte[] b, String message) throws TestingException {
+        assertIntsEqual(a.length, b.length, message);
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                assertFail(message + " (at " + i + ")");
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import java.io.IOException;
+
+import ccre.cluck.CluckNode;
+import ccre.cluck.tcp.CluckProtocol;
+import ccre.cluck.tcp.CluckQueuePolicy;
+import ccre.cluck.tcp.CluckQueueStatus;
+import ccre.cluck.tcp.CluckTCPServer;
+
+/**
+ * A test that tests the queue policies of Cluck connections, and the queue
+ * status that they report to.
+ *
+ * @author skeggsc
+ */
+public class TestCluckQueuePolicy extends BaseTest {
+
+    private static final int PORT = 44622;
+    private static final int LATENCY = 150;
+
+    @Override
+    public String getName() {
+        return "Cluck queue policies";
+    }
+
+    private final CluckNode node = new CluckNode();
+    private final CluckQueueStatus status = CluckProtocol.getQueueStatus();
+    private CluckTCPServer server;
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        testBadArguments();
+        server = CluckTestPeer.startServer(node, PORT);
+        try {
+            testDropNewest();
+            testDropOldest();
+            testCoalesce();
+            testBlock();
+            testClearOnDisconnect();
+        } catch (IOException ex) {
+            throw new TestingException("Unexpected IO error: " + ex);
+        } finally {
+            CluckProtocol.setMaximumBatchLatency(0);
+        }
+    }
+
+    private void testBadArguments() throws TestingException {
+        assertIntsEqual(CluckQueuePolicy.block(3).capacity, 3, "Bad capacity!");
+        assertObjectEqual(CluckQueuePolicy.dropOldest(2).toString(), "drop-oldest(2)", "Bad description!");
+        try {
+            CluckQueuePolicy.dropNewest(0);
+            assertFail("Capacity of zero should have been rejected!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+        try {
+            CluckQueuePolicy.coalesce(-1);
+            assertFail("Negative capacity should have been rejected!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+    }
+
+    /**
+     * Connect with the specified policy, and wait until the sender is idle, so
+     * that the next messages wait in the queue for the batch latency. Waiting
+     * for a keep-alive also makes sure that the server has replaced the link
+     * from the last connection.
+     */
+    private CluckTestPeer connect(CluckQueuePolicy policy) throws IOException, InterruptedException {
+        server.setQueuePolicy(policy);
+        CluckTestPeer peer = CluckTestPeer.connect(PORT, "peer", CluckProtocol.PROTOCOL_VERSION_COMPACT);
+        while (!"KEEPALIVE".equals(peer.receiveAny().dest)) {
+        }
+        Thread.sleep(20);
+        CluckProtocol.setMaximumBatchLatency(LATENCY);
+        return peer;
+    }
+
+    private void testDropNewest() throws TestingException, IOException, InterruptedException {
+        CluckTestPeer peer = connect(CluckQueuePolicy.dropNewest(2));
+        int depth = status.getDepth(), dropped = status.getDropped();
+        sendEvents(1, 4);
+        assertIntsEqual(status.getDepth(), depth + 2, "Queue held more than its capacity!");
+        assertIntsEqual(status.getDropped(), dropped + 2, "Drops were not counted!");
+        assertObjectEqual(peer.receive().dest, "e1", "Wrong message dropped!");
+        assertObjectEqual(peer.receive().dest, "e2", "Wrong message dropped!");
+        assertIntsEqual(status.getDepth(), depth, "Queue depth was not restored!");
+        peer.close();
+    }
+
+    private void testDropOldest() throws TestingException, IOException, InterruptedException {
+        CluckTestPeer peer = connect(CluckQueuePolicy.dropOldest(2));
+        int depth = status.getDepth(), dropped = status.getDropped();
+        sendEvents(1, 4);
+        // Something more urgent can't be dropped for something less urgent.
+        node.transmit("peer/normal", null, new byte[] { CluckNode.RMT_NEGATIVE_ACK });
+        assertIntsEqual(status.getDepth(), depth + 2, "Queue held more than its capacity!");
+        assertIntsEqual(status.getDropped(), dropped + 3, "Drops were not counted!");
+        assertObjectEqual(peer.receive().dest, "e3", "Wrong message dropped!");
+        assertObjectEqual(peer.receive().dest, "e4", "Wrong message dropped!");
+        assertIntsEqual(status.getDepth(), depth, "Queue depth was not restored!");
+        peer.close();
+    }
+
+    private void testCoalesce() throws TestingException, IOException, InterruptedException {
+        CluckTestPeer peer = connect(CluckQueuePolicy.coalesce(2));
+        int depth = status.getDepth(), dropped = status.getDropped();
+        node.transmit("peer/f", null, new byte[] { CluckNode.RMT_FLOATOUTP, 0, 0, 0, 1 });
+        node.transmit("peer/h", null, new byte[] { CluckNode.RMT_FLOATOUTP, 0, 0, 0, 9 });
+        node.transmit("peer/f", null, new byte[] { CluckNode.RMT_FLOATOUTP, 0, 0, 0, 2 });
+        assertIntsEqual(status.getDepth(), depth + 2, "Queue held more than its capacity!");
+        assertIntsEqual(status.getDropped(), dropped, "Coalesced value was counted as a drop!");
+        // Anything else is handled like dropOldest.
+        sendEvents(1, 1);
+        assertIntsEqual(status.getDepth(), depth + 2, "Queue held more than its capacity!");
+        assertIntsEqual(status.getDropped(), dropped + 1, "Drops were not counted!");
+        CluckTestPeer.Frame frame = peer.receive();
+        assertObjectEqual(frame.dest, "f", "Wrong message dropped!");
+        assertIntsEqual(frame.data[4], 2, "Coalescing did not keep the latest value!");
+        assertObjectEqual(peer.receive().dest, "e1", "Wrong message dropped!");
+        assertIntsEqual(status.getDepth(), depth, "Queue depth was not restored!");
+        peer.close();
+    }
+
+    private void testBlock() throws TestingException, IOException, InterruptedException {
+        CluckTestPeer peer = connect(CluckQueuePolicy.block(2));
+        int depth = status.getDepth(), dropped = status.getDropped();
+        long start = System.currentTimeMillis();
+        sendEvents(1, 2);
+        assertIntsEqual(status.getDepth(), depth + 2, "Messages were not queued!");
+        sendEvents(3, 3);
+        assertTrue(System.currentTimeMillis() - start >= LATENCY / 2, "Sender was not blocked!");
+        assertIntsEqual(status.getDropped(), dropped, "Blocked message was dropped!");
+        for (int i = 1; i <= 3; i++) {
+            assertObjectEqual(peer.receive().dest, "e" + i, "Blocked message was not sent in order!");
+        }
+        peer.close();
+    }
+
+    private void testClearOnDisconnect() throws TestingException, IOException, InterruptedException {
+        CluckTestPeer peer = connect(CluckQueuePolicy.dropNewest(4));
+        CluckProtocol.setMaximumBatchLatency(0);
+        int depth = status.getDepth();
+        // Far more than the connection can buffer, so that the sender gets
+        // stuck and the queue fills while nothing is read.
+        byte[] large = new byte[1024 * 1024];
+        large[0] = CluckNode.RMT_NEGATIVE_ACK;
+        for (int i = 0; i < 32; i++) {
+            node.transmit("peer/large", null, large);
+        }
+        assertIntsEqual(status.getDepth(), depth + 4, "Queue did not fill up!");
+        peer.close();
+        long giveUpAt = System.currentTimeMillis() + 2000;
+        while (status.getDepth() != depth && System.currentTimeMillis() < giveUpAt) {
+            Thread.sleep(10);
+        }
+        assertIntsEqual(status.getDepth(), depth, "Queue was not cleared when the connection closed!");
+    }
+
+    private void sendEvents(int first, int last) {
+        for (int i = first; i <= last; i++) {
+            node.transmit("peer/e" + i, null, new byte[] { CluckNode.RMT_EVENTOUTP });
+        }
+    }
+}
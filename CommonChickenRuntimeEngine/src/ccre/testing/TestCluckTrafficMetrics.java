@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.EventOutput;
+import ccre.cluck.CluckNode;
+import ccre.cluck.CluckPublisher;
+import ccre.cluck.CluckTrafficMetrics;
+import ccre.time.Clock;
+import ccre.time.VirtualClock;
+
+/**
+ * A test that tests the measurements of Cluck traffic.
+ *
+ * @author skeggsc
+ */
+public class TestCluckTrafficMetrics extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "Cluck traffic metrics";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        VirtualClock clock = new VirtualClock();
+        Clock old = Clock.setClock(clock);
+        try {
+            testSampling(clock);
+        } finally {
+            Clock.setClock(old);
+        }
+    }
+
+    private void testSampling(VirtualClock clock) throws TestingException {
+        CluckNode node = new CluckNode();
+        CluckTrafficMetrics metrics = node.getTrafficMetrics();
+        assertIdentityEqual(metrics, node.getTrafficMetrics(), "Traffic metrics were not reused!");
+        CluckPublisher.publish(node, "event", new EventOutput() {
+            public void event() {
+            }
+        });
+        EventOutput remote = CluckPublisher.subscribeEO(node, "event");
+
+        remote.event();
+        metrics.recordSent("link", new byte[10], System.currentTimeMillis());
+        assertFalse(metrics.isEnabled(), "Metrics should start disabled!");
+        clock.advanceMillis(10);
+        metrics.sample();
+        assertIdentityEqual(metrics.getRMTMessageRate(CluckNode.RMT_EVENTOUTP), null, "Messages were counted while disabled!");
+
+        metrics.enable();
+        assertTrue(metrics.isEnabled(), "Metrics were not enabled!");
+        for (int i = 0; i < 5; i++) {
+            remote.event();
+        }
+        long queuedAt = System.currentTimeMillis() - 20;
+        metrics.recordSent("link", new byte[10], queuedAt);
+        metrics.recordSent("link", new byte[6], queuedAt);
+        metrics.recordReceived("link", new byte[4], 3);
+        metrics.recordQueueDepth("link", 7);
+        metrics.recordChecksumFailure("link");
+        metrics.recordChecksumFailure("link");
+        clock.advanceMillis(10);
+        metrics.sample();
+
+        assertTrue(metrics.getRMTMessageRate(CluckNode.RMT_EVENTOUTP).get() > 0, "Routed messages were not counted!");
+        assertIdentityEqual(metrics.getRMTMessageRate(CluckNode.RMT_LOGTARGET), null, "Unused RMT type was counted!");
+        float out = metrics.getLinkMetric("link", "messages-out-per-sec").get(), bytes = metrics.getLinkMetric("link", "bytes-out-per-sec").get();
+        assertTrue(out > 0, "Sent messages were not counted!");
+        assertObjectEqual(bytes / out, 8.0f, "Sent bytes were not counted!");
+        assertTrue(metrics.getLinkMetric("link", "send-latency-ms").get() >= 20, "Send latency was not measured!");
+        assertObjectEqual(metrics.getLinkMetric("link", "dispatch-latency-ms").get(), 3.0f, "Dispatch latency was not measured!");
+        assertObjectEqual(metrics.getLinkMetric("link", "queue-depth").get(), 7.0f, "Queue depth was not reported!");
+        assertObjectEqual(metrics.getLinkMetric("link", "checksum-failures").get(), 2.0f, "Checksum failures were not counted!");
+        assertIdentityEqual(metrics.getLinkMetric("missing", "queue-depth"), null, "Unknown link had metrics!");
+
+        // Without any elapsed time, the rates stay put and the counts are
+        // kept, but everything else is still updated.
+        float rate = metrics.getRMTMessageRate(CluckNode.RMT_EVENTOUTP).get();
+        remote.event();
+        metrics.recordQueueDepth("link", 3);
+        metrics.sample();
+        assertObjectEqual(metrics.getRMTMessageRate(CluckNode.RMT_EVENTOUTP).get(), rate, "Rate changed without elapsed time!");
+        assertObjectEqual(metrics.getLinkMetric("link", "messages-out-per-sec").get(), out, "Rate changed without elapsed time!");
+        assertObjectEqual(metrics.getLinkMetric("link", "queue-depth").get(), 3.0f, "Queue depth was not updated without elapsed time!");
+        try {
+            metrics.getLinkMetric("link", "nonexistent");
+            assertFail("Unknown metric should have been rejected!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+
+        clock.advanceMillis(10);
+        metrics.sample();
+        assertObjectEqual(metrics.getLinkMetric("link", "messages-out-per-sec").get(), 0.0f, "Rates were not reset!");
+        assertObjectEqual(metrics.getRMTMessageRate(CluckNode.RMT_EVENTOUTP).get(), 100.0f, "Counts were lost by a sample without elapsed time!");
+        assertObjectEqual(metrics.getLinkMetric("link", "checksum-failures").get(), 2.0f, "Checksum failures should be cumulative!");
+
+        for (int i = 0; i < CluckTrafficMetrics.MAX_TRACKED_LINKS + 5; i++) {
+            metrics.recordQueueDepth("extra-" + i, 1);
+        }
+        clock.advanceMillis(10);
+        metrics.sample();
+        assertIdentityEqual(metrics.getLinkMetric("extra-" + (CluckTrafficMetrics.MAX_TRACKED_LINKS + 4), "queue-depth"), null, "Too many links were tracked!");
+        assertObjectEqual(metrics.getLinkMetric("other", "queue-depth").get(), 1.0f, "Extra links were not counted together!");
+    }
+}
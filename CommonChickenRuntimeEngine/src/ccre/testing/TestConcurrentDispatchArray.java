@@ -21,6 +21,7 @@ package ccre.testing;
 import java.util.Iterator;
 
 import ccre.concurrency.ConcurrentDispatchArray;
+import ccre.util.CArrayList;
 
 /**
  * A test that tests some parts of the ConcurrentDispatchArray class.
@@ -47,5 +48,58 @@ public class TestConcurrentDispatchArray extends BaseTest {
         assertFalse(itr.hasNext(), "Bad iterator!");
         arr.remove(test);
         assertFalse(arr.contains(test), "Bad remove!");
+        testBatchOperations();
+        testIdentityRemoval();
+    }
+
+    private void testBatchOperations() throws TestingException {
+        ConcurrentDispatchArray<Object> arr = new ConcurrentDispatchArray<Object>();
+        CArrayList<Object> batch = new CArrayList<Object>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(i);
+        }
+        assertFalse(arr.addAll(new CArrayList<Object>()), "Empty addAll modified the array!");
+        assertTrue(arr.addAll(batch), "Bad addAll!");
+        assertIntsEqual(arr.size(), 10, "Bad addAll!");
+        CArrayList<Object> evens = new CArrayList<Object>();
+        for (int i = 0; i < 10; i += 2) {
+            evens.add(i);
+        }
+        assertTrue(arr.removeAll(evens), "Bad removeAll!");
+        assertFalse(arr.removeAll(evens), "Repeated removeAll modified the array!");
+        Object[] left = arr.toArray();
+        assertIntsEqual(left.length, 5, "Bad removeAll!");
+        for (int i = 0; i < left.length; i++) {
+            assertObjectEqual(left[i], i * 2 + 1, "Bad order after removeAll!");
+        }
+        CArrayList<Object> keep = new CArrayList<Object>();
+        keep.add(3);
+        keep.add(7);
+        assertTrue(arr.retainAll(keep), "Bad retainAll!");
+        assertFalse(arr.retainAll(keep), "Repeated retainAll modified the array!");
+        assertIntsEqual(arr.size(), 2, "Bad retainAll!");
+        assertTrue(arr.containsAll(keep), "Bad retainAll!");
+        CArrayList<Object> withNull = new CArrayList<Object>();
+        withNull.add(1);
+        withNull.add(null);
+        try {
+            arr.addAll(withNull);
+            assertFail("Expected a NullPointerException!");
+        } catch (NullPointerException ex) {
+            // Correct!
+        }
+        assertIntsEqual(arr.size(), 2, "Failed addAll modified the array!");
+    }
+
+    private void testIdentityRemoval() throws TestingException {
+        ConcurrentDispatchArray<String> arr = new ConcurrentDispatchArray<String>();
+        String first = new String("value"), second = new String("value");
+        arr.add(first);
+        arr.add(second);
+        assertTrue(arr.remove(second), "Bad remove!");
+        assertIdentityEqual(arr.iterator().next(), first, "Identical element was not removed first!");
+        assertTrue(arr.remove("value"), "Equal element was not removed!");
+        assertTrue(arr.isEmpty(), "Bad remove!");
+        assertFalse(arr.remove("value"), "Removed a missing element!");
     }
 }
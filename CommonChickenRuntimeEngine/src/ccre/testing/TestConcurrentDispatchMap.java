@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import java.util.Iterator;
+
+import ccre.concurrency.ConcurrentDispatchMap;
+
+/**
+ * A test that tests some parts of the ConcurrentDispatchMap class.
+ *
+ * @author skeggsc
+ */
+public class TestConcurrentDispatchMap extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "ConcurrentDispatchMap basic test";
+    }
+
+    @Override
+    protected void runTest() throws TestingException {
+        ConcurrentDispatchMap<String, Object> map = new ConcurrentDispatchMap<String, Object>();
+        Object a = new Object(), b = new Object();
+        assertTrue(map.isEmpty(), "Bad isEmpty!");
+        assertObjectEqual(map.put("a", a), null, "Bad put!");
+        assertIdentityEqual(map.putIfAbsent("a", b), a, "Bad putIfAbsent!");
+        assertIdentityEqual(map.get("a"), a, "Bad get!");
+        assertIdentityEqual(map.put("a", b), a, "Bad put!");
+        assertIdentityEqual(map.get("a"), b, "Bad get!");
+        assertFalse(map.remove("a", a), "Bad conditional remove!");
+        assertTrue(map.containsKey("a"), "Bad conditional remove!");
+
+        for (int i = 0; i < 100; i++) {
+            map.put("key-" + i, a);
+        }
+        assertIntsEqual(map.size(), 101, "Bad size!");
+        for (int i = 0; i < 100; i += 2) {
+            assertIdentityEqual(map.remove("key-" + i), a, "Bad remove!");
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(map.containsKey("key-" + i) == (i % 2 == 1), "Bad contents after removal!");
+        }
+
+        Iterator<String> itr = map.iterator();
+        map.clear();
+        assertTrue(map.isEmpty(), "Bad clear!");
+        int count = 0;
+        while (itr.hasNext()) {
+            map.put(itr.next(), b);
+            count++;
+        }
+        assertIntsEqual(count, 51, "Iterator did not use a snapshot!");
+
+        Iterator<Object> vitr = map.valueIterator();
+        while (vitr.hasNext()) {
+            assertIdentityEqual(vitr.next(), b, "Bad value iterator!");
+            vitr.remove();
+        }
+        assertTrue(map.isEmpty(), "Bad value iterator removal!");
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.BooleanOutput;
+import ccre.channel.BooleanStatus;
+import ccre.channel.DeferredPropagation;
+import ccre.channel.FloatOutput;
+import ccre.channel.FloatStatus;
+
+/**
+ * Test deferred statuses and DeferredPropagation.
+ *
+ * @author skeggsc
+ */
+public class TestDeferredPropagation extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "DeferredPropagation tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        testDiamond();
+        testCoalescing();
+        testUndeferring();
+    }
+
+    private void testDiamond() throws TestingException {
+        DeferredPropagation propagation = new DeferredPropagation();
+        final FloatStatus a = new FloatStatus(), b = new FloatStatus(), c = new FloatStatus(), d = new FloatStatus();
+        a.setDeferred(propagation);
+        b.setDeferred(propagation);
+        c.setDeferred(propagation);
+        d.setDeferred(propagation);
+        a.send(new FloatOutput() {
+            public void set(float value) {
+                b.set(value * 2);
+            }
+        });
+        a.send(new FloatOutput() {
+            public void set(float value) {
+                c.set(value + 1);
+            }
+        });
+        FloatOutput sum = new FloatOutput() {
+            public void set(float value) {
+                d.set(b.get() + c.get());
+            }
+        };
+        b.send(sum);
+        c.send(sum);
+        final int[] calls = new int[1];
+        final float[] seen = new float[1];
+        d.send(new FloatOutput() {
+            public void set(float value) {
+                calls[0]++;
+                seen[0] = value;
+            }
+        });
+        // The first flush finds the order of the statuses, so it might notify
+        // consumers more than once.
+        propagation.event();
+        for (int i = 1; i <= 5; i++) {
+            calls[0] = 0;
+            a.set(i - 0.5f);
+            a.set(i);
+            assertObjectEqual(a.get(), (float) i, "Deferred status did not return its latest value!");
+            assertIntsEqual(calls[0], 0, "Consumer was notified before the flush!");
+            propagation.event();
+            assertIntsEqual(calls[0], 1, "Consumer was not notified exactly once!");
+            assertObjectEqual(seen[0], 3f * i + 1, "Consumer saw an inconsistent value!");
+        }
+        propagation.event();
+        assertIntsEqual(calls[0], 1, "Consumer was notified without a change!");
+    }
+
+    private void testCoalescing() throws TestingException {
+        DeferredPropagation propagation = new DeferredPropagation();
+        BooleanStatus status = new BooleanStatus();
+        status.setDeferred(propagation);
+        assertTrue(status.isDeferred(), "Status should be deferred!");
+        final int[] calls = new int[1];
+        status.send(new BooleanOutput() {
+            public void set(boolean value) {
+                calls[0]++;
+            }
+        });
+        calls[0] = 0;
+        status.set(true);
+        status.set(false);
+        propagation.flush();
+        assertIntsEqual(calls[0], 0, "A change that was undone should not propagate!");
+        assertIntsEqual(propagation.getWrites(), 2, "Bad write count!");
+        status.set(true);
+        propagation.flush();
+        assertIntsEqual(calls[0], 1, "Change was not propagated!");
+        assertIntsEqual(propagation.getPropagations(), 2, "Bad propagation count!");
+    }
+
+    private void testUndeferring() throws TestingException {
+        DeferredPropagation propagation = new DeferredPropagation();
+        FloatStatus status = new FloatStatus(), mirror = new FloatStatus();
+        status.send(mirror);
+        status.setDeferred(propagation);
+        status.set(3);
+        assertObjectEqual(mirror.get(), 0f, "Deferred change was propagated early!");
+        status.setDeferred(null);
+        assertFalse(status.isDeferred(), "Status should not be deferred!");
+        assertObjectEqual(mirror.get(), 3f, "Pending change was lost when undeferred!");
+        status.set(4);
+        assertObjectEqual(mirror.get(), 4f, "Undeferred change was not propagated immediately!");
+        propagation.flush(); // The old entry should no longer do anything.
+        assertObjectEqual(mirror.get(), 4f, "Flush after undeferring changed the value!");
+    }
+}
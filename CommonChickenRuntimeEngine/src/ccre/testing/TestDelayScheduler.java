@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.EventOutput;
+import ccre.concurrency.DelayScheduler;
+import ccre.ctrl.EventMixing;
+import ccre.time.Clock;
+
+/**
+ * Tests the DelayScheduler class.
+ *
+ * @author skeggsc
+ */
+public class TestDelayScheduler extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "DelayScheduler tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        testOrdering();
+        testRescheduling();
+    }
+
+    private void testOrdering() throws TestingException, InterruptedException {
+        DelayScheduler scheduler = new DelayScheduler("TestScheduler");
+        final int[] order = new int[40];
+        final int[] fired = new int[1];
+        long base = Clock.millis() + 50;
+        for (int i = 0; i < order.length; i++) {
+            final int id = i;
+            // Insert out of order, so that the heap has to sort them.
+            scheduler.create(new EventOutput() {
+                public void event() {
+                    synchronized (fired) {
+                        order[fired[0]++] = id;
+                    }
+                }
+            }).scheduleAt(base + ((i * 17) % order.length) * 2);
+        }
+        assertIntsEqual(scheduler.getScheduledCount(), order.length, "Bad scheduled count!");
+        Thread.sleep(250);
+        synchronized (fired) {
+            assertIntsEqual(fired[0], order.length, "Not everything fired!");
+            for (int i = 1; i < order.length; i++) {
+                assertTrue((order[i - 1] * 17) % order.length < (order[i] * 17) % order.length, "Fired out of order!");
+            }
+        }
+        assertIntsEqual(scheduler.getScheduledCount(), 0, "Fired delays should not still be scheduled!");
+    }
+
+    private void testRescheduling() throws TestingException, InterruptedException {
+        DelayScheduler scheduler = new DelayScheduler("TestScheduler");
+        final int[] fired = new int[1];
+        DelayScheduler.Delay delay = scheduler.create(new EventOutput() {
+            public void event() {
+                synchronized (fired) {
+                    fired[0]++;
+                }
+            }
+        });
+        DelayScheduler.Delay other = scheduler.create(EventMixing.ignored);
+        other.scheduleAfter(60);
+        delay.scheduleAfter(40);
+        assertTrue(delay.isScheduled(), "Delay was not scheduled!");
+        Thread.sleep(20);
+        delay.scheduleAfter(40); // Pushed back, like a feed.
+        Thread.sleep(30);
+        synchronized (fired) {
+            assertIntsEqual(fired[0], 0, "Delay fired at its old time!");
+        }
+        Thread.sleep(40);
+        synchronized (fired) {
+            assertIntsEqual(fired[0], 1, "Delay did not fire at its new time!");
+        }
+        assertFalse(other.isScheduled(), "Other delay did not fire!");
+        delay.scheduleAfter(20);
+        delay.cancel();
+        assertFalse(delay.isScheduled(), "Delay was not cancelled!");
+        delay.cancel(); // Does nothing.
+        Thread.sleep(50);
+        synchronized (fired) {
+            assertIntsEqual(fired[0], 1, "Cancelled delay fired!");
+        }
+    }
+}
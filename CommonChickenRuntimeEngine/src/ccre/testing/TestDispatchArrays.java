@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.EventDispatchArray;
+import ccre.channel.EventOutput;
+import ccre.channel.FloatDispatchArray;
+import ccre.channel.FloatOutput;
+import ccre.channel.FloatStatus;
+
+/**
+ * Test the dispatch arrays used by the statuses.
+ *
+ * @author skeggsc
+ */
+public class TestDispatchArrays extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "Dispatch array tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        testFloatDispatch();
+        testEventFailureRecovery();
+        testConcurrentSetters();
+    }
+
+    private void testFloatDispatch() throws TestingException {
+        final FloatDispatchArray array = new FloatDispatchArray();
+        final FloatStatus a = new FloatStatus(), b = new FloatStatus();
+        assertTrue(array.isEmpty(), "Array should start empty!");
+        array.set(1); // Nothing to set.
+        array.add(a);
+        assertFalse(array.addIfNotFound(a), "Duplicate should not have been added!");
+        array.add(new FloatOutput() {
+            public void set(float value) {
+                // Changes made during dispatch only affect later dispatches.
+                array.add(b);
+                array.remove(this);
+            }
+        });
+        assertIntsEqual(array.size(), 2, "Bad size!");
+        array.set(2);
+        assertObjectEqual(a.get(), 2.0f, "Target was not set!");
+        assertObjectEqual(b.get(), 0.0f, "Target added during dispatch was set!");
+        assertIntsEqual(array.size(), 2, "Targets were not changed by the dispatch!");
+        array.set(3);
+        assertObjectEqual(b.get(), 3.0f, "Target added during dispatch was not set later!");
+        assertTrue(array.remove(a), "Target could not be removed!");
+        assertFalse(array.remove(a), "Target was removed twice!");
+        array.clear();
+        assertTrue(array.isEmpty(), "Array was not cleared!");
+    }
+
+    private void testEventFailureRecovery() throws TestingException {
+        EventDispatchArray array = new EventDispatchArray();
+        final int[] fired = new int[1];
+        EventOutput good = new EventOutput() {
+            public void event() {
+                fired[0]++;
+            }
+        };
+        array.add(new EventOutput() {
+            public void event() {
+                throw new RuntimeException("Purposeful failure.");
+            }
+        });
+        array.add(good);
+        assertTrue(array.eventWithFailureRecovery(), "Failing target was not reported!");
+        assertIntsEqual(fired[0], 1, "Good target was not fired!");
+        assertIntsEqual(array.size(), 1, "Failing target was not removed!");
+        assertFalse(array.eventWithFailureRecovery(), "Nothing should have failed!");
+        array.event();
+        assertIntsEqual(fired[0], 3, "Good target was not fired!");
+    }
+
+    private void testConcurrentSetters() throws TestingException, InterruptedException {
+        final FloatStatus source = new FloatStatus();
+        final FloatStatus mirror = new FloatStatus();
+        source.send(mirror);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        source.set(i * threads.length + offset);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertObjectEqual(mirror.get(), source.get(), "Consumer did not end with the current value!");
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.DispatchProfiler;
+import ccre.channel.EventOutput;
+import ccre.channel.EventStatus;
+import ccre.channel.FloatOutput;
+import ccre.channel.FloatStatus;
+import ccre.log.Logger;
+
+/**
+ * Tests the DispatchProfiler class.
+ *
+ * @author skeggsc
+ */
+public class TestDispatchProfiler extends BaseTest {
+
+    private static final EventOutput NOTHING = new EventOutput() {
+        public void event() {
+        }
+    };
+
+    @Override
+    public String getName() {
+        return "DispatchProfiler tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        testEventProfiling();
+        testFailureRecovery();
+        testFloatProfiling();
+        testForgetting();
+    }
+
+    private void testEventProfiling() throws TestingException {
+        final int[] fast = new int[1];
+        EventOutput quick = new EventOutput() {
+            public void event() {
+                fast[0]++;
+            }
+        };
+        EventOutput slow = new EventOutput() {
+            public void event() {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException ex) {
+                    // Ignore it.
+                }
+            }
+        };
+        EventStatus status = new EventStatus(quick, slow);
+        DispatchProfiler profiler = new DispatchProfiler("test");
+        profiler.setOverrunThreshold(3);
+        status.setProfiler(profiler);
+        Logger.info("The following overrun warning is purposeful.");
+        for (int i = 0; i < 10; i++) {
+            status.produce();
+        }
+        assertIntsEqual(fast[0], 10, "Consumer was not called!");
+        assertIntsEqual(profiler.getDispatchCount(), 10, "Bad dispatch count!");
+        assertIntsEqual(profiler.getOverrunCount(), 10, "Overruns were not flagged!");
+        DispatchProfiler.Profile quickProfile = profiler.getProfile(quick), slowProfile = profiler.getProfile(slow);
+        assertIntsEqual(quickProfile.getCount(), 10, "Bad call count!");
+        assertIntsEqual(slowProfile.getCount(), 10, "Bad call count!");
+        assertTrue(slowProfile.getMinimum() >= 4000000, "Slow consumer was too fast: " + slowProfile);
+        assertTrue(quickProfile.getMaximum() < slowProfile.getMinimum(), "Quick consumer was slower than the slow one!");
+        assertTrue(slowProfile.getMinimum() <= slowProfile.getAverage() && slowProfile.getAverage() <= slowProfile.getMaximum(), "Bad average: " + slowProfile);
+        long p99 = slowProfile.getPercentile(0.99f);
+        assertTrue(p99 <= slowProfile.getMaximum() && p99 >= slowProfile.getMaximum() * 3 / 4, "Bad percentile: " + p99 + " in " + slowProfile);
+        assertIntsEqual(profiler.getProfiles().length, 2, "Bad profile count!");
+
+        profiler.reset();
+        assertIntsEqual(slowProfile.getCount(), 0, "Profile was not reset!");
+        assertIntsEqual(profiler.getOverrunCount(), 0, "Overruns were not reset!");
+        status.setProfiler(null);
+        status.produce();
+        assertIntsEqual(quickProfile.getCount(), 0, "Profiling did not stop!");
+        assertIntsEqual(fast[0], 11, "Consumer was not called!");
+    }
+
+    private void testFailureRecovery() throws TestingException {
+        EventStatus status = new EventStatus();
+        DispatchProfiler profiler = new DispatchProfiler("recovery");
+        status.setProfiler(profiler);
+        EventOutput broken = new EventOutput() {
+            public void event() {
+                throw new RuntimeException("Purposeful failure.");
+            }
+        };
+        status.send(broken);
+        status.send(NOTHING);
+        try {
+            status.produce();
+            assertFail("Expected an exception!");
+        } catch (RuntimeException ex) {
+            // Correct!
+        }
+        Logger.info("The following detachment is purposeful.");
+        assertTrue(status.produceWithFailureRecovery(), "Broken consumer was not detached!");
+        assertIntsEqual(status.countConsumers(), 1, "Broken consumer was not removed!");
+        assertIntsEqual(profiler.getProfile(broken).getCount(), 1, "Recovered call was not profiled!");
+        assertIntsEqual(profiler.getProfile(NOTHING).getCount(), 1, "Call after recovery was not profiled!");
+    }
+
+    private void testFloatProfiling() throws TestingException {
+        FloatStatus status = new FloatStatus();
+        DispatchProfiler profiler = new DispatchProfiler("float");
+        status.setProfiler(profiler);
+        final float[] seen = new float[1];
+        FloatOutput output = new FloatOutput() {
+            public void set(float value) {
+                seen[0] = value;
+            }
+        };
+        status.send(output);
+        status.set(3);
+        status.set(4);
+        assertObjectEqual(seen[0], 4f, "Consumer was not set!");
+        assertIntsEqual(profiler.getProfile(output).getCount(), 2, "Float consumer was not profiled!");
+    }
+
+    private void testForgetting() throws TestingException {
+        EventStatus status = new EventStatus();
+        DispatchProfiler profiler = new DispatchProfiler("forgetting");
+        status.setProfiler(profiler);
+        EventOutput[] consumers = new EventOutput[100];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new EventOutput() {
+                public void event() {
+                }
+            };
+            status.send(consumers[i]);
+        }
+        status.produce();
+        assertIntsEqual(profiler.getProfiles().length, 100, "Bad profile count!");
+        for (int i = 0; i < consumers.length; i += 2) {
+            status.unsend(consumers[i]);
+        }
+        status.produce();
+        assertIntsEqual(profiler.getProfiles().length, 50, "Removed consumers were not forgotten!");
+        assertIntsEqual(profiler.getProfile(consumers[1]).getCount(), 2, "Remaining consumer lost its profile!");
+
+        // Consumers that are equal but not identical have separate profiles.
+        EventOutput repeated = new EventOutput() {
+            public void event() {
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof EventOutput;
+            }
+
+            @Override
+            public int hashCode() {
+                return 0;
+            }
+        };
+        assertTrue(profiler.getProfile(repeated) != profiler.getProfile(consumers[1]), "Consumers were not told apart by identity!");
+
+        assertTrue(profiler.forget(consumers[1]), "Consumer was not forgotten!");
+        assertFalse(profiler.forget(consumers[1]), "Consumer was forgotten twice!");
+        assertFalse(profiler.forget(consumers[0]), "Removed consumer was still profiled!");
+        assertIntsEqual(profiler.getProfiles().length, 50, "Bad profile count after forgetting!");
+        status.produce();
+        assertIntsEqual(profiler.getProfile(consumers[3]).getCount(), 3, "Remaining consumer lost its profile!");
+    }
+}
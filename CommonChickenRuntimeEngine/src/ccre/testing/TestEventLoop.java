@@ -0,0 +1,322 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.BooleanStatus;
+import ccre.channel.EventOutput;
+import ccre.channel.FloatOutput;
+import ccre.channel.FloatStatus;
+import ccre.concurrency.DelayScheduler;
+import ccre.concurrency.EventLoop;
+import ccre.ctrl.BooleanMixing;
+import ccre.ctrl.Ticker;
+import ccre.instinct.AutonomousModeOverException;
+import ccre.instinct.InstinctModule;
+import ccre.log.Logger;
+
+/**
+ * Tests the EventLoop class, and that timers are marshalled onto the active
+ * loop.
+ *
+ * @author skeggsc
+ */
+public class TestEventLoop extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "EventLoop tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        testOrdering();
+        testInvokeAndWait();
+        testActiveLoop();
+        // Instinct threads never stop, so they are started from a daemon
+        // thread, which makes them daemons too.
+        final Throwable[] failure = new Throwable[1];
+        Thread instinct = new Thread("TestEventLoop-Instinct") {
+            @Override
+            public void run() {
+                try {
+                    testInstinctHandoff();
+                } catch (Throwable thr) {
+                    failure[0] = thr;
+                }
+            }
+        };
+        instinct.setDaemon(true);
+        instinct.start();
+        instinct.join();
+        if (failure[0] instanceof TestingException) {
+            throw (TestingException) failure[0];
+        } else if (failure[0] != null) {
+            throw new TestingException("Unexpected exception: " + failure[0]);
+        }
+    }
+
+    private static class Recorder implements EventOutput {
+        private final EventLoop loop;
+        private final StringBuilder log;
+        private final String name;
+        boolean offLoop;
+
+        Recorder(EventLoop loop, StringBuilder log, String name) {
+            this.loop = loop;
+            this.log = log;
+            this.name = name;
+        }
+
+        public void event() {
+            if (!loop.isLoopThread()) {
+                offLoop = true;
+            }
+            synchronized (log) {
+                log.append(name);
+            }
+        }
+    }
+
+    private void testOrdering() throws TestingException, InterruptedException {
+        EventLoop loop = new EventLoop("TestLoop");
+        StringBuilder log = new StringBuilder();
+        Recorder[] recorders = new Recorder[5];
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder(loop, log, Integer.toString(i));
+            loop.post(recorders[i]);
+        }
+        assertIntsEqual(loop.getPendingCount(), 5, "Tasks ran before the loop was started!");
+        assertFalse(loop.isRunning(), "Loop should not be running yet!");
+        loop.start();
+        try {
+            loop.start();
+            assertFail("Expected an IllegalStateException!");
+        } catch (IllegalStateException ex) {
+            // Correct!
+        }
+        Logger.info("The following exception is purposeful.");
+        loop.post(new EventOutput() {
+            public void event() {
+                throw new RuntimeException("Purposeful failure.");
+            }
+        });
+        loop.invokeAndWait(new Recorder(loop, log, "!"));
+        assertObjectEqual(log.toString(), "01234!", "Tasks ran out of order!");
+        for (Recorder r : recorders) {
+            assertFalse(r.offLoop, "Task ran off of the loop thread!");
+        }
+        assertTrue(loop.getExecutedCount() == 7, "Bad executed count: " + loop.getExecutedCount());
+        loop.terminate();
+        for (int i = 0; i < 100 && loop.isRunning(); i++) {
+            Thread.sleep(5);
+        }
+        assertFalse(loop.isRunning(), "Loop did not terminate!");
+        try {
+            loop.post(null);
+            assertFail("Expected a NullPointerException!");
+        } catch (NullPointerException ex) {
+            // Correct!
+        }
+    }
+
+    private void testInvokeAndWait() throws TestingException, InterruptedException {
+        final EventLoop loop = new EventLoop("TestLoop");
+        final boolean[] ran = new boolean[1];
+        EventOutput mark = new EventOutput() {
+            public void event() {
+                ran[0] = true;
+            }
+        };
+        loop.invokeAndWait(mark);
+        assertTrue(ran[0], "invokeAndWait on a stopped loop did not run the task!");
+        loop.start();
+        try {
+            loop.invokeAndWait(new EventOutput() {
+                public void event() {
+                    throw new IllegalStateException("Purposeful failure.");
+                }
+            });
+            assertFail("Expected the exception to be rethrown!");
+        } catch (IllegalStateException ex) {
+            // Correct!
+        }
+        ran[0] = false;
+        loop.invokeAndWait(new EventOutput() {
+            public void event() {
+                try {
+                    // Nested calls on the loop thread must not deadlock.
+                    loop.invokeAndWait(new EventOutput() {
+                        public void event() {
+                            ran[0] = loop.isLoopThread();
+                        }
+                    });
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        assertTrue(ran[0], "Nested invokeAndWait did not run on the loop!");
+        loop.terminate();
+    }
+
+    private void testActiveLoop() throws TestingException, InterruptedException {
+        final EventLoop loop = new EventLoop("TestLoop");
+        loop.start();
+        EventLoop old = EventLoop.setActive(loop);
+        Ticker ticker = new Ticker(5);
+        try {
+            final int[] ticks = new int[1];
+            final boolean[] offLoop = new boolean[1];
+            ticker.send(new EventOutput() {
+                public void event() {
+                    if (!EventLoop.isActiveThread()) {
+                        offLoop[0] = true;
+                    }
+                    ticks[0]++;
+                }
+            });
+            final boolean[] delayed = new boolean[1];
+            DelayScheduler.getDefault().create(new EventOutput() {
+                public void event() {
+                    delayed[0] = EventLoop.isActiveThread();
+                }
+            }).scheduleAfter(10);
+            Thread.sleep(100);
+            final int[] seen = new int[1];
+            loop.invokeAndWait(new EventOutput() {
+                public void event() {
+                    seen[0] = ticks[0];
+                }
+            });
+            assertTrue(seen[0] > 5, "Ticker did not run on the loop: " + seen[0]);
+            assertFalse(offLoop[0], "Ticker ran off of the loop thread!");
+            assertTrue(delayed[0], "Delay did not run on the loop thread!");
+            assertFalse(EventLoop.isActiveThread(), "Test thread is not the loop thread!");
+
+            final FloatStatus status = new FloatStatus();
+            final boolean[] notifiedOnLoop = new boolean[1];
+            status.send(new FloatOutput() {
+                public void set(float value) {
+                    notifiedOnLoop[0] = EventLoop.isActiveThread();
+                    if (value == 1) {
+                        // Reentrant sets must still leave consumers with the latest value.
+                        status.set(2);
+                    }
+                }
+            });
+            loop.invokeAndWait(new EventOutput() {
+                public void event() {
+                    status.set(1);
+                }
+            });
+            assertTrue(notifiedOnLoop[0], "Status was not set on the loop!");
+            assertObjectEqual(status.get(), 2f, "Reentrant set was lost!");
+        } finally {
+            ticker.terminate();
+            EventLoop.setActive(old);
+            loop.terminate();
+        }
+    }
+
+    private void testInstinctHandoff() throws TestingException, InterruptedException {
+        final EventLoop loop = new EventLoop("TestLoop");
+        loop.start();
+        EventLoop old = EventLoop.setActive(loop);
+        final BooleanStatus running = new BooleanStatus(true);
+        final Object release = new Object();
+        final boolean[] released = new boolean[1];
+        final boolean[] invoked = new boolean[2];
+        try {
+            // Blocked outside of a wait, in this case on a monitor.
+            InstinctModule blocked = new InstinctModule(running) {
+                @Override
+                protected void autonomousMain() throws AutonomousModeOverException, InterruptedException {
+                    synchronized (release) {
+                        while (!released[0]) {
+                            release.wait();
+                        }
+                    }
+                    waitUntil(BooleanMixing.alwaysFalse);
+                }
+            };
+            updateWithin(loop, blocked, "start");
+            updateWithin(loop, blocked, "blocked update");
+            updateWithin(loop, blocked, "update after a missed handoff");
+            synchronized (release) {
+                released[0] = true;
+                release.notifyAll();
+            }
+
+            // Waiting for the loop itself.
+            InstinctModule invoking = new InstinctModule(running) {
+                @Override
+                protected void autonomousMain() throws AutonomousModeOverException, InterruptedException {
+                    EventLoop.invokeOnActive(new EventOutput() {
+                        public void event() {
+                            invoked[0] = true;
+                            invoked[1] = EventLoop.isActiveThread();
+                        }
+                    });
+                    waitUntil(BooleanMixing.alwaysFalse);
+                }
+            };
+            updateWithin(loop, invoking, "start");
+            updateWithin(loop, invoking, "invoking update");
+            long giveUpAt = System.currentTimeMillis() + 1000;
+            while (!invoked[0] && System.currentTimeMillis() < giveUpAt) {
+                Thread.sleep(5);
+            }
+            assertTrue(invoked[0], "Module waiting on the loop deadlocked it!");
+            assertTrue(invoked[1], "Invocation from the module ran off of the loop!");
+        } finally {
+            running.set(false);
+            synchronized (release) {
+                released[0] = true;
+                release.notifyAll();
+            }
+            EventLoop.setActive(old);
+            loop.terminate();
+        }
+    }
+
+    /**
+     * Update the module from the loop, and fail if the loop waits on the
+     * module for too long.
+     */
+    private void updateWithin(EventLoop loop, final InstinctModule module, String what) throws TestingException, InterruptedException {
+        final boolean[] done = new boolean[1];
+        loop.post(new EventOutput() {
+            public void event() {
+                module.event();
+                synchronized (done) {
+                    done[0] = true;
+                    done.notifyAll();
+                }
+            }
+        });
+        long giveUpAt = System.currentTimeMillis() + 1000;
+        synchronized (done) {
+            long remaining;
+            while (!done[0] && (remaining = giveUpAt - System.currentTimeMillis()) > 0) {
+                done.wait(remaining);
+            }
+        }
+        assertTrue(done[0], "Loop got stuck on the module: " + what);
+    }
+}
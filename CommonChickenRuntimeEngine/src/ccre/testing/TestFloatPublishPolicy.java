@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.FloatStatus;
+import ccre.cluck.CluckLink;
+import ccre.cluck.CluckNode;
+import ccre.cluck.CluckPublisher;
+import ccre.cluck.FloatPublishPolicy;
+
+/**
+ * A test that tests FloatInputs published with a FloatPublishPolicy.
+ *
+ * @author skeggsc
+ */
+public class TestFloatPublishPolicy extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "FloatPublishPolicy tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        testDeadbandAndQuantization();
+        testRateLimiting();
+        testPolicyArguments();
+    }
+
+    private void testDeadbandAndQuantization() throws TestingException {
+        CluckNode node = new CluckNode();
+        FloatStatus input = new FloatStatus(1.1f);
+        CluckPublisher.publish(node, "input", input, new FloatPublishPolicy().setAbsoluteDeadband(0.5f).setQuantization(0.25f));
+        ReceivingLink link = new ReceivingLink();
+        node.addLink(link, "recv");
+        node.transmit("input", "recv", new byte[] { CluckNode.RMT_FLOATPROD });
+        assertIntsEqual(link.count, 1, "Subscription did not send the current value!");
+        assertObjectEqual(link.last, 1.0f, "Value was not quantized!");
+
+        input.set(1.3f);
+        input.set(1.4f);
+        assertIntsEqual(link.count, 1, "Change inside the deadband was sent!");
+        input.set(1.6f);
+        assertIntsEqual(link.count, 1, "Change equal to the deadband was sent!");
+        input.set(1.8f);
+        assertIntsEqual(link.count, 2, "Change outside the deadband was not sent!");
+        assertObjectEqual(link.last, 1.75f, "Value was not quantized!");
+        input.set(1.4f);
+        assertIntsEqual(link.count, 2, "Deadband was not relative to the last sent value!");
+        input.set(1.1f);
+        assertIntsEqual(link.count, 3, "Change outside the deadband was not sent!");
+        assertObjectEqual(link.last, 1.0f, "Value was not quantized!");
+
+        node.transmit("input", "recv", new byte[] { CluckNode.RMT_FLOATPROD_UNSUB });
+        input.set(10);
+        assertIntsEqual(link.count, 3, "Value was sent after unsubscription!");
+    }
+
+    private void testRateLimiting() throws TestingException, InterruptedException {
+        CluckNode node = new CluckNode();
+        FloatStatus input = new FloatStatus();
+        CluckPublisher.publish(node, "input", input, new FloatPublishPolicy().setMinimumInterval(100).setMaximumStaleness(400));
+        ReceivingLink link = new ReceivingLink();
+        node.addLink(link, "recv");
+        node.transmit("input", "recv", new byte[] { CluckNode.RMT_FLOATPROD });
+        assertIntsEqual(link.count, 1, "Subscription did not send the current value!");
+
+        input.set(1);
+        input.set(2);
+        assertIntsEqual(link.count, 1, "Minimum interval was not respected!");
+        Thread.sleep(200);
+        assertIntsEqual(link.count, 2, "Held-back value was not sent!");
+        assertObjectEqual(link.last, 2.0f, "Held-back value was not the latest!");
+
+        Thread.sleep(150);
+        assertIntsEqual(link.count, 2, "Value was resent too early!");
+        Thread.sleep(350);
+        assertIntsEqual(link.count, 3, "Stale value was not resent!");
+        assertObjectEqual(link.last, 2.0f, "Wrong value was resent!");
+
+        node.transmit("input", "recv", new byte[] { CluckNode.RMT_FLOATPROD_UNSUB });
+        Thread.sleep(500);
+        assertIntsEqual(link.count, 3, "Value was resent after unsubscription!");
+    }
+
+    private void testPolicyArguments() throws TestingException {
+        try {
+            new FloatPublishPolicy().setAbsoluteDeadband(-1);
+            assertFail("Expected a negative deadband to be rejected!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+        try {
+            new FloatPublishPolicy().setMinimumInterval(-1);
+            assertFail("Expected a negative interval to be rejected!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+    }
+
+    private static class ReceivingLink implements CluckLink {
+
+        public volatile int count;
+        public volatile float last;
+
+        public synchronized boolean send(String dest, String source, byte[] data) {
+            if (data.length == 5 && data[0] == CluckNode.RMT_FLOATPRODRESP) {
+                count++;
+                last = Float.intBitsToFloat(((data[1] & 0xFF) << 24) | ((data[2] & 0xFF) << 16) | ((data[3] & 0xFF) << 8) | (data[4] & 0xFF));
+            }
+            return true;
+        }
+    }
+}
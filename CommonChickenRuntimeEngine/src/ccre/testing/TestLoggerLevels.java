@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.log.LogLevel;
+import ccre.log.LogSite;
+import ccre.log.Logger;
+import ccre.log.LoggingTarget;
+import ccre.util.CArrayList;
+
+/**
+ * Tests the level gating and template formatting in Logger.
+ *
+ * @author skeggsc
+ */
+public class TestLoggerLevels extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "Logger level and template tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        CArrayList<LoggingTarget> others = new CArrayList<LoggingTarget>();
+        CArrayList<LogLevel> previous = new CArrayList<LogLevel>();
+        for (LoggingTarget lt : Logger.targets) {
+            others.add(lt);
+            previous.add(Logger.getMinimumLevel(lt));
+            Logger.setMinimumLevel(lt, LogLevel.SEVERE);
+        }
+        Recorder recorder = new Recorder();
+        Logger.addTarget(recorder, LogLevel.INFO);
+        try {
+            testGate(recorder);
+            testTemplates(recorder);
+            testCallSites(recorder);
+        } finally {
+            Logger.removeTarget(recorder);
+            for (int i = 0; i < others.size(); i++) {
+                Logger.setMinimumLevel(others.get(i), previous.get(i));
+            }
+        }
+        assertTrue(Logger.isLoggable(LogLevel.FINEST), "Threshold was not restored!");
+    }
+
+    /**
+     * Records the messages that contain [T].
+     */
+    private static class Recorder implements LoggingTarget {
+        private final CArrayList<String> seen = new CArrayList<String>();
+        private Throwable lastThrowable;
+
+        public synchronized void log(LogLevel level, String message, Throwable throwable) {
+            if (message.contains("[T]")) {
+                seen.add(level + " " + message);
+                lastThrowable = throwable;
+            }
+        }
+
+        public synchronized void log(LogLevel level, String message, String extended) {
+            if (message.contains("[T]")) {
+                seen.add(level + " " + message);
+            }
+        }
+
+        synchronized String take() {
+            StringBuilder sb = new StringBuilder();
+            for (String s : seen) {
+                sb.append(sb.length() == 0 ? "" : "|").append(s);
+            }
+            seen.clear();
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Counts how many times it has been converted to a String.
+     */
+    private static class Counted {
+        int formatted;
+
+        @Override
+        public String toString() {
+            formatted++;
+            return "counted";
+        }
+    }
+
+    private void testGate(Recorder recorder) throws TestingException {
+        assertFalse(Logger.isLoggable(LogLevel.FINE), "FINE should not be loggable!");
+        assertTrue(Logger.isLoggable(LogLevel.INFO), "INFO should be loggable!");
+        Logger.fine("[T] fine");
+        Logger.logExt(LogLevel.CONFIG, "[T] config", "extended");
+        Logger.warning("[T] warning");
+        assertObjectEqual(recorder.take(), "WARNING [T] warning", "Gate let the wrong messages through!");
+
+        Logger.setMinimumLevel(recorder, LogLevel.FINE);
+        assertTrue(Logger.isLoggable(LogLevel.FINE), "Lowering a minimum should open the gate!");
+        assertFalse(Logger.isLoggable(LogLevel.FINER), "FINER should not be loggable!");
+        Logger.fine("[T] fine");
+        assertObjectEqual(recorder.take(), "FINE [T] fine", "Lowered minimum was ignored!");
+        Logger.setMinimumLevel(recorder, LogLevel.INFO);
+        assertFalse(Logger.isLoggable(LogLevel.FINE), "Raising a minimum should close the gate!");
+    }
+
+    private void testTemplates(Recorder recorder) throws TestingException {
+        Counted counted = new Counted();
+        Logger.finef("[T] {}", counted);
+        Logger.configf("[T] {}", counted);
+        assertIntsEqual(counted.formatted, 0, "Argument was formatted for a gated message!");
+        Logger.infof("[T] {} and {}", counted, 3);
+        assertIntsEqual(counted.formatted, 1, "Argument was not formatted exactly once!");
+        assertObjectEqual(recorder.take(), "INFO [T] counted and 3", "Bad template substitution!");
+
+        Logger.warningf("[T] {} {}", "one");
+        Logger.severef("[T] none", "extra");
+        Logger.logf(LogLevel.INFO, "[T] {}", (Object) null);
+        assertObjectEqual(recorder.take(), "WARNING [T] one {}|SEVERE [T] none|INFO [T] null", "Bad handling of missing or extra arguments!");
+
+        Throwable thr = new Throwable("purposeful");
+        Logger.warningf("[T] failed: {}", "here", thr);
+        assertObjectEqual(recorder.take(), "WARNING [T] failed: here", "Bad message with a trailing Throwable!");
+        assertIdentityEqual(recorder.lastThrowable, thr, "Trailing Throwable was not logged!");
+        Logger.warningf("[T] failed: {}", thr);
+        assertObjectEqual(recorder.take(), "WARNING [T] failed: " + thr, "Consumed Throwable should be formatted!");
+        assertIdentityEqual(recorder.lastThrowable, null, "Consumed Throwable should not be logged!");
+
+        try {
+            Logger.infof(null);
+            assertFail("Expected a NullPointerException!");
+        } catch (NullPointerException ex) {
+            // Correct!
+        }
+    }
+
+    private static final LogSite SITE = new LogSite(LogLevel.INFO, "log site [T] {}");
+
+    private void testCallSites(Recorder recorder) throws TestingException {
+        for (int i = 0; i < 2; i++) {
+            SITE.log(i);
+        }
+        String expected = "(TestLoggerLevels.java:";
+        String[] lines = recorder.take().split("\\|");
+        assertIntsEqual(lines.length, 2, "Wrong number of messages!");
+        for (String line : lines) {
+            assertTrue(line.startsWith("INFO " + expected), "Missing caller information: " + line);
+        }
+        assertObjectEqual(lines[0].replace(" 0", " 1"), lines[1], "Call site information changed!");
+
+        // The location of a LogSite is cached, so using it from another line
+        // still reports the first one.
+        String first = prefixOf(lines[0]);
+        SITE.log(2);
+        assertObjectEqual(recorder.take(), first + " log site [T] 2", "LogSite location was not cached!");
+
+        // Sites that share a template without a LogSite each report their own
+        // location.
+        Logger.infof("shared site [T] {}", 0);
+        Logger.infof("shared site [T] {}", 1);
+        lines = recorder.take().split("\\|");
+        assertIntsEqual(lines.length, 2, "Wrong number of messages!");
+        assertTrue(prefixOf(lines[0]).startsWith("INFO " + expected) && prefixOf(lines[1]).startsWith("INFO " + expected), "Missing caller information!");
+        assertFalse(prefixOf(lines[0]).equals(prefixOf(lines[1])), "Different sites reported the same location!");
+    }
+
+    private static String prefixOf(String line) {
+        return line.substring(0, line.indexOf(')') + 1);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.BooleanInputPoll;
+import ccre.channel.BooleanStatus;
+import ccre.channel.FloatInputPoll;
+import ccre.channel.FloatStatus;
+import ccre.ctrl.FloatMixing;
+import ccre.ctrl.Mixing;
+import ccre.ctrl.MixingGraph;
+import ccre.ctrl.MixingGraph.BooleanNode;
+import ccre.ctrl.MixingGraph.FloatNode;
+import ccre.ctrl.MixingPlan;
+
+/**
+ * Test MixingGraph and MixingPlan.
+ *
+ * @author skeggsc
+ */
+public class TestMixingGraph extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "MixingGraph tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException {
+        testMatchesMixing();
+        testOptimization();
+        testErrors();
+    }
+
+    private void testMatchesMixing() throws TestingException {
+        FloatStatus axis = new FloatStatus();
+        BooleanStatus shift = new BooleanStatus(), brake = new BooleanStatus();
+
+        FloatInputPoll expected = Mixing.quadSelect((BooleanInputPoll) shift, (BooleanInputPoll) brake, FloatMixing.limit(-0.5f, 0.5f).wrap(FloatMixing.deadzone(FloatMixing.negate((FloatInputPoll) axis), 0.1f)), FloatMixing.always(0), FloatMixing.normalizeFloat((FloatInputPoll) axis, -1, 1), FloatMixing.always(0));
+
+        MixingGraph graph = new MixingGraph();
+        FloatNode in = graph.floatInput(axis);
+        FloatNode zero = graph.constant(0);
+        BooleanNode shifted = graph.booleanInput(shift), braking = graph.booleanInput(brake);
+        FloatNode out = graph.quadSelect(shifted, braking, graph.limit(graph.deadzone(graph.negate(in), 0.1f), -0.5f, 0.5f), zero, graph.normalize(graph.floatInput(axis), -1, 1), zero);
+        FloatStatus result = new FloatStatus();
+        BooleanStatus high = new BooleanStatus();
+        graph.send(out, result);
+        graph.send(graph.and(graph.atLeast(in, 0.5f), graph.not(braking)), high);
+        MixingPlan plan = graph.compile();
+
+        float[] values = new float[] { -1, -0.6f, -0.2f, -0.05f, 0, 0.05f, 0.3f, 0.5f, 0.9f, 1 };
+        for (int mode = 0; mode < 4; mode++) {
+            shift.set((mode & 1) != 0);
+            brake.set((mode & 2) != 0);
+            for (float value : values) {
+                axis.set(value);
+                plan.event();
+                assertObjectEqual(result.get(), expected.get(), "Plan did not match FloatMixing!");
+                assertObjectEqual(plan.get(out), expected.get(), "Bad node value!");
+                assertObjectEqual(high.get(), value >= 0.5f && !brake.get(), "Bad boolean output!");
+            }
+        }
+    }
+
+    private void testOptimization() throws TestingException {
+        MixingGraph graph = new MixingGraph();
+        FloatStatus input = new FloatStatus(2), output = new FloatStatus();
+        FloatNode in = graph.floatInput(input);
+        graph.negate(graph.multiply(in, in)); // Not connected to anything.
+        FloatNode scale = graph.operation(graph.constant(3), graph.constant(4), FloatMixing.addition);
+        graph.send(graph.multiply(in, scale), output);
+        MixingPlan plan = graph.compile();
+        assertIntsEqual(plan.getInstructionCount(), 1, "Unused or constant nodes were compiled!");
+        plan.event();
+        assertObjectEqual(output.get(), 14.0f, "Bad output!");
+        assertTrue(plan.toString().contains("multiply"), "Listing is missing instructions!");
+
+        graph.send(graph.filter(in, FloatMixing.deadzone(5)), output);
+        assertIntsEqual(plan.getInstructionCount(), 1, "Compiled plan changed!");
+        MixingPlan second = graph.compile();
+        assertIntsEqual(second.getInstructionCount(), 2, "Filter was not compiled!");
+        second.event();
+        assertObjectEqual(output.get(), 0.0f, "Outputs should be written in order!");
+    }
+
+    private void testErrors() throws TestingException {
+        MixingGraph a = new MixingGraph(), b = new MixingGraph();
+        try {
+            b.negate(a.constant(1));
+            assertFail("Node from another graph should have been rejected!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+        try {
+            a.limit(a.constant(1), 1, 0);
+            assertFail("Backwards limit should have been rejected!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+    }
+}
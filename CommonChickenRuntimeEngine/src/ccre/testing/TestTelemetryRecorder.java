@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import java.io.File;
+import java.io.IOException;
+
+import ccre.channel.BooleanStatus;
+import ccre.channel.EventStatus;
+import ccre.channel.FloatStatus;
+import ccre.log.TelemetryReader;
+import ccre.log.TelemetryRecorder;
+import ccre.time.Clock;
+import ccre.time.VirtualClock;
+
+/**
+ * Tests the TelemetryRecorder and TelemetryReader classes.
+ *
+ * @author skeggsc
+ */
+public class TestTelemetryRecorder extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "TelemetryRecorder tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException {
+        VirtualClock clock = new VirtualClock();
+        Clock old = Clock.setClock(clock);
+        File directory = null;
+        try {
+            directory = File.createTempFile("ccre-telemetry", "");
+            if (!directory.delete()) {
+                throw new IOException("Could not set up temporary directory!");
+            }
+            testBadArguments(directory);
+            testRecording(directory, clock);
+            testReopen(directory, clock);
+            testRestart(directory);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            Clock.setClock(old);
+            if (directory != null) {
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File f : files) {
+                        f.delete();
+                    }
+                }
+                directory.delete();
+            }
+        }
+    }
+
+    private void testBadArguments(File directory) throws TestingException, IOException {
+        try {
+            new TelemetryRecorder(directory, 0);
+            assertFail("Expected an IllegalArgumentException!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+        try {
+            new TelemetryRecorder(directory, Integer.MAX_VALUE / 8);
+            assertFail("Expected an IllegalArgumentException!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+    }
+
+    private void testRecording(File directory, VirtualClock clock) throws TestingException, IOException {
+        TelemetryRecorder recorder = new TelemetryRecorder(directory, 8);
+        FloatStatus number = new FloatStatus();
+        BooleanStatus flag = new BooleanStatus();
+        EventStatus event = new EventStatus();
+        clock.advance(1000);
+        recorder.record("number", number); // 1 sample at 1
+        recorder.record("flag", flag); // 1 sample at 1
+        recorder.record("event", event);
+        try {
+            recorder.record("number", new FloatStatus());
+            assertFail("Expected an IllegalStateException!");
+        } catch (IllegalStateException ex) {
+            // Correct!
+        }
+        for (int i = 1; i <= 10; i++) {
+            clock.advance(1000);
+            number.set(i); // 10 samples at 2 through 11
+        }
+        clock.advance(1000);
+        flag.set(true); // 1 sample at 12
+        event.event(); // 2 samples at 12
+        event.event();
+        assertIntsEqual(recorder.getSegmentIndex(), 1, "Segments were not rotated!");
+        assertIntsEqual(recorder.getSegmentCount(), 7, "Bad sample count!");
+
+        TelemetryReader live = new TelemetryReader(directory);
+        assertIntsEqual(live.getChannelNames().length, 3, "Bad channel count!");
+        assertTrue(live.getChannelType("flag") == 'B', "Bad channel type!");
+        assertTrue(live.getStartTime() == 1 && live.getEndTime() == 12, "Bad time range: " + live.getStartTime() + " to " + live.getEndTime());
+        TelemetryReader.Trace trace = live.query("number", Long.MIN_VALUE, Long.MAX_VALUE);
+        assertIntsEqual(trace.size, 11, "Bad number of samples!");
+        for (int i = 0; i < trace.size; i++) {
+            assertTrue(trace.values[i] == i && trace.times[i] == i + 1, "Bad sample " + i + ": " + trace.values[i] + " at " + trace.times[i]);
+        }
+        trace = live.query("number", 4, 9);
+        assertIntsEqual(trace.size, 6, "Bad number of samples in range!");
+        assertTrue(trace.values[0] == 3 && trace.values[5] == 8, "Bad samples in range!");
+        trace = live.query("flag", 2, 100);
+        assertTrue(trace.size == 1 && trace.values[0] == 1, "Bad boolean samples!");
+        trace = live.query("event", 0, 100);
+        assertTrue(trace.size == 2 && trace.times[1] == 12, "Bad event samples!");
+
+        // The reader sees samples written after it was opened.
+        clock.advance(1000);
+        event.event();
+        assertIntsEqual(live.query("event", 0, 100).size, 3, "Live segment was not reread!");
+        try {
+            live.query("missing", 0, 100);
+            assertFail("Expected an IllegalArgumentException!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+
+        recorder.close();
+        event.event();
+        assertIntsEqual(new TelemetryReader(directory).query("event", 0, 100).size, 3, "Recorded after close!");
+    }
+
+    private void testReopen(File directory, VirtualClock clock) throws TestingException, IOException {
+        TelemetryRecorder recorder = new TelemetryRecorder(directory, 8);
+        assertIntsEqual(recorder.getSegmentIndex(), 2, "Reopened recorder overwrote a segment!");
+        FloatStatus number = new FloatStatus(-1);
+        clock.advance(1000);
+        recorder.record("number", number);
+        recorder.close();
+        TelemetryReader reader = new TelemetryReader(directory);
+        assertIntsEqual(reader.getChannelNames().length, 3, "Reopened channel was not reused!");
+        TelemetryReader.Trace trace = reader.query("number", 14, 14);
+        assertTrue(trace.size == 1 && trace.values[0] == -1, "Bad sample after reopening!");
+        assertIntsEqual(reader.query("number", 0, 100).size, 12, "Samples were lost!");
+
+        // Segments before the range are skipped by the index.
+        assertTrue(new File(directory, "segment-0").delete(), "Could not delete a segment!");
+        assertIntsEqual(new TelemetryReader(directory).query("number", 12, 100).size, 1, "Index did not skip a segment!");
+    }
+
+    private void testRestart(File directory) throws TestingException, IOException {
+        // A restarted process has a clock that starts over from zero.
+        VirtualClock clock = new VirtualClock();
+        Clock.setClock(clock);
+        TelemetryRecorder recorder = new TelemetryRecorder(directory, 8);
+        FloatStatus number = new FloatStatus(5);
+        recorder.record("number", number); // 1 sample at 14
+        clock.advance(2000);
+        number.set(6); // 1 sample at 16
+        // A clock that is behind, within the same process.
+        Clock.setClock(new VirtualClock());
+        number.set(7); // 1 sample at 16
+        recorder.close();
+
+        TelemetryReader reader = new TelemetryReader(directory);
+        assertTrue(reader.getEndTime() == 16, "Bad end time after restarting: " + reader.getEndTime());
+        // The first segment was deleted by testReopen.
+        TelemetryReader.Trace trace = reader.query("number", 12, Long.MAX_VALUE);
+        for (int i = 1; i < trace.size; i++) {
+            assertTrue(trace.times[i - 1] <= trace.times[i], "Timestamps went backwards: " + trace.times[i - 1] + " then " + trace.times[i]);
+        }
+        trace = reader.query("number", 14, 16);
+        assertIntsEqual(trace.size, 4, "Bad number of samples after restarting!");
+        assertTrue(trace.values[0] == -1 && trace.values[1] == 5 && trace.times[1] == 14, "Bad first sample after restarting!");
+        assertTrue(trace.values[2] == 6 && trace.times[2] == 16, "Bad later sample after restarting!");
+        assertTrue(trace.values[3] == 7 && trace.times[3] == 16, "Bad sample after replacing the clock!");
+    }
+}
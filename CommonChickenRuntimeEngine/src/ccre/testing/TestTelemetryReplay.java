@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import ccre.channel.BooleanInputPoll;
+import ccre.channel.BooleanStatus;
+import ccre.channel.EventStatus;
+import ccre.channel.EventOutput;
+import ccre.channel.FloatInputPoll;
+import ccre.channel.FloatOutput;
+import ccre.channel.FloatStatus;
+import ccre.ctrl.BooleanMixing;
+import ccre.ctrl.FloatMixing;
+import ccre.log.TelemetryReader;
+import ccre.log.TelemetryRecorder;
+import ccre.log.TelemetryReplay;
+import ccre.time.Clock;
+import ccre.time.VirtualClock;
+import ccre.util.CArrayList;
+
+/**
+ * Tests the TelemetryReplay class.
+ *
+ * @author skeggsc
+ */
+public class TestTelemetryReplay extends BaseTest {
+
+    private final CArrayList<File> directories = new CArrayList<File>();
+
+    @Override
+    public String getName() {
+        return "TelemetryReplay tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        VirtualClock clock = new VirtualClock(1000000);
+        Clock old = Clock.setClock(clock);
+        try {
+            File input = makeDirectory();
+            record(input, clock);
+            testEmptyRecording();
+            testClose(input);
+            File first = makeDirectory(), second = makeDirectory();
+            testStepping(input, first, clock);
+            replay(input, second);
+            testDiff(first, second);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            Clock.setClock(old);
+            for (File directory : directories) {
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File f : files) {
+                        f.delete();
+                    }
+                }
+                directory.delete();
+            }
+            directories.clear();
+        }
+    }
+
+    private File makeDirectory() throws IOException {
+        File directory = File.createTempFile("ccre-replay", "");
+        if (!directory.delete()) {
+            throw new IOException("Could not set up temporary directory!");
+        }
+        directories.add(directory);
+        return directory;
+    }
+
+    private void record(File directory, VirtualClock clock) throws IOException {
+        TelemetryRecorder recorder = new TelemetryRecorder(directory, 8);
+        FloatStatus value = new FloatStatus();
+        BooleanStatus flag = new BooleanStatus();
+        BooleanStatus disabled = new BooleanStatus(true), autonomous = new BooleanStatus();
+        EventStatus update = new EventStatus();
+        recorder.record("Value", value); // 0 at 1000
+        recorder.record("Flag", flag); // false at 1000
+        recorder.record("Mode", TelemetryReplay.modeChannel(disabled, autonomous, BooleanMixing.alwaysFalse, update)); // disabled at 1000
+        clock.advanceMillis(30);
+        value.set(1); // 1 at 31000
+        flag.set(true); // true at 31000
+        disabled.set(false);
+        autonomous.set(true);
+        update.event(); // autonomous at 31000
+        clock.advanceMillis(30);
+        value.set(2); // 2 at 61000
+        recorder.close();
+    }
+
+    private void testEmptyRecording() throws TestingException, IOException {
+        File empty = makeDirectory();
+        new TelemetryRecorder(empty, 8).close();
+        try {
+            new TelemetryReplay(new TelemetryReader(empty), null, false);
+            assertFail("Expected an IllegalArgumentException!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+    }
+
+    private void testClose(File input) throws TestingException, IOException {
+        Clock before = Clock.getClock();
+        TelemetryReplay replay = new TelemetryReplay(new TelemetryReader(input), null, false);
+        assertTrue(Clock.getClock() != before, "Replay did not install its clock!");
+        replay.close();
+        assertTrue(Clock.getClock() == before, "Closing an unrun replay did not put back the clock!");
+        replay.close();
+        assertTrue(Clock.getClock() == before, "Closing a replay twice changed the clock!");
+
+        // A clock installed after the replay stays installed.
+        replay = new TelemetryReplay(new TelemetryReader(input), null, false);
+        VirtualClock other = new VirtualClock();
+        Clock.setClock(other);
+        replay.close();
+        assertTrue(Clock.getClock() == other, "Closing a replay replaced a newer clock!");
+        Clock.setClock(before);
+    }
+
+    private void testStepping(File input, File output, VirtualClock clock) throws TestingException, InterruptedException, IOException {
+        final TelemetryReplay replay = new TelemetryReplay(new TelemetryReader(input), new TelemetryRecorder(output, 8), false);
+        assertTrue(Clock.nanos() == 1000000, "Replay did not start at the start of the recording!");
+        assertTrue(replay.hasChannel("Value") && !replay.hasChannel("Missing"), "Bad channel list!");
+        FloatStatus fallback = new FloatStatus(-5);
+        assertTrue(replay.getFloat("Missing", fallback) == fallback, "Missing channel did not fall back!");
+        final FloatInputPoll value = replay.getFloat("Value", fallback);
+        final BooleanInputPoll flag = replay.getBoolean("Flag", null);
+        final BooleanInputPoll autonomous = replay.getIsMode(TelemetryReplay.MODE_AUTONOMOUS, null);
+        final BooleanInputPoll disabled = replay.getIsMode(TelemetryReplay.MODE_DISABLED, null);
+        final FloatOutput doubled = replay.captureFloat("Doubled", FloatMixing.ignoredFloatOutput);
+        final CArrayList<String> steps = new CArrayList<String>();
+        replay.getPeriodic().send(new EventOutput() {
+            public void event() {
+                steps.add(replay.getTime() + " " + Clock.nanos() / 1000 + " " + value.get() + " " + flag.get() + " " + disabled.get() + " " + autonomous.get());
+                doubled.set(value.get() * 2);
+            }
+        });
+        replay.run();
+
+        assertIntsEqual(steps.size(), 4, "Bad number of steps!");
+        assertObjectEqual(steps.get(0), "1000 1000 0.0 false true false", "Bad first step!");
+        assertObjectEqual(steps.get(1), "21000 21000 0.0 false true false", "Bad second step!");
+        assertObjectEqual(steps.get(2), "41000 41000 1.0 true false true", "Bad third step!");
+        assertObjectEqual(steps.get(3), "61000 61000 2.0 true false true", "Bad last step!");
+        assertTrue(Clock.setClock(clock) == clock, "Replay did not put back the original Clock!");
+
+        TelemetryReader.Trace trace = new TelemetryReader(output).query("Doubled", Long.MIN_VALUE, Long.MAX_VALUE);
+        assertIntsEqual(trace.size, 3, "Bad number of recorded outputs!");
+        assertTrue(trace.values[1] == 2 && trace.times[1] == 41000, "Bad recorded output!");
+        assertTrue(trace.values[2] == 4 && trace.times[2] == 61000, "Bad last recorded output!");
+    }
+
+    private void replay(File input, File output) throws InterruptedException, IOException {
+        final TelemetryReplay replay = new TelemetryReplay(new TelemetryReader(input), new TelemetryRecorder(output, 8), false);
+        final FloatInputPoll value = replay.getFloat("Value", null);
+        final FloatOutput doubled = replay.captureFloat("Doubled", FloatMixing.ignoredFloatOutput);
+        replay.getPeriodic().send(new EventOutput() {
+            public void event() {
+                doubled.set(value.get() * 2);
+            }
+        });
+        replay.run();
+    }
+
+    private void testDiff(File first, File second) throws TestingException, IOException {
+        assertIntsEqual(diff(first, second, 0), 0, "Identical replays differ!");
+
+        // An extra channel in the actual recording is ignored.
+        File extra = makeDirectory();
+        VirtualClock clock = new VirtualClock(1000000);
+        Clock.setClock(clock);
+        TelemetryRecorder recorder = new TelemetryRecorder(extra, 8);
+        FloatStatus doubled = new FloatStatus();
+        recorder.record("Doubled", doubled);
+        recorder.record("Extra", new FloatStatus(3));
+        clock.advanceMillis(40);
+        doubled.set(2);
+        clock.advanceMillis(20);
+        doubled.set(4);
+        recorder.close();
+        assertIntsEqual(diff(first, extra, 0), 0, "Extra channel counted as a difference!");
+        assertIntsEqual(diff(extra, first, 0), 1, "Missing channel not counted as a difference!");
+        assertObjectEqual(lastDiff, "Extra is missing", "Bad report of a missing channel!");
+
+        File changed = makeDirectory();
+        clock = new VirtualClock(1000000);
+        Clock.setClock(clock);
+        recorder = new TelemetryRecorder(changed, 8);
+        doubled = new FloatStatus();
+        recorder.record("Doubled", doubled);
+        clock.advanceMillis(40);
+        doubled.set(2.5f);
+        recorder.close();
+        assertIntsEqual(diff(first, changed, 0), 1, "Changed value not counted as a difference!");
+        assertObjectEqual(lastDiff, "Doubled differs at 41000: expected 2.0 but got 2.5", "Bad report of a changed value!");
+        assertIntsEqual(diff(first, changed, TelemetryReplay.PERIOD * 1000), 1, "Lasting change hidden by the time tolerance!");
+
+        // A real run has jitter in its timestamps, unlike the replay.
+        File jittered = makeDirectory();
+        clock = new VirtualClock(1000000);
+        Clock.setClock(clock);
+        recorder = new TelemetryRecorder(jittered, 8);
+        doubled = new FloatStatus();
+        recorder.record("Doubled", doubled); // 0 at 1000
+        clock.advance(41800000);
+        doubled.set(2); // 2 at 42800
+        clock.advance(17500000);
+        doubled.set(4); // 4 at 60300
+        recorder.close();
+        assertIntsEqual(diff(jittered, first, 0), 1, "Jitter not counted without a time tolerance!");
+        assertIntsEqual(diff(jittered, first, TelemetryReplay.PERIOD * 1000), 0, "Jitter counted as a difference!");
+        assertIntsEqual(diff(jittered, first, 1000), 1, "Jitter longer than the time tolerance not counted!");
+        assertObjectEqual(lastDiff, "Doubled differs at 41000: expected 0.0 but got 2.0", "Bad report of jitter!");
+    }
+
+    private String lastDiff;
+
+    private int diff(File expected, File actual, long timeTolerance) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        int differing = TelemetryReplay.diff(new TelemetryReader(expected), new TelemetryReader(actual), 0.0001f, timeTolerance, out);
+        out.flush();
+        lastDiff = bytes.toString().trim();
+        return differing;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.BooleanInputPoll;
+import ccre.channel.EventStatus;
+import ccre.channel.FloatInputPoll;
+import ccre.ctrl.TickCache;
+
+/**
+ * Test TickCache.
+ *
+ * @author skeggsc
+ */
+public class TestTickCache extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "TickCache tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException {
+        final int[] reads = new int[1];
+        FloatInputPoll sensor = new FloatInputPoll() {
+            public float get() {
+                return ++reads[0];
+            }
+        };
+        BooleanInputPoll flag = new BooleanInputPoll() {
+            public boolean get() {
+                return ++reads[0] % 2 == 0;
+            }
+        };
+        EventStatus tick = new EventStatus();
+        TickCache cache = new TickCache(tick);
+        FloatInputPoll cached = cache.cache(sensor);
+        BooleanInputPoll cachedFlag = cache.cache(flag);
+        assertObjectEqual(cache.getHitRate(), 0.0f, "Hit rate should start at zero!");
+
+        assertObjectEqual(cached.get(), 1.0f, "First read should read the input!");
+        for (int i = 0; i < 4; i++) {
+            assertObjectEqual(cached.get(), 1.0f, "Cached value was not reused!");
+        }
+        assertTrue(cachedFlag.get(), "Bad boolean value!");
+        assertTrue(cachedFlag.get(), "Cached boolean was not reused!");
+        assertIntsEqual(reads[0], 2, "Inputs were read too many times!");
+        assertIntsEqual(cache.getHits(), 5, "Bad hit count!");
+        assertIntsEqual(cache.getMisses(), 2, "Bad miss count!");
+        assertObjectEqual(cache.getHitRateInput().get(), 5 / 7.0f, "Bad hit rate!");
+
+        tick.produce();
+        assertObjectEqual(cached.get(), 3.0f, "Value was not read again after a tick!");
+        assertObjectEqual(cached.get(), 3.0f, "Cached value was not reused!");
+        assertTrue(cachedFlag.get(), "Bad boolean value!");
+        assertIntsEqual(reads[0], 4, "Inputs were read too many times!");
+
+        cache.resetCounters();
+        assertIntsEqual(cache.getHits(), 0, "Counters were not reset!");
+        assertIntsEqual(cache.getMisses(), 0, "Counters were not reset!");
+        cache.event();
+        assertObjectEqual(cached.get(), 5.0f, "Firing the cache should start a new tick!");
+    }
+}
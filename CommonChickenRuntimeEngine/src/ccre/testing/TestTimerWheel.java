@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.testing;
+
+import ccre.channel.EventOutput;
+import ccre.concurrency.TimerWheel;
+
+/**
+ * Tests the TimerWheel class.
+ *
+ * @author skeggsc
+ */
+public class TestTimerWheel extends BaseTest {
+
+    @Override
+    public String getName() {
+        return "TimerWheel tests";
+    }
+
+    @Override
+    protected void runTest() throws TestingException, InterruptedException {
+        testManyTimers();
+        testIsolation();
+        testShutdown();
+        testBadArguments();
+    }
+
+    private static class Counter implements EventOutput {
+        int count;
+
+        public synchronized void event() {
+            count++;
+        }
+
+        synchronized int get() {
+            return count;
+        }
+    }
+
+    private void testManyTimers() throws TestingException, InterruptedException {
+        TimerWheel wheel = new TimerWheel("TestWheel");
+        int[] intervals = new int[] { 7, 20, 63, 64, 65, 150, 300, 4100 };
+        Counter[] counters = new Counter[intervals.length];
+        TimerWheel.Timer[] timers = new TimerWheel.Timer[intervals.length];
+        for (int i = 0; i < intervals.length; i++) {
+            counters[i] = new Counter();
+            timers[i] = wheel.schedule(counters[i], intervals[i], true);
+        }
+        assertIntsEqual(wheel.getScheduledCount(), intervals.length, "Bad scheduled count!");
+        Thread.sleep(1000);
+        for (int i = 0; i < intervals.length; i++) {
+            int expected = 1000 / intervals[i];
+            int actual = counters[i].get();
+            assertTrue(actual >= expected - 2 && actual <= expected + 1, "Bad count for interval " + intervals[i] + ": " + actual);
+        }
+        for (int i = 0; i < timers.length; i++) {
+            timers[i].cancel();
+            assertTrue(timers[i].isCancelled(), "Timer was not cancelled!");
+        }
+        int[] after = new int[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            after[i] = counters[i].get();
+        }
+        Thread.sleep(100);
+        for (int i = 0; i < counters.length; i++) {
+            assertIntsEqual(counters[i].get(), after[i], "Cancelled timer still ran!");
+        }
+        assertIntsEqual(wheel.getScheduledCount(), 0, "Bad scheduled count!");
+    }
+
+    private void testIsolation() throws TestingException, InterruptedException {
+        TimerWheel wheel = new TimerWheel("TestWheel");
+        TimerWheel.Timer slow = wheel.schedule(new EventOutput() {
+            public void event() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException ex) {
+                    // Ignore it.
+                }
+            }
+        }, 10, false);
+        Counter counter = new Counter();
+        TimerWheel.Timer fast = wheel.schedule(counter, 10, false);
+        Thread.sleep(500);
+        slow.cancel();
+        fast.cancel();
+        assertTrue(counter.get() >= 40, "Slow timer delayed another timer: " + counter.get());
+    }
+
+    private void testShutdown() throws TestingException, InterruptedException {
+        TimerWheel wheel = new TimerWheel("TestWheel");
+        wheel.schedule(new Counter(), 5, false).cancel();
+        TimerWheel.Timer timer = wheel.schedule(new Counter(), 5, false);
+        Thread.sleep(50);
+        assertTrue(wheel.getWorkerCount() >= 1, "No workers were started!");
+        timer.cancel();
+        Thread.sleep(TimerWheel.WORKER_IDLE_TIMEOUT + 200);
+        assertIntsEqual(wheel.getWorkerCount(), 0, "Idle workers did not stop!");
+    }
+
+    private void testBadArguments() throws TestingException {
+        TimerWheel wheel = new TimerWheel("TestWheel");
+        try {
+            wheel.schedule(new Counter(), 0, false);
+            assertFail("Expected a failure!");
+        } catch (IllegalArgumentException ex) {
+            // Correct!
+        }
+        try {
+            wheel.schedule(null, 10, false);
+            assertFail("Expected a failure!");
+        } catch (NullPointerException ex) {
+            // Correct!
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.time;
+
+import ccre.log.Logger;
+
+/**
+ * The source of time for all of the timing classes in the CCRE: Tickers,
+ * ExpirationTimers, PauseTimers, PIDControls, debouncing, and
+ * Utils.getCurrentTimeSeconds().
+ *
+ * The time is measured in nanoseconds since an arbitrary point no later than
+ * when the clock was created, and never runs backwards. When a fully-featured
+ * Java system is available, the default clock is based on System.nanoTime();
+ * otherwise, it is based on System.currentTimeMillis() and only has
+ * millisecond resolution.
+ *
+ * The clock can be replaced, such as by a VirtualClock in tests.
+ *
+ * @author skeggsc
+ * @see VirtualClock
+ */
+public abstract class Clock {
+
+    /**
+     * The current Clock, or null if the default clock hasn't been created yet.
+     */
+    private static volatile Clock clock;
+
+    /**
+     * Get the current clock, creating the default clock if necessary.
+     *
+     * @return the current Clock.
+     */
+    public static Clock getClock() {
+        Clock out = clock;
+        return out == null ? initClock() : out;
+    }
+
+    private static synchronized Clock initClock() {
+        if (clock == null) {
+            Exception ex2 = null;
+            try {
+                clock = (Clock) Class.forName("ccre.time.DefaultClock").newInstance();
+            } catch (InstantiationException ex) {
+                ex2 = ex;
+            } catch (IllegalAccessException ex) {
+                ex2 = ex;
+            } catch (ClassNotFoundException ex) {
+                ex2 = ex;
+            }
+            if (ex2 != null) {
+                clock = new Clock() {
+                    private final long base = System.currentTimeMillis();
+
+                    @Override
+                    public long nanoTime() {
+                        return (System.currentTimeMillis() - base) * 1000000;
+                    }
+                };
+                Logger.fine("No nanosecond clock available: using milliseconds.");
+            }
+        }
+        return clock;
+    }
+
+    /**
+     * Replace the current clock. This should be done before anything is
+     * scheduled: timers that are already running keep deadlines based on the
+     * old clock's time, and anything already waiting on the old clock finishes
+     * its current wait first.
+     *
+     * @param newClock The new clock, or null to go back to the default clock.
+     * @return the previous clock.
+     */
+    public static synchronized Clock setClock(Clock newClock) {
+        Clock old = getClock();
+        clock = newClock;
+        return old;
+    }
+
+    /**
+     * @return the current time of the current clock, in nanoseconds.
+     */
+    public static long nanos() {
+        return getClock().nanoTime();
+    }
+
+    /**
+     * @return the current time of the current clock, in milliseconds.
+     */
+    public static long millis() {
+        return getClock().nanoTime() / 1000000;
+    }
+
+    /**
+     * Wait on the specified monitor, which the caller must hold, for up to
+     * the specified number of milliseconds of the current clock's time. This
+     * can return early, just like Object.wait, so the caller needs to check the
+     * time again afterwards.
+     *
+     * @param monitor The monitor to wait on.
+     * @param millis How long to wait, in milliseconds. Must be positive.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    public static void waitOn(Object monitor, long millis) throws InterruptedException {
+        getClock().await(monitor, millis);
+    }
+
+    /**
+     * @return the current time, in nanoseconds.
+     */
+    public abstract long nanoTime();
+
+    /**
+     * Wait on the specified monitor for up to the specified number of
+     * milliseconds. The default implementation just calls Object.wait.
+     *
+     * @param monitor The monitor to wait on, which the caller holds.
+     * @param millis How long to wait, in milliseconds.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    protected void await(Object monitor, long millis) throws InterruptedException {
+        monitor.wait(millis);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.time;
+
+/**
+ * The default Clock that is used when a fully-featured Java system is
+ * available. This is based on System.nanoTime().
+ *
+ * @author skeggsc
+ */
+class DefaultClock extends Clock {
+
+    private final long base = System.nanoTime();
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime() - base;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.time;
+
+/**
+ * Statistics about how late a periodic task ran compared to when it was
+ * scheduled to run.
+ *
+ * @author skeggsc
+ * @see ccre.ctrl.Ticker#getJitterStatistics()
+ */
+public final class JitterStatistics {
+
+    private int samples;
+    private long total, maximum;
+    private double totalSquares;
+
+    /**
+     * Record that the task was run late by the specified amount.
+     *
+     * @param lateness How late the task was, in nanoseconds.
+     */
+    public synchronized void record(long lateness) {
+        samples++;
+        total += lateness;
+        totalSquares += (double) lateness * lateness;
+        if (lateness > maximum) {
+            maximum = lateness;
+        }
+    }
+
+    /**
+     * @return the number of runs recorded since the last reset.
+     */
+    public synchronized int getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return the average lateness, in milliseconds.
+     */
+    public synchronized float getAverageMillis() {
+        return samples == 0 ? 0 : total / (float) samples / 1000000f;
+    }
+
+    /**
+     * @return the largest lateness, in milliseconds.
+     */
+    public synchronized float getMaximumMillis() {
+        return maximum / 1000000f;
+    }
+
+    /**
+     * @return the standard deviation of the lateness, in milliseconds.
+     */
+    public synchronized float getStandardDeviationMillis() {
+        if (samples == 0) {
+            return 0;
+        }
+        double mean = total / (double) samples;
+        double variance = totalSquares / samples - mean * mean;
+        return variance <= 0 ? 0 : (float) (Math.sqrt(variance) / 1000000);
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public synchronized void reset() {
+        samples = 0;
+        total = maximum = 0;
+        totalSquares = 0;
+    }
+}
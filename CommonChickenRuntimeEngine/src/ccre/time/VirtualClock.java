@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Colby Skeggs
+ *
+ * This file is part of the CCRE, the Common Chicken Runtime Engine.
+ *
+ * The CCRE is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The CCRE is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the CCRE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ccre.time;
+
+import ccre.util.CArrayList;
+
+/**
+ * A Clock that only moves when it is told to, so that tests can control the
+ * passage of time exactly. Install it with Clock.setClock.
+ *
+ * When the time is advanced, anything waiting on this clock is woken up to
+ * check the time again.
+ *
+ * @author skeggsc
+ */
+public final class VirtualClock extends Clock {
+
+    /**
+     * How long a wait on a VirtualClock can last in real time before it
+     * returns to check the time again, in milliseconds.
+     */
+    private static final int MAXIMUM_REAL_WAIT = 10;
+
+    private long now;
+    private final CArrayList<Object> waiting = new CArrayList<Object>();
+
+    /**
+     * Create a new VirtualClock starting at zero.
+     */
+    public VirtualClock() {
+        this(0);
+    }
+
+    /**
+     * Create a new VirtualClock starting at the specified time.
+     *
+     * @param start The starting time, in nanoseconds.
+     */
+    public VirtualClock(long start) {
+        this.now = start;
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return now;
+    }
+
+    /**
+     * Move the time forward by the specified number of nanoseconds.
+     *
+     * @param nanos How far to move.
+     * @throws IllegalArgumentException If nanos is negative.
+     */
+    public void advance(long nanos) throws IllegalArgumentException {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("Time cannot run backwards!");
+        }
+        Object[] monitors;
+        synchronized (this) {
+            now += nanos;
+            monitors = new Object[waiting.size()];
+            for (int i = 0; i < monitors.length; i++) {
+                monitors[i] = waiting.get(i);
+            }
+        }
+        for (Object monitor : monitors) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Move the time forward by the specified number of milliseconds.
+     *
+     * @param millis How far to move.
+     * @throws IllegalArgumentException If millis is negative.
+     */
+    public void advanceMillis(long millis) throws IllegalArgumentException {
+        advance(millis * 1000000);
+    }
+
+    @Override
+    protected void await(Object monitor, long millis) throws InterruptedException {
+        synchronized (this) {
+            waiting.add(monitor);
+        }
+        try {
+            monitor.wait(MAXIMUM_REAL_WAIT);
+        } finally {
+            synchronized (this) {
+                waiting.remove(monitor);
+            }
+        }
+    }
+}
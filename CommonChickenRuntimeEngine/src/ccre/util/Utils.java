@@ -20,6 +20,7 @@ package ccre.util;
 
 import ccre.channel.FloatInputPoll;
 import ccre.ctrl.Mixing;
+import ccre.time.Clock;
 
 /**
  * A class for utilities that don't fit anywhere else. Most utilites are in
@@ -34,8 +35,7 @@ public class Utils {
     /**
      * An input representing the current time in seconds since a constant but
      * arbitrary point in the past. The value is equivalent to
-     * <code>System.currentTimeMillis() / 1000.0f - N</code> where N is some
-     * point since when the program was started.
+     * <code>Clock.nanos() / 1000000000.0f</code>.
      *
      * @see #getCurrentTimeSeconds() has the same value.
      */
@@ -46,21 +46,18 @@ public class Utils {
         }
     };
 
-    private static final long baseMeasurementTime = System.currentTimeMillis();
-
     /**
      * Get the current time in seconds since a constant but arbitrary point in
      * the past. The value is equivalent to
-     * <code>System.currentTimeMillis() / 1000.0f - N</code> where N is some
-     * point since when the program was started.
+     * <code>Clock.nanos() / 1000000000.0f</code>.
      *
      * @return the current time in seconds.
      *
-     * @see java.lang.System#currentTimeMillis()
+     * @see ccre.time.Clock#nanos()
      * @see #currentTimeSeconds has the same value.
      */
     public static float getCurrentTimeSeconds() {
-        return (System.currentTimeMillis() - baseMeasurementTime) / 1000.0f;
+        return Clock.nanos() / 1000000000.0f;
     }
 
     /**
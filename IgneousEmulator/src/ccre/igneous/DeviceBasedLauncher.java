@@ -45,6 +45,7 @@ import ccre.igneous.devices.JoystickDevice;
 import ccre.igneous.devices.RobotModeDevice;
 import ccre.igneous.devices.SpinDevice;
 import ccre.log.Logger;
+import ccre.log.TelemetryReplay;
 
 /**
  * The IgneousLauncher provided to an emulated Igneous robot, for cRIO or
@@ -61,6 +62,7 @@ public class DeviceBasedLauncher implements IgneousLauncher {
     private final boolean isRoboRIO;
     private final int baseIndex;
     private final JoystickHandler joyHandler = new JoystickHandler();
+    private final TelemetryReplay replay;
 
     /**
      * Create a new DeviceBasedLauncher for either the cRIO or roboRIO.
@@ -69,7 +71,23 @@ public class DeviceBasedLauncher implements IgneousLauncher {
      * instead of a cRIO.
      */
     public DeviceBasedLauncher(boolean isRoboRIO) {
+        this(isRoboRIO, null);
+    }
+
+    /**
+     * Create a new DeviceBasedLauncher for either the cRIO or roboRIO, with
+     * inputs that come from a replayed recording wherever the recording has
+     * them. The global periodic event is driven by the replay instead of a
+     * Ticker, so nothing happens until the replay is run.
+     *
+     * @param isRoboRIO specifies if the emulated robot should have a roboRIO
+     * instead of a cRIO.
+     * @param replay the replay to take inputs from, or null for none.
+     */
+    public DeviceBasedLauncher(boolean isRoboRIO, TelemetryReplay replay) {
         this.isRoboRIO = isRoboRIO;
+        this.replay = replay;
+        masterPeriodic = replay == null ? new Ticker(20) : replay.getPeriodic();
         baseIndex = isRoboRIO ? 0 : 1;
         joysticks = new IJoystickWithPOV[isRoboRIO ? 6 : 4];
         motors = new FloatOutput[isRoboRIO ? 20 : 10];
@@ -89,8 +107,24 @@ public class DeviceBasedLauncher implements IgneousLauncher {
         return id - baseIndex;
     }
 
+    private FloatInputPoll replayed(String name, FloatInputPoll device) {
+        return replay == null ? device : replay.getFloat(name, device);
+    }
+
+    private BooleanInputPoll replayed(String name, BooleanInputPoll device) {
+        return replay == null ? device : replay.getBoolean(name, device);
+    }
+
+    private FloatOutput capturedFloat(String name, FloatOutput device) {
+        return replay == null ? device : replay.captureFloat(name, device);
+    }
+
+    private BooleanOutput capturedBoolean(String name, BooleanOutput device) {
+        return replay == null ? device : replay.captureBoolean(name, device);
+    }
+
     private final RobotModeDevice mode = panel.add(new RobotModeDevice());
-    private EventInput masterPeriodic = new Ticker(20);
+    private final EventInput masterPeriodic;
 
     private IJoystickWithPOV[] joysticks;
 
@@ -98,6 +132,9 @@ public class DeviceBasedLauncher implements IgneousLauncher {
         int index = checkRange("Joystick", id, joysticks);
         if (joysticks[index] == null) {
             joysticks[index] = new JoystickDevice(id, isRoboRIO, panel, joyHandler).getJoystick(masterPeriodic);
+            if (replay != null) {
+                joysticks[index] = replay.getJoystick(id, masterPeriodic, joysticks[index]);
+            }
         }
         return joysticks[index];
     }
@@ -138,7 +175,7 @@ public class DeviceBasedLauncher implements IgneousLauncher {
                 typename = "Unknown (%" + type + ")";
                 break;
             }
-            motors[index] = panel.add(new FloatViewDevice(typename + " " + id));
+            motors[index] = capturedFloat("Motor " + id, panel.add(new FloatViewDevice(typename + " " + id)));
         }
         return motors[index];
     }
@@ -160,7 +197,7 @@ public class DeviceBasedLauncher implements IgneousLauncher {
         int moduleIndex = checkRange("Solenoid Module", module, solenoids);
         int index = checkRange("Solenoid", id, solenoids[moduleIndex]);
         if (solenoids[moduleIndex][index] == null) {
-            solenoids[moduleIndex][index] = panel.add(new BooleanViewDevice("Solenoid " + module + ":" + id));
+            solenoids[moduleIndex][index] = capturedBoolean("Solenoid " + module + ":" + id, panel.add(new BooleanViewDevice("Solenoid " + module + ":" + id)));
         }
         return solenoids[moduleIndex][index];
     }
@@ -170,7 +207,7 @@ public class DeviceBasedLauncher implements IgneousLauncher {
     public BooleanOutput makeDigitalOutput(int id) {
         int index = checkRange("Digital Output", id, digitalOutputs);
         if (digitalOutputs[index] == null) {
-            digitalOutputs[index] = panel.add(new BooleanViewDevice("Digital Output " + id));
+            digitalOutputs[index] = capturedBoolean("Digital Output " + id, panel.add(new BooleanViewDevice("Digital Output " + id)));
         }
         return digitalOutputs[index];
     }
@@ -180,7 +217,7 @@ public class DeviceBasedLauncher implements IgneousLauncher {
     public BooleanInputPoll makeDigitalInput(int id) {
         int index = checkRange("Digital Input", id, digitalInputs);
         if (digitalInputs[index] == null) {
-            digitalInputs[index] = panel.add(new BooleanControlDevice("Digital Input " + id));
+            digitalInputs[index] = replayed("Digital Input " + id, panel.add(new BooleanControlDevice("Digital Input " + id)));
         }
         return digitalInputs[index];
     }
@@ -190,7 +227,7 @@ public class DeviceBasedLauncher implements IgneousLauncher {
     public FloatInputPoll makeAnalogInput(int id) {
         int index = checkRange("Analog Input", id, analogInputs);
         if (analogInputs[index] == null) {
-            analogInputs[index] = panel.add(new FloatControlDevice("Analog Input " + id, 0.0f, 5.0f, 1.0f, 0.0f));
+            analogInputs[index] = replayed("Analog Input " + id, panel.add(new FloatControlDevice("Analog Input " + id, 0.0f, 5.0f, 1.0f, 0.0f)));
         }
         return analogInputs[index];
     }
@@ -210,7 +247,7 @@ public class DeviceBasedLauncher implements IgneousLauncher {
     public FloatOutput makeServo(int id, float minInput, float maxInput) {
         int index = checkRange("Servo", id, servos);
         if (servos[index] == null) {
-            servos[index] = panel.add(new FloatViewDevice("Servo " + id, minInput, maxInput));
+            servos[index] = capturedFloat("Servo " + id, panel.add(new FloatViewDevice("Servo " + id, minInput, maxInput)));
         }
         return servos[index];
     }
@@ -228,15 +265,34 @@ public class DeviceBasedLauncher implements IgneousLauncher {
     }
 
     public BooleanInputPoll getIsDisabled() {
-        return mode.getIsMode(RobotModeDevice.RobotMode.DISABLED);
+        return getIsMode(RobotModeDevice.RobotMode.DISABLED);
     }
 
     public BooleanInputPoll getIsAutonomous() {
-        return mode.getIsMode(RobotModeDevice.RobotMode.AUTONOMOUS);
+        return getIsMode(RobotModeDevice.RobotMode.AUTONOMOUS);
     }
 
     public BooleanInputPoll getIsTest() {
-        return mode.getIsMode(RobotModeDevice.RobotMode.TESTING);
+        return getIsMode(RobotModeDevice.RobotMode.TESTING);
+    }
+
+    private BooleanInputPoll getIsMode(RobotModeDevice.RobotMode target) {
+        return replay == null ? mode.getIsMode(target) : replay.getIsMode(getModeCode(target), mode.getIsMode(target));
+    }
+
+    private static int getModeCode(RobotModeDevice.RobotMode target) {
+        switch (target) {
+        case DISABLED:
+            return TelemetryReplay.MODE_DISABLED;
+        case AUTONOMOUS:
+            return TelemetryReplay.MODE_AUTONOMOUS;
+        case TELEOPERATED:
+            return TelemetryReplay.MODE_TELEOP;
+        case TESTING:
+            return TelemetryReplay.MODE_TEST;
+        default:
+            throw new IllegalArgumentException("Unknown robot mode: " + target);
+        }
     }
 
     public void useCustomCompressor(BooleanInputPoll shouldDisable, int compressorRelayChannel) {
@@ -245,7 +301,7 @@ public class DeviceBasedLauncher implements IgneousLauncher {
     }
 
     public FloatInputPoll makeEncoder(int aChannel, int bChannel, boolean reverse, EventInput resetWhen) {
-        return panel.add(new SpinDevice("Encoder " + aChannel + ":" + bChannel + (reverse ? " (REVERSED)" : ""), resetWhen));
+        return replayed("Encoder " + aChannel + ":" + bChannel, panel.add(new SpinDevice("Encoder " + aChannel + ":" + bChannel + (reverse ? " (REVERSED)" : ""), resetWhen)));
     }
 
     private BooleanOutput[] relaysFwd;
@@ -253,7 +309,7 @@ public class DeviceBasedLauncher implements IgneousLauncher {
     public BooleanOutput makeRelayForwardOutput(int channel) {
         int index = checkRange("Relay", channel, relaysFwd);
         if (relaysFwd[index] == null) {
-            relaysFwd[index] = panel.add(new BooleanViewDevice("Forward Relay " + channel));
+            relaysFwd[index] = capturedBoolean("Forward Relay " + channel, panel.add(new BooleanViewDevice("Forward Relay " + channel)));
         }
         return relaysFwd[index];
     }
@@ -263,13 +319,13 @@ public class DeviceBasedLauncher implements IgneousLauncher {
     public BooleanOutput makeRelayReverseOutput(int channel) {
         int index = checkRange("Relay", channel, relaysRev);
         if (relaysRev[index] == null) {
-            relaysRev[index] = panel.add(new BooleanViewDevice("Reverse Relay " + channel));
+            relaysRev[index] = capturedBoolean("Reverse Relay " + channel, panel.add(new BooleanViewDevice("Reverse Relay " + channel)));
         }
         return relaysRev[index];
     }
 
     public FloatInputPoll makeGyro(int port, double sensitivity, EventInput resetWhen) {
-        return panel.add(new SpinDevice("Gyro " + port + " (Sensitivity " + sensitivity + ")", resetWhen));
+        return replayed("Gyro " + port, panel.add(new SpinDevice("Gyro " + port + " (Sensitivity " + sensitivity + ")", resetWhen)));
     }
 
     @Deprecated
@@ -281,7 +337,7 @@ public class DeviceBasedLauncher implements IgneousLauncher {
 
     public FloatInputPoll getBatteryVoltage() {
         if (batteryLevel == null) {
-            batteryLevel = panel.add(new FloatControlDevice("Battery Voltage (6.5V-12.5V)", 6.5f, 12.5f, 9.5f, 6.5f));
+            batteryLevel = replayed("Battery Voltage", panel.add(new FloatControlDevice("Battery Voltage (6.5V-12.5V)", 6.5f, 12.5f, 9.5f, 6.5f)));
         }
         return batteryLevel;
     }
@@ -291,11 +347,11 @@ public class DeviceBasedLauncher implements IgneousLauncher {
     }
 
     private EventInput getModeBecomes(RobotModeDevice.RobotMode target) {
-        return BooleanMixing.whenBooleanBecomes(mode.getIsMode(target), true, masterPeriodic);
+        return BooleanMixing.whenBooleanBecomes(getIsMode(target), true, masterPeriodic);
     }
 
     private EventInput getModeDuring(RobotModeDevice.RobotMode target) {
-        return EventMixing.filterEvent(mode.getIsMode(target), true, masterPeriodic);
+        return EventMixing.filterEvent(getIsMode(target), true, masterPeriodic);
     }
 
     public EventInput getStartAuto() {
@@ -350,7 +406,7 @@ public class DeviceBasedLauncher implements IgneousLauncher {
             throw new IllegalArgumentException("Cannot use a PCM on a cRIO!");
         }
         if (pcmPressureSwitch == null) {
-            pcmPressureSwitch = panel.add(new BooleanControlDevice("PCM Pressure Switch"));
+            pcmPressureSwitch = replayed("PCM Pressure Switch", panel.add(new BooleanControlDevice("PCM Pressure Switch")));
         }
         return pcmPressureSwitch;
     }
@@ -33,6 +33,9 @@ import ccre.log.BootLogger;
 import ccre.log.FileLogger;
 import ccre.log.Logger;
 import ccre.log.NetworkAutologger;
+import ccre.log.TelemetryReader;
+import ccre.log.TelemetryRecorder;
+import ccre.log.TelemetryReplay;
 
 /**
  * The launcher for the DeviceList system.
@@ -44,8 +47,14 @@ public class DeviceListMain {
     /**
      * Start the emulator.
      *
-     * @param args a single-element array containing only the path to the main
-     * Jar file for the emulated program.
+     * To replay a recording, add "replay" and the recording directory to the
+     * arguments. Then "fast" runs the replay as fast as possible without a
+     * window, "output" and a new or empty directory records the outputs of the
+     * replay, and "expect" and a directory compares the outputs to an earlier
+     * recording and exits with a failure status if they differ.
+     *
+     * @param args the path to the main Jar file for the emulated program, the
+     * platform, and any replay options.
      * @throws IOException if the jar file cannot be properly accessed
      * @throws ClassNotFoundException if a reflection error occurs
      * @throws InstantiationException if a reflection error occurs
@@ -54,8 +63,32 @@ public class DeviceListMain {
      * @throws InvocationTargetException if a reflection error occurs
      */
     public static void main(String[] args) throws IOException, ClassNotFoundException, InstantiationException, NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        if (args.length != 2 || !("roboRIO".equals(args[1]) || "cRIO".equals(args[1]))) {
-            System.err.println("Expected arguments: <Igneous-Jar> (roboRIO|cRIO)");
+        File replayDir = null, outputDir = null, expectDir = null;
+        boolean fast = false, badArgs = args.length < 2 || !("roboRIO".equals(args[1]) || "cRIO".equals(args[1]));
+        for (int i = 2; i < args.length && !badArgs; i++) {
+            if ("fast".equals(args[i])) {
+                fast = true;
+            } else if (i + 1 == args.length) {
+                badArgs = true;
+            } else if ("replay".equals(args[i])) {
+                replayDir = new File(args[++i]);
+            } else if ("output".equals(args[i])) {
+                outputDir = new File(args[++i]);
+            } else if ("expect".equals(args[i])) {
+                expectDir = new File(args[++i]);
+            } else {
+                badArgs = true;
+            }
+        }
+        if (badArgs || (replayDir == null && (fast || outputDir != null)) || (expectDir != null && outputDir == null)) {
+            System.err.println("Expected arguments: <Igneous-Jar> (roboRIO|cRIO) [replay <dir> [fast] [output <dir>] [expect <dir>]]");
+            System.exit(-1);
+            return;
+        }
+        String[] existingOutputs = outputDir == null ? null : outputDir.list();
+        if (existingOutputs != null && existingOutputs.length != 0) {
+            // Otherwise, the outputs would be added after an older recording.
+            System.err.println("Replay output directory is not empty: " + outputDir);
             System.exit(-1);
             return;
         }
@@ -75,31 +108,80 @@ public class DeviceListMain {
         @SuppressWarnings("resource")
         URLClassLoader classLoader = new URLClassLoader(new URL[] { jarFile.toURI().toURL() }, DeviceListMain.class.getClassLoader());
         Class<? extends IgneousApplication> asSubclass = classLoader.loadClass(mainClass).asSubclass(IgneousApplication.class);
-        final JFrame main = new JFrame("CCRE DeviceList-Based Emulator for " + (isRoboRIO ? "roboRIO" : "cRIO"));
-        main.setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
-        DeviceBasedLauncher launcher = new DeviceBasedLauncher(isRoboRIO);
-        main.setContentPane(launcher.panel);
-        main.setSize(1024, 768);
-        java.awt.EventQueue.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                main.setVisible(true);
+        TelemetryReplay replay = null;
+        TelemetryRecorder output = null;
+        if (replayDir != null) {
+            output = outputDir == null ? null : new TelemetryRecorder(outputDir, TelemetryRecorder.DEFAULT_SEGMENT_SAMPLES);
+            replay = new TelemetryReplay(new TelemetryReader(replayDir), output, !fast);
+        }
+        DeviceBasedLauncher launcher;
+        try {
+            launcher = new DeviceBasedLauncher(isRoboRIO, replay);
+        } catch (RuntimeException ex) {
+            if (replay != null) {
+                replay.close();
             }
-        });
+            throw ex;
+        }
+        if (!fast) {
+            final JFrame main = new JFrame("CCRE DeviceList-Based Emulator for " + (isRoboRIO ? "roboRIO" : "cRIO"));
+            main.setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
+            main.setContentPane(launcher.panel);
+            main.setSize(1024, 768);
+            java.awt.EventQueue.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    main.setVisible(true);
+                }
+            });
+        }
         NetworkAutologger.register();
         BootLogger.register();
         FileLogger.register();
         IgneousLauncherHolder.setLauncher(launcher);
         Cluck.setupServer();
-        new CluckTCPServer(Cluck.getNode(), 1540).start();
+        if (!fast) {
+            new CluckTCPServer(Cluck.getNode(), 1540).start();
+        }
         try {
             Logger.info("Starting application: " + mainClass);
             asSubclass.getConstructor().newInstance().setupRobot();
             Logger.info("Hello, " + mainClass + "!");
-            launcher.panel.start();
+            if (!fast) {
+                launcher.panel.start();
+            }
         } catch (Throwable thr) {
             Logger.warning("Init failed", thr);
             launcher.panel.setErrorDisplay(thr);
+            if (fast) {
+                System.exit(1);
+            }
+        }
+        if (replay != null) {
+            runReplay(replay, outputDir, expectDir, fast);
+        }
+    }
+
+    private static void runReplay(TelemetryReplay replay, File outputDir, File expectDir, boolean fast) throws IOException {
+        Logger.info("Starting replay.");
+        try {
+            replay.run();
+        } catch (InterruptedException ex) {
+            Logger.warning("Replay interrupted!", ex);
+            System.exit(1);
+        }
+        Logger.info("Replay finished.");
+        if (expectDir != null) {
+            // Allow a real run's outputs to be up to a step away from the replay's.
+            int differing = TelemetryReplay.diff(new TelemetryReader(expectDir), new TelemetryReader(outputDir), 0.0001f, TelemetryReplay.PERIOD * 1000, System.out);
+            if (differing != 0) {
+                Logger.warning("Replay outputs differ on " + differing + " channel(s)!");
+                System.exit(1);
+            }
+            Logger.info("Replay outputs match.");
+        }
+        if (fast) {
+            System.exit(0);
         }
     }
 }